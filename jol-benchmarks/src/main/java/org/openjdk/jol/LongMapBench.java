@@ -0,0 +1,115 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.util.LongLongHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares boxed and primitive long-keyed maps as the heap dump parser uses them:
+ * HPROF object IDs are sparse, aligned longs. Run {@link #main(String...)} to print
+ * the footprint of both maps.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class LongMapBench {
+
+    @Param({"100", "10000", "1000000"})
+    int size;
+
+    private long[] ids;
+
+    private Map<Long, Long> boxed;
+    private LongLongHashMap primitive;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        ids = new long[size];
+        for (int c = 0; c < size; c++) {
+            ids[c] = 0x7_0000_0000L + (r.nextInt() & 0x7FFF_FFFFL) * 8;
+        }
+        boxed = boxedPut();
+        primitive = primitivePut();
+    }
+
+    public static void main(String... args) {
+        for (int size : new int[] {100, 10_000, 1_000_000}) {
+            LongMapBench b = new LongMapBench();
+            b.size = size;
+            b.setup();
+            System.out.println("Size " + size + ":");
+            System.out.println("  Boxed map footprint:     " + GraphLayout.parseInstance(b.boxed).totalSize() + " bytes");
+            System.out.println("  Primitive map footprint: " + GraphLayout.parseInstance(b.primitive).totalSize() + " bytes");
+        }
+    }
+
+    @Benchmark
+    public Map<Long, Long> boxedPut() {
+        Map<Long, Long> m = new HashMap<>();
+        for (long id : ids) {
+            m.put(id, id);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public LongLongHashMap primitivePut() {
+        LongLongHashMap m = new LongLongHashMap();
+        for (long id : ids) {
+            m.put(id, id);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public long boxedGet() {
+        long sum = 0;
+        for (long id : ids) {
+            sum += boxed.get(id);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long primitiveGet() {
+        long sum = 0;
+        for (long id : ids) {
+            sum += primitive.get(id);
+        }
+        return sum;
+    }
+
+}
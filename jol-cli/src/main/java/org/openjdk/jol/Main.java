@@ -42,9 +42,16 @@ public class Main {
         registerOperation(new ObjectFootprint());
         registerOperation(new HeapDumpStats());
         registerOperation(new HeapDumpEstimates());
+        registerOperation(new HeapDumpDiff());
+        registerOperation(new HeapDumpFleet());
+        registerOperation(new HeapDumpRewrite());
         registerOperation(new HeapDumpDuplicates());
+        registerOperation(new HeapDumpArrays());
         registerOperation(new HeapDumpBoxes());
+        registerOperation(new HeapDumpCollections());
         registerOperation(new HeapDumpStrings());
+        registerOperation(new HeapDumpRetained());
+        registerOperation(new HeapDumpPaths());
     }
 
     private static void registerOperation(Operation op) {
@@ -34,15 +34,21 @@ import java.util.Map;
 public class OptionFormatter implements HelpFormatter {
 
     private final String label;
+    private final String arguments;
 
     public OptionFormatter(String label) {
+        this(label, "<classes*>");
+    }
+
+    public OptionFormatter(String label, String arguments) {
         this.label = label;
+        this.arguments = arguments;
     }
 
     @Override
     public String format(Map<String, ? extends OptionDescriptor> options) {
         StringBuilder sb = new StringBuilder();
-        sb.append("Usage: java -jar ... " + label + " [options] <classes*>");
+        sb.append("Usage: java -jar ... " + label + " [options] " + arguments);
         sb.append("\n");
         sb.append(" [opt] means optional argument.\n");
         sb.append(" <opt> means required argument.\n");
@@ -0,0 +1,295 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.operations;
+
+import joptsimple.OptionSet;
+import org.openjdk.jol.datamodel.ModelVM;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.util.ASCIITable;
+import org.openjdk.jol.util.LongObjectHashMap;
+import org.openjdk.jol.util.Multiset;
+import org.openjdk.jol.util.ReportSink;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/**
+ * Measures how much of the arrays are trailing zeros, and what right-sizing them would save.
+ */
+public class HeapDumpArrays extends HeapDumpOperation {
+
+    @Override
+    public String label() {
+        return "heapdump-arrays";
+    }
+
+    @Override
+    public String description() {
+        return "Read a heap dump and look for arrays with unused trailing elements";
+    }
+
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        HotSpotLayouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
+
+        out.println("Heap Dump: " + path);
+
+        ArrayVisitor av = new ArrayVisitor(layouter);
+        HeapDumpReader reader = newReader(path, av);
+        Multiset<ClassData> data = reader.parse();
+
+        out.println();
+        out.println(layouter);
+        out.println();
+
+        long totalSize = 0;
+        long totalCount = 0;
+        for (ClassData cd : data.keys()) {
+            totalSize += layouter.instanceSize(cd) * data.count(cd);
+            totalCount += data.count(cd);
+        }
+
+        out.printf("Heap dump contains %,d objects, %,d bytes in total.%n", totalCount, totalSize);
+        out.println();
+
+        printSampled(reader);
+
+        av.printOut(out, reportSink());
+    }
+
+    /**
+     * Finds the last non-zero byte, scanning backwards a word at a time.
+     *
+     * @param buf contents, between position and limit
+     * @return index of the last non-zero byte, relative to position; or -1, if all bytes are zero
+     */
+    public static int lastNonZero(ByteBuffer buf) {
+        final int start = buf.position();
+        int i = buf.limit();
+
+        // Unaligned tail first, so that the rest is whole words from the start.
+        while (((i - start) & 7) != 0) {
+            i--;
+            if (buf.get(i) != 0) {
+                return i - start;
+            }
+        }
+
+        // Skip the zero runs four words at a time.
+        while (i - start >= 32) {
+            long v = buf.getLong(i - 8) | buf.getLong(i - 16) | buf.getLong(i - 24) | buf.getLong(i - 32);
+            if (v != 0) {
+                break;
+            }
+            i -= 32;
+        }
+
+        final boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        while (i - start >= 8) {
+            i -= 8;
+            long v = buf.getLong(i);
+            if (v != 0) {
+                // The byte at the highest address is the lowest one in big-endian word.
+                int b = bigEndian ?
+                        7 - (Long.numberOfTrailingZeros(v) >>> 3) :
+                        (63 - Long.numberOfLeadingZeros(v)) >>> 3;
+                return i + b - start;
+            }
+        }
+        return -1;
+    }
+
+    // Fill ratio buckets: used elements versus array length.
+    private static final String[] FILL_BUCKETS = {"0%", "<25%", "<50%", "<75%", "<100%", "100%"};
+
+    static int fillBucket(int used, int length) {
+        if (used == 0) {
+            return 0;
+        }
+        if (used == length) {
+            return 5;
+        }
+        return 1 + (int) (4L * used / length);
+    }
+
+    static int lengthBucket(int length) {
+        return 32 - Integer.numberOfLeadingZeros(length);
+    }
+
+    static class Stats {
+        final String name;
+        final String componentType;
+
+        long count;
+        long size;
+        long zero;
+        long trimmable;
+
+        Stats(String name, String componentType) {
+            this.name = name;
+            this.componentType = componentType;
+        }
+    }
+
+    public static class ArrayVisitor extends HeapDumpReader.Visitor {
+        private final HotSpotLayouter layouter;
+
+        private final Map<String, Stats> primStats = new HashMap<>();
+        private final LongObjectHashMap<Stats> objStats = new LongObjectHashMap<>();
+        private final List<Stats> stats = new ArrayList<>();
+
+        // Length bucket -> fill bucket -> number of arrays.
+        private final long[][] histogram = new long[33][FILL_BUCKETS.length];
+        private long emptyArrays;
+
+        public ArrayVisitor(HotSpotLayouter layouter) {
+            this.layouter = layouter;
+        }
+
+        @Override
+        public boolean acceptsInstances(long klassID, String name) {
+            return false;
+        }
+
+        @Override
+        public boolean acceptsObjArrays(long klassID, String name) {
+            String componentType = name.endsWith("[]") ? name.substring(0, name.length() - 2) : "java.lang.Object";
+            Stats s = new Stats(name, componentType);
+            stats.add(s);
+            objStats.put(klassID, s);
+            return true;
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            return true;
+        }
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer contents) {
+            Stats s = primStats.get(componentType);
+            if (s == null) {
+                s = new Stats(componentType + "[]", componentType);
+                stats.add(s);
+                primStats.put(componentType, s);
+            }
+            record(s, count, contents);
+        }
+
+        @Override
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            Stats s = objStats.get(klassID);
+            if (s != null) {
+                record(s, count, contents);
+            }
+        }
+
+        private long size(Stats s, int length) {
+            return layouter.arraySize(s.componentType, length);
+        }
+
+        private void record(Stats s, int count, ByteBuffer contents) {
+            long size = size(s, count);
+            s.count++;
+            s.size += size;
+
+            if (count == 0) {
+                emptyArrays++;
+                return;
+            }
+
+            int elementSize = contents.remaining() / count;
+            int last = lastNonZero(contents);
+            int used = (last < 0) ? 0 : last / elementSize + 1;
+
+            if (used == 0) {
+                s.zero++;
+            }
+            if (used < count) {
+                s.trimmable += size - size(s, used);
+            }
+            histogram[lengthBucket(count)][fillBucket(used, count)]++;
+        }
+
+        public void printOut(PrintStream ps, ReportSink sink) {
+            ASCIITable byClass = new ASCIITable(
+                    sink,
+                    true,
+                    "=== Trailing Zeros by Array Class\n" +
+                    "  ARRAYS: Number of arrays\n" +
+                    "  SIZE: Size of arrays\n" +
+                    "  ALL ZERO: Number of non-empty arrays with only zeros or nulls\n" +
+                    "  TRIMMABLE: Savings when arrays are trimmed to the last non-zero element,\n" +
+                    "       e.g. with ArrayList.trimToSize(), or by right-sizing StringBuilder-s",
+                    "ARRAYS", "SIZE", "ALL ZERO", "TRIMMABLE", "ARRAY CLASS");
+
+            for (Stats s : stats) {
+                if (s.count > 0) {
+                    byClass.addLine(s.name, s.count, s.size, s.zero, s.trimmable);
+                }
+            }
+            byClass.print(ps, 3);
+
+            String[] columns = Arrays.copyOf(FILL_BUCKETS, FILL_BUCKETS.length + 1);
+            columns[FILL_BUCKETS.length] = "LENGTH";
+            ASCIITable fill = new ASCIITable(
+                    sink,
+                    false,
+                    Integer.MAX_VALUE,
+                    "=== Array Length versus Used Length\n" +
+                    "  Number of arrays in every length range, split by the ratio of used elements:\n" +
+                    "  those up to the last non-zero element, to array length.",
+                    columns);
+
+            for (int b = 1; b < histogram.length; b++) {
+                long total = 0;
+                for (long c : histogram[b]) {
+                    total += c;
+                }
+                if (total == 0) {
+                    continue;
+                }
+                long lo = 1L << (b - 1);
+                long hi = (1L << b) - 1;
+                Long[] counts = new Long[FILL_BUCKETS.length];
+                for (int f = 0; f < counts.length; f++) {
+                    counts[f] = histogram[b][f];
+                }
+                fill.addLine(String.format("%,d..%,d", lo, hi), counts);
+            }
+            fill.print(ps, -1);
+
+            ps.printf("There are also %,d empty arrays.%n", emptyArrays);
+            ps.println();
+        }
+    }
+
+}
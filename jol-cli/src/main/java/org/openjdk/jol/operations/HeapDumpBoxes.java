@@ -24,7 +24,7 @@
  */
 package org.openjdk.jol.operations;
 
-import org.openjdk.jol.Operation;
+import joptsimple.OptionSet;
 import org.openjdk.jol.datamodel.ModelVM;
 import org.openjdk.jol.heap.HeapDumpReader;
 import org.openjdk.jol.info.ClassData;
@@ -45,7 +45,7 @@ import static java.lang.System.out;
 /**
  * @author Aleksey Shipilev
  */
-public class HeapDumpBoxes implements Operation {
+public class HeapDumpBoxes extends HeapDumpOperation {
 
     static final Class<?>[] PRIMITIVE_CLASSES = {
             Boolean.class,
@@ -68,14 +68,6 @@ public class HeapDumpBoxes implements Operation {
         return "Read a heap dump and look for duplicate primitive boxes";
     }
 
-    private int getVMVersion() {
-        try {
-            return Integer.parseInt(System.getProperty("java.specification.version"));
-        } catch (Exception e) {
-            return 8;
-        }
-    }
-
     private long manualMarginalCost;
     private long arrayMarginalCost;
 
@@ -101,13 +93,8 @@ public class HeapDumpBoxes implements Operation {
         arrayMarginalCost = arraySize / size;
     }
 
-    public void run(String... args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Expected a hprof file name.");
-            return;
-        }
-        String path = args[0];
-
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
         Layouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
 
         computeMarginalCosts();
@@ -123,7 +110,7 @@ public class HeapDumpBoxes implements Operation {
             mv.add(v);
         }
 
-        HeapDumpReader reader = new HeapDumpReader(new File(path), out, mv);
+        HeapDumpReader reader = newReader(path, mv);
         Multiset<ClassData> data = reader.parse();
 
         out.println();
@@ -133,13 +120,15 @@ public class HeapDumpBoxes implements Operation {
         long totalSize = 0;
         long totalCount = 0;
         for (ClassData cd : data.keys()) {
-            totalSize += layouter.layout(cd).instanceSize() * data.count(cd);
+            totalSize += layouter.instanceSize(cd) * data.count(cd);
             totalCount += data.count(cd);
         }
 
         out.printf("Heap dump contains %,d objects, %,d bytes in total.%n", totalCount, totalSize);
         out.println();
 
+        printSampled(reader);
+
         for (Class<?> cl : PRIMITIVE_CLASSES) {
             BoxVisitor v = visitors.get(cl);
             v.printOut(out);
@@ -157,28 +146,33 @@ public class HeapDumpBoxes implements Operation {
         }
 
         @Override
-        public void visitInstance(long id, long klassID, byte[] bytes, String name) {
+        public boolean acceptsInstances(long klassID, String name) {
+            return clName.equals(name);
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
             if (name.equals(clName)) {
                 switch (clName) {
                     case "java.lang.Byte":
                     case "java.lang.Boolean":
-                        values.add(ByteBuffer.wrap(bytes).get());
+                        values.add(contents.get());
                         break;
                     case "java.lang.Character":
                     case "java.lang.Short":
-                        values.add(ByteBuffer.wrap(bytes).getShort());
+                        values.add(contents.getShort());
                         break;
                     case "java.lang.Integer":
-                        values.add(ByteBuffer.wrap(bytes).getInt());
+                        values.add(contents.getInt());
                         break;
                     case "java.lang.Float":
-                        values.add(ByteBuffer.wrap(bytes).getFloat());
+                        values.add(contents.getFloat());
                         break;
                     case "java.lang.Long":
-                        values.add(ByteBuffer.wrap(bytes).getLong());
+                        values.add(contents.getLong());
                         break;
                     case "java.lang.Double":
-                        values.add(ByteBuffer.wrap(bytes).getDouble());
+                        values.add(contents.getDouble());
                         break;
                     default:
                         throw new IllegalStateException("Unknown class: " + clName);
@@ -203,7 +197,7 @@ public class HeapDumpBoxes implements Operation {
 
             long instanceSize = ClassLayout.parseClass(cl).instanceSize();
 
-            ASCIITable boxesTable = new ASCIITable(
+            ASCIITable boxesTable = newTable(
                     false,
                     Integer.MAX_VALUE,
                     "=== " + clName + " boxes:",
@@ -235,7 +229,7 @@ public class HeapDumpBoxes implements Operation {
 
             boxesTable.print(ps, 2);
 
-            ASCIITable arrayTable = new ASCIITable(
+            ASCIITable arrayTable = newTable(
                     false,
                     Integer.MAX_VALUE,
                     (cl.equals(Integer.class) ?
@@ -277,7 +271,7 @@ public class HeapDumpBoxes implements Operation {
             }
 
             String mapName = "HashMap<" + cl.getSimpleName() + ", " + cl.getSimpleName() + ">";
-            ASCIITable manualTable = new ASCIITable(
+            ASCIITable manualTable = newTable(
                     false,
                     Integer.MAX_VALUE,
                     "=== " + clName + ", savings with manual cache:",
@@ -0,0 +1,541 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.operations;
+
+import joptsimple.OptionSet;
+import org.openjdk.jol.datamodel.ModelVM;
+import org.openjdk.jol.heap.HeapDumpClass;
+import org.openjdk.jol.heap.HeapDumpClasses;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.util.ASCIITable;
+import org.openjdk.jol.util.LongIntHashMap;
+import org.openjdk.jol.util.LongLongHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
+import org.openjdk.jol.util.Multiset;
+import org.openjdk.jol.util.ReportSink;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/**
+ * Looks for empty, singleton and sparse collections, and estimates how much they waste.
+ */
+public class HeapDumpCollections extends HeapDumpOperation {
+
+    @Override
+    public String label() {
+        return "heapdump-collections";
+    }
+
+    @Override
+    public String description() {
+        return "Read a heap dump and look for empty and sparse collections";
+    }
+
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        HotSpotLayouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
+
+        out.println("Heap Dump: " + path);
+
+        CollectionVisitor cv = new CollectionVisitor(layouter);
+        HeapDumpReader reader = newReader(path, cv);
+        Multiset<ClassData> data = reader.parse();
+
+        out.println();
+        out.println(layouter);
+        out.println();
+
+        long totalSize = 0;
+        long totalCount = 0;
+        for (ClassData cd : data.keys()) {
+            totalSize += layouter.instanceSize(cd) * data.count(cd);
+            totalCount += data.count(cd);
+        }
+
+        out.printf("Heap dump contains %,d objects, %,d bytes in total.%n", totalCount, totalSize);
+        out.println();
+
+        printSampled(reader);
+
+        cv.printOut(out, reportSink());
+    }
+
+    /**
+     * Collections we know the internals of.
+     */
+    enum Kind {
+        HASH_MAP(true,
+                "Collections.emptyMap(), or allocate lazily",
+                "Collections.singletonMap(), or Map.of()",
+                "presize, or copy after removals"),
+        CONCURRENT_HASH_MAP(true,
+                "allocate lazily",
+                null,
+                "presize, or copy after removals"),
+        ARRAY_LIST(false,
+                "Collections.emptyList(), or allocate lazily",
+                "Collections.singletonList(), or List.of()",
+                "trimToSize(), or presize"),
+        VECTOR(false,
+                "Collections.emptyList(), or allocate lazily",
+                "Collections.singletonList(), or List.of()",
+                "trimToSize(), or presize"),
+        ARRAY_DEQUE(false,
+                "allocate lazily",
+                null,
+                "presize"),
+        ;
+
+        final boolean map;
+        final String emptyHint;
+        final String singletonHint;
+        final String sparseHint;
+
+        Kind(boolean map, String emptyHint, String singletonHint, String sparseHint) {
+            this.map = map;
+            this.emptyHint = emptyHint;
+            this.singletonHint = singletonHint;
+            this.sparseHint = sparseHint;
+        }
+
+        /**
+         * @return the smallest backing array that fits the given number of elements
+         */
+        long minCapacity(int size) {
+            switch (this) {
+                case HASH_MAP:
+                case CONCURRENT_HASH_MAP:
+                    // Default load factor.
+                    return tableSizeFor((long) Math.ceil(size / 0.75));
+                case ARRAY_DEQUE:
+                    // Deque keeps one slot empty.
+                    return size + 1;
+                default:
+                    return size;
+            }
+        }
+
+        static Kind of(String name) {
+            switch (name) {
+                case "java.util.HashMap":
+                case "java.util.LinkedHashMap":
+                    return HASH_MAP;
+                case "java.util.concurrent.ConcurrentHashMap":
+                    return CONCURRENT_HASH_MAP;
+                case "java.util.ArrayList":
+                    return ARRAY_LIST;
+                case "java.util.Vector":
+                    return VECTOR;
+                case "java.util.ArrayDeque":
+                    return ARRAY_DEQUE;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    static long tableSizeFor(long n) {
+        return (n <= 1) ? 1 : Long.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * Collection class as seen in the dump: field offsets, and the accumulated statistics.
+     */
+    static class Shape {
+        final String name;
+        final Kind kind;
+        final int idSize;
+        final long instanceSize;
+
+        // Index in the visitor shape list, which pending collections refer to.
+        int index = -1;
+
+        // Offsets of interesting fields within the instance dump, -1 if absent.
+        int sizeOff = -1;
+        int arrayOff = -1;
+        int thresholdOff = -1;
+        int loadFactorOff = -1;
+        int counterCellsOff = -1;
+        int headOff = -1;
+        int tailOff = -1;
+
+        long count;
+        long size;
+        long empty;
+        long emptyWaste;
+        long singletons;
+        long singletonWaste;
+        long sparse;
+        long sparseWaste;
+        long unresolved;
+
+        Shape(String name, Kind kind, int idSize, long instanceSize) {
+            this.name = name;
+            this.kind = kind;
+            this.idSize = idSize;
+            this.instanceSize = instanceSize;
+        }
+    }
+
+    public static class CollectionVisitor extends HeapDumpClasses {
+        // Do not keep more than this many collections waiting for their backing arrays.
+        private static final int PENDING_LIMIT = 4 * 1024 * 1024;
+
+        // Remember the lengths of this many recent arrays, in case the collections come after them.
+        private static final int RECENT_LIMIT = 1024 * 1024;
+
+        private final HotSpotLayouter layouter;
+
+        private final LongObjectHashMap<Shape> shapesById = new LongObjectHashMap<>();
+        private final List<Shape> shapes = new ArrayList<>();
+
+        // Shared empty arrays of ArrayList.
+        private final Set<Long> sharedEmpty = new HashSet<>();
+
+        // Backing array ID -> (shape index + 1) << 32 | size, or (tail - head) for ArrayDeque.
+        private final LongLongHashMap pending = new LongLongHashMap();
+
+        // Array ID -> length + 1, for recently seen arrays.
+        private final LongIntHashMap recent = new LongIntHashMap();
+
+        private final Map<Kind, Long> singletonSizes = new EnumMap<>(Kind.class);
+
+        public CollectionVisitor(HotSpotLayouter layouter) {
+            this.layouter = layouter;
+            long list = layouter.instanceSize(ClassData.parseClass(Collections.singletonList(null).getClass()));
+            long map = layouter.instanceSize(ClassData.parseClass(Collections.singletonMap(null, null).getClass()));
+            for (Kind k : Kind.values()) {
+                singletonSizes.put(k, k.map ? map : list);
+            }
+        }
+
+        @Override
+        public void visitClass(HeapDumpClass klass) {
+            super.visitClass(klass);
+            if (klass.name().equals("java.util.ArrayList")) {
+                String[] names = klass.staticRefNames();
+                for (int c = 0; c < names.length; c++) {
+                    if (names[c].equals("EMPTY_ELEMENTDATA") || names[c].equals("DEFAULTCAPACITY_EMPTY_ELEMENTDATA")) {
+                        sharedEmpty.add(klass.staticRefs()[c]);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean acceptsInstances(long klassID, String name) {
+            Kind kind = Kind.of(name);
+            if (kind == null) {
+                return false;
+            }
+            ClassData cd = classData(klassID);
+            if (cd == null) {
+                return false;
+            }
+
+            Shape s = new Shape(name, kind, get(klassID).idSize(), layouter.instanceSize(cd));
+            switch (kind) {
+                case HASH_MAP:
+                    s.sizeOff = fieldOffset(klassID, "size");
+                    s.arrayOff = fieldOffset(klassID, "table");
+                    s.thresholdOff = fieldOffset(klassID, "threshold");
+                    s.loadFactorOff = fieldOffset(klassID, "loadFactor");
+                    break;
+                case CONCURRENT_HASH_MAP:
+                    s.sizeOff = fieldOffset(klassID, "baseCount");
+                    s.arrayOff = fieldOffset(klassID, "table");
+                    s.thresholdOff = fieldOffset(klassID, "sizeCtl");
+                    s.counterCellsOff = fieldOffset(klassID, "counterCells");
+                    break;
+                case ARRAY_LIST:
+                    s.sizeOff = fieldOffset(klassID, "size");
+                    s.arrayOff = fieldOffset(klassID, "elementData");
+                    break;
+                case VECTOR:
+                    s.sizeOff = fieldOffset(klassID, "elementCount");
+                    s.arrayOff = fieldOffset(klassID, "elementData");
+                    break;
+                case ARRAY_DEQUE:
+                    s.arrayOff = fieldOffset(klassID, "elements");
+                    s.headOff = fieldOffset(klassID, "head");
+                    s.tailOff = fieldOffset(klassID, "tail");
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown kind: " + kind);
+            }
+
+            boolean known = (s.arrayOff >= 0) &&
+                    ((kind == Kind.ARRAY_DEQUE) ? (s.headOff >= 0 && s.tailOff >= 0) : (s.sizeOff >= 0)) &&
+                    ((kind != Kind.HASH_MAP) || (s.thresholdOff >= 0 && s.loadFactorOff >= 0)) &&
+                    ((kind != Kind.CONCURRENT_HASH_MAP) || (s.thresholdOff >= 0 && s.counterCellsOff >= 0));
+            if (!known) {
+                // Unfamiliar implementation, skip it.
+                return false;
+            }
+
+            s.index = shapes.size();
+            shapesById.put(klassID, s);
+            shapes.add(s);
+            return true;
+        }
+
+        @Override
+        public boolean acceptsObjArrays(long klassID, String name) {
+            return "java.lang.Object[]".equals(name);
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            return false;
+        }
+
+        private static long readRef(ByteBuffer contents, int off, int idSize) {
+            return (idSize == 4) ? contents.getInt(off) & 0xFFFF_FFFFL : contents.getLong(off);
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            Shape s = shapesById.get(klassID);
+            if (s == null) {
+                return;
+            }
+
+            int base = contents.position();
+            long array = readRef(contents, base + s.arrayOff, s.idSize);
+
+            switch (s.kind) {
+                case HASH_MAP: {
+                    int size = contents.getInt(base + s.sizeOff);
+                    int threshold = contents.getInt(base + s.thresholdOff);
+                    float loadFactor = contents.getFloat(base + s.loadFactorOff);
+                    if (array == 0) {
+                        // Table is not allocated yet, threshold has the initial capacity.
+                        record(s, size, 0);
+                    } else if (loadFactor > 0 && threshold < Integer.MAX_VALUE) {
+                        record(s, size, Math.max(1, tableSizeFor((long) Math.ceil(threshold / loadFactor))));
+                    } else {
+                        s.count++;
+                        s.unresolved++;
+                    }
+                    break;
+                }
+                case CONCURRENT_HASH_MAP: {
+                    long size = contents.getLong(base + s.sizeOff);
+                    int sizeCtl = contents.getInt(base + s.thresholdOff);
+                    long cells = readRef(contents, base + s.counterCellsOff, s.idSize);
+                    long capacity = concurrentCapacity(sizeCtl);
+                    if (cells != 0 || size > Integer.MAX_VALUE) {
+                        // The size is spread over counter cells.
+                        s.count++;
+                        s.unresolved++;
+                    } else if (array == 0) {
+                        record(s, (int) size, 0);
+                    } else if (capacity > 0) {
+                        record(s, (int) size, capacity);
+                    } else {
+                        s.count++;
+                        s.unresolved++;
+                    }
+                    break;
+                }
+                case ARRAY_LIST:
+                case VECTOR: {
+                    int size = contents.getInt(base + s.sizeOff);
+                    if (array == 0 || sharedEmpty.contains(array)) {
+                        record(s, size, 0);
+                    } else {
+                        defer(s, array, size);
+                    }
+                    break;
+                }
+                case ARRAY_DEQUE: {
+                    int head = contents.getInt(base + s.headOff);
+                    int tail = contents.getInt(base + s.tailOff);
+                    if (array == 0) {
+                        record(s, 0, 0);
+                    } else {
+                        defer(s, array, tail - head);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown kind: " + s.kind);
+            }
+        }
+
+        /**
+         * Recovers the table length from sizeCtl, which is (n - n/4) for the allocated table.
+         *
+         * @return table length, or -1 if sizeCtl does not match any
+         */
+        private static long concurrentCapacity(int sizeCtl) {
+            if (sizeCtl <= 0) {
+                // Table is being initialized or resized.
+                return -1;
+            }
+            for (long n = Long.highestOneBit(sizeCtl); n <= 2L * Long.highestOneBit(sizeCtl); n *= 2) {
+                if (n - (n >>> 2) == sizeCtl) {
+                    return n;
+                }
+            }
+            return -1;
+        }
+
+        private void defer(Shape s, long array, int sizeOrDelta) {
+            int length = recent.get(array, 0) - 1;
+            if (length >= 0) {
+                record(s, (s.kind == Kind.ARRAY_DEQUE && sizeOrDelta < 0) ? sizeOrDelta + length : sizeOrDelta, length);
+                return;
+            }
+            if (pending.size() >= PENDING_LIMIT || pending.containsKey(array)) {
+                s.count++;
+                s.unresolved++;
+                return;
+            }
+            pending.put(array, ((long) (s.index + 1) << 32) | (sizeOrDelta & 0xFFFF_FFFFL));
+        }
+
+        @Override
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            long v = pending.remove(id);
+            if (v == 0) {
+                if (recent.size() >= RECENT_LIMIT) {
+                    recent.clear();
+                }
+                recent.put(id, count + 1);
+                return;
+            }
+            Shape s = shapes.get((int) (v >>> 32) - 1);
+            int size = (int) v;
+            if (s.kind == Kind.ARRAY_DEQUE && size < 0) {
+                size += count;
+            }
+            record(s, size, count);
+        }
+
+        private long arraySize(long capacity) {
+            return layouter.arraySize("java.lang.Object", capacity);
+        }
+
+        /**
+         * @param capacity backing array length, 0 if array is not allocated or shared
+         */
+        private void record(Shape s, int size, long capacity) {
+            long footprint = s.instanceSize + ((capacity > 0) ? arraySize(capacity) : 0);
+            s.count++;
+            s.size += footprint;
+
+            if (size == 0) {
+                s.empty++;
+                s.emptyWaste += footprint;
+            } else if (size == 1 && s.kind.singletonHint != null) {
+                s.singletons++;
+                s.singletonWaste += Math.max(0, footprint - singletonSizes.get(s.kind));
+            } else if (size > 1) {
+                long min = s.kind.minCapacity(size);
+                if (capacity >= 4 * min) {
+                    s.sparse++;
+                    s.sparseWaste += arraySize(capacity) - arraySize(min);
+                }
+            }
+        }
+
+        public void printOut(PrintStream ps, ReportSink sink) {
+            // Aggregate the same classes from different class loaders.
+            Map<String, Shape> byName = new TreeMap<>();
+            for (Shape s : shapes) {
+                Shape t = byName.computeIfAbsent(s.name, n -> new Shape(n, s.kind, s.idSize, s.instanceSize));
+                t.count += s.count;
+                t.size += s.size;
+                t.empty += s.empty;
+                t.emptyWaste += s.emptyWaste;
+                t.singletons += s.singletons;
+                t.singletonWaste += s.singletonWaste;
+                t.sparse += s.sparse;
+                t.sparseWaste += s.sparseWaste;
+                t.unresolved += s.unresolved;
+            }
+
+            // Collections still waiting for their arrays have not seen them after themselves.
+            for (long array : pending.keys()) {
+                Shape s = shapes.get((int) (pending.get(array) >>> 32) - 1);
+                Shape t = byName.get(s.name);
+                t.count++;
+                t.unresolved++;
+            }
+
+            ASCIITable summary = new ASCIITable(
+                    sink,
+                    true,
+                    "=== Collection Overhead\n" +
+                    "  INSTANCES: Number of collection instances\n" +
+                    "  SIZE: Size of collection instances and their backing arrays, excluding the entries\n" +
+                    "  EMPTY, SINGLETON, SPARSE: Number of collections with no elements, one element,\n" +
+                    "       or the backing array at least 4x larger than needed\n" +
+                    "  WASTED: Savings from compact alternatives for these collections",
+                    "INSTANCES", "SIZE", "EMPTY", "SINGLETON", "SPARSE", "WASTED", "CLASS");
+
+            ASCIITable patterns = new ASCIITable(
+                    sink,
+                    true,
+                    "=== Wasteful Collections\n" +
+                    "  INSTANCES: Number of collection instances\n" +
+                    "  WASTED: Savings from the suggested alternative",
+                    "INSTANCES", "WASTED", "PATTERN");
+
+            long unresolved = 0;
+            for (Shape t : byName.values()) {
+                summary.addLine(t.name, t.count, t.size, t.empty, t.singletons, t.sparse,
+                        t.emptyWaste + t.singletonWaste + t.sparseWaste);
+                if (t.empty > 0) {
+                    patterns.addLine(t.name + ", empty: " + t.kind.emptyHint, t.empty, t.emptyWaste);
+                }
+                if (t.singletons > 0) {
+                    patterns.addLine(t.name + ", singleton: " + t.kind.singletonHint, t.singletons, t.singletonWaste);
+                }
+                if (t.sparse > 0) {
+                    patterns.addLine(t.name + ", sparse: " + t.kind.sparseHint, t.sparse, t.sparseWaste);
+                }
+                unresolved += t.unresolved;
+            }
+
+            summary.print(ps, 5);
+            patterns.print(ps, 1);
+
+            if (unresolved > 0) {
+                ps.printf("Capacity or size is not known for %,d collections: backing arrays came long before%n", unresolved);
+                ps.println("the collections in the dump, or sizes are spread over counter cells. These are counted in INSTANCES only.");
+                ps.println();
+            }
+        }
+    }
+
+}
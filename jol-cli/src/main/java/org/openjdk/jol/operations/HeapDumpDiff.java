@@ -0,0 +1,371 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.operations;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.openjdk.jol.datamodel.ModelVM;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.layouters.Layouter;
+import org.openjdk.jol.util.ASCIITable;
+import org.openjdk.jol.util.BigIntArray;
+import org.openjdk.jol.util.BigLongArray;
+import org.openjdk.jol.util.LongIntHashMap;
+import org.openjdk.jol.util.Multiset;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.System.out;
+
+/**
+ * Compares the class histograms of two heap dumps, and optionally finds the objects that survived between them.
+ */
+public class HeapDumpDiff extends HeapDumpOperation {
+
+    @Override
+    public String label() {
+        return "heapdump-diff";
+    }
+
+    @Override
+    public String description() {
+        return "Read two heap dumps and show what grew between them";
+    }
+
+    @Override
+    protected String arguments() {
+        return "<before heap dump> <after heap dump>";
+    }
+
+    private OptionSpec<Void> optSurvivors;
+
+    @Override
+    protected void addOptions(OptionParser parser) {
+        optSurvivors = parser.accepts("survivors", "Match object IDs between the dumps, and show which objects " +
+                "survived from the first dump. Takes memory for all object IDs.");
+    }
+
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        runWith(set, Collections.singletonList(path));
+    }
+
+    @Override
+    protected void runWith(OptionSet set, List<String> paths) throws Exception {
+        if (paths.size() != 2) {
+            System.err.println("Expected two heap dumps: before and after.");
+            return;
+        }
+
+        if (set.has(optSurvivors) && isSampling()) {
+            out.println("Sampling is not supported for matching the surviving objects, ignoring --survivors.");
+            out.println();
+        }
+        final boolean survivors = set.has(optSurvivors) && !isSampling();
+
+        Layouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
+
+        out.println("Heap Dump (before): " + paths.get(0));
+        out.println("Heap Dump (after):  " + paths.get(1));
+        out.println();
+        out.println("Reading both dumps concurrently...");
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<Snapshot> fBefore = pool.submit(() -> read(paths.get(0), survivors));
+        Future<Snapshot> fAfter = pool.submit(() -> read(paths.get(1), survivors));
+        try {
+            Snapshot before = get(fBefore);
+            Snapshot after = get(fAfter);
+            print(paths, layouter, before, after);
+        } finally {
+            pool.shutdownNow();
+            close(fBefore);
+            close(fAfter);
+        }
+    }
+
+    private void print(List<String> paths, Layouter layouter, Snapshot before, Snapshot after) {
+        out.printf("Read %s in %.2f seconds%n", paths.get(0), before.seconds);
+        out.printf("Read %s in %.2f seconds%n", paths.get(1), after.seconds);
+
+        out.println();
+        out.println(layouter);
+        out.println();
+
+        Map<String, long[]> histoBefore = classHistogram(layouter, before.data);
+        Map<String, long[]> histoAfter = classHistogram(layouter, after.data);
+
+        out.printf("Before: %,d objects, %,d bytes in total.%n", total(histoBefore, 0), total(histoBefore, 1));
+        out.printf("After:  %,d objects, %,d bytes in total.%n", total(histoAfter, 0), total(histoAfter, 1));
+        out.println();
+
+        if (before.sampled || after.sampled) {
+            out.println("The dumps were sampled: the counts are estimates.");
+            out.println();
+        }
+
+        ASCIITable table = newTable(
+                true,
+                "=== Class Histogram Growth\n" +
+                "  INSTANCES, SIZE: Number and size of instances in the second dump\n" +
+                "  INST DELTA, SIZE DELTA: Change since the first dump\n" +
+                "  CLASS (GROWTH): Class, and relative size change",
+                "INSTANCES", "INST DELTA", "SIZE", "SIZE DELTA", "CLASS (GROWTH)");
+
+        for (Map.Entry<String, long[]> e : growth(histoBefore, histoAfter).entrySet()) {
+            long[] d = e.getValue();
+            long sizeBefore = d[2] - d[3];
+            String growth;
+            if (sizeBefore == 0) {
+                growth = "new";
+            } else if (d[2] == 0) {
+                growth = "gone";
+            } else {
+                growth = String.format("%+.1f%%", 100D * d[3] / sizeBefore);
+            }
+            table.addLine(e.getKey() + " (" + growth + ")", d[0], d[1], d[2], d[3]);
+        }
+
+        table.print(out, 3);
+        table.print(out, 1);
+
+        if (before.ids != null && after.ids != null) {
+            printSurvivors(before, after, histoBefore, histoAfter);
+        }
+    }
+
+    /**
+     * Compares the class histograms.
+     *
+     * @return class name -> { instances, instances delta, size, size delta } for the changed classes, sorted by name
+     */
+    static SortedMap<String, long[]> growth(Map<String, long[]> histoBefore, Map<String, long[]> histoAfter) {
+        Set<String> names = new TreeSet<>(histoBefore.keySet());
+        names.addAll(histoAfter.keySet());
+        SortedMap<String, long[]> r = new TreeMap<>();
+        long[] none = new long[2];
+        for (String name : names) {
+            long[] b = histoBefore.getOrDefault(name, none);
+            long[] a = histoAfter.getOrDefault(name, none);
+            if (a[0] != b[0] || a[1] != b[1]) {
+                r.put(name, new long[]{a[0], a[0] - b[0], a[1], a[1] - b[1]});
+            }
+        }
+        return r;
+    }
+
+    private Snapshot read(String path, boolean ids) throws Exception {
+        long time = System.nanoTime();
+        IdVisitor visitor = ids ? new IdVisitor() : null;
+        try {
+            HeapDumpReader reader = newReader(path, null, visitor);
+            Multiset<ClassData> data = reader.parse();
+            return new Snapshot(data, visitor, reader.isSampled(), (System.nanoTime() - time) / 1e9);
+        } catch (Exception e) {
+            if (visitor != null) {
+                visitor.close();
+            }
+            throw e;
+        }
+    }
+
+    private static Snapshot get(Future<Snapshot> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof Exception) ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Releases the snapshot, if the read has finished. Cancelled reads have nothing to release.
+     */
+    private static void close(Future<Snapshot> f) {
+        f.cancel(true);
+        if (f.isDone() && !f.isCancelled()) {
+            try {
+                f.get().close();
+            } catch (InterruptedException | ExecutionException e) {
+                // Failed read, nothing to release.
+            }
+        }
+    }
+
+    private static long total(Map<String, long[]> histo, int idx) {
+        long sum = 0;
+        for (long[] v : histo.values()) {
+            sum += v[idx];
+        }
+        return sum;
+    }
+
+    private void printSurvivors(Snapshot before, Snapshot after,
+                                Map<String, long[]> histoBefore, Map<String, long[]> histoAfter) {
+        IdVisitor a = after.ids;
+        long[] survived = survived(before.ids, a);
+
+        ASCIITable table = newTable(
+                true,
+                "=== Surviving Objects\n" +
+                "  Objects with the same ID in both dumps. IDs are addresses: objects that moving\n" +
+                "  collectors have relocated are not matched, and are counted as DIED and NEW.\n" +
+                "  BEFORE, AFTER: Number of instances in the dumps\n" +
+                "  SURVIVED: Number of instances from the first dump that are still in the second\n" +
+                "  NEW: Number of instances in the second dump that were not in the first",
+                "BEFORE", "AFTER", "SURVIVED", "DIED", "NEW", "CLASS");
+
+        for (int c = 0; c < survived.length; c++) {
+            if (survived[c] == 0) {
+                continue;
+            }
+            String name = a.names.get(c);
+            long cBefore = histoBefore.containsKey(name) ? histoBefore.get(name)[0] : 0;
+            long cAfter = histoAfter.containsKey(name) ? histoAfter.get(name)[0] : 0;
+            table.addLine(name, cBefore, cAfter, survived[c], Math.max(0, cBefore - survived[c]), cAfter - survived[c]);
+        }
+
+        table.print(out, 2);
+    }
+
+    /**
+     * Matches the object IDs between the dumps.
+     *
+     * @return number of surviving objects, indexed by the class index of the second dump
+     */
+    static long[] survived(IdVisitor b, IdVisitor a) {
+        // Addresses are reused: the object survives only if it has the same class.
+        int[] classMap = new int[b.names.size()];
+        for (int c = 0; c < classMap.length; c++) {
+            classMap[c] = a.nameIdx.getOrDefault(b.names.get(c), -1);
+        }
+
+        LongIntHashMap beforeClasses = new LongIntHashMap((int) Math.min(b.ids.size(), Integer.MAX_VALUE / 4));
+        for (long i = 0; i < b.ids.size(); i++) {
+            beforeClasses.put(b.ids.get(i), classMap[b.classes.get(i)] + 1);
+        }
+
+        long[] survived = new long[a.names.size()];
+        for (long i = 0; i < a.ids.size(); i++) {
+            int cls = a.classes.get(i);
+            if (beforeClasses.get(a.ids.get(i), 0) == cls + 1) {
+                survived[cls]++;
+            }
+        }
+        return survived;
+    }
+
+    private static class Snapshot implements Closeable {
+        final Multiset<ClassData> data;
+        final IdVisitor ids;
+        final boolean sampled;
+        final double seconds;
+
+        Snapshot(Multiset<ClassData> data, IdVisitor ids, boolean sampled, double seconds) {
+            this.data = data;
+            this.ids = ids;
+            this.sampled = sampled;
+            this.seconds = seconds;
+        }
+
+        @Override
+        public void close() {
+            if (ids != null) {
+                ids.close();
+            }
+        }
+    }
+
+    /**
+     * Records the IDs of all objects, along with their class names.
+     */
+    static class IdVisitor extends HeapDumpReader.Visitor implements Closeable {
+        final BigLongArray ids = new BigLongArray();
+        final BigIntArray classes = new BigIntArray();
+        final List<String> names = new ArrayList<>();
+
+        final Map<String, Integer> nameIdx = new HashMap<>();
+        private final LongIntHashMap klassIdx = new LongIntHashMap();
+
+        @Override
+        public void close() {
+            ids.close();
+            classes.close();
+        }
+
+        private int index(String name) {
+            return nameIdx.computeIfAbsent(name, n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+        }
+
+        @Override
+        public boolean acceptsInstances(long klassID, String name) {
+            klassIdx.put(klassID, index(name) + 1);
+            return true;
+        }
+
+        @Override
+        public boolean acceptsObjArrays(long klassID, String name) {
+            klassIdx.put(klassID, index(name) + 1);
+            return true;
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            index(componentType + "[]");
+            return true;
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            ids.add(id);
+            classes.add(klassIdx.get(klassID) - 1);
+        }
+
+        @Override
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            ids.add(id);
+            classes.add(klassIdx.get(klassID) - 1);
+        }
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer contents) {
+            ids.add(id);
+            classes.add(index(componentType + "[]"));
+        }
+    }
+
+}
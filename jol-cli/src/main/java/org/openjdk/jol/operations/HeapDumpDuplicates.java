@@ -24,16 +24,26 @@
  */
 package org.openjdk.jol.operations;
 
-import org.openjdk.jol.Operation;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 import org.openjdk.jol.datamodel.ModelVM;
+import org.openjdk.jol.heap.HeapDumpContents;
+import org.openjdk.jol.heap.HeapDumpException;
 import org.openjdk.jol.heap.HeapDumpReader;
 import org.openjdk.jol.info.ClassData;
 import org.openjdk.jol.layouters.HotSpotLayouter;
 import org.openjdk.jol.layouters.Layouter;
 import org.openjdk.jol.util.ASCIITable;
+import org.openjdk.jol.util.BigIntArray;
+import org.openjdk.jol.util.BigLongArray;
+import org.openjdk.jol.util.ExternalCounter;
 import org.openjdk.jol.util.Multiset;
+import org.openjdk.jol.util.Murmur3;
+import org.openjdk.jol.util.ReportSink;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import static java.lang.System.out;
@@ -41,7 +51,7 @@ import static java.lang.System.out;
 /**
  * @author Aleksey Shipilev
  */
-public class HeapDumpDuplicates implements Operation {
+public class HeapDumpDuplicates extends HeapDumpOperation {
 
     @Override
     public String label() {
@@ -53,22 +63,18 @@ public class HeapDumpDuplicates implements Operation {
         return "Read a heap dump and look for probable duplicates";
     }
 
-    private int getVMVersion() {
-        try {
-            return Integer.parseInt(System.getProperty("java.specification.version"));
-        } catch (Exception e) {
-            return 8;
-        }
-    }
+    private OptionSpec<Long> optSpill;
 
-    public void run(String... args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Expected a hprof file name.");
-            return;
-        }
-        String path = args[0];
+    @Override
+    protected void addOptions(OptionParser parser) {
+        optSpill = parser.accepts("spill", "Count the contents on disk, keeping at most this many MB in memory. " +
+                        "For the dumps with more distinct contents than the memory allows.")
+                .withRequiredArg().ofType(Long.class).describedAs("MB");
+    }
 
-        Layouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        HotSpotLayouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
 
         out.println("Heap Dump: " + path);
 
@@ -80,7 +86,17 @@ public class HeapDumpDuplicates implements Operation {
         ArrayContentsVisitor av = new ArrayContentsVisitor();
         mv.add(av);
 
-        HeapDumpReader reader = new HeapDumpReader(new File(path), out, mv);
+        boolean spilling = set.has(optSpill);
+        if (spilling) {
+            // Split the budget between instances and arrays.
+            long budget = set.valueOf(optSpill) * 1024 * 1024 / 2;
+            iv.setSpill(new ExternalCounter(4, 1, budget));
+            av.setSpill(new ExternalCounter(4, 1, budget));
+        }
+
+        HeapDumpReader reader = newReader(path, mv);
+        iv.setReader(reader);
+        av.setReader(reader);
         Multiset<ClassData> data = reader.parse();
 
         out.println();
@@ -90,19 +106,46 @@ public class HeapDumpDuplicates implements Operation {
         long totalSize = 0;
         long totalCount = 0;
         for (ClassData cd : data.keys()) {
-            totalSize += layouter.layout(cd).instanceSize() * data.count(cd);
+            totalSize += layouter.instanceSize(cd) * data.count(cd);
             totalCount += data.count(cd);
         }
 
         out.printf("Heap dump contains %,d objects, %,d bytes in total.%n", totalCount, totalSize);
         out.println();
 
+        printSampled(reader);
+
+        File file = new File(path);
+        if (spilling) {
+            int spills = iv.loadSpilled() + av.loadSpilled();
+            iv.discardLog();
+            av.discardLog();
+            out.printf("Aggregated the contents with %,d run files on disk.%n", spills);
+            out.println("Duplicates are matched by 128-bit content hashes, without verification.");
+        } else if (HeapDumpContents.supports(file)) {
+            long candidates = 0;
+            long collisions = 0;
+            try (HeapDumpContents contents = new HeapDumpContents(file, reader.idSize())) {
+                for (ContentsVisitor v : Arrays.asList(iv, av)) {
+                    v.verify(contents);
+                    candidates += v.candidates;
+                    collisions += v.collisions;
+                }
+            }
+            out.printf("Verified %,d duplicates against the dump contents, found %,d hash collisions.%n", candidates, collisions);
+        } else {
+            iv.discardLog();
+            av.discardLog();
+            out.println("Compressed dump: duplicates are matched by 128-bit content hashes, without verification.");
+        }
+        out.println();
+
         List<ExcessRow> excesses = new ArrayList<>();
-        excesses.addAll(iv.compute(layouter));
-        excesses.addAll(av.compute(layouter));
+        excesses.addAll(iv.compute(reportSink(), layouter));
+        excesses.addAll(av.compute(reportSink(), layouter));
         excesses.sort((c1, c2) -> Long.compare(c2.excessV, c1.excessV));
 
-        ASCIITable table = new ASCIITable(
+        ASCIITable table = newTable(
                 true,
                 "=== Potential Duplication Candidates",
                 "DUPS", "SUM SIZE", "CLASS");
@@ -119,30 +162,46 @@ public class HeapDumpDuplicates implements Operation {
 
     public static class InstanceContents {
         private final long contents;
+        private final long contents2;
         private final boolean contentsIsHash;
         private final boolean contentsIsZero;
         private final byte contentsLen;
 
         public InstanceContents(byte[] contents) {
-            if (contents.length <= 8) {
+            this(ByteBuffer.wrap(contents));
+        }
+
+        public InstanceContents(ByteBuffer contents) {
+            this.contentsIsZero = byteArrayZero(contents);
+            if (contents.remaining() <= 8) {
                 this.contents = bytePrefixToLong(contents);
-                this.contentsIsZero = byteArrayZero(contents);
+                this.contents2 = 0;
                 this.contentsIsHash = false;
-                this.contentsLen = (byte) contents.length;
+                this.contentsLen = (byte) contents.remaining();
             } else {
-                this.contents = byteArrayHashCode(contents);
-                this.contentsIsZero = byteArrayZero(contents);
+                Murmur3 m = new Murmur3();
+                m.hash(contents, 0);
+                this.contents = m.h1();
+                this.contents2 = m.h2();
                 this.contentsIsHash = true;
                 this.contentsLen = -1;
             }
         }
 
+        private InstanceContents(ContentTable table, int entry) {
+            this.contents = table.keys1[entry];
+            this.contents2 = table.keys2[entry];
+            this.contentsIsHash = !table.isSmall(entry);
+            this.contentsIsZero = table.isZero(entry);
+            this.contentsLen = contentsIsHash ? -1 : (byte) table.lengths[entry];
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             InstanceContents that = (InstanceContents) o;
-            return contents == that.contents && contentsIsHash == that.contentsIsHash;
+            return contents == that.contents && contents2 == that.contents2 && contentsIsHash == that.contentsIsHash;
         }
 
         @Override
@@ -185,29 +244,47 @@ public class HeapDumpDuplicates implements Operation {
         private final int length;
         private final String componentType;
         private final long contents;
+        private final long contents2;
         private final boolean contentsIsHash;
         private final boolean contentsIsZero;
 
         public HashedArrayContents(int length, String componentType, byte[] contents) {
+            this(length, componentType, ByteBuffer.wrap(contents));
+        }
+
+        public HashedArrayContents(int length, String componentType, ByteBuffer contents) {
             this.length = length;
             this.componentType = componentType;
-            if (contents.length <= 8) {
+            this.contentsIsZero = byteArrayZero(contents);
+            if (contents.remaining() <= 8) {
                 this.contents = bytePrefixToLong(contents);
+                this.contents2 = 0;
                 this.contentsIsHash = false;
-                this.contentsIsZero = byteArrayZero(contents);
             } else {
-                this.contents = byteArrayHashCode(contents);
+                Murmur3 m = new Murmur3();
+                m.hash(contents, 0);
+                this.contents = m.h1();
+                this.contents2 = m.h2();
                 this.contentsIsHash = true;
-                this.contentsIsZero = byteArrayZero(contents);
             }
         }
 
+        private HashedArrayContents(String componentType, ContentTable table, int entry) {
+            this.length = table.lengths[entry];
+            this.componentType = componentType;
+            this.contents = table.keys1[entry];
+            this.contents2 = table.keys2[entry];
+            this.contentsIsHash = !table.isSmall(entry);
+            this.contentsIsZero = table.isZero(entry);
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             HashedArrayContents that = (HashedArrayContents) o;
-            return length == that.length && contents == that.contents && contentsIsHash == that.contentsIsHash && componentType.equals(that.componentType);
+            return length == that.length && contents == that.contents && contents2 == that.contents2 &&
+                    contentsIsHash == that.contentsIsHash && componentType.equals(that.componentType);
         }
 
         @Override
@@ -216,22 +293,7 @@ public class HeapDumpDuplicates implements Operation {
         }
 
         private int unitSize() {
-            switch (componentType) {
-                case "boolean":
-                case "byte":
-                    return 1;
-                case "short":
-                case "char":
-                    return 2;
-                case "int":
-                case "float":
-                    return 4;
-                case "double":
-                case "long":
-                    return 8;
-                default:
-                    return 4;
-            }
+            return HeapDumpDuplicates.unitSize(componentType);
         }
 
         public String value() {
@@ -310,62 +372,264 @@ public class HeapDumpDuplicates implements Operation {
         }
     }
 
-    private static long bytePrefixToLong(byte[] src) {
-        int limit = Math.min(src.length, 8);
+    private static long bytePrefixToLong(ByteBuffer src) {
+        int limit = Math.min(src.limit(), src.position() + 8);
         long res = 0;
-        for (int c = 0; c < limit; c++) {
-            res = (res << 8) + (src[c] & 0xFF);
+        for (int c = src.position(); c < limit; c++) {
+            res = (res << 8) + (src.get(c) & 0xFF);
         }
         return res;
     }
 
-    public static long byteArrayHashCode(byte[] src) {
-        long result = 1;
-        for (byte e : src) {
-            result = 31 * result + e;
+    private static int unitSize(String componentType) {
+        switch (componentType) {
+            case "boolean":
+            case "byte":
+                return 1;
+            case "short":
+            case "char":
+                return 2;
+            case "int":
+            case "float":
+                return 4;
+            case "double":
+            case "long":
+                return 8;
+            default:
+                return 4;
         }
-        return result;
     }
 
     public static boolean byteArrayZero(byte[] src) {
-        for (byte e : src) {
-            if (e != 0) {
+        return byteArrayZero(ByteBuffer.wrap(src));
+    }
+
+    public static boolean byteArrayZero(ByteBuffer src) {
+        int c = src.position();
+        int limit = src.limit();
+        for (; c + 8 <= limit; c += 8) {
+            if (src.getLong(c) != 0) {
+                return false;
+            }
+        }
+        for (; c < limit; c++) {
+            if (src.get(c) != 0) {
                 return false;
             }
         }
         return true;
     }
 
-    public static class InstanceVisitor extends HeapDumpReader.Visitor {
-        private final Map<String, Multiset<InstanceContents>> contents = new HashMap<>();
-        private final Map<String, ClassData> classDatas = new HashMap<>();
+    /**
+     * Counts the distinct contents in primitive tables, one table per class or array type.
+     * Contents up to 8 bytes are kept as is, larger contents are keyed by their 128-bit hash.
+     * The offsets and lengths of the hashed duplicates are logged, so that they can be verified against
+     * the first instance with the same hash after the dump is read.
+     */
+    public abstract static class ContentsVisitor extends HeapDumpReader.Visitor {
+        // Tables drop the rare contents once they have this many entries.
+        private static final int TABLE_SIZE = 1_000_000;
+
+        private final Map<String, ContentTable> tables = new HashMap<>();
+        private final List<ContentTable> tableList = new ArrayList<>();
+        private final Murmur3 murmur = new Murmur3();
+        private long k1;
+        private long k2;
+
+        private ExternalCounter spill;
+        private final long[] record = new long[5];
+
+        private HeapDumpReader reader;
+        private BigLongArray logOffsets = new BigLongArray();
+        private BigLongArray logFirsts = new BigLongArray();
+        private BigIntArray logTables = new BigIntArray();
+        private BigIntArray logLengths = new BigIntArray();
+
+        long candidates;
+        long collisions;
+
+        /**
+         * Remembers the reader, to log the record offsets of duplicates.
+         * Without the reader, duplicates cannot be verified.
+         */
+        public void setReader(HeapDumpReader reader) {
+            this.reader = reader;
+        }
 
-        @Override
-        public void visitInstance(long id, long klassID, byte[] bytes, String name) {
-            Multiset<InstanceContents> conts = contents.get(name);
-            if (conts == null) {
-                conts = new Multiset<>();
-                contents.put(name, conts);
+        ContentTable table(String name) {
+            ContentTable table = tables.get(name);
+            if (table == null) {
+                table = new ContentTable(tableList.size());
+                tables.put(name, table);
+                tableList.add(table);
+            }
+            return table;
+        }
+
+        void add(ContentTable table, ByteBuffer contents, int length) {
+            byte flags = key(contents);
+            if (byteArrayZero(contents)) {
+                flags |= ContentTable.ZERO;
+            }
+            long offset = (reader != null) ? reader.recordOffset() : -1;
+
+            if (spill != null) {
+                record[0] = table.id;
+                record[1] = k1;
+                record[2] = k2;
+                record[3] = ((long) length << 8) | flags;
+                record[4] = offset;
+                try {
+                    spill.add(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+
+            int entry = table.add(k1, k2, length, flags, offset, 1);
+            if (table.counts[entry] > 1 && !table.isSmall(entry) && reader != null) {
+                logOffsets.add(offset);
+                logFirsts.add(table.offsets[entry]);
+                logTables.add(table.id);
+                logLengths.add(length);
+            }
+            if (table.size >= TABLE_SIZE) {
+                table.pruneForSize(TABLE_SIZE);
+            }
+        }
+
+        /**
+         * Computes the key for the contents into {@link #k1} and {@link #k2}.
+         *
+         * @return {@link ContentTable#SMALL} if the key is the contents itself, 0 if it is the hash
+         */
+        private byte key(ByteBuffer contents) {
+            if (contents.remaining() <= 8) {
+                k1 = bytePrefixToLong(contents);
+                k2 = 0;
+                return ContentTable.SMALL;
             } else {
-                conts.pruneForSize(1_000_000);
+                murmur.hash(contents, 0);
+                k1 = murmur.h1();
+                k2 = murmur.h2();
+                return 0;
             }
-            conts.add(new InstanceContents(bytes));
         }
 
-        @Override
-        public void visitClassData(String name, ClassData cd) {
-            classDatas.put(name, cd);
+        /**
+         * Counts the contents on disk, instead of the in-memory tables. Tables get only
+         * the duplicated contents after {@link #loadSpilled()}, and duplicates are not verified.
+         */
+        public void setSpill(ExternalCounter spill) {
+            this.spill = spill;
+        }
+
+        /**
+         * Aggregates the spilled contents, and puts the duplicated ones into the tables.
+         *
+         * @return number of run files that were written
+         */
+        public int loadSpilled() throws IOException {
+            int spills = spill.spills();
+            spill.aggregate((key, count, values) -> {
+                if (count > 1) {
+                    ContentTable table = tableList.get((int) key[0]);
+                    table.add(key[1], key[2], (int) (key[3] >>> 8), (byte) key[3], values[0], count);
+                }
+            });
+            spill.close();
+            spill = null;
+            return spills;
+        }
+
+        /**
+         * Reads the logged duplicates from the dump again, and compares them with the first
+         * instance that has the same hash. Hash collisions are not counted as duplicates.
+         * The duplicates are grouped by their first instance, so that every first instance is read once,
+         * and the reads go in dump order.
+         */
+        public void verify(HeapDumpContents contents) throws IOException, HeapDumpException {
+            long size = logOffsets.size();
+            if (size >= Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many duplicates to verify: " + size);
+            }
+
+            // Rank the first instances by their offsets.
+            BigLongArray firsts = new BigLongArray();
+            for (long c = 0; c < size; c++) {
+                firsts.add(logFirsts.get(c));
+            }
+            firsts.sort();
+            long ranks = 0;
+            for (long i = 0; i < firsts.size(); i++) {
+                long first = firsts.get(i);
+                if (ranks == 0 || firsts.get(ranks - 1) != first) {
+                    firsts.set(ranks++, first);
+                }
+            }
+            firsts.resize(ranks);
+
+            // Log is in dump order already: sorting by rank, then by log index keeps the duplicates in dump order.
+            BigLongArray order = new BigLongArray();
+            for (long c = 0; c < size; c++) {
+                order.add((firsts.binarySearch(logFirsts.get(c)) << 32) | c);
+            }
+            order.sort();
+
+            long lastRank = -1;
+            byte[] first = null;
+
+            for (long i = 0; i < size; i++) {
+                long o = order.get(i);
+                long rank = o >>> 32;
+                long c = o & 0xFFFFFFFFL;
+
+                long offset = logOffsets.get(c);
+                long firstOffset = firsts.get(rank);
+                ContentTable table = tableList.get(logTables.get(c));
+                int length = logLengths.get(c);
+
+                byte[] bytes = contents.read(offset);
+                byte small = key(ByteBuffer.wrap(bytes));
+                int entry = table.find(k1, k2, length, small);
+
+                // Skip the duplicates of entries that were pruned since.
+                if (entry < 0 || table.offsets[entry] != firstOffset) {
+                    continue;
+                }
+
+                if (rank != lastRank) {
+                    lastRank = rank;
+                    first = contents.read(firstOffset);
+                }
+
+                candidates++;
+                if (!Arrays.equals(bytes, first)) {
+                    table.counts[entry]--;
+                    collisions++;
+                }
+            }
+            firsts.close();
+            order.close();
+            discardLog();
         }
 
-        public List<ExcessRow> compute(Layouter layouter) {
+        public void discardLog() {
+            logOffsets.close();
+            logFirsts.close();
+            logTables.close();
+            logLengths.close();
+        }
+
+        List<ExcessRow> compute(ReportSink sink, String suffix, Sizer sizer, Valuer valuer) {
             List<ExcessRow> excesses = new ArrayList<>();
-            for (String name : contents.keySet()) {
-                Multiset<InstanceContents> ics = contents.get(name);
+            for (String name : tables.keySet()) {
+                ContentTable table = tables.get(name);
 
                 boolean hasExcess = false;
-                for (InstanceContents ba : ics.keys()) {
-                    long count = ics.count(ba);
-                    if (count > 1) {
+                for (int e = 0; e < table.size; e++) {
+                    if (table.counts[e] > 1) {
                         hasExcess = true;
                         break;
                     }
@@ -375,16 +639,10 @@ public class HeapDumpDuplicates implements Operation {
                     continue;
                 }
 
-                ClassData cd = classDatas.get(name);
-                if (cd == null) {
-                    throw new IllegalStateException("Internal error: no class data for " + name);
-                }
-
-                long intSize = layouter.layout(cd).instanceSize();
-
-                ASCIITable table = new ASCIITable(
+                ASCIITable t = new ASCIITable(
+                        sink,
                         true,
-                        "=== " + cd.name() + " Potential Duplicates\n" +
+                        "=== " + header(name) + suffix + " Potential Duplicates\n" +
                         "  DUPS: Number of instances with same data\n" +
                         "  SIZE: Total size taken by duplicate instances",
                         "DUPS", "SIZE", "VALUE");
@@ -392,11 +650,11 @@ public class HeapDumpDuplicates implements Operation {
                 long excessV = 0;
                 long excessC = 0;
 
-                for (InstanceContents ic : ics.keys()) {
-                    long count = ics.count(ic) - 1;
+                for (int e = 0; e < table.size; e++) {
+                    long count = table.counts[e] - 1;
                     if (count > 0) {
-                        long sumV = count * intSize;
-                        table.addLine(ic.value(), count, sumV);
+                        long sumV = count * sizer.size(name, table, e);
+                        t.addLine(valuer.value(name, table, e), count, sumV);
                         excessV += sumV;
                         excessC += count;
                     }
@@ -404,75 +662,214 @@ public class HeapDumpDuplicates implements Operation {
 
                 StringWriter sw = new StringWriter();
                 PrintWriter pw = new PrintWriter(sw);
-                table.print(pw, 1);
-                excesses.add(new ExcessRow(excessC, excessV, cd.name(), sw.toString()));
+                t.print(pw, 1);
+                excesses.add(new ExcessRow(excessC, excessV, header(name) + suffix, sw.toString()));
             }
             return excesses;
         }
+
+        String header(String name) {
+            return name;
+        }
+
+        interface Sizer {
+            long size(String name, ContentTable table, int entry);
+        }
+
+        interface Valuer {
+            String value(String name, ContentTable table, int entry);
+        }
     }
 
-    public static class ArrayContentsVisitor extends HeapDumpReader.Visitor {
-        private final Map<String, Multiset<HashedArrayContents>> arrayContents = new HashMap<>();
+    public static class InstanceVisitor extends ContentsVisitor {
+        private final Map<String, ClassData> classDatas = new HashMap<>();
 
         @Override
-        public void visitArray(long id, String componentType, int count, byte[] bytes) {
-            Multiset<HashedArrayContents> conts = arrayContents.get(componentType);
-            if (conts == null) {
-                conts = new Multiset<>();
-                arrayContents.put(componentType, conts);
-            } else {
-                conts.pruneForSize(1_000_000);
+        public void visitInstance(long id, long klassID, ByteBuffer bytes, String name) {
+            add(table(name), bytes, bytes.remaining());
+        }
+
+        @Override
+        public void visitClassData(String name, ClassData cd) {
+            classDatas.put(name, cd);
+        }
+
+        public List<ExcessRow> compute(ReportSink sink, Layouter layouter) {
+            Map<String, Long> sizes = new HashMap<>();
+            return compute(sink, "",
+                    (name, table, e) -> sizes.computeIfAbsent(name, n -> layouter.instanceSize(classData(n))),
+                    (name, table, e) -> new InstanceContents(table, e).value());
+        }
+
+        private ClassData classData(String name) {
+            ClassData cd = classDatas.get(name);
+            if (cd == null) {
+                throw new IllegalStateException("Internal error: no class data for " + name);
             }
-            conts.add(new HashedArrayContents(count, componentType, bytes));
+            return cd;
         }
 
-        public List<ExcessRow> compute(Layouter layouter) {
-            List<ExcessRow> excesses = new ArrayList<>();
-            for (String componentType : arrayContents.keySet()) {
-                Multiset<HashedArrayContents> hacs = arrayContents.get(componentType);
+        @Override
+        String header(String name) {
+            return classData(name).name();
+        }
+    }
 
-                boolean hasExcess = false;
-                for (HashedArrayContents ba : hacs.keys()) {
-                    long count = hacs.count(ba);
-                    if (count > 1) {
-                        hasExcess = true;
-                        break;
-                    }
+    public static class ArrayContentsVisitor extends ContentsVisitor {
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer bytes) {
+            add(table(componentType), bytes, count);
+        }
+
+        public List<ExcessRow> compute(ReportSink sink, HotSpotLayouter layouter) {
+            return compute(sink, "[]",
+                    (componentType, table, e) -> layouter.arraySize(componentType, table.lengths[e]),
+                    (componentType, table, e) -> new HashedArrayContents(componentType, table, e).value());
+        }
+    }
+
+    /**
+     * Multiset of contents, kept in primitive arrays. Entries are in the order of insertion,
+     * found through the open-addressing index.
+     */
+    static final class ContentTable {
+        static final byte SMALL = 1;
+        static final byte ZERO = 2;
+
+        final int id;
+
+        long[] keys1 = new long[16];
+        long[] keys2 = new long[16];
+        int[] lengths = new int[16];
+        byte[] flags = new byte[16];
+        long[] counts = new long[16];
+        long[] offsets = new long[16];
+        int size;
+
+        // Entry index plus one, zero marks the free slot.
+        private int[] index = new int[32];
+
+        ContentTable(int id) {
+            this.id = id;
+        }
+
+        boolean isSmall(int entry) {
+            return (flags[entry] & SMALL) != 0;
+        }
+
+        boolean isZero(int entry) {
+            return (flags[entry] & ZERO) != 0;
+        }
+
+        private static int hash(long k1, long k2, int length) {
+            long h = (k1 ^ Long.rotateLeft(k2, 17) ^ length) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private int slot(long k1, long k2, int length, byte small) {
+            int mask = index.length - 1;
+            int i = hash(k1, k2, length) & mask;
+            int e;
+            while ((e = index[i]) != 0) {
+                e--;
+                if (keys1[e] == k1 && keys2[e] == k2 && lengths[e] == length && (flags[e] & SMALL) == small) {
+                    break;
                 }
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
 
-                if (!hasExcess) {
-                    continue;
+        int find(long k1, long k2, int length, byte flags) {
+            return index[slot(k1, k2, length, (byte) (flags & SMALL))] - 1;
+        }
+
+        /**
+         * @return entry index
+         */
+        int add(long k1, long k2, int length, byte flags, long offset, long count) {
+            int i = slot(k1, k2, length, (byte) (flags & SMALL));
+            if (index[i] != 0) {
+                int e = index[i] - 1;
+                counts[e] += count;
+                return e;
+            }
+
+            if (size == keys1.length) {
+                int cap = size * 2;
+                keys1 = Arrays.copyOf(keys1, cap);
+                keys2 = Arrays.copyOf(keys2, cap);
+                lengths = Arrays.copyOf(lengths, cap);
+                this.flags = Arrays.copyOf(this.flags, cap);
+                counts = Arrays.copyOf(counts, cap);
+                offsets = Arrays.copyOf(offsets, cap);
+            }
+            int e = size++;
+            keys1[e] = k1;
+            keys2[e] = k2;
+            lengths[e] = length;
+            this.flags[e] = flags;
+            counts[e] = count;
+            offsets[e] = offset;
+            index[i] = e + 1;
+
+            if (size * 2 > index.length) {
+                rehash(index.length * 2);
+            }
+            return e;
+        }
+
+        private void rehash(int capacity) {
+            index = new int[capacity];
+            int mask = capacity - 1;
+            for (int e = 0; e < size; e++) {
+                int i = hash(keys1[e], keys2[e], lengths[e]) & mask;
+                while (index[i] != 0) {
+                    i = (i + 1) & mask;
                 }
+                index[i] = e + 1;
+            }
+        }
 
-                ASCIITable table = new ASCIITable(
-                        true,
-                        "=== " + componentType + "[] Potential Duplicates\n" +
-                        "  DUPS: Number of instances with same data\n" +
-                        "  SIZE: Total size taken by duplicate instances",
-                        "DUPS", "SIZE", "VALUE");
+        /**
+         * Drops the rare contents when the table grows too large, like {@link Multiset#pruneForSize(int)}.
+         */
+        void pruneForSize(int targetSize) {
+            if (size < targetSize) {
+                return;
+            }
 
-                long excessV = 0;
-                long excessC = 0;
-                for (HashedArrayContents hac : hacs.keys()) {
-                    long count = hacs.count(hac) - 1;
-                    if (count > 0) {
-                        ClassData cd = new ClassData(componentType + "[]", componentType, hac.length);
-                        long intSize = layouter.layout(cd).instanceSize();
-                        long sumV = count * intSize;
-                        table.addLine(hac.value(), count, sumV);
-                        excessV += sumV;
-                        excessC += count;
+            long min = Long.MAX_VALUE;
+            for (int e = 0; e < size; e++) {
+                min = Math.min(min, counts[e]);
+            }
+            // All entries have at least the minimal count: the first pass drops the ones with it.
+            long limit = min + 1;
+
+            while (size * 2 > targetSize) {
+                int newSize = 0;
+                for (int e = 0; e < size; e++) {
+                    if (counts[e] >= limit) {
+                        keys1[newSize] = keys1[e];
+                        keys2[newSize] = keys2[e];
+                        lengths[newSize] = lengths[e];
+                        flags[newSize] = flags[e];
+                        counts[newSize] = counts[e];
+                        offsets[newSize] = offsets[e];
+                        newSize++;
                     }
                 }
+                size = newSize;
+                limit *= 2;
+            }
 
-                StringWriter sw = new StringWriter();
-                PrintWriter pw = new PrintWriter(sw);
-                table.print(pw, 1);
-                excesses.add(new ExcessRow(excessC, excessV, componentType + "[]", sw.toString()));
+            int cap = 32;
+            while (cap < size * 2) {
+                cap <<= 1;
             }
-            return excesses;
+            rehash(cap);
         }
-
     }
 
     private static class ExcessRow {
@@ -24,28 +24,34 @@
  */
 package org.openjdk.jol.operations;
 
-import org.openjdk.jol.Operation;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 import org.openjdk.jol.datamodel.*;
 import org.openjdk.jol.heap.HeapDumpReader;
 import org.openjdk.jol.info.ClassData;
-import org.openjdk.jol.layouters.HotSpotLayouter;
-import org.openjdk.jol.layouters.Layouter;
+import org.openjdk.jol.info.FootprintEstimator;
+import org.openjdk.jol.info.FootprintEstimator.Config;
 import org.openjdk.jol.layouters.RawLayouter;
+import org.openjdk.jol.util.ASCIITable;
 import org.openjdk.jol.util.MathUtil;
 import org.openjdk.jol.util.Multiset;
 
-import java.io.File;
+import java.util.List;
+import java.util.Map;
 
 import static java.lang.System.out;
 
 /**
  * @author Aleksey Shipilev
  */
-public class HeapDumpEstimates implements Operation {
+public class HeapDumpEstimates extends HeapDumpOperation {
 
     private static final long G = 1024L*1024*1024;
     private static final long MAX = Long.MAX_VALUE;
 
+    private OptionSpec<String> optConfigs;
+
     @Override
     public String label() {
         return "heapdump-estimates";
@@ -56,12 +62,25 @@ public class HeapDumpEstimates implements Operation {
         return "Read a heap dump and estimate footprint in different VM modes";
     }
 
-    public void run(String... args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Expected a hprof file name.");
-            return;
+    @Override
+    protected void addOptions(OptionParser parser) {
+        optConfigs = parser.accepts("configs", "Only estimate these VM configurations, e.g. jdk17-coops,jdk25-coops-align16,lilliput1-coops. " +
+                        "Configurations are jdk<N>-32, jdk<N>-nocoops, jdk<N>-coops[-align<A>], lilliput<V>-nocoops, lilliput<V>-coops[-align<A>].")
+                .withRequiredArg().ofType(String.class).describedAs("name,...");
+    }
+
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        // Parse the configurations before reading the dump: fail fast on typos.
+        List<Config> selected = null;
+        if (set.has(optConfigs)) {
+            try {
+                selected = Config.parseAll(set.valueOf(optConfigs));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
         }
-        String path = args[0];
 
         out.println("Heap Dump: " + path);
         out.println();
@@ -71,16 +90,23 @@ public class HeapDumpEstimates implements Operation {
         out.println("'Upgrade From' is the relative footprint change against the same mode in other JDKs.");
         out.println();
 
-        HeapDumpReader reader = new HeapDumpReader(new File(path), out, null);
+        HeapDumpReader reader = newReader(path, null);
         Multiset<ClassData> data = reader.parse();
 
         long rawSize = 0;
         long rawCount = 0;
+        long rawSizeError = 0;
+        long rawCountError = 0;
         {
             RawLayouter rawLayouter = new RawLayouter(new Model32());
+            Multiset<ClassData> errors = reader.errors();
             for (ClassData cd : data.keys()) {
-                rawSize += rawLayouter.layout(cd).instanceSize() * data.count(cd);
+                long size = rawLayouter.instanceSize(cd);
+                rawSize += size * data.count(cd);
                 rawCount += data.count(cd);
+                // Summing up per-class intervals is conservative: it assumes class counts are fully correlated.
+                rawSizeError += size * errors.count(cd);
+                rawCountError += errors.count(cd);
             }
         }
 
@@ -92,6 +118,34 @@ public class HeapDumpEstimates implements Operation {
         out.printf("%10s,     %s%n", String.format("%.2f", 1F * rawSize / rawCount), "Average data per object");
         out.println();
 
+        if (reader.isSampled()) {
+            out.println("The dump was sampled: all footprints below are estimates. Totals are within, with 95% confidence:");
+            out.println();
+            out.printf("%10s,     %s%n", "+/- " + MathUtil.inProperUnits(rawCountError), "Total objects");
+            out.printf("%10s,     %s%n", "+/- " + MathUtil.inProperUnits(rawSizeError), "Total data size");
+            out.println();
+        }
+
+        // All configurations are estimated concurrently over the same histogram.
+        FootprintEstimator estimator = new FootprintEstimator(data);
+
+        if (selected != null) {
+            out.println("=== Selected VM Configurations");
+            out.println();
+            out.printf("%10s, %10s,     %s%n",
+                    "Footprint", "Overhead", "Description"
+            );
+            Map<Config, Long> estimates = estimator.estimate(selected);
+            for (Map.Entry<Config, Long> e : estimates.entrySet()) {
+                printLine(e.getKey().name(), rawSize, e.getKey().maxHeap(), e.getValue());
+            }
+            out.println();
+            report(reader, rawCount, rawSize, rawCountError, rawSizeError, estimates);
+            return;
+        }
+
+        Map<Config, Long> sizes = estimator.estimate(FootprintEstimator.defaultConfigs());
+
         final String msg_noCoops =          "no comp refs (>32 GB max heap)";
         final String msg_noCoops_ccp =      "no comp refs, but comp class ptrs (>32 GB max heap)";
         final String msg_coops =            "comp refs (<32 GB max heap)";
@@ -103,11 +157,11 @@ public class HeapDumpEstimates implements Operation {
         out.println("=== 32-bit JDK, All versions");
         out.println();
 
-        long jdk8_32 =  computeWithLayouter(data, new HotSpotLayouter(new Model32(), 8));
-        long jdk11_32 = computeWithLayouter(data, new HotSpotLayouter(new Model32(), 11));
-        long jdk17_32 = computeWithLayouter(data, new HotSpotLayouter(new Model32(), 17));
-        long jdk21_32 = computeWithLayouter(data, new HotSpotLayouter(new Model32(), 21));
-        long jdk25_32 = computeWithLayouter(data, new HotSpotLayouter(new Model32(), 25));
+        long jdk8_32 =  sizes.get(Config.parse("jdk8-32"));
+        long jdk11_32 = sizes.get(Config.parse("jdk11-32"));
+        long jdk17_32 = sizes.get(Config.parse("jdk17-32"));
+        long jdk21_32 = sizes.get(Config.parse("jdk21-32"));
+        long jdk25_32 = sizes.get(Config.parse("jdk25-32"));
         {
             out.printf("%10s, %10s,     %s%n",
                     "Footprint", "Overhead", "Description"
@@ -124,12 +178,12 @@ public class HeapDumpEstimates implements Operation {
         out.println("=== 64-bit JDK 8, 11: Basic");
         out.println();
 
-        long jdk8_noCoops =         computeWithLayouter(data, new HotSpotLayouter(new Model64(false, false, 8), 8));
-        long jdk8_coops =           computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,   8), 8));
-        long jdk8_coops_align16 =   computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  16), 8));
-        long jdk8_coops_align32 =   computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  32), 8));
-        long jdk8_coops_align64 =   computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  64), 8));
-        long jdk8_coops_align128 =  computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true, 128), 8));
+        long jdk8_noCoops =         sizes.get(Config.parse("jdk8-nocoops"));
+        long jdk8_coops =           sizes.get(Config.parse("jdk8-coops"));
+        long jdk8_coops_align16 =   sizes.get(Config.parse("jdk8-coops-align16"));
+        long jdk8_coops_align32 =   sizes.get(Config.parse("jdk8-coops-align32"));
+        long jdk8_coops_align64 =   sizes.get(Config.parse("jdk8-coops-align64"));
+        long jdk8_coops_align128 =  sizes.get(Config.parse("jdk8-coops-align128"));
 
         {
             out.printf("%10s, %10s, %10s,     %s%n",
@@ -145,12 +199,12 @@ public class HeapDumpEstimates implements Operation {
         }
         out.println();
 
-        long jdk17_noCoops =        computeWithLayouter(data, new HotSpotLayouter(new Model64(false, true,  8), 17));
-        long jdk17_coops =          computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,   8), 17));
-        long jdk17_coops_align16 =  computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  16), 17));
-        long jdk17_coops_align32 =  computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  32), 17));
-        long jdk17_coops_align64 =  computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  64), 17));
-        long jdk17_coops_align128 = computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true, 128), 17));
+        long jdk17_noCoops =        sizes.get(Config.parse("jdk17-nocoops"));
+        long jdk17_coops =          sizes.get(Config.parse("jdk17-coops"));
+        long jdk17_coops_align16 =  sizes.get(Config.parse("jdk17-coops-align16"));
+        long jdk17_coops_align32 =  sizes.get(Config.parse("jdk17-coops-align32"));
+        long jdk17_coops_align64 =  sizes.get(Config.parse("jdk17-coops-align64"));
+        long jdk17_coops_align128 = sizes.get(Config.parse("jdk17-coops-align128"));
 
         out.println("=== 64-bit JDK 17, 21: Better Compressed Class Pointers, New Field Layouter");
         out.println();
@@ -170,12 +224,12 @@ public class HeapDumpEstimates implements Operation {
         }
         out.println();
 
-        long jdk25_noCoops =        computeWithLayouter(data, new HotSpotLayouter(new Model64(false, true,  8), 25));
-        long jdk25_coops =          computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,   8), 25));
-        long jdk25_coops_align16 =  computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  16), 25));
-        long jdk25_coops_align32 =  computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  32), 25));
-        long jdk25_coops_align64 =  computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true,  64), 25));
-        long jdk25_coops_align128 = computeWithLayouter(data, new HotSpotLayouter(new Model64(true, true, 128), 25));
+        long jdk25_noCoops =        sizes.get(Config.parse("jdk25-nocoops"));
+        long jdk25_coops =          sizes.get(Config.parse("jdk25-coops"));
+        long jdk25_coops_align16 =  sizes.get(Config.parse("jdk25-coops-align16"));
+        long jdk25_coops_align32 =  sizes.get(Config.parse("jdk25-coops-align32"));
+        long jdk25_coops_align64 =  sizes.get(Config.parse("jdk25-coops-align64"));
+        long jdk25_coops_align128 = sizes.get(Config.parse("jdk25-coops-align128"));
 
         out.println("=== 64-bit JDK 25: Array Base Improvements, Reference Fields Ordering");
         out.println();
@@ -198,12 +252,12 @@ public class HeapDumpEstimates implements Operation {
         out.println("=== 64-bit JDK 25: -XX:+UseCompactObjectHeaders (Lilliput 1, 64-bit headers)");
         out.println();
 
-        long jdkLilliput_noCoops =          computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(false,  8,   1), 99));
-        long jdkLilliput_coops =            computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true,   8,   1), 99));
-        long jdkLilliput_coops_align16 =    computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true,  16,   1), 99));
-        long jdkLilliput_coops_align32 =    computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true,  32,   1), 99));
-        long jdkLilliput_coops_align64 =    computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true,  64,   1), 99));
-        long jdkLilliput_coops_align128 =   computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true, 128,   1), 99));
+        long jdkLilliput_noCoops =          sizes.get(Config.parse("lilliput1-nocoops"));
+        long jdkLilliput_coops =            sizes.get(Config.parse("lilliput1-coops"));
+        long jdkLilliput_coops_align16 =    sizes.get(Config.parse("lilliput1-coops-align16"));
+        long jdkLilliput_coops_align32 =    sizes.get(Config.parse("lilliput1-coops-align32"));
+        long jdkLilliput_coops_align64 =    sizes.get(Config.parse("lilliput1-coops-align64"));
+        long jdkLilliput_coops_align128 =   sizes.get(Config.parse("lilliput1-coops-align128"));
 
         {
             out.printf("%36s %s%n", "", "Upgrade From:");
@@ -223,12 +277,12 @@ public class HeapDumpEstimates implements Operation {
         out.println("=== 64-bit Future JDK: -XX:+UseCompactObjectHeaders (Lilliput 2, 32-bit headers)");
         out.println();
 
-        long jdkLilliput32_noCoops =        computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(false,  8,   2), 99));
-        long jdkLilliput32_coops =          computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true,   8,   2), 99));
-        long jdkLilliput32_coops_align16 =  computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true,  16,   2), 99));
-        long jdkLilliput32_coops_align32 =  computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true,  32,   2), 99));
-        long jdkLilliput32_coops_align64 =  computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true,  64,   2), 99));
-        long jdkLilliput32_coops_align128 = computeWithLayouter(data, new HotSpotLayouter(new Model64_Lilliput(true, 128,   2), 99));
+        long jdkLilliput32_noCoops =        sizes.get(Config.parse("lilliput2-nocoops"));
+        long jdkLilliput32_coops =          sizes.get(Config.parse("lilliput2-coops"));
+        long jdkLilliput32_coops_align16 =  sizes.get(Config.parse("lilliput2-coops-align16"));
+        long jdkLilliput32_coops_align32 =  sizes.get(Config.parse("lilliput2-coops-align32"));
+        long jdkLilliput32_coops_align64 =  sizes.get(Config.parse("lilliput2-coops-align64"));
+        long jdkLilliput32_coops_align128 = sizes.get(Config.parse("lilliput2-coops-align128"));
 
         {
             out.printf("%36s %s%n", "", "Upgrade From:");
@@ -244,6 +298,36 @@ public class HeapDumpEstimates implements Operation {
             printLine(msg_coops_align128, rawSize,  512*G,  jdkLilliput32_coops_align128, jdkLilliput32_coops, jdk8_coops_align128,   jdk17_coops_align128,   jdk25_coops_align128, jdkLilliput_coops_align128);
         }
         out.println();
+
+        report(reader, rawCount, rawSize, rawCountError, rawSizeError, sizes);
+    }
+
+    /**
+     * Writes the raw numbers behind the text tables to the machine-readable report, if requested.
+     * Configurations that cannot fit the data in their max heap are left out.
+     */
+    private void report(HeapDumpReader reader, long rawCount, long rawSize, long rawCountError, long rawSizeError,
+                        Map<Config, Long> estimates) {
+        if (reportSink() == null) {
+            return;
+        }
+
+        ASCIITable stats = newTable(false, Integer.MAX_VALUE, "=== Overall Statistics", "VALUE", "STATISTIC");
+        stats.addLine("Total objects", rawCount);
+        stats.addLine("Total data size", rawSize);
+        if (reader.isSampled()) {
+            stats.addLine("Total objects, +/-", rawCountError);
+            stats.addLine("Total data size, +/-", rawSizeError);
+        }
+        stats.print(out, -1);
+
+        ASCIITable footprints = newTable(false, Integer.MAX_VALUE, "=== Footprint Estimates", "FOOTPRINT", "CONFIG");
+        for (Map.Entry<Config, Long> e : estimates.entrySet()) {
+            if (rawSize < e.getKey().maxHeap()) {
+                footprints.addLine(e.getKey().name(), e.getValue());
+            }
+        }
+        footprints.print(out, -1);
     }
 
     private static void printLine(String msg, long rawSize, long cap, long value, long... bases) {
@@ -261,12 +345,4 @@ public class HeapDumpEstimates implements Operation {
         out.printf("    %s%n", msg);
     }
 
-    private static long computeWithLayouter(Multiset<ClassData> data, Layouter layouter) {
-        long size = 0L;
-        for (ClassData cd : data.keys()) {
-            size += layouter.layout(cd).instanceSize() * data.count(cd);
-        }
-        return size;
-    }
-
 }
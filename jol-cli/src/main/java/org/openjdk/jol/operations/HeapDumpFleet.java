@@ -0,0 +1,297 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.operations;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.openjdk.jol.datamodel.ModelVM;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.layouters.Layouter;
+import org.openjdk.jol.util.ASCIITable;
+import org.openjdk.jol.util.Multiset;
+
+import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.System.out;
+
+/**
+ * Reads many heap dumps on a bounded worker pool, and aggregates their class histograms.
+ */
+public class HeapDumpFleet extends HeapDumpOperation {
+
+    /**
+     * Heap reserved for every concurrent reader: its string and class tables, and the histogram.
+     */
+    static final long READER_MEMORY = 256L * 1024 * 1024;
+
+    @Override
+    public String label() {
+        return "heapdump-fleet";
+    }
+
+    @Override
+    public String description() {
+        return "Read many heap dumps in parallel, and aggregate their class histograms";
+    }
+
+    @Override
+    protected String arguments() {
+        return "<heap dump or directory>+";
+    }
+
+    private OptionSpec<Integer> optThreads;
+    private OptionSpec<Void> optPerDump;
+
+    @Override
+    protected void addOptions(OptionParser parser) {
+        optThreads = parser.accepts("threads", "Number of dumps to read concurrently. " +
+                        "Defaults to the number of CPUs, bounded by the available heap.")
+                .withRequiredArg().ofType(Integer.class).describedAs("N");
+        optPerDump = parser.accepts("per-dump", "Also print the class histogram of every dump.");
+    }
+
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        runWith(set, Collections.singletonList(path));
+    }
+
+    @Override
+    protected void runWith(OptionSet set, List<String> paths) throws Exception {
+        int threads = set.has(optThreads) ? set.valueOf(optThreads) : defaultThreads();
+        threads = Math.max(1, Math.min(threads, paths.size()));
+
+        out.printf("Reading %d heap dumps with %d threads...%n", paths.size(), threads);
+        out.println();
+
+        Result[] results = readAll(paths, threads);
+
+        Layouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
+
+        out.println();
+        out.println(layouter);
+        out.println();
+
+        boolean sampled = false;
+        for (Result r : results) {
+            sampled |= (r != null && r.sampled);
+        }
+        if (sampled) {
+            out.println("Some dumps were sampled: the counts are estimates.");
+            out.println();
+        }
+
+        if (set.has(optPerDump)) {
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    continue;
+                }
+                ASCIITable table = newTable(
+                        true,
+                        Integer.getInteger("printFirst", 30),
+                        "=== Class Histogram: " + paths.get(i),
+                        "INSTANCES", "SUM SIZE", "CLASS");
+                for (Map.Entry<String, long[]> e : results[i].histogram.entrySet()) {
+                    table.addLine(e.getKey(), e.getValue()[0], e.getValue()[1]);
+                }
+                table.print(out, 1);
+            }
+        }
+
+        ASCIITable dumps = newTable(
+                true,
+                "=== Heap Dumps\n" +
+                "  INSTANCES, SUM SIZE: Number and size of all instances in the dump\n" +
+                "  CLASSES: Number of classes with instances\n" +
+                "  TOP SIZE: Size of the largest class, which is shown in brackets",
+                "INSTANCES", "SUM SIZE", "CLASSES", "TOP SIZE", "DUMP (TOP CLASS)");
+
+        int read = 0;
+        for (int i = 0; i < results.length; i++) {
+            Result r = results[i];
+            if (r == null) {
+                continue;
+            }
+            read++;
+            long instances = 0;
+            long size = 0;
+            long classes = 0;
+            long topSize = -1;
+            String top = "";
+            for (Map.Entry<String, long[]> e : r.histogram.entrySet()) {
+                long[] v = e.getValue();
+                if (v[0] > 0) {
+                    classes++;
+                }
+                instances += v[0];
+                size += v[1];
+                if (v[1] > topSize) {
+                    topSize = v[1];
+                    top = e.getKey();
+                }
+            }
+            dumps.addLine(paths.get(i) + " (" + top + ")", instances, size, classes, Math.max(0, topSize));
+        }
+
+        dumps.print(out, 1);
+
+        ASCIITable table = newTable(
+                true,
+                Integer.getInteger("printFirst", 30),
+                "=== Fleet Class Histogram\n" +
+                "  Aggregated over " + read + " dumps, arrays of all lengths are together.\n" +
+                "  DUMPS: Number of dumps that have the instances of the class\n" +
+                "  INSTANCES, SUM SIZE: Total number and size of instances in all dumps\n" +
+                "  MAX SIZE: Largest size of the class instances in a single dump",
+                "DUMPS", "INSTANCES", "SUM SIZE", "MAX SIZE", "CLASS");
+
+        for (Map.Entry<String, long[]> e : aggregate(results).entrySet()) {
+            long[] f = e.getValue();
+            table.addLine(e.getKey(), f[0], f[1], f[2], f[3]);
+        }
+
+        table.print(out, 2);
+        table.print(out, 0);
+    }
+
+    /**
+     * Aggregates the class histograms of the dumps that were read.
+     *
+     * @return class name -> { dumps, instances, size, max size in a dump }
+     */
+    static Map<String, long[]> aggregate(Result[] results) {
+        Map<String, long[]> fleet = new HashMap<>();
+        for (Result r : results) {
+            if (r == null) {
+                continue;
+            }
+            for (Map.Entry<String, long[]> e : r.histogram.entrySet()) {
+                long[] v = e.getValue();
+                if (v[0] == 0) {
+                    // Loaded class without instances.
+                    continue;
+                }
+                long[] f = fleet.computeIfAbsent(e.getKey(), k -> new long[4]);
+                f[0]++;
+                f[1] += v[0];
+                f[2] += v[1];
+                f[3] = Math.max(f[3], v[1]);
+            }
+        }
+        return fleet;
+    }
+
+    private static int defaultThreads() {
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        return defaultThreads(rt.availableProcessors(), free);
+    }
+
+    /**
+     * @return number of CPUs, bounded by the heap available for the readers
+     */
+    static int defaultThreads(int cpus, long freeMemory) {
+        long byMemory = Math.max(1, freeMemory / READER_MEMORY);
+        return (int) Math.min(cpus, byMemory);
+    }
+
+    /**
+     * @return number of threads every reader digests its segments with
+     */
+    static int digestThreads(int cpus, int threads) {
+        return Math.max(1, cpus / threads);
+    }
+
+    /**
+     * Reads the dumps on the pool of the given size.
+     *
+     * @return the results in the order of paths, null for the dumps that failed to read
+     */
+    Result[] readAll(List<String> paths, int threads) throws InterruptedException {
+        // Dumps are parsed on separate threads, readers and visitors share nothing.
+        // The JVM, and the parser code it has compiled, is shared by all dumps.
+        // Readers digest their segments in parallel too, so split the CPUs between them.
+        int digestThreads = digestThreads(Runtime.getRuntime().availableProcessors(), threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Result> cs = new ExecutorCompletionService<>(pool);
+        Result[] results = new Result[paths.size()];
+        Map<Future<Result>, Integer> indexes = new HashMap<>();
+        try {
+            for (int i = 0; i < paths.size(); i++) {
+                String path = paths.get(i);
+                indexes.put(cs.submit(() -> read(path, digestThreads)), i);
+            }
+            for (int done = 1; done <= paths.size(); done++) {
+                Future<Result> f = cs.take();
+                int idx = indexes.get(f);
+                try {
+                    results[idx] = f.get();
+                    out.printf("[%d/%d] Read %s in %.2f seconds%n", done, paths.size(), paths.get(idx), results[idx].seconds);
+                } catch (ExecutionException e) {
+                    // One broken dump should not fail the whole fleet.
+                    out.printf("[%d/%d] Failed to read %s: %s%n", done, paths.size(), paths.get(idx), e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    private Result read(String path, int digestThreads) throws Exception {
+        long time = System.nanoTime();
+        HeapDumpReader reader = newReader(path, null, null);
+        reader.setThreads(digestThreads);
+        Multiset<ClassData> data = reader.parse();
+
+        // Reduce the dump to the compact histogram right away, and let the reader go.
+        Layouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
+        return new Result(classHistogram(layouter, data), reader.isSampled(), (System.nanoTime() - time) / 1e9);
+    }
+
+    static class Result {
+        /**
+         * Class name -> { instances, size }
+         */
+        final Map<String, long[]> histogram;
+        final boolean sampled;
+        final double seconds;
+
+        Result(Map<String, long[]> histogram, boolean sampled, double seconds) {
+            this.histogram = histogram;
+            this.sampled = sampled;
+            this.seconds = seconds;
+        }
+    }
+
+}
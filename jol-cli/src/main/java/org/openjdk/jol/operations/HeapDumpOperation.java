@@ -0,0 +1,334 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.operations;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.openjdk.jol.Operation;
+import org.openjdk.jol.OptionFormatter;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.layouters.Layouter;
+import org.openjdk.jol.util.ASCIITable;
+import org.openjdk.jol.util.Multiset;
+import org.openjdk.jol.util.ReportSink;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.System.out;
+
+/**
+ * Base for operations that read a heap dump.
+ */
+public abstract class HeapDumpOperation implements Operation {
+
+    private double sample;
+    private long seed;
+
+    private ReportSink sink;
+    private String dump;
+
+    public void run(String... args) throws Exception {
+        OptionParser parser = new OptionParser();
+        parser.formatHelpWith(new OptionFormatter(label(), arguments()));
+
+        OptionSpec<Double> optSample = parser.accepts("sample", "Digest only this fraction of heap dump segments, " +
+                        "and estimate the counts from them. Faster, but less precise. Example: 0.05")
+                .withRequiredArg().ofType(Double.class).describedAs("fraction").defaultsTo(1D);
+        OptionSpec<Long> optSeed = parser.accepts("seed", "Seed for selecting the sampled segments.")
+                .withRequiredArg().ofType(Long.class).describedAs("seed").defaultsTo(0L);
+
+        List<String> formats = new ArrayList<>();
+        formats.add("text");
+        OptionSpec<String> optFormat = null;
+        OptionSpec<File> optOutput = null;
+        if (hasTables()) {
+            formats.addAll(Arrays.asList(ReportSink.formats()));
+            optFormat = parser.accepts("format", "Report format, one of: " + formats + ". " +
+                            "Machine-readable formats write all table rows as they are produced, unsorted and not truncated; " +
+                            "human-readable messages go to stderr. The csv format writes a file per table, and needs --output.")
+                    .withRequiredArg().ofType(String.class).describedAs("format").defaultsTo("text");
+            optOutput = parser.accepts("output", "Write machine-readable report to this file instead of stdout, " +
+                            "or to this directory, for the formats that write a file per table.")
+                    .withRequiredArg().ofType(File.class).describedAs("file");
+        }
+
+        addOptions(parser);
+
+        OptionSpec<String> optDumps = parser.nonOptions("Heap dumps to work on, or directories with them.");
+
+        OptionSet set;
+        List<String> dumps;
+        try {
+            set = parser.parse(args);
+            dumps = expandPaths(set.valuesOf(optDumps));
+            if (dumps.isEmpty()) {
+                System.err.println("Expected a hprof file name.");
+                System.err.println();
+                parser.printHelpOn(System.err);
+                return;
+            }
+            sample = set.valueOf(optSample);
+            seed = set.valueOf(optSeed);
+            if (optFormat != null && !formats.contains(set.valueOf(optFormat))) {
+                System.err.println("Unknown report format: " + set.valueOf(optFormat) + ", expected one of " + formats);
+                System.err.println();
+                parser.printHelpOn(System.err);
+                return;
+            }
+            if (optFormat != null && ReportSink.isPerTable(set.valueOf(optFormat)) && !set.has(optOutput)) {
+                System.err.println("Report format writes a file per table, and needs --output: " + set.valueOf(optFormat));
+                System.err.println();
+                parser.printHelpOn(System.err);
+                return;
+            }
+            if (!(sample > 0 && sample <= 1)) {
+                System.err.println("Sampling fraction should be in (0; 1]: " + sample);
+                System.err.println();
+                parser.printHelpOn(System.err);
+                return;
+            }
+            String error = checkOptions(set);
+            if (error != null) {
+                System.err.println(error);
+                System.err.println();
+                parser.printHelpOn(System.err);
+                return;
+            }
+        } catch (OptionException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            parser.printHelpOn(System.err);
+            return;
+        }
+
+        String format = (optFormat != null) ? set.valueOf(optFormat) : "text";
+        if (format.equals("text")) {
+            runWith(set, dumps);
+            return;
+        }
+
+        if (set.has(optOutput)) {
+            sink = ReportSink.forFormat(format, set.valueOf(optOutput));
+        } else {
+            // Sink owns the stream it writes to; keep the real stdout open.
+            OutputStream os = new FilterOutputStream(System.out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            sink = ReportSink.forFormat(format, new BufferedOutputStream(os));
+        }
+
+        PrintStream stdout = System.out;
+        try {
+            System.setOut(System.err);
+            runWith(set, dumps);
+        } finally {
+            System.setOut(stdout);
+            sink.close();
+            sink = null;
+        }
+    }
+
+    /**
+     * @return true if operation reports its results in tables, and accepts machine-readable formats
+     */
+    protected boolean hasTables() {
+        return true;
+    }
+
+    /**
+     * @return sink for the machine-readable report, or null for the text report;
+     *         table names are prefixed with the current dump, if any
+     */
+    protected ReportSink reportSink() {
+        if (sink == null || dump == null) {
+            return sink;
+        }
+        return sink.withPrefix(dump + ": ");
+    }
+
+    /**
+     * Creates the result table, which goes to the machine-readable report, if requested.
+     */
+    protected ASCIITable newTable(boolean summary, String header, String... columns) {
+        return new ASCIITable(reportSink(), summary, header, columns);
+    }
+
+    /**
+     * Creates the result table, which goes to the machine-readable report, if requested.
+     */
+    protected ASCIITable newTable(boolean summary, int printFirst, String header, String... columns) {
+        return new ASCIITable(reportSink(), summary, printFirst, header, columns);
+    }
+
+    /**
+     * @return arguments description for the usage line
+     */
+    protected String arguments() {
+        return "<heap dump>";
+    }
+
+    /**
+     * Adds operation-specific options.
+     */
+    protected void addOptions(OptionParser parser) {
+        // No options by default.
+    }
+
+    /**
+     * Checks the values of operation options, after parsing.
+     *
+     * @param set parsed options
+     * @return error message, or null if the options are fine
+     */
+    protected String checkOptions(OptionSet set) {
+        return null;
+    }
+
+    protected abstract void runWith(OptionSet set, String path) throws Exception;
+
+    /**
+     * Runs with all heap dumps from the command line. By default, works on them one after another,
+     * in the same JVM. Report tables are named after the dump they come from.
+     */
+    protected void runWith(OptionSet set, List<String> paths) throws Exception {
+        for (int i = 0; i < paths.size(); i++) {
+            if (i > 0) {
+                out.println();
+                out.println();
+            }
+            dump = paths.get(i);
+            try {
+                runWith(set, dump);
+            } finally {
+                dump = null;
+            }
+        }
+    }
+
+    /**
+     * Replaces directories with the heap dumps in them.
+     *
+     * @param paths files and directories
+     * @return files, directory contents are sorted by name
+     */
+    protected static List<String> expandPaths(List<String> paths) {
+        List<String> r = new ArrayList<>();
+        for (String path : paths) {
+            File[] files = new File(path).listFiles((dir, name) -> name.endsWith(".hprof") || name.endsWith(".hprof.gz"));
+            if (files == null) {
+                r.add(path);
+                continue;
+            }
+            Arrays.sort(files);
+            for (File f : files) {
+                if (f.isFile()) {
+                    r.add(f.getPath());
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Creates the reader for the dump, configured with common options.
+     */
+    protected HeapDumpReader newReader(String path, HeapDumpReader.Visitor visitor) throws IOException {
+        return newReader(path, out, visitor);
+    }
+
+    /**
+     * Creates the reader for the dump, configured with common options.
+     *
+     * @param verboseOut stream for progress messages, or null for silent reader
+     */
+    protected HeapDumpReader newReader(String path, PrintStream verboseOut, HeapDumpReader.Visitor visitor) throws IOException {
+        HeapDumpReader reader = new HeapDumpReader(new File(path), verboseOut, visitor);
+        reader.setSampling(sample, seed);
+        return reader;
+    }
+
+    /**
+     * @return true if user asked to sample the dump
+     */
+    protected boolean isSampling() {
+        return sample < 1;
+    }
+
+    /**
+     * Warns that visitor-based tables do not cover the entire dump.
+     */
+    protected static void printSampled(HeapDumpReader reader) {
+        if (reader.isSampled()) {
+            out.println("The dump was sampled: the totals are estimates, the tables below cover only the sampled part.");
+            out.println();
+        }
+    }
+
+    /**
+     * Reduces the class histogram to plain counts, e.g. to keep many of them at once.
+     *
+     * @return class name -> { instances, size }, arrays of all lengths are together
+     */
+    protected static Map<String, long[]> classHistogram(Layouter layouter, Multiset<ClassData> data) {
+        Map<String, long[]> r = new HashMap<>();
+        for (ClassData cd : data.keys()) {
+            long cnt = data.count(cd);
+            long[] v = r.computeIfAbsent(cd.name(), k -> new long[2]);
+            v[0] += cnt;
+            v[1] += cnt * layouter.instanceSize(cd);
+        }
+        return r;
+    }
+
+    protected static int getVMVersion() {
+        try {
+            return Integer.parseInt(System.getProperty("java.specification.version"));
+        } catch (Exception e) {
+            return 8;
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.operations;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.openjdk.jol.heap.HeapDumpGraph;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.heap.HeapDumpRootPaths;
+import org.openjdk.jol.util.ASCIITable;
+
+import java.io.File;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/**
+ * Finds the shortest reference paths from GC roots to given objects.
+ */
+public class HeapDumpPaths extends HeapDumpOperation {
+
+    private OptionSpec<String> optClass;
+    private OptionSpec<String> optId;
+
+    @Override
+    public String label() {
+        return "heapdump-paths";
+    }
+
+    @Override
+    public String description() {
+        return "Read a heap dump and find the shortest paths from GC roots to given objects";
+    }
+
+    @Override
+    protected void addOptions(OptionParser parser) {
+        optClass = parser.accepts("class", "Find the paths to instances of this class, e.g. java.lang.String or byte[]. " +
+                        "Can be given multiple times.")
+                .withRequiredArg().ofType(String.class).describedAs("name");
+        optId = parser.accepts("id", "Find the path to the object with this ID, e.g. 0xf55c9cc8. " +
+                        "Can be given multiple times.")
+                .withRequiredArg().ofType(String.class).describedAs("id");
+    }
+
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        List<String> classes = set.valuesOf(optClass);
+        List<Long> ids = new ArrayList<>();
+        for (String id : set.valuesOf(optId)) {
+            try {
+                ids.add(Long.decode(id));
+            } catch (NumberFormatException e) {
+                System.err.println("Cannot parse object ID: " + id);
+                return;
+            }
+        }
+        if (classes.isEmpty() && ids.isEmpty()) {
+            System.err.println("Expected at least one --class or --id to look for.");
+            return;
+        }
+
+        int printFirst = Integer.getInteger("printFirst", 30);
+
+        out.println("Heap Dump: " + path);
+        out.println();
+
+        if (isSampling()) {
+            out.println("Sampling is not supported for the reference graph, reading the entire dump.");
+            out.println();
+        }
+
+        File file = new File(path);
+        try (HeapDumpGraph graph = HeapDumpGraph.build(file, out)) {
+            out.println();
+            out.println("Computing shortest paths from GC roots...");
+            long time = System.nanoTime();
+            try (HeapDumpRootPaths paths = HeapDumpRootPaths.compute(graph)) {
+                out.printf("Shortest paths: done in %.2f seconds%n", (System.nanoTime() - time) / 1e9);
+                out.println();
+
+                // Pick the targets for all queries first, so that paths are described in one pass.
+                List<String> headers = new ArrayList<>();
+                List<List<int[]>> queries = new ArrayList<>();
+
+                for (long id : ids) {
+                    int node = graph.node(id);
+                    List<int[]> found = new ArrayList<>();
+                    String header;
+                    if (node < 0) {
+                        header = String.format("=== Object 0x%x: not found in the heap dump", id);
+                    } else if (!paths.isReachable(node)) {
+                        header = String.format("=== Object %s: not reachable from GC roots", paths.name(node));
+                    } else {
+                        header = String.format("=== Object %s", paths.name(node));
+                        found.add(paths.path(node));
+                    }
+                    headers.add(header);
+                    queries.add(found);
+                }
+
+                for (String name : classes) {
+                    Set<Integer> klasses = new HashSet<>();
+                    for (int k = 0; k < graph.classCount(); k++) {
+                        if (graph.className(k).equals(name)) {
+                            klasses.add(k);
+                        }
+                    }
+
+                    // Keep only the shortest paths: the deepest of them is at the head.
+                    PriorityQueue<Integer> top = new PriorityQueue<>(
+                            Comparator.comparingInt(paths::depth).thenComparingInt(n -> n).reversed());
+                    long reachable = 0;
+                    long unreachable = 0;
+                    for (int n = 0; n < graph.nodes(); n++) {
+                        if (!klasses.contains(graph.classOf(n))) {
+                            continue;
+                        }
+                        if (!paths.isReachable(n)) {
+                            unreachable++;
+                            continue;
+                        }
+                        reachable++;
+                        top.add(n);
+                        if (top.size() > printFirst) {
+                            top.poll();
+                        }
+                    }
+
+                    List<Integer> nodes = new ArrayList<>(top);
+                    nodes.sort(Comparator.comparingInt(paths::depth).thenComparingInt(n -> n));
+                    List<int[]> found = new ArrayList<>();
+                    for (int n : nodes) {
+                        found.add(paths.path(n));
+                    }
+                    headers.add(String.format("=== Class %s: %,d reachable instances, %,d unreachable", name, reachable, unreachable));
+                    queries.add(found);
+                }
+
+                List<int[]> all = new ArrayList<>();
+                for (List<int[]> q : queries) {
+                    all.addAll(q);
+                }
+
+                out.println("Resolving the field names...");
+                List<String> described = paths.describe(file, all, out);
+                out.println();
+
+                // Text output groups the paths by query, the machine-readable report has them in one table.
+                ASCIITable report = newTable(false, Integer.MAX_VALUE, "=== Shortest Paths", "DEPTH", "ROOT: PATH");
+
+                int idx = 0;
+                for (int q = 0; q < queries.size(); q++) {
+                    out.println(headers.get(q));
+                    out.println();
+                    if (!queries.get(q).isEmpty()) {
+                        out.printf(" %8s  %-15s %s%n", "DEPTH", "ROOT", "PATH");
+                        out.println("------------------------------------------------------------------------------------------------");
+                        for (int[] p : queries.get(q)) {
+                            int target = p[p.length - 1];
+                            String root = HeapDumpReader.rootTypeName(paths.rootType(p[0]));
+                            String refs = described.get(idx++) + " -> " + paths.name(target);
+                            out.printf(" %,8d  %-15s %s%n", p.length - 1, root, refs);
+                            report.addLine(root + ": " + refs, (long) (p.length - 1));
+                        }
+                        out.println("------------------------------------------------------------------------------------------------");
+                        out.println();
+                    }
+                }
+                if (reportSink() != null) {
+                    report.print(out, -1);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.operations;
+
+import joptsimple.OptionSet;
+import org.openjdk.jol.datamodel.ModelVM;
+import org.openjdk.jol.heap.HeapDumpClass;
+import org.openjdk.jol.heap.HeapDumpDominators;
+import org.openjdk.jol.heap.HeapDumpGraph;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.util.ASCIITable;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import static java.lang.System.out;
+
+/**
+ * Builds the dominator tree for the heap dump, and reports what retains the most memory.
+ */
+public class HeapDumpRetained extends HeapDumpOperation {
+
+    @Override
+    public String label() {
+        return "heapdump-retained";
+    }
+
+    @Override
+    public String description() {
+        return "Read a heap dump and find what retains the memory";
+    }
+
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        HotSpotLayouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
+
+        out.println("Heap Dump: " + path);
+        out.println();
+
+        if (isSampling()) {
+            out.println("Sampling is not supported for the reference graph, reading the entire dump.");
+            out.println();
+        }
+
+        try (HeapDumpGraph graph = HeapDumpGraph.build(new File(path), out)) {
+            ShallowSizes sizes = new ShallowSizes(graph, layouter);
+
+            out.println();
+            out.println("Computing dominators...");
+            long time = System.nanoTime();
+            try (HeapDumpDominators doms = HeapDumpDominators.compute(graph, sizes::size)) {
+                out.printf("Dominator tree: %,d reachable nodes, done in %.2f seconds%n",
+                        doms.reachable(), (System.nanoTime() - time) / 1e9);
+
+                out.println();
+                out.println(layouter);
+                out.println();
+
+                out.printf("Heap dump contains %,d objects reachable from GC roots, %,d bytes in total.%n",
+                        doms.reachable(), doms.totalSize());
+                out.printf("Another %,d objects are not reachable, and are not counted.%n",
+                        graph.nodes() - doms.reachable());
+                out.println();
+
+                printByClass(graph, doms, sizes);
+                printByInstance(graph, doms, sizes);
+            }
+        }
+    }
+
+    private void printByClass(HeapDumpGraph graph, HeapDumpDominators doms, ShallowSizes sizes) {
+        long[] counts = new long[graph.classCount()];
+        long[] shallow = new long[graph.classCount()];
+        for (int n = 0; n < graph.nodes(); n++) {
+            if (doms.isReachable(n)) {
+                int klass = graph.classOf(n);
+                counts[klass]++;
+                shallow[klass] += sizes.size(n);
+            }
+        }
+        long[] retained = doms.retainedByClass();
+
+        ASCIITable table = newTable(
+                false,
+                "=== Top Retainers by Class\n" +
+                "  INSTANCES: Number of reachable instances\n" +
+                "  SHALLOW SIZE: Size of the instances themselves\n" +
+                "  RETAINED SIZE: Size of all objects dominated by any instance of the class",
+                "INSTANCES", "SHALLOW SIZE", "RETAINED SIZE", "CLASS");
+
+        for (int k = 0; k < graph.classCount(); k++) {
+            if (counts[k] > 0) {
+                table.addLine(graph.className(k), counts[k], shallow[k], retained[k]);
+            }
+        }
+
+        table.print(out, 2);
+    }
+
+    private void printByInstance(HeapDumpGraph graph, HeapDumpDominators doms, ShallowSizes sizes) {
+        int printFirst = Integer.getInteger("printFirst", 30);
+
+        // Keep only the top instances: the smallest of them is at the head.
+        PriorityQueue<long[]> top = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        for (int n = 0; n < graph.nodes(); n++) {
+            long retained = doms.retainedSize(n);
+            if (retained == 0) {
+                continue;
+            }
+            if (top.size() < printFirst) {
+                top.add(new long[] { retained, n });
+            } else if (top.peek()[0] < retained) {
+                top.poll();
+                top.add(new long[] { retained, n });
+            }
+        }
+
+        ASCIITable table = newTable(
+                false,
+                Integer.MAX_VALUE,
+                "=== Top Retainers by Instance\n" +
+                "  SHALLOW SIZE: Size of the instance itself\n" +
+                "  RETAINED SIZE: Size of all objects dominated by the instance",
+                "SHALLOW SIZE", "RETAINED SIZE", "INSTANCE");
+
+        for (long[] e : top) {
+            int n = (int) e[1];
+            table.addLine(instanceName(graph, n), sizes.size(n), e[0]);
+        }
+
+        table.print(out, 1);
+    }
+
+    private static String instanceName(HeapDumpGraph graph, int node) {
+        int klass = graph.classOf(node);
+        if (graph.classKind(klass) == HeapDumpGraph.KIND_CLASS) {
+            HeapDumpClass k = graph.dumpClasses().get(graph.id(node));
+            if (k != null) {
+                return String.format("%s@0x%x (%s)", graph.className(klass), graph.id(node), k.name());
+            }
+        }
+        return String.format("%s@0x%x", graph.className(klass), graph.id(node));
+    }
+
+    /**
+     * Computes shallow sizes of graph nodes with a layouter. Instance sizes are cached per class:
+     * layouts are expensive, and there are many nodes. Array sizes are computed from their lengths.
+     * Class objects are sized as their mirrors, with the static fields of the class.
+     */
+    private static class ShallowSizes {
+        private final HeapDumpGraph graph;
+        private final HotSpotLayouter layouter;
+        private final long[] instanceSizes;
+        private final String[] componentTypes;
+
+        ShallowSizes(HeapDumpGraph graph, HotSpotLayouter layouter) {
+            this.graph = graph;
+            this.layouter = layouter;
+            this.instanceSizes = new long[graph.classCount()];
+            Arrays.fill(instanceSizes, -1);
+            this.componentTypes = new String[graph.classCount()];
+        }
+
+        long size(int node) {
+            int klass = graph.classOf(node);
+            switch (graph.classKind(klass)) {
+                case HeapDumpGraph.KIND_INSTANCE: {
+                    long size = instanceSizes[klass];
+                    if (size < 0) {
+                        ClassData cd = graph.dumpClasses().classData(graph.classId(klass));
+                        size = (cd != null) ? layouter.instanceSize(cd) : 0;
+                        instanceSizes[klass] = size;
+                    }
+                    return size;
+                }
+                case HeapDumpGraph.KIND_OBJ_ARRAY:
+                case HeapDumpGraph.KIND_PRIM_ARRAY: {
+                    String componentType = componentTypes[klass];
+                    if (componentType == null) {
+                        String name = graph.className(klass);
+                        componentType = (graph.classKind(klass) == HeapDumpGraph.KIND_OBJ_ARRAY) ?
+                                "Object" :
+                                name.substring(0, name.length() - 2);
+                        componentTypes[klass] = componentType;
+                    }
+                    return layouter.arraySize(componentType, graph.arrayLength(node));
+                }
+                case HeapDumpGraph.KIND_CLASS: {
+                    ClassData cd = graph.mirror(graph.id(node));
+                    return (cd != null) ? layouter.instanceSize(cd) : 0;
+                }
+                default:
+                    return 0;
+            }
+        }
+    }
+
+}
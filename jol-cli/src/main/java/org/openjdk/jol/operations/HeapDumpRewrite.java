@@ -0,0 +1,114 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.operations;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.openjdk.jol.heap.HeapDumpWriter;
+import org.openjdk.jol.util.MathUtil;
+
+import java.io.File;
+
+import static java.lang.System.out;
+
+/**
+ * Writes the transformed copy of the heap dump, to quantify the fixes before making them.
+ */
+public class HeapDumpRewrite extends HeapDumpOperation {
+
+    @Override
+    public String label() {
+        return "heapdump-rewrite";
+    }
+
+    @Override
+    public String description() {
+        return "Read a heap dump and write its copy without given classes or duplicate arrays";
+    }
+
+    private OptionSpec<String> optDrop;
+    private OptionSpec<Void> optCollapse;
+    private OptionSpec<File> optTarget;
+
+    @Override
+    protected boolean hasTables() {
+        // The result is the new dump, there is nothing to report in machine-readable formats.
+        return false;
+    }
+
+    @Override
+    protected void addOptions(OptionParser parser) {
+        optDrop = parser.accepts("drop", "Drop the instances of these classes, or arrays of these array classes, " +
+                        "e.g. java.lang.Integer,byte[]. References to them become nulls.")
+                .withRequiredArg().ofType(String.class).withValuesSeparatedBy(',').describedAs("class,...");
+        optCollapse = parser.accepts("collapse-arrays", "Collapse the arrays with the same contents into one, " +
+                "and point the references to it.");
+        optTarget = parser.accepts("target", "File to write the copy to. Defaults to <heap dump>-rewritten.hprof " +
+                        "next to the heap dump.")
+                .withRequiredArg().ofType(File.class).describedAs("file");
+    }
+
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
+        File source = new File(path);
+        File target = set.has(optTarget) ? set.valueOf(optTarget) : defaultTarget(source);
+
+        out.println("Heap Dump: " + path);
+        out.println("Target:    " + target);
+        out.println();
+
+        if (isSampling()) {
+            out.println("Sampling is not supported for rewriting, the entire dump is copied.");
+            out.println();
+        }
+
+        HeapDumpWriter writer = new HeapDumpWriter(source, out);
+        for (String name : set.valuesOf(optDrop)) {
+            writer.dropClass(name.trim());
+        }
+        writer.setCollapseArrays(set.has(optCollapse));
+        writer.write(target);
+
+        out.println();
+        out.printf("Removed %,d objects, %s of dump records; rewrote %,d references.%n",
+                writer.removedObjects(), MathUtil.inProperUnits(writer.removedBytes()), writer.rewrittenReferences());
+        out.printf("Wrote %s to %s%n", MathUtil.inProperUnits(target.length()), target);
+        out.println();
+        out.println("Run heapdump-estimates or heapdump-stats on both dumps to compare the footprints.");
+    }
+
+    private static File defaultTarget(File source) {
+        String name = source.getName();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".hprof")) {
+            name = name.substring(0, name.length() - 6);
+        }
+        return new File(source.getAbsoluteFile().getParentFile(), name + "-rewritten.hprof");
+    }
+
+}
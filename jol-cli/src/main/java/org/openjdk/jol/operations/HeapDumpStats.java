@@ -24,23 +24,29 @@
  */
 package org.openjdk.jol.operations;
 
-import org.openjdk.jol.Operation;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 import org.openjdk.jol.datamodel.*;
+import org.openjdk.jol.heap.HeapDumpException;
 import org.openjdk.jol.heap.HeapDumpReader;
 import org.openjdk.jol.info.ClassData;
 import org.openjdk.jol.layouters.HotSpotLayouter;
 import org.openjdk.jol.layouters.Layouter;
 import org.openjdk.jol.util.ASCIITable;
+import org.openjdk.jol.util.Multimap;
 import org.openjdk.jol.util.Multiset;
+import org.openjdk.jol.util.ReportSink;
 
-import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.System.out;
 
 /**
  * @author Aleksey Shipilev
  */
-public class HeapDumpStats implements Operation {
+public class HeapDumpStats extends HeapDumpOperation {
 
     @Override
     public String label() {
@@ -52,48 +58,235 @@ public class HeapDumpStats implements Operation {
         return "Read a heap dump and print simple statistics";
     }
 
-    private int getVMVersion() {
-        try {
-            return Integer.parseInt(System.getProperty("java.specification.version"));
-        } catch (Exception e) {
-            return 8;
-        }
+    private static final long M = 1024L * 1024;
+
+    private OptionSpec<Long> optProgress;
+    private OptionSpec<Integer> optTop;
+    private OptionSpec<Long> optBudget;
+    private OptionSpec<Long> optStable;
+    private OptionSpec<Void> optMirrors;
+
+    @Override
+    protected void addOptions(OptionParser parser) {
+        optProgress = parser.accepts("progress", "Print the partial class histogram every given number of MB.")
+                .withRequiredArg().ofType(Long.class).describedAs("MB");
+        optTop = parser.accepts("top", "Number of classes in partial histograms, and in the stability check.")
+                .withRequiredArg().ofType(Integer.class).describedAs("N").defaultsTo(10);
+        optBudget = parser.accepts("budget", "Stop after reading this many MB of the dump.")
+                .withRequiredArg().ofType(Long.class).describedAs("MB");
+        optStable = parser.accepts("stable", "Stop when top classes by size do not change for this many MB of the dump.")
+                .withRequiredArg().ofType(Long.class).describedAs("MB");
+        optMirrors = parser.accepts("mirrors", "Also print the class mirrors with the largest static field storage.");
     }
 
-    public void run(String... args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Expected a hprof file name.");
-            return;
+    @Override
+    protected String checkOptions(OptionSet set) {
+        if (set.valueOf(optTop) < 1) {
+            return "Number of top classes should be positive: " + set.valueOf(optTop);
+        }
+        if (set.has(optProgress) && set.valueOf(optProgress) < 1) {
+            return "Progress interval should be positive: " + set.valueOf(optProgress);
+        }
+        if (set.has(optBudget) && set.valueOf(optBudget) < 1) {
+            return "Budget should be positive: " + set.valueOf(optBudget);
+        }
+        if (set.has(optStable) && set.valueOf(optStable) < 1) {
+            return "Stability window should be positive: " + set.valueOf(optStable);
         }
-        String path = args[0];
+        return null;
+    }
 
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
         Layouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
 
         out.println("Heap Dump: " + path);
 
-        HeapDumpReader reader = new HeapDumpReader(new File(path), out, null);
+        HeapDumpReader reader = newReader(path, null);
+
+        Progress progress = null;
+        if (set.has(optProgress) || set.has(optBudget) || set.has(optStable)) {
+            long interval = set.has(optProgress) ? set.valueOf(optProgress) : 256;
+            if (set.has(optBudget)) {
+                interval = Math.min(interval, set.valueOf(optBudget));
+            }
+            if (set.has(optStable)) {
+                // Look at the top several times within the stability window.
+                interval = Math.min(interval, set.valueOf(optStable) / 4);
+            }
+            progress = new Progress(layouter, set.has(optProgress), set.valueOf(optTop),
+                    set.has(optBudget) ? set.valueOf(optBudget) * M : Long.MAX_VALUE,
+                    set.has(optStable) ? set.valueOf(optStable) * M : Long.MAX_VALUE);
+            reader.setProgressListener(Math.max(1, interval) * M, progress);
+        }
+
         Multiset<ClassData> data = reader.parse();
 
         out.println();
         out.println(layouter);
         out.println();
 
+        if (reader.isStopped() && progress != null) {
+            out.println("Parsing stopped early: " + progress.stopReason);
+            out.println("The histogram covers only the part of the dump.");
+            out.println();
+        }
+
+        if (set.has(optMirrors)) {
+            ASCIITable mirrors = mirrors(reportSink(), layouter, reader.mirrors(), Integer.getInteger("printFirst", 30));
+            mirrors.print(out, 0);
+        }
+
+        if (reader.isSampled()) {
+            out.println("The dump was sampled: the counts are estimates, with 95% confidence intervals.");
+            out.println();
+
+            ASCIITable table = sampledHistogram(reportSink(), layouter, data, reader.errors(), Integer.getInteger("printFirst", 30), "=== Class Histogram (Estimated)");
+
+            table.print(out, 0);
+            table.print(out, 2);
+            table.print(out, 3);
+            return;
+        }
+
+        ASCIITable table = histogram(reportSink(), layouter, data, Integer.getInteger("printFirst", 30), "=== Class Histogram");
+
+        table.print(out, 0);
+        table.print(out, 1);
+        table.print(out, 2);
+    }
+
+    private static ASCIITable histogram(ReportSink sink, Layouter layouter, Multiset<ClassData> data, int printFirst, String header) {
         ASCIITable table = new ASCIITable(
+                sink,
                 true,
-                "=== Class Histogram",
+                printFirst,
+                header,
                 "INSTANCES", "SIZE", "SUM SIZE", "CLASS");
 
         for (ClassData cd : data.keys()) {
             long cnt = data.count(cd);
             if (cnt > 0) {
-                long instanceSize = layouter.layout(cd).instanceSize();
+                long instanceSize = layouter.instanceSize(cd);
                 table.addLine(cd.prettyName(), cnt, instanceSize, cnt * instanceSize);
             }
         }
+        return table;
+    }
 
-        table.print(out, 0);
-        table.print(out, 1);
-        table.print(out, 2);
+    private static ASCIITable mirrors(ReportSink sink, Layouter layouter, Multimap<String, ClassData> mirrors, int printFirst) {
+        ASCIITable table = new ASCIITable(
+                sink,
+                true,
+                printFirst,
+                "=== Class Mirrors\n" +
+                "  java.lang.Class instances, which also hold the static fields of their classes.\n" +
+                "  SIZE: Mirror size, with static fields",
+                "SIZE", "CLASS");
+
+        for (String name : mirrors.keys()) {
+            for (ClassData cd : mirrors.get(name)) {
+                table.addLine(name, layouter.instanceSize(cd));
+            }
+        }
+        return table;
+    }
+
+    private static ASCIITable sampledHistogram(ReportSink sink, Layouter layouter, Multiset<ClassData> data, Multiset<ClassData> errors, int printFirst, String header) {
+        ASCIITable table = new ASCIITable(
+                sink,
+                true,
+                printFirst,
+                header + "\n" +
+                "  +/- INSTANCES: 95% confidence interval for the instance count\n" +
+                "  +/- SUM SIZE: 95% confidence interval for the sum size",
+                "INSTANCES", "+/- INSTANCES", "SIZE", "SUM SIZE", "+/- SUM SIZE", "CLASS");
+
+        for (ClassData cd : data.keys()) {
+            long cnt = data.count(cd);
+            if (cnt > 0) {
+                long err = errors.count(cd);
+                long instanceSize = layouter.instanceSize(cd);
+                table.addLine(cd.prettyName(), cnt, err, instanceSize, cnt * instanceSize, err * instanceSize);
+            }
+        }
+        return table;
+    }
+
+    private static String formatTime(double seconds) {
+        if (Double.isNaN(seconds)) {
+            return "unknown";
+        }
+        long s = (long) seconds;
+        return String.format("%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+    }
+
+    /**
+     * Prints the partial histograms, and decides when to stop.
+     */
+    static class Progress implements HeapDumpReader.ProgressListener {
+        private final Layouter layouter;
+        private final boolean print;
+        private final int top;
+        private final long budget;
+        private final long stable;
+
+        private List<String> lastTop;
+        private long stableSince;
+        String stopReason;
+
+        Progress(Layouter layouter, boolean print, int top, long budget, long stable) {
+            this.layouter = layouter;
+            this.print = print;
+            this.top = top;
+            this.budget = budget;
+            this.stable = stable;
+        }
+
+        @Override
+        public boolean onProgress(HeapDumpReader.Progress p) throws HeapDumpException {
+            Multiset<ClassData> data = p.histogram();
+
+            if (print) {
+                long total = p.totalBytes();
+                out.println();
+                out.printf("Progress: %d MB of %s, %.0f records/sec, %.0f MB/sec, ETA %s%n",
+                        p.bytes() / M,
+                        (total < 0) ? "unknown" : String.format("%d MB (%.1f%%)", total / M, 100D * p.bytes() / total),
+                        p.recordsPerSecond(),
+                        p.bytesPerSecond() / M,
+                        formatTime(p.etaSeconds()));
+                out.println();
+                // Partial histograms show the progress, they do not go to the report.
+                histogram(null, layouter, data, top, "=== Partial Class Histogram, " + p.records() + " records").print(out, 2);
+            }
+
+            List<String> curTop = topClasses(data);
+            if (!curTop.equals(lastTop)) {
+                lastTop = curTop;
+                stableSince = p.bytes();
+            }
+
+            if (p.bytes() - stableSince >= stable) {
+                stopReason = String.format("top %d classes did not change for %d MB.", top, (p.bytes() - stableSince) / M);
+                return false;
+            }
+            if (p.bytes() >= budget) {
+                stopReason = String.format("read %d MB, over the budget.", p.bytes() / M);
+                return false;
+            }
+            return true;
+        }
+
+        private List<String> topClasses(Multiset<ClassData> data) {
+            Multiset<String> sizes = new Multiset<>();
+            for (ClassData cd : data.keys()) {
+                sizes.add(cd.prettyName(), data.count(cd) * layouter.instanceSize(cd));
+            }
+            List<String> names = new ArrayList<>(sizes.keys());
+            names.sort((n1, n2) -> Long.compare(sizes.count(n2), sizes.count(n1)));
+            return names.subList(0, Math.min(top, names.size()));
+        }
     }
 
 }
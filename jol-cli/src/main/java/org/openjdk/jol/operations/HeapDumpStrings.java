@@ -24,19 +24,29 @@
  */
 package org.openjdk.jol.operations;
 
-import org.openjdk.jol.Operation;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 import org.openjdk.jol.datamodel.ModelVM;
 import org.openjdk.jol.heap.HeapDumpReader;
 import org.openjdk.jol.info.ClassData;
 import org.openjdk.jol.layouters.HotSpotLayouter;
 import org.openjdk.jol.layouters.Layouter;
 import org.openjdk.jol.util.ASCIITable;
-import org.openjdk.jol.util.Multimap;
+import org.openjdk.jol.util.BigIntArray;
+import org.openjdk.jol.util.BigLongArray;
+import org.openjdk.jol.util.ExternalCounter;
+import org.openjdk.jol.util.LongIntHashMap;
 import org.openjdk.jol.util.Multiset;
+import org.openjdk.jol.util.Murmur3;
+import org.openjdk.jol.util.ReportSink;
 
-import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
@@ -45,7 +55,7 @@ import static java.lang.System.out;
 /**
  * @author Aleksey Shipilev
  */
-public class HeapDumpStrings implements Operation {
+public class HeapDumpStrings extends HeapDumpOperation {
 
     @Override
     public String label() {
@@ -57,36 +67,69 @@ public class HeapDumpStrings implements Operation {
         return "Read a heap dump and look for duplicate Strings";
     }
 
-    private int getVMVersion() {
-        try {
-            return Integer.parseInt(System.getProperty("java.specification.version"));
-        } catch (Exception e) {
-            return 8;
-        }
-    }
+    /**
+     * Memory budget for the single-pass array contents table.
+     */
+    private static final long ARRAY_TABLE_BUDGET = Runtime.getRuntime().maxMemory() / 2;
 
-    public void run(String... args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Expected a hprof file name.");
-            return;
-        }
-        String path = args[0];
+    private OptionSpec<Long> optSpill;
+
+    @Override
+    protected void addOptions(OptionParser parser) {
+        optSpill = parser.accepts("spill", "Count the contents on disk, keeping at most this many MB in memory. " +
+                        "For the dumps with more distinct Strings than the memory allows.")
+                .withRequiredArg().ofType(Long.class).describedAs("MB");
+    }
 
+    @Override
+    protected void runWith(OptionSet set, String path) throws Exception {
         Layouter layouter = new HotSpotLayouter(new ModelVM(), getVMVersion());
 
         out.println("Heap Dump: " + path);
 
-        out.println();
-        out.println("Discovering String objects...");
-        StringVisitor sv = new StringVisitor();
-        HeapDumpReader stringReader = new HeapDumpReader(new File(path), out, sv);
-        stringReader.parse();
-
-        out.println();
-        out.println("Discovering String contents...");
-        StringValueVisitor svv = new StringValueVisitor(sv.valuesToStrings());
-        HeapDumpReader stringValueReader = new HeapDumpReader(new File(path), out, svv);
-        Multiset<ClassData> data = stringValueReader.parse();
+        StringValueVisitor svv;
+        HeapDumpReader stringValueReader;
+        Multiset<ClassData> data;
+
+        if (set.has(optSpill)) {
+            // Spilled contents are keyed by contents, not by array ID: need to know String values upfront.
+            out.println();
+            out.println("Discovering String objects...");
+            StringVisitor sv = new StringVisitor();
+            HeapDumpReader stringReader = newReader(path, sv);
+            stringReader.parse();
+
+            out.println();
+            out.println("Discovering String contents...");
+            svv = new StringValueVisitor(sv.valuesToStrings());
+            svv.setSpill(new ExternalCounter(4, 4, set.valueOf(optSpill) * 1024 * 1024));
+            stringValueReader = newReader(path, svv);
+            data = stringValueReader.parse();
+            int spills = svv.loadSpilled();
+            out.printf("Aggregated the String contents with %,d run files on disk.%n", spills);
+        } else {
+            out.println();
+            out.println("Discovering String objects and contents...");
+            StringArrayVisitor sav = new StringArrayVisitor(ARRAY_TABLE_BUDGET);
+            stringValueReader = newReader(path, sav);
+            data = stringValueReader.parse();
+
+            svv = new StringValueVisitor(sav.valuesToStrings());
+            if (!sav.join(svv)) {
+                out.println();
+                out.printf("Array contents do not fit in %d MB, discovering String contents in another pass...%n",
+                        ARRAY_TABLE_BUDGET / 1024 / 1024);
+                stringValueReader = newReader(path, svv);
+                data = stringValueReader.parse();
+            } else if (!sav.unmatched().isEmpty()) {
+                out.println();
+                out.printf("Discovering the contents of %,d String values in another pass...%n",
+                        sav.unmatched().size());
+                svv.setValues(sav.unmatched());
+                stringValueReader = newReader(path, svv);
+                data = stringValueReader.parse();
+            }
+        }
 
         out.println();
         out.println(layouter);
@@ -95,14 +138,16 @@ public class HeapDumpStrings implements Operation {
         long totalSize = 0;
         long totalCount = 0;
         for (ClassData cd : data.keys()) {
-            totalSize += layouter.layout(cd).instanceSize() * data.count(cd);
+            totalSize += layouter.instanceSize(cd) * data.count(cd);
             totalCount += data.count(cd);
         }
 
         out.printf("Heap dump contains %,d objects, %,d bytes in total.%n", totalCount, totalSize);
         out.println();
 
-        svv.computeDuplicates(out, layouter);
+        printSampled(stringValueReader);
+
+        svv.computeDuplicates(out, reportSink(), layouter);
         out.println();
     }
 
@@ -111,12 +156,34 @@ public class HeapDumpStrings implements Operation {
         private final String componentType;
         private final byte[] contents;
         private final long hash;
+        private final long hash2;
 
         public StringContents(int length, String componentType, byte[] contents) {
+            this(length, componentType, ByteBuffer.wrap(contents));
+        }
+
+        public StringContents(int length, String componentType, ByteBuffer contents) {
+            this.length = length;
+            this.componentType = componentType;
+            this.contents = new byte[Math.min(contents.remaining(), 32)];
+            contents.duplicate().get(this.contents);
+            Murmur3 murmur = new Murmur3();
+            murmur.hash(contents, 0);
+            this.hash = murmur.h1();
+            this.hash2 = murmur.h2();
+        }
+
+        /**
+         * @param prefix first (up to) 32 bytes of contents
+         * @param hash first half of 128-bit contents hash
+         * @param hash2 second half of 128-bit contents hash
+         */
+        public StringContents(int length, String componentType, byte[] prefix, long hash, long hash2) {
             this.length = length;
             this.componentType = componentType;
-            this.contents = Arrays.copyOf(contents, Math.min(contents.length, 32));
-            this.hash = byteArrayHashCode(contents);
+            this.contents = prefix;
+            this.hash = hash;
+            this.hash2 = hash2;
         }
 
         @Override
@@ -124,7 +191,7 @@ public class HeapDumpStrings implements Operation {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             StringContents that = (StringContents) o;
-            return length == that.length && hash == that.hash && componentType.equals(that.componentType);
+            return length == that.length && hash == that.hash && hash2 == that.hash2 && componentType.equals(that.componentType);
         }
 
         @Override
@@ -144,37 +211,26 @@ public class HeapDumpStrings implements Operation {
         }
     }
 
-    public static long byteArrayHashCode(byte[] src) {
-        long result = 1;
-        for (byte e : src) {
-            result = 31 * result + e;
-        }
-        return result;
-    }
-
     public static class StringVisitor extends HeapDumpReader.Visitor {
-        private final Multimap<Long, Long> valuesToStrings = new Multimap<>();
+        private final LongIntHashMap valuesToStrings = new LongIntHashMap();
 
         private long stringID;
         private int stringValueOffset;
         private int stringValueSize;
 
         @Override
-        public void visitInstance(long id, long klassID, byte[] bytes, String name) {
+        public boolean acceptsInstances(long klassID, String name) {
+            return "java.lang.String".equals(name);
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
             if (klassID == stringID) {
-                ByteBuffer bb = ByteBuffer.wrap(bytes);
-                long valueId;
-                switch (stringValueSize) {
-                    case 4:
-                        valueId = bb.getInt(stringValueOffset);
-                        break;
-                    case 8:
-                        valueId = bb.getLong(stringValueOffset);
-                        break;
-                    default:
-                        throw new IllegalStateException("Cannot handle string value size: " + stringValueSize);
+                if (stringValueSize != 4 && stringValueSize != 8) {
+                    throw new IllegalStateException("Cannot handle string value size: " + stringValueSize);
                 }
-                valuesToStrings.put(valueId, id);
+                long valueId = HeapDumpReader.readId(contents, contents.position() + stringValueOffset, stringValueSize);
+                valuesToStrings.add(valueId, 1);
             }
         }
 
@@ -191,30 +247,276 @@ public class HeapDumpStrings implements Operation {
             }
         }
 
-        public Multimap<Long, Long> valuesToStrings() {
+        public LongIntHashMap valuesToStrings() {
             return valuesToStrings;
         }
     }
 
+    /**
+     * Discovers Strings and the contents of all byte[] and char[] arrays in a single pass.
+     * The dump does not order the arrays after the Strings that reference them, so we record
+     * all potential String values, and match them after the pass.
+     * <p>
+     * When the table fills up, the arrays that no String has referenced yet are dropped. The Strings
+     * that come later and reference the dropped arrays are left for another pass, see {@link #unmatched()}.
+     */
+    public static class StringArrayVisitor extends StringVisitor {
+        // ID, 128-bit hash, length, and 32-byte prefix.
+        private static final int ENTRY_BYTES = 8 + 16 + 4 + 32;
+
+        private final long maxEntries;
+        private BigLongArray ids = new BigLongArray();
+        private BigLongArray hashes = new BigLongArray();
+        private BigLongArray hashes2 = new BigLongArray();
+        private final Murmur3 murmur = new Murmur3();
+        private BigIntArray lengths = new BigIntArray();
+        private BigLongArray prefixes = new BigLongArray();
+        private boolean overflow;
+        private boolean dropped;
+        private LongIntHashMap unmatched = new LongIntHashMap();
+
+        /**
+         * @param budget memory budget for the contents table, in bytes; once exceeded,
+         *               the visitor discards the table, and only discovers String objects
+         */
+        public StringArrayVisitor(long budget) {
+            this.maxEntries = budget / ENTRY_BYTES;
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            return !overflow && (componentType.equals("byte") || componentType.equals("char"));
+        }
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer bytes) {
+            if (overflow) {
+                return;
+            }
+            if (ids.size() >= maxEntries) {
+                dropUnreferenced();
+                if (ids.size() >= maxEntries / 2) {
+                    // Most of the table is the String values, dropping more would not help.
+                    overflow = true;
+                    ids.close();
+                    hashes.close();
+                    hashes2.close();
+                    lengths.close();
+                    prefixes.close();
+                    ids = hashes = hashes2 = prefixes = null;
+                    lengths = null;
+                    return;
+                }
+            }
+
+            ids.add(id);
+            murmur.hash(bytes, 0);
+            hashes.add(murmur.h1());
+            hashes2.add(murmur.h2());
+            // Length is positive, the sign bit tells char[].
+            lengths.add(componentType.equals("char") ? ~count : count);
+
+            int pos = bytes.position();
+            int len = Math.min(bytes.remaining(), 32);
+            for (int w = 0; w < 32; w += 8) {
+                long v = 0;
+                for (int b = 0; b < 8 && w + b < len; b++) {
+                    v |= (bytes.get(pos + w + b) & 0xFFL) << (b * 8);
+                }
+                prefixes.add(v);
+            }
+        }
+
+        private void dropUnreferenced() {
+            LongIntHashMap values = valuesToStrings();
+            long size = 0;
+            for (long i = 0; i < ids.size(); i++) {
+                if (values.containsKey(ids.get(i))) {
+                    ids.set(size, ids.get(i));
+                    hashes.set(size, hashes.get(i));
+                    hashes2.set(size, hashes2.get(i));
+                    lengths.set(size, lengths.get(i));
+                    for (int w = 0; w < 4; w++) {
+                        prefixes.set(size * 4 + w, prefixes.get(i * 4 + w));
+                    }
+                    size++;
+                }
+            }
+            if (size < ids.size()) {
+                dropped = true;
+                ids.resize(size);
+                hashes.resize(size);
+                hashes2.resize(size);
+                lengths.resize(size);
+                prefixes.resize(size * 4);
+            }
+        }
+
+        /**
+         * Passes the contents of discovered String values to the visitor, in dump order.
+         *
+         * @return false, if contents table did not fit the budget, and another pass is needed
+         */
+        public boolean join(StringValueVisitor svv) {
+            if (overflow) {
+                return false;
+            }
+            LongIntHashMap values = valuesToStrings();
+            LongIntHashMap matched = new LongIntHashMap();
+            for (long i = 0; i < ids.size(); i++) {
+                if (!values.containsKey(ids.get(i))) {
+                    continue;
+                }
+                if (dropped) {
+                    matched.put(ids.get(i), 1);
+                }
+                int len = lengths.get(i);
+                String componentType = (len < 0) ? "char" : "byte";
+                int count = (len < 0) ? ~len : len;
+                int bytes = (len < 0) ? count * 2 : count;
+
+                byte[] prefix = new byte[Math.min(bytes, 32)];
+                for (int b = 0; b < prefix.length; b++) {
+                    prefix[b] = (byte) (prefixes.get(i * 4 + b / 8) >>> ((b % 8) * 8));
+                }
+                svv.addContents(new StringContents(count, componentType, prefix, hashes.get(i), hashes2.get(i)));
+            }
+            ids.close();
+            hashes.close();
+            hashes2.close();
+            lengths.close();
+            prefixes.close();
+
+            if (dropped) {
+                for (long id : values.keys()) {
+                    if (!matched.containsKey(id)) {
+                        unmatched.put(id, values.get(id));
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return String values that might have been dropped from the table, and need another pass;
+         *         only valid after {@link #join(StringValueVisitor)}
+         */
+        public LongIntHashMap unmatched() {
+            return unmatched;
+        }
+    }
+
     public static class StringValueVisitor extends HeapDumpReader.Visitor {
-        private final Multimap<Long, Long> valuesToStrings;
+        private LongIntHashMap valuesToStrings;
         private final Multiset<StringContents> contents = new Multiset<>();
 
-        public StringValueVisitor(Multimap<Long, Long> valuesToStrings) {
+        private ExternalCounter spill;
+        private final Murmur3 murmur = new Murmur3();
+        private final long[] record = new long[8];
+        private final ByteBuffer prefix = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+        public StringValueVisitor(LongIntHashMap valuesToStrings) {
             this.valuesToStrings = valuesToStrings;
         }
 
+        /**
+         * Looks only for the given String values from now on, keeping the contents found so far.
+         */
+        public void setValues(LongIntHashMap valuesToStrings) {
+            this.valuesToStrings = valuesToStrings;
+        }
+
+        /**
+         * Counts the contents on disk, instead of in memory. Contents get only
+         * the duplicated Strings after {@link #loadSpilled()}.
+         */
+        public void setSpill(ExternalCounter spill) {
+            this.spill = spill;
+        }
+
+        /**
+         * Aggregates the spilled contents, and keeps the duplicated ones.
+         *
+         * @return number of run files that were written
+         */
+        public int loadSpilled() throws IOException {
+            int spills = spill.spills();
+            spill.aggregate((key, count, values) -> {
+                if (count > 1) {
+                    String componentType = (key[0] == 0) ? "byte" : "char";
+                    int length = (int) key[1];
+                    int bytes = (key[0] == 0) ? length : length * 2;
+                    ((Buffer) prefix).clear();
+                    for (long v : values) {
+                        prefix.putLong(v);
+                    }
+                    byte[] p = new byte[Math.min(bytes, 32)];
+                    ((Buffer) prefix).flip();
+                    prefix.get(p);
+                    contents.add(new StringContents(length, componentType, p, key[2], key[3]), count);
+                }
+            });
+            spill.close();
+            spill = null;
+            return spills;
+        }
+
+        private void spill(String componentType, int count, ByteBuffer bytes) {
+            murmur.hash(bytes, 0);
+            record[0] = componentType.equals("byte") ? 0 : 1;
+            record[1] = count;
+            record[2] = murmur.h1();
+            record[3] = murmur.h2();
+
+            ((Buffer) prefix).clear();
+            ByteBuffer b = bytes.duplicate();
+            ((Buffer) b).limit(b.position() + Math.min(b.remaining(), 32));
+            prefix.put(b);
+            while (prefix.hasRemaining()) {
+                prefix.put((byte) 0);
+            }
+            for (int i = 0; i < 4; i++) {
+                record[4 + i] = prefix.getLong(i * 8);
+            }
+
+            try {
+                spill.add(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
         @Override
-        public void visitArray(long id, String componentType, int count, byte[] bytes) {
-            if (valuesToStrings.contains(id)) {
-                contents.add(new StringContents(count, componentType, bytes));
+        public boolean acceptsObjArrays(long klassID, String name) {
+            return false;
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            // String values are either Latin1/UTF16 byte[], or UTF16 char[].
+            return componentType.equals("byte") || componentType.equals("char");
+        }
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer bytes) {
+            if (valuesToStrings.containsKey(id)) {
+                if (spill != null) {
+                    spill(componentType, count, bytes);
+                } else {
+                    contents.add(new StringContents(count, componentType, bytes));
+                }
             }
         }
 
-        public void computeDuplicates(PrintStream ps, Layouter layouter) {
-            long stringSize = layouter.layout(ClassData.parseClass(String.class)).instanceSize();
+        void addContents(StringContents sc) {
+            contents.add(sc);
+        }
+
+        public void computeDuplicates(PrintStream ps, ReportSink sink, Layouter layouter) {
+            long stringSize = layouter.instanceSize(ClassData.parseClass(String.class));
 
             ASCIITable table = new ASCIITable(
+                    sink,
                     false,
                     "=== Duplicate Strings\n" +
                     "  DUPS: Number of duplicated String instances\n" +
@@ -226,7 +528,7 @@ public class HeapDumpStrings implements Operation {
                 long count = contents.count(sc) - 1;
                 if (count > 0) {
                     ClassData cd = new ClassData(sc.componentType + "[]", sc.componentType, sc.length);
-                    long size = layouter.layout(cd).instanceSize();
+                    long size = layouter.instanceSize(cd);
                     table.addLine(
                             sc.value() + ((sc.length > 32) ? "... (" + sc.length + " chars)" : ""),
                             count,
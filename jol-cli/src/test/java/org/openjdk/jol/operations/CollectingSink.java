@@ -0,0 +1,31 @@
+package org.openjdk.jol.operations;
+
+import org.openjdk.jol.util.ReportSink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the report rows as "table:[numbers]:value" strings.
+ */
+class CollectingSink implements ReportSink {
+    final List<String> tables = new ArrayList<>();
+    final List<String> rows = new ArrayList<>();
+
+    @Override
+    public int table(String name, String... columns) {
+        tables.add(name);
+        return tables.size() - 1;
+    }
+
+    @Override
+    public void row(int table, Comparable value, Long... numbers) {
+        rows.add(table + ":" + Arrays.toString(numbers) + ":" + value);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to do.
+    }
+}
@@ -0,0 +1,113 @@
+package org.openjdk.jol.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.datamodel.Model64;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.heap.HprofBuilder;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class HeapDumpArraysTest {
+
+    private static int lastNonZeroSimple(ByteBuffer buf) {
+        for (int i = buf.limit() - 1; i >= buf.position(); i--) {
+            if (buf.get(i) != 0) {
+                return i - buf.position();
+            }
+        }
+        return -1;
+    }
+
+    private static void checkLastNonZero(ByteBuffer buf) {
+        for (int start = 0; start < 12; start++) {
+            for (int len = 0; start + len <= buf.capacity(); len++) {
+                ((Buffer) buf).limit(start + len).position(start);
+                int expected = lastNonZeroSimple(buf);
+                Assert.assertEquals("position " + start + ", length " + len + ", " + buf.order(),
+                        expected, HeapDumpArrays.lastNonZero(buf));
+                Assert.assertEquals(start, buf.position());
+                Assert.assertEquals(start + len, buf.limit());
+            }
+        }
+    }
+
+    @Test
+    public void lastNonZero() {
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            for (boolean direct : new boolean[] { false, true }) {
+                ByteBuffer buf = direct ? ByteBuffer.allocateDirect(80) : ByteBuffer.allocate(80);
+                buf.order(order);
+
+                // All zeros.
+                checkLastNonZero(buf);
+
+                // Single non-zero byte at every offset, including inside the skipped words.
+                for (int nz = 0; nz < buf.capacity(); nz++) {
+                    buf.put(nz, (byte) 0x80);
+                    checkLastNonZero(buf);
+                    buf.put(nz, (byte) 0);
+                }
+
+                // Non-zero bytes before the zero run.
+                buf.put(3, (byte) 1);
+                buf.put(9, (byte) 1);
+                checkLastNonZero(buf);
+                buf.put(3, (byte) 0);
+                buf.put(9, (byte) 0);
+            }
+        }
+    }
+
+    private static byte[] ints(int... values) {
+        ByteBuffer bb = ByteBuffer.allocate(values.length * 4);
+        for (int v : values) {
+            bb.putInt(v);
+        }
+        return bb.array();
+    }
+
+    @Test
+    public void trailingZeros() throws Exception {
+        final long arr = 0x300;
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(arr, "[Ljava/lang/Object;");
+        b.primArray(0x1000, HprofBuilder.INT, 4, ints(1, 0, 0, 0));
+        b.primArray(0x2000, HprofBuilder.INT, 4, ints(1, 2, 3, 4));
+        b.primArray(0x3000, HprofBuilder.INT, 0, new byte[0]);
+        b.primArray(0x4000, HprofBuilder.BYTE, 10, new byte[10]);
+        b.objArray(0x5000, arr, 0x1000, 0x2000, 0, 0);
+
+        File file = HprofBuilder.tempFile("jol-arrays", ".hprof");
+        b.write(file);
+
+        HotSpotLayouter layouter = new HotSpotLayouter(new Model64(false, false, 8), 17);
+        HeapDumpArrays.ArrayVisitor av = new HeapDumpArrays.ArrayVisitor(layouter);
+        new HeapDumpReader(file, null, av).parse();
+
+        CollectingSink sink = new CollectingSink();
+        av.printOut(new PrintStream(new ByteArrayOutputStream()), sink);
+
+        long int4 = layouter.arraySize("int", 4);
+        long int0 = layouter.arraySize("int", 0);
+        long int1 = layouter.arraySize("int", 1);
+        long byte10 = layouter.arraySize("byte", 10);
+        long obj4 = layouter.arraySize("java.lang.Object", 4);
+        long obj2 = layouter.arraySize("java.lang.Object", 2);
+
+        Assert.assertTrue(sink.rows.contains("0:[3, " + (2 * int4 + int0) + ", 0, " + (int4 - int1) + "]:int[]"));
+        Assert.assertTrue(sink.rows.contains("0:[1, " + byte10 + ", 1, " + (byte10 - layouter.arraySize("byte", 0)) + "]:byte[]"));
+        Assert.assertTrue(sink.rows.contains("0:[1, " + obj4 + ", 0, " + (obj4 - obj2) + "]:java.lang.Object[]"));
+
+        // Length 4 arrays: one at 25%, one at 50%, one full. Length 10: one all zeros.
+        Assert.assertTrue(sink.rows.contains("1:[0, 0, 1, 1, 0, 1]:4..7"));
+        Assert.assertTrue(sink.rows.contains("1:[1, 0, 0, 0, 0, 0]:8..15"));
+    }
+
+}
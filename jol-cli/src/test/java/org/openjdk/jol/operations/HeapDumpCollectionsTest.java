@@ -0,0 +1,120 @@
+package org.openjdk.jol.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.datamodel.Model64;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.heap.HprofBuilder;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+public class HeapDumpCollectionsTest {
+
+    private static final long ARRAY = 0x10;
+    private static final long HASH_MAP = 0x20;
+    private static final long CHM = 0x30;
+    private static final long ARRAY_LIST = 0x40;
+    private static final long ARRAY_DEQUE = 0x50;
+
+    private static byte[] loadFactor(float lf) throws Exception {
+        return HprofBuilder.fields(Float.floatToIntBits(lf));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int len = 0;
+        for (byte[] p : parts) {
+            len += p.length;
+        }
+        byte[] r = new byte[len];
+        int off = 0;
+        for (byte[] p : parts) {
+            System.arraycopy(p, 0, r, off, p.length);
+            off += p.length;
+        }
+        return r;
+    }
+
+    private static File dump() throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(ARRAY, "[Ljava/lang/Object;");
+        b.loadClass(HASH_MAP, "java/util/HashMap");
+        b.loadClass(CHM, "java/util/concurrent/ConcurrentHashMap");
+        b.loadClass(ARRAY_LIST, "java/util/ArrayList");
+        b.loadClass(ARRAY_DEQUE, "java/util/ArrayDeque");
+        b.classDump(HASH_MAP, 0, 20, new Object[]{
+                "size", HprofBuilder.INT, "table", HprofBuilder.OBJECT,
+                "threshold", HprofBuilder.INT, "loadFactor", HprofBuilder.FLOAT});
+        b.classDump(CHM, 0, 28, new Object[]{
+                "baseCount", HprofBuilder.LONG, "table", HprofBuilder.OBJECT,
+                "sizeCtl", HprofBuilder.INT, "counterCells", HprofBuilder.OBJECT});
+        b.classDump(ARRAY_LIST, 0, 12, new Object[]{
+                "size", HprofBuilder.INT, "elementData", HprofBuilder.OBJECT});
+        b.classDump(ARRAY_DEQUE, 0, 16, new Object[]{
+                "elements", HprofBuilder.OBJECT, "head", HprofBuilder.INT, "tail", HprofBuilder.INT});
+
+        // HashMap capacity comes from threshold and load factor, the table itself is not needed.
+        b.instance(0x1000, HASH_MAP, concat(HprofBuilder.fields(0, 0L, 16), loadFactor(0.75f)));    // empty, lazy table
+        b.instance(0x1010, HASH_MAP, concat(HprofBuilder.fields(1, 0x9000L, 12), loadFactor(0.75f))); // singleton, 16
+        b.instance(0x1020, HASH_MAP, concat(HprofBuilder.fields(2, 0x9010L, 48), loadFactor(0.75f))); // sparse, 64
+
+        // ConcurrentHashMap capacity comes from sizeCtl: 48 is 64 - 64/4.
+        b.instance(0x2000, CHM, HprofBuilder.fields(3L, 0x9020L, 48, 0L));      // sparse, 64
+        b.instance(0x2010, CHM, HprofBuilder.fields(3L, 0x9030L, 48, 0x9040L)); // size in counter cells
+
+        // Backing arrays before the collections are resolved from the recent arrays.
+        b.objArray(0x3000, ARRAY, new long[10]);
+        b.objArray(0x3010, ARRAY, new long[64]);
+        b.instance(0x4000, ARRAY_LIST, HprofBuilder.fields(2, 0x3000L));        // sparse, 10
+        b.instance(0x4010, ARRAY_DEQUE, HprofBuilder.fields(0x3010L, 60, 2));   // wraps around: 6 of 64
+
+        // Backing arrays after the collections are resolved from the pending collections.
+        b.instance(0x4020, ARRAY_LIST, HprofBuilder.fields(1, 0x3020L));        // singleton
+        b.instance(0x4030, ARRAY_DEQUE, HprofBuilder.fields(0x3030L, 62, 1));   // wraps around: 3 of 64
+        b.instance(0x4040, ARRAY_LIST, HprofBuilder.fields(5, 0x3040L));        // array never seen
+        b.objArray(0x3020, ARRAY, new long[1]);
+        b.objArray(0x3030, ARRAY, new long[64]);
+
+        File file = HprofBuilder.tempFile("jol-collections", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    /**
+     * @return INSTANCES, EMPTY, SINGLETON, SPARSE of the collection class
+     */
+    private static String counts(CollectingSink sink, String name) {
+        for (String r : sink.rows) {
+            if (r.startsWith("0:") && r.endsWith("]:" + name)) {
+                String[] n = r.substring(3, r.indexOf(']')).split(", ");
+                return n[0] + " " + n[2] + " " + n[3] + " " + n[4];
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void capacities() throws Exception {
+        HotSpotLayouter layouter = new HotSpotLayouter(new Model64(false, false, 8), 17);
+        HeapDumpCollections.CollectionVisitor cv = new HeapDumpCollections.CollectionVisitor(layouter);
+        new HeapDumpReader(dump(), null, cv).parse();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CollectingSink sink = new CollectingSink();
+        try (PrintStream ps = new PrintStream(bos, true, "UTF-8")) {
+            cv.printOut(ps, sink);
+        }
+
+        Assert.assertEquals("3 1 1 1", counts(sink, "java.util.HashMap"));
+        Assert.assertEquals("2 0 0 1", counts(sink, "java.util.concurrent.ConcurrentHashMap"));
+        Assert.assertEquals("3 0 1 1", counts(sink, "java.util.ArrayList"));
+        Assert.assertEquals("2 0 0 2", counts(sink, "java.util.ArrayDeque"));
+
+        String text = new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(text, text.contains("Capacity or size is not known for 2 collections"));
+    }
+
+}
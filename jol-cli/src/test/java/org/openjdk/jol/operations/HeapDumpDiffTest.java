@@ -0,0 +1,109 @@
+package org.openjdk.jol.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.datamodel.Model64;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.heap.HprofBuilder;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.layouters.Layouter;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+public class HeapDumpDiffTest {
+
+    private final Layouter layouter = new HotSpotLayouter(new Model64(false, false, 8), 17);
+
+    private static void classes(HprofBuilder b, long base) throws Exception {
+        b.loadClass(base + 0x100, "test/A");
+        b.loadClass(base + 0x200, "test/B");
+        b.loadClass(base + 0x300, "test/C");
+        b.classDump(base + 0x100, 0, 4, new Object[]{"x", HprofBuilder.INT});
+        b.classDump(base + 0x200, 0, 8, new Object[]{"y", HprofBuilder.LONG});
+        b.classDump(base + 0x300, 0, 4, new Object[]{"z", HprofBuilder.INT});
+    }
+
+    private static File before() throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        classes(b, 0);
+        b.instance(0x1000, 0x100, HprofBuilder.fields(1));
+        b.instance(0x1010, 0x100, HprofBuilder.fields(2));
+        b.instance(0x1020, 0x100, HprofBuilder.fields(3));
+        b.instance(0x2000, 0x200, HprofBuilder.fields(4L));
+        b.instance(0x4000, 0x300, HprofBuilder.fields(5));
+        b.primArray(0x3000, HprofBuilder.INT, 1, HprofBuilder.fields(6));
+
+        File file = HprofBuilder.tempFile("jol-diff", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    private static File after() throws Exception {
+        // Class IDs differ from the first dump: the classes are matched by name.
+        HprofBuilder b = new HprofBuilder();
+        classes(b, 0x10000);
+        b.instance(0x1000, 0x10100, HprofBuilder.fields(1));
+        b.instance(0x1010, 0x10200, HprofBuilder.fields(7L));
+        b.instance(0x1030, 0x10100, HprofBuilder.fields(8));
+        b.instance(0x2000, 0x10200, HprofBuilder.fields(4L));
+        b.instance(0x4010, 0x10300, HprofBuilder.fields(5));
+        b.primArray(0x3000, HprofBuilder.INT, 1, HprofBuilder.fields(6));
+        b.primArray(0x3010, HprofBuilder.INT, 1, HprofBuilder.fields(9));
+
+        File file = HprofBuilder.tempFile("jol-diff", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    private Map<String, long[]> histogram(File file, HeapDumpReader.Visitor visitor) throws Exception {
+        return HeapDumpOperation.classHistogram(layouter, new HeapDumpReader(file, null, visitor).parse());
+    }
+
+    @Test
+    public void growth() throws Exception {
+        SortedMap<String, long[]> growth = HeapDumpDiff.growth(histogram(before(), null), histogram(after(), null));
+
+        // C moved, but did not change in count or size.
+        Assert.assertEquals("[int[], test.A, test.B]", growth.keySet().toString());
+
+        long[] a = growth.get("test.A");
+        Assert.assertEquals(2, a[0]);
+        Assert.assertEquals(-1, a[1]);
+        Assert.assertEquals(-a[2] / 2, a[3]);
+
+        long[] b = growth.get("test.B");
+        Assert.assertEquals(2, b[0]);
+        Assert.assertEquals(1, b[1]);
+        Assert.assertEquals(b[2] / 2, b[3]);
+
+        long[] ints = growth.get("int[]");
+        Assert.assertEquals(2, ints[0]);
+        Assert.assertEquals(1, ints[1]);
+        Assert.assertEquals(ints[2] / 2, ints[3]);
+    }
+
+    @Test
+    public void survivors() throws Exception {
+        try (HeapDumpDiff.IdVisitor b = new HeapDumpDiff.IdVisitor();
+             HeapDumpDiff.IdVisitor a = new HeapDumpDiff.IdVisitor()) {
+            histogram(before(), b);
+            histogram(after(), a);
+
+            long[] survived = HeapDumpDiff.survived(b, a);
+            Map<String, Long> byName = new HashMap<>();
+            for (int c = 0; c < survived.length; c++) {
+                byName.put(a.names.get(c), survived[c]);
+            }
+
+            // A at 0x1010 was replaced by B at the same address: not a survivor.
+            Assert.assertEquals(Long.valueOf(1), byName.get("test.A"));
+            Assert.assertEquals(Long.valueOf(1), byName.get("test.B"));
+            Assert.assertEquals(Long.valueOf(0), byName.get("test.C"));
+            Assert.assertEquals(Long.valueOf(1), byName.get("int[]"));
+        }
+    }
+
+}
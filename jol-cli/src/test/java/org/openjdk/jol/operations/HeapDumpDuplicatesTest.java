@@ -0,0 +1,66 @@
+package org.openjdk.jol.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.heap.HeapDumpContents;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.heap.HprofBuilder;
+
+import java.io.File;
+
+public class HeapDumpDuplicatesTest {
+
+    @Test
+    public void verifiesObjectArrays() throws Exception {
+        final long arr = 0x300;
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(arr, "[Ljava/lang/Object;");
+        b.objArray(0x1000, arr, 0x10, 0x20);
+        b.objArray(0x2000, arr, 0x10, 0x20);
+        b.objArray(0x3000, arr, 0x10, 0x30);
+
+        File file = HprofBuilder.tempFile("jol-duplicates", ".hprof");
+        b.write(file);
+
+        HeapDumpDuplicates.ArrayContentsVisitor av = new HeapDumpDuplicates.ArrayContentsVisitor();
+        HeapDumpReader reader = new HeapDumpReader(file, null, av);
+        av.setReader(reader);
+        reader.parse();
+
+        try (HeapDumpContents contents = new HeapDumpContents(file, reader.idSize())) {
+            av.verify(contents);
+        }
+
+        Assert.assertEquals(8, reader.idSize());
+        Assert.assertEquals(1, av.candidates);
+        Assert.assertEquals(0, av.collisions);
+    }
+
+    @Test
+    public void verifiesInterleavedDuplicates() throws Exception {
+        final long arr = 0x300;
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(arr, "[Ljava/lang/Object;");
+        b.objArray(0x1000, arr, 0x10, 0x20);
+        b.objArray(0x2000, arr, 0x30, 0x40);
+        b.objArray(0x3000, arr, 0x10, 0x20);
+        b.objArray(0x4000, arr, 0x30, 0x40);
+        b.objArray(0x5000, arr, 0x10, 0x20);
+
+        File file = HprofBuilder.tempFile("jol-duplicates", ".hprof");
+        b.write(file);
+
+        HeapDumpDuplicates.ArrayContentsVisitor av = new HeapDumpDuplicates.ArrayContentsVisitor();
+        HeapDumpReader reader = new HeapDumpReader(file, null, av);
+        av.setReader(reader);
+        reader.parse();
+
+        try (HeapDumpContents contents = new HeapDumpContents(file, reader.idSize())) {
+            av.verify(contents);
+        }
+
+        Assert.assertEquals(3, av.candidates);
+        Assert.assertEquals(0, av.collisions);
+    }
+
+}
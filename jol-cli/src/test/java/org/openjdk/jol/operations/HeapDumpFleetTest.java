@@ -0,0 +1,111 @@
+package org.openjdk.jol.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.heap.HprofBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+public class HeapDumpFleetTest {
+
+    /**
+     * Reads the dumps without the command line options.
+     */
+    private static class Fleet extends HeapDumpFleet {
+        @Override
+        protected HeapDumpReader newReader(String path, PrintStream verboseOut, HeapDumpReader.Visitor visitor) throws IOException {
+            return new HeapDumpReader(new File(path), verboseOut, visitor);
+        }
+    }
+
+    private static File dump(int as, int bs) throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(0x100, "test/A");
+        b.loadClass(0x200, "test/B");
+        b.classDump(0x100, 0, 4, new Object[]{"x", HprofBuilder.INT});
+        b.classDump(0x200, 0, 8, new Object[]{"y", HprofBuilder.LONG});
+        long id = 0x1000;
+        for (int c = 0; c < as; c++) {
+            b.instance(id, 0x100, HprofBuilder.fields(c));
+            id += 0x10;
+        }
+        for (int c = 0; c < bs; c++) {
+            b.instance(id, 0x200, HprofBuilder.fields((long) c));
+            id += 0x10;
+        }
+
+        File file = HprofBuilder.tempFile("jol-fleet", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    private static File broken() throws Exception {
+        File file = HprofBuilder.tempFile("jol-fleet", ".hprof");
+        Files.write(file.toPath(), "JAVA PROFILE 1.0.2 is not here".getBytes());
+        return file;
+    }
+
+    @Test
+    public void aggregates() throws Exception {
+        File d1 = dump(3, 1);
+        File d2 = dump(1, 0);
+        File d3 = dump(2, 2);
+
+        HeapDumpFleet.Result[] results = new Fleet().readAll(Arrays.asList(d1.getPath(), d2.getPath(), d3.getPath()), 2);
+        Assert.assertEquals(3, results.length);
+
+        // Results are in the order of paths, not in the order of completion.
+        Assert.assertEquals(3, results[0].histogram.get("test.A")[0]);
+        Assert.assertEquals(1, results[1].histogram.get("test.A")[0]);
+        Assert.assertEquals(0, results[1].histogram.get("test.B")[0]);
+        Assert.assertEquals(2, results[2].histogram.get("test.B")[0]);
+
+        // Classes without instances do not count towards the dumps that have them.
+        Map<String, long[]> fleet = HeapDumpFleet.aggregate(results);
+        long[] a = fleet.get("test.A");
+        long sizeA = results[1].histogram.get("test.A")[1];
+        Assert.assertArrayEquals(new long[]{3, 6, 6 * sizeA, 3 * sizeA}, a);
+        long[] b = fleet.get("test.B");
+        long sizeB = results[0].histogram.get("test.B")[1];
+        Assert.assertArrayEquals(new long[]{2, 3, 3 * sizeB, 2 * sizeB}, b);
+    }
+
+    @Test
+    public void survivesBrokenDump() throws Exception {
+        File d1 = dump(3, 1);
+        File d2 = broken();
+        File d3 = dump(2, 2);
+
+        HeapDumpFleet.Result[] results = new Fleet().readAll(Arrays.asList(d1.getPath(), d2.getPath(), d3.getPath()), 3);
+        Assert.assertNotNull(results[0]);
+        Assert.assertNull(results[1]);
+        Assert.assertNotNull(results[2]);
+
+        // The broken dump is left out of the aggregate.
+        Map<String, long[]> fleet = HeapDumpFleet.aggregate(results);
+        Assert.assertEquals(2, fleet.get("test.A")[0]);
+        Assert.assertEquals(5, fleet.get("test.A")[1]);
+        Assert.assertEquals(3, fleet.get("test.B")[1]);
+    }
+
+    @Test
+    public void splitsThreads() {
+        // Readers share the CPUs, and get at least one digest thread each.
+        Assert.assertEquals(16, HeapDumpFleet.digestThreads(16, 1));
+        Assert.assertEquals(4, HeapDumpFleet.digestThreads(16, 4));
+        Assert.assertEquals(2, HeapDumpFleet.digestThreads(8, 3));
+        Assert.assertEquals(1, HeapDumpFleet.digestThreads(4, 8));
+
+        // Concurrent readers are bounded by both the CPUs and the heap.
+        Assert.assertEquals(8, HeapDumpFleet.defaultThreads(8, 100 * HeapDumpFleet.READER_MEMORY));
+        Assert.assertEquals(3, HeapDumpFleet.defaultThreads(8, 3 * HeapDumpFleet.READER_MEMORY + 1));
+        Assert.assertEquals(1, HeapDumpFleet.defaultThreads(8, 0));
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.openjdk.jol.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.datamodel.Model64;
+import org.openjdk.jol.heap.HeapDumpReader;
+import org.openjdk.jol.heap.HprofBuilder;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.util.Multiset;
+
+import java.io.File;
+
+public class HeapDumpStatsTest {
+
+    private static final int SEGMENTS = 40;
+    private static final int INSTANCES = 10;
+
+    /**
+     * Only A instances in the first half of the dump, then B instances that outgrow them.
+     */
+    private static File dump() throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(0x100, "test/A");
+        b.loadClass(0x200, "test/B");
+        b.classDump(0x100, 0, 4, new Object[]{"x", HprofBuilder.INT});
+        b.classDump(0x200, 0, 32, new Object[]{"a", HprofBuilder.LONG, "b", HprofBuilder.LONG, "c", HprofBuilder.LONG, "d", HprofBuilder.LONG});
+        b.endSegment();
+
+        long id = 0x10000;
+        for (int s = 0; s < SEGMENTS; s++) {
+            for (int c = 0; c < INSTANCES; c++) {
+                if (s < SEGMENTS / 2) {
+                    b.instance(id, 0x100, HprofBuilder.fields(c));
+                } else {
+                    b.instance(id, 0x200, HprofBuilder.fields((long) c, 0L, 0L, 0L));
+                }
+                id += 0x10;
+            }
+            b.endSegment();
+        }
+
+        File file = HprofBuilder.tempFile("jol-stats", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    private static long count(Multiset<ClassData> data, String name) {
+        long count = 0;
+        for (ClassData cd : data.keys()) {
+            if (cd.name().equals(name)) {
+                count += data.count(cd);
+            }
+        }
+        return count;
+    }
+
+    private static HeapDumpStats.Progress progress(long budget, long stable) {
+        return new HeapDumpStats.Progress(new HotSpotLayouter(new Model64(false, false, 8), 17), false, 1, budget, stable);
+    }
+
+    @Test
+    public void stopsOverBudget() throws Exception {
+        File file = dump();
+        HeapDumpReader reader = new HeapDumpReader(file, null, null);
+        reader.setThreads(1);
+        HeapDumpStats.Progress progress = progress(2000, Long.MAX_VALUE);
+        reader.setProgressListener(500, progress);
+
+        Multiset<ClassData> data = reader.parse();
+
+        Assert.assertTrue(reader.isStopped());
+        Assert.assertTrue(progress.stopReason, progress.stopReason.contains("over the budget"));
+        long a = count(data, "test.A");
+        Assert.assertTrue(a > 0);
+        Assert.assertTrue(a < SEGMENTS / 2 * INSTANCES);
+        Assert.assertEquals(0, count(data, "test.B"));
+    }
+
+    @Test
+    public void stopsWhenStable() throws Exception {
+        File file = dump();
+        HeapDumpReader reader = new HeapDumpReader(file, null, null);
+        reader.setThreads(1);
+        HeapDumpStats.Progress progress = progress(Long.MAX_VALUE, 1000);
+        reader.setProgressListener(250, progress);
+
+        Multiset<ClassData> data = reader.parse();
+
+        // Top class stays A through the first half of the dump.
+        Assert.assertTrue(reader.isStopped());
+        Assert.assertTrue(progress.stopReason, progress.stopReason.startsWith("top 1 classes did not change"));
+        Assert.assertTrue(count(data, "test.A") > 0);
+        Assert.assertEquals(0, count(data, "test.B"));
+    }
+
+    @Test
+    public void readsToEndWhenChanging() throws Exception {
+        File file = dump();
+        HeapDumpReader reader = new HeapDumpReader(file, null, null);
+        reader.setThreads(1);
+        // The stability window is longer than the first half of the dump, where A leads.
+        HeapDumpStats.Progress progress = progress(Long.MAX_VALUE, file.length() * 3 / 4);
+        reader.setProgressListener(250, progress);
+
+        Multiset<ClassData> data = reader.parse();
+
+        Assert.assertFalse(reader.isStopped());
+        Assert.assertNull(progress.stopReason);
+        Assert.assertEquals(SEGMENTS / 2 * INSTANCES, count(data, "test.A"));
+        Assert.assertEquals(SEGMENTS / 2 * INSTANCES, count(data, "test.B"));
+    }
+
+}
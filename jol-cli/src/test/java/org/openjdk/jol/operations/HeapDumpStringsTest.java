@@ -0,0 +1,70 @@
+package org.openjdk.jol.operations;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.util.LongIntHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+public class HeapDumpStringsTest {
+
+    private static final long STRING = 0x100;
+
+    // IDs above 2^31 catch the sign-extended 4-byte IDs.
+    private static final long VALUE1 = 0x80000010L;
+    private static final long VALUE2 = 0x80000020L;
+    private static final long LATE = 0x80000030L;
+
+    private static void string(HeapDumpStrings.StringVisitor v, long id, long value) {
+        ByteBuffer contents = ByteBuffer.allocate(4);
+        contents.putInt(0, (int) value);
+        v.visitInstance(id, STRING, contents, "java.lang.String");
+    }
+
+    private static void array(HeapDumpStrings.StringVisitor v, long id) {
+        v.visitArray(id, "byte", 4, ByteBuffer.wrap(new byte[]{1, 2, 3, (byte) id}));
+    }
+
+    @Test
+    public void dropsUnreferencedArrays() {
+        // Table fits 4 arrays.
+        HeapDumpStrings.StringArrayVisitor v = new HeapDumpStrings.StringArrayVisitor(4 * 60);
+        v.visitClass(STRING, "java.lang.String", Collections.singletonList(0), 4);
+
+        string(v, 0x1000, VALUE1);
+        array(v, VALUE1);
+        array(v, 0x2000);
+        array(v, LATE);
+        array(v, 0x2010);
+
+        // Full table: the arrays no String refers to yet are dropped.
+        array(v, VALUE2);
+        string(v, 0x1010, VALUE2);
+        string(v, 0x1020, LATE);
+
+        HeapDumpStrings.StringValueVisitor svv = new HeapDumpStrings.StringValueVisitor(v.valuesToStrings());
+        Assert.assertTrue(v.join(svv));
+
+        // Only the String that came after its dropped array is left for another pass.
+        LongIntHashMap unmatched = v.unmatched();
+        Assert.assertEquals(1, unmatched.size());
+        Assert.assertTrue(unmatched.containsKey(LATE));
+    }
+
+    @Test
+    public void keepsAllArraysWithinBudget() {
+        HeapDumpStrings.StringArrayVisitor v = new HeapDumpStrings.StringArrayVisitor(4 * 60);
+        v.visitClass(STRING, "java.lang.String", Collections.singletonList(0), 4);
+
+        array(v, LATE);
+        array(v, 0x2000);
+        string(v, 0x1000, VALUE1);
+        string(v, 0x1010, LATE);
+
+        HeapDumpStrings.StringValueVisitor svv = new HeapDumpStrings.StringValueVisitor(v.valuesToStrings());
+        Assert.assertTrue(v.join(svv));
+        Assert.assertTrue(v.unmatched().isEmpty());
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Source of heap dump bytes. All multi-byte values are big-endian, as HPROF requires.
+ * Reads past the end of input throw {@link EOFException}.
+ */
+abstract class DumpInput implements Closeable {
+
+    private static final boolean USE_MMAP = Boolean.parseBoolean(System.getProperty("jol.heapDumpMmap", "true"));
+    private static final boolean PARALLEL_GZIP = Boolean.parseBoolean(System.getProperty("jol.heapDumpParallelGzip", "true"));
+
+    private static final int GZIP_BUF_SIZE =      512 * 1024;
+    private static final int READ_BUF_SIZE = 4 * 1024 * 1024;
+
+    static DumpInput open(File file) throws IOException {
+        if (file.getName().endsWith(".gz")) {
+            if (PARALLEL_GZIP) {
+                return new StreamDumpInput(new ParallelGZIPInputStream(file, HeapDumpReader.THREADS), READ_BUF_SIZE, -1);
+            }
+            return new StreamDumpInput(new GZIPInputStream(new FileInputStream(file), GZIP_BUF_SIZE), READ_BUF_SIZE, -1);
+        }
+        if (USE_MMAP) {
+            try {
+                return new MappedDumpInput(file);
+            } catch (IOException | OutOfMemoryError e) {
+                // Cannot map, most likely due to address space limits. Fall back to streaming.
+            }
+        }
+        return new StreamDumpInput(FileChannel.open(file.toPath(), StandardOpenOption.READ), READ_BUF_SIZE);
+    }
+
+    /**
+     * @return current offset from the beginning of the dump
+     */
+    abstract long position();
+
+    /**
+     * @return total size of the dump, or -1 if not known
+     */
+    abstract long size();
+
+    abstract int u1() throws IOException;
+
+    abstract int u2() throws IOException;
+
+    abstract int u4() throws IOException;
+
+    abstract long u8() throws IOException;
+
+    abstract void skip(long len) throws IOException;
+
+    abstract void read(byte[] dst, int off, int len) throws IOException;
+
+    /**
+     * Prints the input-specific statistics, if any.
+     */
+    void printStats(PrintStream out) {
+        // Nothing by default.
+    }
+
+    /**
+     * Reads the next {@code len} bytes without copying them, if possible.
+     * The contents are between position and limit of the returned buffer.
+     * The buffer is only valid until the next read from this input.
+     */
+    abstract ByteBuffer slice(int len) throws IOException;
+
+    private byte[] scratch;
+    private ByteBuffer scratchView;
+
+    /**
+     * Copies the next {@code len} bytes into the reusable buffer, and returns the read-only view of them.
+     * Serves the slices that cannot be taken from the input buffers directly.
+     */
+    ByteBuffer copy(int len) throws IOException {
+        if (scratch == null || scratch.length < len) {
+            scratch = new byte[Math.max(len, 4096)];
+            scratchView = ByteBuffer.wrap(scratch).asReadOnlyBuffer();
+        }
+        read(scratch, 0, len);
+        ((Buffer) scratchView).limit(len).position(0);
+        return scratchView;
+    }
+
+}
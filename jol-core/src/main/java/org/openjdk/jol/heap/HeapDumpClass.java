@@ -0,0 +1,147 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import org.openjdk.jol.info.FieldData;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class dump record from the heap dump.
+ * <p>
+ * Instance dumps have the field values of the class itself first, then the values of
+ * the super class, and so on. The offsets here are only for the fields declared in this
+ * class, see {@link HeapDumpClasses} for the offsets within the entire instance.
+ */
+public final class HeapDumpClass {
+    private final long id;
+    private final String name;
+    private final long superId;
+    private final long loaderId;
+    private final int instanceSize;
+    private final int idSize;
+    private final List<FieldData> fields;
+    private final int fieldsSize;
+    private final int[] refOffsets;
+    private final String[] refNames;
+    private final long[] staticRefs;
+    private final String[] staticRefNames;
+
+    HeapDumpClass(long id, String name, long superId, long loaderId, int instanceSize, int idSize,
+                  List<FieldData> fields, int fieldsSize, int[] refOffsets, String[] refNames,
+                  long[] staticRefs, String[] staticRefNames) {
+        this.id = id;
+        this.name = name;
+        this.superId = superId;
+        this.loaderId = loaderId;
+        this.instanceSize = instanceSize;
+        this.idSize = idSize;
+        this.fields = Collections.unmodifiableList(fields);
+        this.fieldsSize = fieldsSize;
+        this.refOffsets = refOffsets;
+        this.refNames = refNames;
+        this.staticRefs = staticRefs;
+        this.staticRefNames = staticRefNames;
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return super class ID, or 0 if there is no super class
+     */
+    public long superId() {
+        return superId;
+    }
+
+    /**
+     * @return class loader ID, or 0 for the boot class loader
+     */
+    public long loaderId() {
+        return loaderId;
+    }
+
+    /**
+     * @return instance size, as recorded in the dump
+     */
+    public int instanceSize() {
+        return instanceSize;
+    }
+
+    /**
+     * @return size of references in the dump
+     */
+    public int idSize() {
+        return idSize;
+    }
+
+    /**
+     * @return instance fields declared in this class
+     */
+    public List<FieldData> fields() {
+        return fields;
+    }
+
+    /**
+     * @return number of bytes the declared fields take in the instance dump
+     */
+    public int fieldsSize() {
+        return fieldsSize;
+    }
+
+    /**
+     * @return offsets of declared reference fields, relative to the start of declared fields
+     */
+    public int[] refOffsets() {
+        return refOffsets;
+    }
+
+    /**
+     * @return names of declared reference fields, matching {@link #refOffsets()}
+     */
+    public String[] refNames() {
+        return refNames;
+    }
+
+    /**
+     * @return non-null values of static reference fields
+     */
+    public long[] staticRefs() {
+        return staticRefs;
+    }
+
+    /**
+     * @return names of static reference fields, matching {@link #staticRefs()}
+     */
+    public String[] staticRefNames() {
+        return staticRefNames;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.info.FieldData;
+import org.openjdk.jol.util.LongObjectHashMap;
+
+/**
+ * Visitor that collects the class dumps, and resolves the reference field offsets
+ * within the instances, up the class hierarchy.
+ */
+public class HeapDumpClasses extends HeapDumpReader.Visitor {
+
+    private final LongObjectHashMap<HeapDumpClass> classes = new LongObjectHashMap<>();
+    private final LongObjectHashMap<Refs> refs = new LongObjectHashMap<>();
+    private final LongObjectHashMap<ClassData> classDatas = new LongObjectHashMap<>();
+
+    @Override
+    public void visitClass(HeapDumpClass klass) {
+        classes.put(klass.id(), klass);
+    }
+
+    /**
+     * @return class dump for the given ID, or null if not seen
+     */
+    public HeapDumpClass get(long klassID) {
+        return classes.get(klassID);
+    }
+
+    public long[] ids() {
+        return classes.keys();
+    }
+
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * Returns the offsets of all reference fields within the instance dump,
+     * including the fields declared in super classes.
+     *
+     * @param klassID class ID
+     * @return offsets, or null if class or one of its super classes is not seen
+     */
+    public int[] refOffsets(long klassID) {
+        Refs r = resolve(klassID);
+        return (r != null) ? r.offsets : null;
+    }
+
+    /**
+     * Returns the names of all reference fields, matching {@link #refOffsets(long)}.
+     *
+     * @param klassID class ID
+     * @return names, or null if class or one of its super classes is not seen
+     */
+    public String[] refNames(long klassID) {
+        Refs r = resolve(klassID);
+        return (r != null) ? r.names : null;
+    }
+
+    /**
+     * Returns the offset of the instance field within the instance dump. The class itself
+     * is searched first, then its super classes, so that hiding fields take precedence.
+     *
+     * @param klassID class ID
+     * @param fieldName field name
+     * @return offset, or -1 if field, the class, or one of its super classes is not seen
+     */
+    public int fieldOffset(long klassID, String fieldName) {
+        int base = 0;
+        for (long id = klassID; id != 0; ) {
+            HeapDumpClass k = classes.get(id);
+            if (k == null) {
+                return -1;
+            }
+            int offset = 0;
+            for (FieldData fd : k.fields()) {
+                if (fd.name().equals(fieldName)) {
+                    return base + offset;
+                }
+                offset += fieldSize(fd.typeClass(), k.idSize());
+            }
+            base += k.fieldsSize();
+            id = k.superId();
+        }
+        return -1;
+    }
+
+    private static int fieldSize(String type, int idSize) {
+        switch (type) {
+            case "boolean":
+            case "byte":
+                return 1;
+            case "char":
+            case "short":
+                return 2;
+            case "int":
+            case "float":
+                return 4;
+            case "long":
+            case "double":
+                return 8;
+            default:
+                return idSize;
+        }
+    }
+
+    /**
+     * Returns the class data for layouters, with all the fields up the class hierarchy.
+     *
+     * @param klassID class ID
+     * @return class data, or null if class or one of its super classes is not seen
+     */
+    public ClassData classData(long klassID) {
+        ClassData cd = classDatas.get(klassID);
+        if (cd != null) {
+            return cd;
+        }
+
+        HeapDumpClass klass = classes.get(klassID);
+        if (klass == null) {
+            return null;
+        }
+
+        ClassData superCd = null;
+        if (klass.superId() != 0) {
+            superCd = classData(klass.superId());
+            if (superCd == null) {
+                return null;
+            }
+        }
+
+        cd = new ClassData(klass.name());
+        for (long id = klassID; id != 0; ) {
+            HeapDumpClass k = classes.get(id);
+            cd.addSuperClass(k.name());
+            for (FieldData fd : k.fields()) {
+                cd.addField(fd);
+            }
+            id = k.superId();
+        }
+        if (superCd != null) {
+            cd.addSuperClassData(superCd);
+        }
+
+        classDatas.put(klassID, cd);
+        return cd;
+    }
+
+    private Refs resolve(long klassID) {
+        Refs r = refs.get(klassID);
+        if (r != null) {
+            return r;
+        }
+
+        int count = 0;
+        for (long id = klassID; id != 0; ) {
+            HeapDumpClass k = classes.get(id);
+            if (k == null) {
+                return null;
+            }
+            count += k.refOffsets().length;
+            id = k.superId();
+        }
+
+        int[] offsets = new int[count];
+        String[] names = new String[count];
+        int base = 0;
+        int idx = 0;
+        for (long id = klassID; id != 0; ) {
+            HeapDumpClass k = classes.get(id);
+            int[] ko = k.refOffsets();
+            for (int c = 0; c < ko.length; c++) {
+                offsets[idx] = base + ko[c];
+                names[idx] = k.refNames()[c];
+                idx++;
+            }
+            base += k.fieldsSize();
+            id = k.superId();
+        }
+
+        r = new Refs(offsets, names);
+        refs.put(klassID, r);
+        return r;
+    }
+
+    private static class Refs {
+        final int[] offsets;
+        final String[] names;
+
+        Refs(int[] offsets, String[] names) {
+            this.offsets = offsets;
+            this.names = names;
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the instance and array records from the heap dump by their offsets, see
+ * {@link HeapDumpReader#recordOffset()}. Gives the same contents the visitors see.
+ * Needs random access, so works only with uncompressed dumps.
+ */
+public final class HeapDumpContents implements Closeable {
+
+    private static final int MAX_HEADER = 1 + 8 + 4 + 4 + 8 + 4;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int idSize;
+    private final ByteBuffer header;
+
+    /**
+     * @param file heap dump
+     * @param idSize size of object IDs in the dump, see {@link HeapDumpReader#idSize()}
+     */
+    public HeapDumpContents(File file, int idSize) throws IOException {
+        if (!supports(file)) {
+            throw new IllegalArgumentException("Cannot read records from compressed dump: " + file);
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.idSize = idSize;
+        this.header = ByteBuffer.allocate(MAX_HEADER);
+    }
+
+    /**
+     * @return true, if the records can be read from this dump
+     */
+    public static boolean supports(File file) {
+        return !file.getName().endsWith(".gz");
+    }
+
+    /**
+     * Reads the contents of the record: instance field values, or array elements.
+     *
+     * @param offset record offset
+     * @return contents
+     */
+    public byte[] read(long offset) throws IOException, HeapDumpException {
+        ((Buffer) header).clear();
+        long remaining = channel.size() - offset;
+        if (remaining < MAX_HEADER) {
+            ((Buffer) header).limit((int) Math.max(0, remaining));
+        }
+        readFully(header, offset);
+        ((Buffer) header).flip();
+
+        int tag = header.get() & 0xFF;
+        skipId();
+        header.getInt(); // stack trace serial
+
+        long len;
+        switch (tag) {
+            case 0x21: {
+                skipId(); // class ID
+                len = header.getInt() & 0xFFFFFFFFL;
+                break;
+            }
+            case 0x22: {
+                long count = header.getInt() & 0xFFFFFFFFL;
+                skipId(); // array class ID
+                len = count * idSize;
+                break;
+            }
+            case 0x23: {
+                long count = header.getInt() & 0xFFFFFFFFL;
+                int type = header.get();
+                len = count * HeapDumpReader.getSize(type, idSize);
+                break;
+            }
+            default:
+                throw new HeapDumpException(String.format("Not an instance or array record at offset 0x%x in %s: tag 0x%x", offset, file, tag));
+        }
+
+        if (len > Integer.MAX_VALUE) {
+            throw new HeapDumpException(String.format("Record is too large at offset 0x%x in %s: %d bytes", offset, file, len));
+        }
+
+        ByteBuffer contents = ByteBuffer.allocate((int) len);
+        readFully(contents, offset + header.position());
+        return contents.array();
+    }
+
+    private void skipId() {
+        ((Buffer) header).position(header.position() + idSize);
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + file + " at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
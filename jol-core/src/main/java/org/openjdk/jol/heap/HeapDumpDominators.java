@@ -0,0 +1,376 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import org.openjdk.jol.util.BigIntArray;
+import org.openjdk.jol.util.BigLongArray;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Dominator tree and retained sizes for the heap dump reference graph.
+ * <p>
+ * All GC roots hang off the virtual super-root. Node {@code d} dominates node {@code n} if every
+ * path from the super-root to {@code n} goes through {@code d}. Retained size of the node is the
+ * sum of shallow sizes of all nodes it dominates, including itself: this is how much memory would
+ * be freed if the node was gone. Nodes not reachable from the roots are not in the tree.
+ * <p>
+ * Dominators are computed with Semi-NCA algorithm: semidominators as in Lengauer-Tarjan with simple
+ * path compression, then immediate dominators by walking up the DFS tree. All work is done in DFS
+ * numbering, where dominators come before the nodes they dominate. Per-node arrays are {@link BigIntArray}
+ * and {@link BigLongArray}, which go to memory-mapped files when large. Should be closed to release them.
+ */
+public final class HeapDumpDominators implements Closeable {
+
+    private final HeapDumpGraph graph;
+
+    // DFS numbers: 0 is the super-root, reachable nodes are [1; count).
+    private final int count;
+    private final BigIntArray nodeToDfs;
+    private final BigIntArray dfsToNode;
+    private final BigIntArray idom;
+    private final BigLongArray retained;
+
+    private HeapDumpDominators(HeapDumpGraph graph, int count, BigIntArray nodeToDfs, BigIntArray dfsToNode,
+                               BigIntArray idom, BigLongArray retained) {
+        this.graph = graph;
+        this.count = count;
+        this.nodeToDfs = nodeToDfs;
+        this.dfsToNode = dfsToNode;
+        this.idom = idom;
+        this.retained = retained;
+    }
+
+    /**
+     * Computes the dominator tree and retained sizes.
+     *
+     * @param graph reference graph
+     * @param shallowSize shallow size for the node
+     * @return dominators
+     */
+    public static HeapDumpDominators compute(HeapDumpGraph graph, IntToLongFunction shallowSize) {
+        int nodes = graph.nodes();
+
+        // Depth-first walk from the super-root, numbering the nodes in preorder.
+        BigIntArray nodeToDfs = new BigIntArray(nodes);
+        BigIntArray dfsToNode = new BigIntArray();
+        BigIntArray parent = new BigIntArray();
+        dfsToNode.add(-1);
+        parent.add(0);
+
+        try (BigIntArray stackNodes = new BigIntArray();
+             BigLongArray stackCursors = new BigLongArray()) {
+            for (long r = 0; r < graph.roots(); r++) {
+                int root = graph.root(r);
+                if (nodeToDfs.get(root) != 0) {
+                    continue;
+                }
+                nodeToDfs.set(root, (int) dfsToNode.size());
+                dfsToNode.add(root);
+                parent.add(0);
+
+                long sp = 0;
+                push(stackNodes, stackCursors, sp++, root, graph.edgeStart(root));
+                while (sp > 0) {
+                    int top = stackNodes.get(sp - 1);
+                    long cur = stackCursors.get(sp - 1);
+                    if (cur < graph.edgeStart(top + 1)) {
+                        stackCursors.set(sp - 1, cur + 1);
+                        int w = graph.edge(cur);
+                        if (nodeToDfs.get(w) == 0) {
+                            nodeToDfs.set(w, (int) dfsToNode.size());
+                            dfsToNode.add(w);
+                            parent.add(nodeToDfs.get(top));
+                            push(stackNodes, stackCursors, sp++, w, graph.edgeStart(w));
+                        }
+                    } else {
+                        sp--;
+                    }
+                }
+            }
+        }
+
+        int count = (int) dfsToNode.size();
+
+        // Predecessors in DFS numbering, in CSR layout. The super-root precedes all roots.
+        BigLongArray predStarts = new BigLongArray(count + 1L);
+        for (long r = 0; r < graph.roots(); r++) {
+            int v = nodeToDfs.get(graph.root(r));
+            predStarts.set(v, predStarts.get(v) + 1);
+        }
+        for (int v = 1; v < count; v++) {
+            int node = dfsToNode.get(v);
+            for (long e = graph.edgeStart(node), end = graph.edgeStart(node + 1); e < end; e++) {
+                int w = nodeToDfs.get(graph.edge(e));
+                predStarts.set(w, predStarts.get(w) + 1);
+            }
+        }
+        long total = 0;
+        for (int v = 0; v < count; v++) {
+            total += predStarts.get(v);
+            predStarts.set(v, total);
+        }
+        predStarts.set(count, total);
+
+        BigIntArray preds = new BigIntArray(total);
+        for (long r = 0; r < graph.roots(); r++) {
+            int v = nodeToDfs.get(graph.root(r));
+            long pos = predStarts.get(v) - 1;
+            predStarts.set(v, pos);
+            preds.set(pos, 0);
+        }
+        for (int v = 1; v < count; v++) {
+            int node = dfsToNode.get(v);
+            for (long e = graph.edgeStart(node), end = graph.edgeStart(node + 1); e < end; e++) {
+                int w = nodeToDfs.get(graph.edge(e));
+                long pos = predStarts.get(w) - 1;
+                predStarts.set(w, pos);
+                preds.set(pos, v);
+            }
+        }
+
+        // Semidominators, Lengauer-Tarjan style, processing nodes in reverse preorder.
+        Forest forest = new Forest(count);
+        BigIntArray semi = forest.semi;
+        for (int w = count - 1; w > 0; w--) {
+            int sw = semi.get(w);
+            for (long p = predStarts.get(w), end = predStarts.get(w + 1); p < end; p++) {
+                int su = semi.get(forest.eval(preds.get(p)));
+                if (su < sw) {
+                    sw = su;
+                }
+            }
+            semi.set(w, sw);
+            forest.link(parent.get(w), w);
+        }
+
+        predStarts.close();
+        preds.close();
+        forest.label.close();
+        forest.ancestor.close();
+
+        // Immediate dominators: nearest common ancestor of the parent and semidominator.
+        BigIntArray idom = parent;
+        for (int v = 1; v < count; v++) {
+            int d = idom.get(v);
+            int sv = semi.get(v);
+            while (d > sv) {
+                d = idom.get(d);
+            }
+            idom.set(v, d);
+        }
+        semi.close();
+
+        // Retained sizes: dominators come before the nodes they dominate.
+        BigLongArray retained = new BigLongArray(count);
+        for (int v = 1; v < count; v++) {
+            retained.set(v, shallowSize.applyAsLong(dfsToNode.get(v)));
+        }
+        for (int v = count - 1; v > 0; v--) {
+            int d = idom.get(v);
+            retained.set(d, retained.get(d) + retained.get(v));
+        }
+
+        return new HeapDumpDominators(graph, count, nodeToDfs, dfsToNode, idom, retained);
+    }
+
+    private static void push(BigIntArray nodes, BigLongArray cursors, long sp, int node, long cursor) {
+        if (sp == nodes.size()) {
+            nodes.add(node);
+            cursors.add(cursor);
+        } else {
+            nodes.set(sp, node);
+            cursors.set(sp, cursor);
+        }
+    }
+
+    /**
+     * Linked forest of processed nodes, with semidominators.
+     */
+    private static class Forest {
+        final BigIntArray semi;
+        final BigIntArray label;
+        final BigIntArray ancestor;
+        private int[] path = new int[64];
+
+        Forest(int count) {
+            semi = new BigIntArray(count);
+            label = new BigIntArray(count);
+            ancestor = new BigIntArray(count);
+            for (int v = 0; v < count; v++) {
+                semi.set(v, v);
+                label.set(v, v);
+                ancestor.set(v, -1);
+            }
+        }
+
+        void link(int v, int w) {
+            ancestor.set(w, v);
+        }
+
+        /**
+         * Finds the node with minimal semidominator on the path to the root of the linked tree,
+         * compressing the path on the way. Iterative, since paths can be very long.
+         */
+        int eval(int v) {
+            int a = ancestor.get(v);
+            if (a == -1) {
+                return v;
+            }
+            if (ancestor.get(a) != -1) {
+                int len = 0;
+                int x = v;
+                while (ancestor.get(ancestor.get(x)) != -1) {
+                    if (len == path.length) {
+                        path = Arrays.copyOf(path, len * 2);
+                    }
+                    path[len++] = x;
+                    x = ancestor.get(x);
+                }
+                // Nodes closer to the root go first.
+                for (int c = len - 1; c >= 0; c--) {
+                    x = path[c];
+                    int ax = ancestor.get(x);
+                    int lx = label.get(x);
+                    int lax = label.get(ax);
+                    if (semi.get(lax) < semi.get(lx)) {
+                        label.set(x, lax);
+                    }
+                    ancestor.set(x, ancestor.get(ax));
+                }
+            }
+            return label.get(v);
+        }
+    }
+
+    /**
+     * @return number of nodes reachable from GC roots
+     */
+    public int reachable() {
+        return count - 1;
+    }
+
+    public boolean isReachable(int node) {
+        return nodeToDfs.get(node) != 0;
+    }
+
+    /**
+     * @return immediate dominator of the node, or -1 if node is only dominated by the super-root, or unreachable
+     */
+    public int dominator(int node) {
+        int v = nodeToDfs.get(node);
+        if (v == 0) {
+            return -1;
+        }
+        int d = idom.get(v);
+        return (d == 0) ? -1 : dfsToNode.get(d);
+    }
+
+    /**
+     * @return retained size of the node, or 0 if node is unreachable
+     */
+    public long retainedSize(int node) {
+        int v = nodeToDfs.get(node);
+        return (v == 0) ? 0 : retained.get(v);
+    }
+
+    /**
+     * @return total shallow size of the reachable nodes
+     */
+    public long totalSize() {
+        return retained.get(0);
+    }
+
+    /**
+     * Computes retained sizes per class: the total size of nodes dominated by any instance of the
+     * class. Unlike the sum of instance retained sizes, it does not count the instances dominated
+     * by other instances of the same class twice. This is a lower bound for the memory that would
+     * be freed if all instances were gone: nodes reachable only through several instances are not
+     * dominated by any one of them.
+     *
+     * @return retained sizes, indexed by graph class
+     */
+    public long[] retainedByClass() {
+        long[] byClass = new long[graph.classCount()];
+        int[] active = new int[graph.classCount()];
+
+        // Dominator tree children, in CSR layout.
+        try (BigLongArray childStarts = new BigLongArray(count + 1L);
+             BigIntArray children = new BigIntArray(Math.max(0, count - 1));
+             BigIntArray stackNodes = new BigIntArray();
+             BigLongArray stackCursors = new BigLongArray()) {
+            for (int v = 1; v < count; v++) {
+                int d = idom.get(v);
+                childStarts.set(d, childStarts.get(d) + 1);
+            }
+            long total = 0;
+            for (int v = 0; v < count; v++) {
+                total += childStarts.get(v);
+                childStarts.set(v, total);
+            }
+            childStarts.set(count, total);
+            for (int v = count - 1; v > 0; v--) {
+                int d = idom.get(v);
+                long pos = childStarts.get(d) - 1;
+                childStarts.set(d, pos);
+                children.set(pos, v);
+            }
+
+            // Walk the tree, counting only the topmost instance of each class on the path.
+            long sp = 0;
+            push(stackNodes, stackCursors, sp++, 0, childStarts.get(0));
+            while (sp > 0) {
+                int top = stackNodes.get(sp - 1);
+                long cur = stackCursors.get(sp - 1);
+                if (cur < childStarts.get(top + 1)) {
+                    stackCursors.set(sp - 1, cur + 1);
+                    int v = children.get(cur);
+                    int klass = graph.classOf(dfsToNode.get(v));
+                    if (active[klass]++ == 0) {
+                        byClass[klass] += retained.get(v);
+                    }
+                    push(stackNodes, stackCursors, sp++, v, childStarts.get(v));
+                } else {
+                    if (top != 0) {
+                        active[graph.classOf(dfsToNode.get(top))]--;
+                    }
+                    sp--;
+                }
+            }
+        }
+        return byClass;
+    }
+
+    @Override
+    public void close() {
+        nodeToDfs.close();
+        dfsToNode.close();
+        idom.close();
+        retained.close();
+    }
+
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.util.BigIntArray;
+import org.openjdk.jol.util.BigLongArray;
+import org.openjdk.jol.util.LongIntHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Object reference graph of the heap dump, in compressed sparse row layout.
+ * <p>
+ * Nodes are the instances, arrays and classes in the dump, numbered in ascending order of
+ * their IDs, so the node for a given ID is found by binary search. The outgoing edges of
+ * a node are the target nodes at {@code [edgeStart(node); edgeStart(node + 1))} in the edge
+ * array. Instances reference the objects in their reference fields, object arrays reference
+ * their elements, and classes reference their static field values, super class and class
+ * loader. The references to objects that are not in the dump are dropped. The graph also
+ * keeps the GC roots from the dump.
+ * <p>
+ * Per-node and per-edge data is kept in {@link BigLongArray} and {@link BigIntArray}, which
+ * go to memory-mapped files when large. The graph should be closed to release them.
+ * <p>
+ * Building the graph takes three passes over the dump: collecting the IDs, counting the edges,
+ * and recording the edges.
+ */
+public final class HeapDumpGraph implements Closeable {
+
+    public static final int KIND_INSTANCE = 0;
+    public static final int KIND_OBJ_ARRAY = 1;
+    public static final int KIND_PRIM_ARRAY = 2;
+    public static final int KIND_CLASS = 3;
+
+    private final BigLongArray ids;
+    private final BigLongArray edgeStarts;
+    private final BigIntArray edges;
+    private final BigIntArray nodeClasses;
+    private final BigIntArray lengths;
+    private final BigIntArray roots;
+    private final BigIntArray rootTypes;
+    private final HeapDumpClasses dumpClasses;
+    private final LongObjectHashMap<ClassData> mirrors = new LongObjectHashMap<>();
+    private final int nodes;
+
+    // Node classes: instance classes, array classes, primitive array types, and java.lang.Class for classes.
+    private final LongIntHashMap classIndex = new LongIntHashMap();
+    private final Map<String, Integer> primClasses = new HashMap<>();
+    private int classClass = -1;
+    private long[] classIds = new long[16];
+    private String[] classNames = new String[16];
+    private byte[] classKinds = new byte[16];
+    private int classCount;
+
+    private HeapDumpGraph(BigLongArray ids, HeapDumpClasses dumpClasses) {
+        this.ids = ids;
+        this.nodes = (int) ids.size();
+        this.dumpClasses = dumpClasses;
+        this.edgeStarts = new BigLongArray(nodes + 1L);
+        this.edges = new BigIntArray();
+        this.nodeClasses = new BigIntArray(nodes);
+        this.lengths = new BigIntArray(nodes);
+        this.roots = new BigIntArray();
+        this.rootTypes = new BigIntArray();
+    }
+
+    /**
+     * Builds the reference graph for the heap dump.
+     *
+     * @param file heap dump
+     * @param verboseOut stream for progress messages, or null
+     * @return graph
+     */
+    public static HeapDumpGraph build(File file, PrintStream verboseOut) throws IOException, HeapDumpException {
+        IdCollector collector = new IdCollector();
+        HeapDumpReader reader = new HeapDumpReader(file, verboseOut, collector);
+        reader.parse();
+
+        BigLongArray ids = collector.ids;
+        ids.sort();
+
+        // Drop duplicates, if any.
+        long size = 0;
+        for (long i = 0; i < ids.size(); i++) {
+            long id = ids.get(i);
+            if (size == 0 || ids.get(size - 1) != id) {
+                ids.set(size++, id);
+            }
+        }
+        ids.resize(size);
+
+        if (size >= Integer.MAX_VALUE) {
+            ids.close();
+            throw new HeapDumpException("Too many objects in the heap dump: " + size);
+        }
+
+        HeapDumpGraph graph = new HeapDumpGraph(ids, collector);
+        for (long klassID : graph.dumpClasses.ids()) {
+            ClassData mirror = reader.mirror(klassID);
+            if (mirror != null) {
+                graph.mirrors.put(klassID, mirror);
+            }
+        }
+
+        for (long r = 0; r < collector.rootIds.size(); r++) {
+            int node = graph.node(collector.rootIds.get(r));
+            if (node >= 0) {
+                graph.roots.add(node);
+                graph.rootTypes.add(collector.rootTypes.get(r));
+            }
+        }
+        collector.rootIds.close();
+        collector.rootTypes.close();
+
+        new HeapDumpReader(file, verboseOut, graph.new EdgeVisitor(false)).parse();
+
+        // Turn the degrees into edge end offsets.
+        long total = 0;
+        for (int n = 0; n < graph.nodes; n++) {
+            total += graph.edgeStarts.get(n);
+            graph.edgeStarts.set(n, total);
+        }
+        graph.edgeStarts.set(graph.nodes, total);
+        graph.edges.resize(total);
+
+        // Filling the edges backwards moves the end offsets to the start offsets.
+        new HeapDumpReader(file, verboseOut, graph.new EdgeVisitor(true)).parse();
+
+        if (verboseOut != null) {
+            verboseOut.printf("Reference graph: %,d nodes, %,d edges, %,d GC roots%n", graph.nodes, total, graph.roots.size());
+        }
+        return graph;
+    }
+
+    public int nodes() {
+        return nodes;
+    }
+
+    public long edges() {
+        return edges.size();
+    }
+
+    /**
+     * @return node for the given object ID, or -1 if object is not in the dump
+     */
+    public int node(long id) {
+        long idx = ids.binarySearch(id);
+        return (idx >= 0) ? (int) idx : -1;
+    }
+
+    /**
+     * @return object ID for the node
+     */
+    public long id(int node) {
+        return ids.get(node);
+    }
+
+    /**
+     * @return index of the first outgoing edge of the node; the edges of the last
+     * node end at {@code edgeStart(nodes())}
+     */
+    public long edgeStart(int node) {
+        return edgeStarts.get(node);
+    }
+
+    /**
+     * @return target node of the edge
+     */
+    public int edge(long index) {
+        return edges.get(index);
+    }
+
+    public int outDegree(int node) {
+        return (int) (edgeStarts.get(node + 1) - edgeStarts.get(node));
+    }
+
+    /**
+     * @return number of GC roots; the same object can be the root several times
+     */
+    public long roots() {
+        return roots.size();
+    }
+
+    /**
+     * @return node of the GC root
+     */
+    public int root(long index) {
+        return roots.get(index);
+    }
+
+    /**
+     * @return type of the GC root, see {@link HeapDumpReader#rootTypeName(int)}
+     */
+    public int rootType(long index) {
+        return rootTypes.get(index);
+    }
+
+    /**
+     * @return class of the node, index in {@code [0; classCount())}
+     */
+    public int classOf(int node) {
+        return nodeClasses.get(node);
+    }
+
+    /**
+     * @return array length for arrays, 0 otherwise
+     */
+    public int arrayLength(int node) {
+        return lengths.get(node);
+    }
+
+    public int classCount() {
+        return classCount;
+    }
+
+    /**
+     * @return human-readable class name, e.g. "java.lang.String[]" or "int[]"
+     */
+    public String className(int klass) {
+        return classNames[klass];
+    }
+
+    /**
+     * @return class ID from the dump, or 0 for primitive arrays and classes
+     */
+    public long classId(int klass) {
+        return classIds[klass];
+    }
+
+    /**
+     * @return one of {@code KIND_*} constants
+     */
+    public int classKind(int klass) {
+        return classKinds[klass];
+    }
+
+    /**
+     * @return class dumps seen while building the graph
+     */
+    public HeapDumpClasses dumpClasses() {
+        return dumpClasses;
+    }
+
+    /**
+     * Returns the class data of the class mirror: {@code java.lang.Class} instance
+     * with the static fields of the class.
+     *
+     * @param klassID class ID
+     * @return mirror class data, or null if class dump is not seen
+     */
+    public ClassData mirror(long klassID) {
+        return mirrors.get(klassID);
+    }
+
+    @Override
+    public void close() {
+        ids.close();
+        edgeStarts.close();
+        edges.close();
+        nodeClasses.close();
+        lengths.close();
+        roots.close();
+        rootTypes.close();
+    }
+
+    private int classIndex(long id, String name, int kind) {
+        int idx = classIndex.get(id, -1);
+        if (idx < 0) {
+            idx = newClass(id, name, kind);
+            classIndex.put(id, idx);
+        }
+        return idx;
+    }
+
+    private int newClass(long id, String name, int kind) {
+        int idx = classCount++;
+        if (idx == classIds.length) {
+            classIds = Arrays.copyOf(classIds, idx * 2);
+            classNames = Arrays.copyOf(classNames, idx * 2);
+            classKinds = Arrays.copyOf(classKinds, idx * 2);
+        }
+        classIds[idx] = id;
+        classNames[idx] = name;
+        classKinds[idx] = (byte) kind;
+        return idx;
+    }
+
+    /**
+     * Collects the object IDs, GC roots and class dumps.
+     */
+    private static class IdCollector extends HeapDumpClasses {
+        final BigLongArray ids = new BigLongArray();
+        final BigLongArray rootIds = new BigLongArray();
+        final BigIntArray rootTypes = new BigIntArray();
+
+        @Override
+        public void visitRoot(int type, long id) {
+            rootIds.add(id);
+            rootTypes.add(type);
+        }
+
+        @Override
+        public void visitClass(HeapDumpClass klass) {
+            super.visitClass(klass);
+            ids.add(klass.id());
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            ids.add(id);
+        }
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer contents) {
+            ids.add(id);
+        }
+
+        @Override
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            ids.add(id);
+        }
+    }
+
+    /**
+     * Walks the references. Counts the edges per node on the first pass, and records them on the second.
+     */
+    private class EdgeVisitor extends HeapDumpReader.Visitor {
+        private final boolean fill;
+        private final BitSet seen;
+        private int lastNode = -1;
+        private int degree;
+
+        EdgeVisitor(boolean fill) {
+            this.fill = fill;
+            this.seen = new BitSet(nodes);
+        }
+
+        /**
+         * @return node for the visited object, or -1 if the object is not a node, or was visited before
+         */
+        private int source(long id) {
+            // Dumps mostly list the objects in address order, try the next node first.
+            int n = lastNode + 1;
+            if (n >= nodes || ids.get(n) != id) {
+                n = node(id);
+            }
+            lastNode = n;
+            if (n < 0) {
+                return -1;
+            }
+            // Truncated or merged dumps can list the object twice. Both passes take the first record,
+            // otherwise the fill would run past the node edges, into the edges of its neighbour.
+            if (seen.get(n)) {
+                return -1;
+            }
+            seen.set(n);
+            return n;
+        }
+
+        private void edge(int src, long targetId) {
+            if (targetId == 0) {
+                return;
+            }
+            int dst = node(targetId);
+            if (dst < 0) {
+                return;
+            }
+            if (fill) {
+                long pos = edgeStarts.get(src) - 1;
+                edgeStarts.set(src, pos);
+                edges.set(pos, dst);
+            } else {
+                degree++;
+            }
+        }
+
+        private void done(int src) {
+            if (!fill) {
+                edgeStarts.set(src, degree);
+            }
+        }
+
+        @Override
+        public void visitClass(HeapDumpClass klass) {
+            int src = source(klass.id());
+            if (src < 0) {
+                return;
+            }
+            if (!fill) {
+                if (classClass < 0) {
+                    classClass = newClass(0, "java.lang.Class", KIND_CLASS);
+                }
+                nodeClasses.set(src, classClass);
+            }
+            // Walk in reverse, so that the backwards fill keeps the edges in order.
+            degree = 0;
+            long[] refs = klass.staticRefs();
+            edge(src, klass.loaderId());
+            edge(src, klass.superId());
+            for (int c = refs.length - 1; c >= 0; c--) {
+                edge(src, refs[c]);
+            }
+            done(src);
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            int src = source(id);
+            if (src < 0) {
+                return;
+            }
+            if (!fill) {
+                nodeClasses.set(src, classIndex(klassID, name, KIND_INSTANCE));
+            }
+            int[] offsets = dumpClasses.refOffsets(klassID);
+            if (offsets == null) {
+                return;
+            }
+            int idSize = dumpClasses.get(klassID).idSize();
+            int base = contents.position();
+            degree = 0;
+            for (int c = offsets.length - 1; c >= 0; c--) {
+                edge(src, HeapDumpReader.readId(contents, base + offsets[c], idSize));
+            }
+            done(src);
+        }
+
+        @Override
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            int src = source(id);
+            if (src < 0) {
+                return;
+            }
+            if (!fill) {
+                HeapDumpClass k = dumpClasses.get(klassID);
+                String name = (k != null) ? k.name() : "Object[]";
+                nodeClasses.set(src, classIndex(klassID, name, KIND_OBJ_ARRAY));
+                lengths.set(src, count);
+            }
+            if (count == 0) {
+                return;
+            }
+            int idSize = contents.remaining() / count;
+            int base = contents.position();
+            degree = 0;
+            for (int c = count - 1; c >= 0; c--) {
+                edge(src, HeapDumpReader.readId(contents, base + c * idSize, idSize));
+            }
+            done(src);
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            // Only need to know the class and length.
+            return !fill;
+        }
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer contents) {
+            int src = source(id);
+            if (src < 0) {
+                return;
+            }
+            Integer klass = primClasses.get(componentType);
+            if (klass == null) {
+                klass = newClass(0, componentType + "[]", KIND_PRIM_ARRAY);
+                primClasses.put(componentType, klass);
+            }
+            nodeClasses.set(src, klass);
+            lengths.set(src, count);
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import org.openjdk.jol.info.FieldData;
+import org.openjdk.jol.util.LongLongHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Sidecar index for the heap dump. Keeps everything needed to build the class histogram
+ * without reading the dump again: class names, supers, fields and static field types, per-class instance counts,
+ * array counts. Also keeps the offsets of heap dump segments, and the strings that class dumps refer to,
+ * so that the readers with visitors can go straight to the segments, without reading the top-level records.
+ * <p>
+ * The index is valid as long as the dump file has the same size and modification time.
+ */
+class HeapDumpIndex {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("jol.heapDumpIndex", "true"));
+
+    private static final String SUFFIX = ".jolidx";
+    private static final long MAGIC = 0x4A4F4C2D49445805L; // "JOL-IDX", version 5
+
+    final String header;
+    final int idSize;
+    final LongObjectHashMap<String> classNames;
+    final LongLongHashMap classSupers;
+    final LongObjectHashMap<List<FieldData>> classFields;
+    final LongObjectHashMap<String[]> classStatics;
+    final LongLongHashMap classCounts;
+    final LongLongHashMap[] primArrayCounts;
+    final LongObjectHashMap<LongLongHashMap> objArrayCounts;
+    final LongObjectHashMap<String> fieldNames;
+    final List<HeapDumpReader.Segment> segments;
+
+    HeapDumpIndex(String header, int idSize,
+                  LongObjectHashMap<String> classNames, LongLongHashMap classSupers, LongObjectHashMap<List<FieldData>> classFields,
+                  LongObjectHashMap<String[]> classStatics, LongLongHashMap classCounts, LongLongHashMap[] primArrayCounts, LongObjectHashMap<LongLongHashMap> objArrayCounts,
+                  LongObjectHashMap<String> fieldNames, List<HeapDumpReader.Segment> segments) {
+        this.header = header;
+        this.idSize = idSize;
+        this.classNames = classNames;
+        this.classSupers = classSupers;
+        this.classFields = classFields;
+        this.classStatics = classStatics;
+        this.classCounts = classCounts;
+        this.primArrayCounts = primArrayCounts;
+        this.objArrayCounts = objArrayCounts;
+        this.fieldNames = fieldNames;
+        this.segments = segments;
+    }
+
+    static File indexFile(File dump) {
+        return new File(dump.getPath() + SUFFIX);
+    }
+
+    /**
+     * Checks if the index for a given dump is up to date, without reading it in full.
+     * @return true, if index exists and matches the dump
+     */
+    static boolean isCurrent(File dump) {
+        File idx = indexFile(dump);
+        if (!ENABLED || !idx.isFile()) {
+            return false;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(idx))) {
+            return isCurrent(dis, dump);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isCurrent(DataInputStream dis, File dump) throws IOException {
+        return dis.readLong() == MAGIC &&
+                dis.readLong() == dump.length() &&
+                dis.readLong() == dump.lastModified();
+    }
+
+    /**
+     * Reads the index for a given dump.
+     * @return index, or null if index is missing, stale, or unreadable
+     */
+    static HeapDumpIndex read(File dump) {
+        File idx = indexFile(dump);
+        if (!ENABLED || !idx.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+            if (!isCurrent(dis, dump)) {
+                return null;
+            }
+
+            String header = dis.readUTF();
+            int idSize = dis.readInt();
+
+            LongObjectHashMap<String> classNames = readStrings(dis);
+
+            LongLongHashMap classSupers = readLongs(dis);
+
+            int klasses = dis.readInt();
+            LongObjectHashMap<List<FieldData>> classFields = new LongObjectHashMap<>(klasses);
+            for (int c = 0; c < klasses; c++) {
+                long id = dis.readLong();
+                String host = classNames.get(id);
+                int fields = dis.readInt();
+                List<FieldData> list = new ArrayList<>(fields);
+                for (int f = 0; f < fields; f++) {
+                    String name = dis.readUTF();
+                    String type = dis.readUTF();
+                    list.add(FieldData.create(host, name, type));
+                }
+                classFields.put(id, list);
+            }
+
+            int statics = dis.readInt();
+            LongObjectHashMap<String[]> classStatics = new LongObjectHashMap<>(statics);
+            for (int c = 0; c < statics; c++) {
+                long id = dis.readLong();
+                String[] types = new String[dis.readInt()];
+                for (int f = 0; f < types.length; f++) {
+                    types[f] = dis.readUTF();
+                }
+                classStatics.put(id, types);
+            }
+
+            LongLongHashMap classCounts = readLongs(dis);
+
+            LongLongHashMap[] primArrayCounts = new LongLongHashMap[dis.readInt()];
+            for (int c = 0; c < primArrayCounts.length; c++) {
+                if (dis.readBoolean()) {
+                    primArrayCounts[c] = readLongs(dis);
+                }
+            }
+
+            int arrays = dis.readInt();
+            LongObjectHashMap<LongLongHashMap> objArrayCounts = new LongObjectHashMap<>(arrays);
+            for (int c = 0; c < arrays; c++) {
+                long id = dis.readLong();
+                objArrayCounts.put(id, readLongs(dis));
+            }
+
+            LongObjectHashMap<String> fieldNames = readStrings(dis);
+
+            int segs = dis.readInt();
+            List<HeapDumpReader.Segment> segments = new ArrayList<>(segs);
+            for (int c = 0; c < segs; c++) {
+                long offset = dis.readLong();
+                segments.add(new HeapDumpReader.Segment(offset, dis.readLong(), HeapDumpSample.EXACT));
+            }
+
+            return new HeapDumpIndex(header, idSize, classNames, classSupers, classFields, classStatics, classCounts, primArrayCounts, objArrayCounts,
+                    fieldNames, segments);
+        } catch (IOException e) {
+            // Broken index, pretend we have none.
+            return null;
+        }
+    }
+
+    private static LongLongHashMap readLongs(DataInputStream dis) throws IOException {
+        int size = dis.readInt();
+        LongLongHashMap map = new LongLongHashMap(size);
+        for (int c = 0; c < size; c++) {
+            long key = dis.readLong();
+            map.put(key, dis.readLong());
+        }
+        return map;
+    }
+
+    private static LongObjectHashMap<String> readStrings(DataInputStream dis) throws IOException {
+        int size = dis.readInt();
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(size);
+        for (int c = 0; c < size; c++) {
+            long id = dis.readLong();
+            map.put(id, dis.readUTF());
+        }
+        return map;
+    }
+
+    private static void writeStrings(DataOutputStream dos, LongObjectHashMap<String> map) throws IOException {
+        dos.writeInt(map.size());
+        for (long id : map.keys()) {
+            dos.writeLong(id);
+            dos.writeUTF(map.get(id));
+        }
+    }
+
+    private static void writeLongs(DataOutputStream dos, LongLongHashMap map) throws IOException {
+        dos.writeInt(map.size());
+        for (long key : map.keys()) {
+            dos.writeLong(key);
+            dos.writeLong(map.get(key));
+        }
+    }
+
+    /**
+     * Writes the index for a given dump. The failures to write are ignored:
+     * the index is an optimization, and the dump may be in a read-only location, or have the records
+     * the index cannot keep, e.g. the fields with unknown names. Partially written index is deleted.
+     */
+    void write(File dump) {
+        if (!ENABLED) {
+            return;
+        }
+
+        File idx = indexFile(dump);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(idx.getName(), ".tmp", idx.getAbsoluteFile().getParentFile());
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                dos.writeLong(MAGIC);
+                dos.writeLong(dump.length());
+                dos.writeLong(dump.lastModified());
+
+                dos.writeUTF(header);
+                dos.writeInt(idSize);
+
+                writeStrings(dos, classNames);
+
+                writeLongs(dos, classSupers);
+
+                dos.writeInt(classFields.size());
+                for (long id : classFields.keys()) {
+                    List<FieldData> fields = classFields.get(id);
+                    dos.writeLong(id);
+                    dos.writeInt(fields.size());
+                    for (FieldData fd : fields) {
+                        dos.writeUTF(fd.name());
+                        dos.writeUTF(fd.typeClass());
+                    }
+                }
+
+                dos.writeInt(classStatics.size());
+                for (long id : classStatics.keys()) {
+                    String[] types = classStatics.get(id);
+                    dos.writeLong(id);
+                    dos.writeInt(types.length);
+                    for (String type : types) {
+                        dos.writeUTF(type);
+                    }
+                }
+
+                writeLongs(dos, classCounts);
+
+                dos.writeInt(primArrayCounts.length);
+                for (LongLongHashMap counts : primArrayCounts) {
+                    dos.writeBoolean(counts != null);
+                    if (counts != null) {
+                        writeLongs(dos, counts);
+                    }
+                }
+
+                dos.writeInt(objArrayCounts.size());
+                for (long id : objArrayCounts.keys()) {
+                    dos.writeLong(id);
+                    writeLongs(dos, objArrayCounts.get(id));
+                }
+
+                writeStrings(dos, fieldNames);
+
+                dos.writeInt(segments.size());
+                for (HeapDumpReader.Segment s : segments) {
+                    dos.writeLong(s.offset);
+                    dos.writeLong(s.length);
+                }
+            }
+            Files.move(tmp.toPath(), idx.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+}
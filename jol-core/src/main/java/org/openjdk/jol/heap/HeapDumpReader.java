@@ -27,13 +27,17 @@ package org.openjdk.jol.heap;
 import org.openjdk.jol.info.ClassData;
 import org.openjdk.jol.info.FieldData;
 import org.openjdk.jol.util.ClassUtils;
+import org.openjdk.jol.util.LongIntHashMap;
+import org.openjdk.jol.util.LongLongHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
 import org.openjdk.jol.util.Multimap;
 import org.openjdk.jol.util.Multiset;
 
 import java.io.*;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.*;
 
 /**
  * Experimental heap dump reader
@@ -42,93 +46,508 @@ import java.util.zip.GZIPInputStream;
  */
 public class HeapDumpReader {
 
-    private static final int      BUF_SIZE =       128 * 1024;
-    private static final int GZIP_BUF_SIZE =       512 * 1024;
-    private static final int READ_BUF_SIZE =  4 * 1024 * 1024;
+    static final int THREADS = Integer.getInteger("jol.heapDumpThreads", Runtime.getRuntime().availableProcessors());
 
-    private final InputStream is;
+    // Consecutive segments are batched into tasks of at least this size.
+    private static final long TASK_SIZE = 64L * 1024 * 1024;
 
-    private final Map<Long, String> strings;
-    private final Map<Long, String> classNames;
-    private final Multimap<Long, FieldData> classFields;
-    private final Multiset<Long> classCounts;
-    private final Multiset<ClassData> arrayCounts;
-    private final Map<Long, Long> classSupers;
+    private static final long PRINT_EACH = 1024L * 1024 * 1024;
+
+    // Primitive array counts are indexed by HPROF basic type.
+    private static final int PRIM_TYPES = 12;
+
+    private static final String MIRROR_CLASS = "java.lang.Class";
+
+    private final DumpInput in;
+
+    private final LongObjectHashMap<String> strings;
+    private final LongObjectHashMap<String> classNames;
+    // The strings that class dumps refer to, kept in the index.
+    private final LongObjectHashMap<String> fieldNames;
+    private final LongObjectHashMap<List<FieldData>> classFields;
+    private final LongObjectHashMap<String[]> classStatics;
+    private LongLongHashMap classCounts;
+    private LongLongHashMap[] primArrayCounts;
+    private LongObjectHashMap<LongLongHashMap> objArrayCounts;
+    private final LongLongHashMap classSupers;
     private final File file;
     private final PrintStream verboseOut;
     private final Visitor visitor;
 
+    // Cached visitor interest, per class and per primitive type: 1 accepts, -1 rejects, 0 not asked yet.
+    private final LongIntHashMap instanceInterest = new LongIntHashMap();
+    private final LongIntHashMap objArrayInterest = new LongIntHashMap();
+    private final byte[] primArrayInterest = new byte[PRIM_TYPES];
+
     private int idSize;
-    private long readBytes;
 
-    private final byte[] buf;
-    private final ByteBuffer wrapBuf;
     private String header;
 
+    private long lastPrint;
+
+    private long records;
+    private long recordOffset;
+
+    private ProgressListener progressListener;
+    private long progressInterval;
+    private long nextProgress;
+    private long startTime;
+    private boolean stopped;
+    private long stoppedAt;
+
+    private HeapDumpSample sample;
+    private int threads = THREADS;
+    private long taskSize = TASK_SIZE;
+    private Multiset<ClassData> errors = new Multiset<>();
+    private Multimap<String, ClassData> mirrors = new Multimap<>();
+    private LongObjectHashMap<ClassData> mirrorsById = new LongObjectHashMap<>();
+
     public HeapDumpReader(File file, PrintStream verboseOut, Visitor visitor) throws IOException {
         this.file = file;
         this.verboseOut = verboseOut;
         this.visitor = visitor;
-        if (file.getName().endsWith(".gz")) {
-            this.is = new UnsyncBufferedInputStream(new GZIPInputStream(new FileInputStream(file), GZIP_BUF_SIZE), READ_BUF_SIZE);
-        } else {
-            this.is = new UnsyncBufferedInputStream(new FileInputStream(file), READ_BUF_SIZE);
-        }
-        this.strings = new HashMap<>();
-        this.classNames = new HashMap<>();
-        this.classCounts = new Multiset<>();
-        this.classFields = new Multimap<>();
-        this.arrayCounts = new Multiset<>();
-        this.classSupers = new HashMap<>();
-        this.buf = new byte[BUF_SIZE];
-        this.wrapBuf = ByteBuffer.wrap(buf);
+        this.in = DumpInput.open(file);
+        this.strings = new LongObjectHashMap<>();
+        this.classNames = new LongObjectHashMap<>();
+        this.fieldNames = new LongObjectHashMap<>();
+        this.classCounts = new LongLongHashMap();
+        this.classFields = new LongObjectHashMap<>();
+        this.classStatics = new LongObjectHashMap<>();
+        this.primArrayCounts = new LongLongHashMap[PRIM_TYPES];
+        this.objArrayCounts = new LongObjectHashMap<>();
+        this.classSupers = new LongLongHashMap();
+    }
+
+    /**
+     * Creates the worker that digests heap dump segments on its own, sharing
+     * the string and class name tables with the parent reader.
+     */
+    private HeapDumpReader(HeapDumpReader parent, DumpInput in) {
+        this.file = parent.file;
+        this.verboseOut = null;
+        this.visitor = null;
+        this.in = in;
+        this.strings = parent.strings;
+        this.classNames = parent.classNames;
+        this.fieldNames = new LongObjectHashMap<>();
+        this.classCounts = new LongLongHashMap();
+        this.classFields = new LongObjectHashMap<>();
+        this.classStatics = new LongObjectHashMap<>();
+        this.primArrayCounts = new LongLongHashMap[PRIM_TYPES];
+        this.objArrayCounts = new LongObjectHashMap<>();
+        this.classSupers = new LongLongHashMap();
+        this.idSize = parent.idSize;
+        this.header = parent.header;
+        this.sample = (parent.sample != null) ? parent.sample.fork() : null;
+    }
+
+    /**
+     * Enables sampling: the reader digests the string and class tables, the first heap dump
+     * segment and the segments with class dumps in full, and only the given fraction of other
+     * segments. {@link #parse()} then returns the scaled up estimates of the counts, and
+     * {@link #errors()} returns their 95% confidence intervals.
+     * <p>
+     * The same seed selects the same segments, so that multiple passes over the dump agree.
+     * Sampling is not needed when the exact histogram is available from the index.
+     *
+     * @param fraction fraction of segments to digest, in (0; 1]
+     * @param seed seed that selects the segments
+     */
+    public void setSampling(double fraction, long seed) {
+        this.sample = (fraction < 1) ? new HeapDumpSample(fraction, seed, PRIM_TYPES) : null;
+    }
+
+    /**
+     * Returns the offset of the heap dump record that is being visited. Visitors can remember
+     * it, and read the record again later with {@link HeapDumpContents}.
+     *
+     * @return offset of the current record in the uncompressed dump
+     */
+    public long recordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * @return size of object IDs in the dump, known after the header is read
+     */
+    public int idSize() {
+        return idSize;
+    }
+
+    /**
+     * @return true, if the counts returned by {@link #parse()} are the estimates from sampling
+     */
+    public boolean isSampled() {
+        return sample != null;
+    }
+
+    /**
+     * Returns the half-widths of 95% confidence intervals for the counts returned by {@link #parse()}.
+     * The counts are exact when not sampled, and the errors are zero then.
+     *
+     * @return confidence intervals, per class data
+     */
+    public Multiset<ClassData> errors() {
+        return errors;
+    }
+
+    /**
+     * Sets the number of threads that digest the heap dump segments. Defaults to
+     * {@code jol.heapDumpThreads}, or the number of CPUs. Callers that run many readers
+     * at once should split the CPUs between them.
+     *
+     * @param threads number of threads, 1 digests the segments sequentially
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
     }
 
-    private int read() throws HeapDumpException {
+    /**
+     * Sets the minimal size of the segment batch that a single thread digests.
+     * Tests use the small batches to digest every segment on its own.
+     */
+    void setTaskSize(long taskSize) {
+        this.taskSize = taskSize;
+    }
+
+    /**
+     * Sets the listener that receives parsing progress snapshots.
+     * Listener can stop parsing early, in which case {@link #parse()} returns the partial results.
+     *
+     * @param interval how often to report, in bytes
+     * @param listener listener
+     */
+    public void setProgressListener(long interval, ProgressListener listener) {
+        this.progressInterval = interval;
+        this.progressListener = listener;
+    }
+
+    /**
+     * @return true, if progress listener had stopped parsing before the end of the dump
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public Multiset<ClassData> parse() throws IOException, HeapDumpException {
+        long start = System.nanoTime();
+        startTime = start;
+        nextProgress = progressInterval;
+
+        // Close the input, with its mapping or inflater threads, even when the dump is malformed.
+        HeapDumpIndex index;
         try {
-            int v = is.read();
-            if (v != -1) {
-                readBytes++;
-                return v;
+            index = HeapDumpIndex.read(file);
+
+            if (index != null && visitor == null) {
+                // Without a visitor, we only need the histogram, which the index already has.
+                // Exact histogram is at hand, no need to sample.
+                sample = null;
+                if (verboseOut != null) {
+                    verboseOut.print("Reading: " + HeapDumpIndex.indexFile(file) + ",");
+                    verboseOut.flush();
+                }
+                header = index.header;
+                idSize = index.idSize;
+                for (long id : index.classNames.keys()) {
+                    classNames.put(id, index.classNames.get(id));
+                }
+                for (long id : index.classFields.keys()) {
+                    classFields.put(id, index.classFields.get(id));
+                }
+                for (long id : index.classStatics.keys()) {
+                    classStatics.put(id, index.classStatics.get(id));
+                }
+                for (long id : index.objArrayCounts.keys()) {
+                    objArrayCounts.put(id, index.objArrayCounts.get(id));
+                }
+                classSupers.addAll(index.classSupers);
+                classCounts.addAll(index.classCounts);
+                System.arraycopy(index.primArrayCounts, 0, primArrayCounts, 0, Math.min(PRIM_TYPES, index.primArrayCounts.length));
+            } else if (index != null) {
+                // Visitor needs the records, but the index knows where the segments are.
+                if (verboseOut != null) {
+                    verboseOut.print("Reading: " + HeapDumpIndex.indexFile(file) + ", segments ");
+                    verboseOut.flush();
+                }
+                readSegments(index);
             } else {
-                throw new HeapDumpException(errorMessage("EOF"));
+                if (verboseOut != null) {
+                    verboseOut.print("Reading: ");
+                    verboseOut.flush();
+                }
+                List<Segment> segments = readDump();
+                if (!stopped && sample == null) {
+                    new HeapDumpIndex(header, idSize, classNames, classSupers, classFields, classStatics, classCounts, primArrayCounts, objArrayCounts,
+                            fieldNames, segments).write(file);
+                }
             }
-        } catch (IOException e) {
-            throw new HeapDumpException(errorMessage(e.getMessage()));
+        } finally {
+            in.close();
+        }
+
+        Multiset<ClassData> finalClassCounts;
+        if (sample == null) {
+            finalClassCounts = buildHistogram(stopped, true);
+        } else {
+            // Class dumps might be in the skipped segments.
+            LongObjectHashMap<ClassData> classDatas = buildClassDatas(true, true);
+            finalClassCounts = estimateHistogram(classDatas, false);
+            errors = estimateHistogram(classDatas, true);
         }
+
+        if (verboseOut != null) {
+            long end = System.nanoTime();
+            if (index != null && visitor == null) {
+                verboseOut.printf(" done in %.3f seconds%n",
+                        1D * (end - start) / 1000 / 1000 / 1000);
+            } else {
+                long readBytes = stopped ? stoppedAt : in.position();
+                verboseOut.printf(" %s %d MB in %.3f seconds at %.0f MB/sec%n",
+                        stopped ? "stopped after" : "done",
+                        readBytes / 1024 / 1024,
+                        1D * (end - start) / 1000 / 1000 / 1000,
+                        1000D * readBytes / (end - start));
+                in.printStats(verboseOut);
+            }
+            if (sample != null) {
+                verboseOut.printf("Sampled %d of %d heap dump segments, the counts are estimates%n",
+                        sample.sampled(), sample.candidates());
+            }
+        }
+
+        return finalClassCounts;
     }
 
-    private int read_byte() throws HeapDumpException {
-        try {
-            int read = is.read();
-            readBytes += (read < 0) ? 0 : 1;
-            return read;
-        } catch (IOException e) {
-            throw new HeapDumpException(errorMessage(e.getMessage()));
+    /**
+     * Builds the class histogram from the data digested so far.
+     *
+     * @param partial if true, tolerate the classes that are not yet fully known
+     * @param visit if true, pass the class datas to visitor
+     */
+    private Multiset<ClassData> buildHistogram(boolean partial, boolean visit) throws HeapDumpException {
+        LongObjectHashMap<ClassData> classDatas = buildClassDatas(partial, visit);
+        if (sample != null) {
+            return estimateHistogram(classDatas, false);
         }
+        return buildHistogram(classDatas, classCounts, primArrayCounts, objArrayCounts, true);
     }
 
-    private int read(byte[] b, int size) throws HeapDumpException {
-        try {
-            int read = is.read(b, 0, size);
-            readBytes += read;
-            return read;
-        } catch (IOException e) {
-            throw new HeapDumpException(errorMessage(e.getMessage()));
+    private LongObjectHashMap<ClassData> buildClassDatas(boolean partial, boolean visit) {
+        // Post-process supers: merge all fields datas up the class hierarchy.
+        LongObjectHashMap<ClassData> classDatas = new LongObjectHashMap<>(classFields.size());
+
+        for (long klassId : classFields.keys()) {
+            String name = classNames.get(klassId);
+            ClassData cd = new ClassData(name);
+
+            long id = klassId;
+            while (id != 0) {
+                List<FieldData> fields = classFields.get(id);
+                if (fields == null && partial) {
+                    // Super class dump is not yet seen.
+                    break;
+                }
+                cd.addSuperClass(classNames.get(id));
+                for (FieldData fd : fields) {
+                    cd.addField(fd);
+                }
+                id = classSupers.get(id);
+            }
+            classDatas.put(klassId, cd);
+            if (visitor != null && visit) {
+                visitor.visitClassData(name, cd);
+            }
         }
+
+        // Fix up superclasses for HotspotLayouter to work well.
+        for (long klassId : classDatas.keys()) {
+            long key = classSupers.get(klassId);
+            if (key != 0) {
+                ClassData cd = classDatas.get(klassId);
+                ClassData superCd = classDatas.get(key);
+                if (superCd == null) {
+                    if (partial) {
+                        continue;
+                    }
+                    throw new IllegalStateException("Parser error: no super class data for " + cd.name() + " (" + key + ")");
+                }
+                cd.addSuperClassData(superCd);
+            }
+        }
+        return classDatas;
     }
 
-    private int skip(int skip) throws HeapDumpException {
-        try {
-            long r = is.skip(skip);
-            readBytes += r;
-            return (int)r;
-        } catch (IOException e) {
-            throw new HeapDumpException(errorMessage(e.getMessage()));
+    /**
+     * Builds the histogram from sampled data.
+     *
+     * @param errors if true, build the histogram of confidence intervals, instead of estimated counts
+     */
+    private Multiset<ClassData> estimateHistogram(LongObjectHashMap<ClassData> classDatas, boolean errors) throws HeapDumpException {
+        LongLongHashMap estClassCounts = errors ?
+                sample.errors(sample.classSums, sample.classSquares) :
+                sample.estimate(classCounts, sample.classSums);
+
+        LongLongHashMap[] estPrimArrayCounts = new LongLongHashMap[PRIM_TYPES];
+        for (int type = 0; type < PRIM_TYPES; type++) {
+            estPrimArrayCounts[type] = errors ?
+                    sample.errors(sample.primArraySums[type], sample.primArraySquares[type]) :
+                    sample.estimate(primArrayCounts[type], sample.primArraySums[type]);
         }
+
+        LongObjectHashMap<LongLongHashMap> estObjArrayCounts = new LongObjectHashMap<>();
+        for (long klassId : sample.objArraySums.keys()) {
+            estObjArrayCounts.put(klassId, errors ?
+                    sample.errors(sample.objArraySums.get(klassId), sample.objArraySquares.get(klassId)) :
+                    sample.estimate(objArrayCounts.get(klassId), sample.objArraySums.get(klassId)));
+        }
+        if (!errors) {
+            for (long klassId : objArrayCounts.keys()) {
+                if (estObjArrayCounts.get(klassId) == null) {
+                    estObjArrayCounts.put(klassId, objArrayCounts.get(klassId));
+                }
+            }
+        }
+
+        // Every class dump is one class mirror: the counts are exact, even when sampling.
+        return buildHistogram(classDatas, estClassCounts, estPrimArrayCounts, estObjArrayCounts, !errors);
     }
 
-    public Multiset<ClassData> parse() throws IOException, HeapDumpException {
+    private Multiset<ClassData> buildHistogram(LongObjectHashMap<ClassData> classDatas,
+                                               LongLongHashMap classCounts,
+                                               LongLongHashMap[] primArrayCounts,
+                                               LongObjectHashMap<LongLongHashMap> objArrayCounts,
+                                               boolean addMirrors) throws HeapDumpException {
+        // Compute final class counts.
+        Multiset<ClassData> finalClassCounts = new Multiset<>();
+        for (int type = 0; type < PRIM_TYPES; type++) {
+            LongLongHashMap counts = primArrayCounts[type];
+            if (counts != null) {
+                String typeString = getTypeString(type);
+                String typeArrayString = getTypeArrayString(type);
+                for (long len : counts.keys()) {
+                    finalClassCounts.add(new ClassData(typeArrayString, typeString, (int) len), counts.get(len));
+                }
+            }
+        }
+        for (long klassId : objArrayCounts.keys()) {
+            // Array class name tells the component type, e.g. "java.lang.String[]".
+            String name = classNames.get(klassId);
+            String componentType = (name != null && name.endsWith("[]")) ?
+                    name.substring(0, name.length() - 2) :
+                    "Object";
+            LongLongHashMap counts = objArrayCounts.get(klassId);
+            for (long len : counts.keys()) {
+                finalClassCounts.add(new ClassData(name, componentType, (int) len), counts.get(len));
+            }
+        }
+        for (long id : classDatas.keys()) {
+            ClassData cd = classDatas.get(id);
+            finalClassCounts.add(cd, classCounts.get(id));
+        }
+        if (addMirrors) {
+            addMirrors(classDatas, finalClassCounts);
+        }
+        return finalClassCounts;
+    }
+
+    /**
+     * Accounts for the class mirrors. Heap dumps have no instance records for java.lang.Class:
+     * every class dump stands for its mirror, which also holds the static fields of the class.
+     * The mirror is modeled as java.lang.Class instance with the VM-injected and static fields appended.
+     * The mirrors with the same static field types share the class data, so that they
+     * end up in the same histogram line.
+     */
+    private void addMirrors(LongObjectHashMap<ClassData> classDatas, Multiset<ClassData> counts) {
+        ClassData klassCd = null;
+        for (long id : classDatas.keys()) {
+            ClassData cd = classDatas.get(id);
+            if (MIRROR_CLASS.equals(cd.name())) {
+                klassCd = cd;
+                break;
+            }
+        }
+
+        Map<String, ClassData> shapes = new HashMap<>();
+        Multimap<String, ClassData> newMirrors = new Multimap<>();
+        LongObjectHashMap<ClassData> newMirrorsById = new LongObjectHashMap<>();
+        for (long klassId : classStatics.keys()) {
+            String[] statics = classStatics.get(klassId);
+            String shape = String.join(",", statics);
+            ClassData cd = shapes.get(shape);
+            if (cd == null) {
+                cd = mirrorData(klassCd, statics);
+                shapes.put(shape, cd);
+            }
+            counts.add(cd, 1);
+            newMirrors.put(classNames.get(klassId), cd);
+            newMirrorsById.put(klassId, cd);
+        }
+        mirrors = newMirrors;
+        mirrorsById = newMirrorsById;
+    }
+
+    private ClassData mirrorData(ClassData klassCd, String[] statics) {
+        ClassData cd = new ClassData(MIRROR_CLASS);
+        if (klassCd != null) {
+            // Super classes are added in front.
+            List<String> hierarchy = klassCd.classHierarchy();
+            for (int c = hierarchy.size() - 1; c >= 0; c--) {
+                cd.addSuperClass(hierarchy.get(c));
+            }
+            for (FieldData fd : klassCd.fields()) {
+                cd.addField(fd);
+            }
+            if (klassCd.superClass() != null) {
+                cd.addSuperClassData(klassCd.superClass());
+            }
+        } else {
+            cd.addSuperClass(MIRROR_CLASS);
+        }
+
+        // Heap dumps omit the fields that VM injects into java.lang.Class.
+        // These are the ones that current HotSpot versions inject.
+        String metadata = (idSize == 8) ? "long" : "int";
+        cd.addField(FieldData.create(MIRROR_CLASS, "<klass>", metadata));
+        cd.addField(FieldData.create(MIRROR_CLASS, "<array_klass>", metadata));
+        cd.addField(FieldData.create(MIRROR_CLASS, "<oop_size>", "int"));
+        cd.addField(FieldData.create(MIRROR_CLASS, "<static_oop_field_count>", "int"));
+        cd.addField(FieldData.create(MIRROR_CLASS, "<protection_domain>", "Object"));
+        cd.addField(FieldData.create(MIRROR_CLASS, "<signers>", "Object"));
+        cd.addField(FieldData.create(MIRROR_CLASS, "<source_file>", "Object"));
+
+        for (int c = 0; c < statics.length; c++) {
+            cd.addField(FieldData.create(MIRROR_CLASS, "<static" + c + ">", statics[c]));
+        }
+        return cd;
+    }
+
+    /**
+     * Returns the class mirrors, known after {@link #parse()}. The mirror sizes include
+     * the static fields of the class, and can be laid out as any other class data.
+     *
+     * @return class name to the class datas of its mirrors, one for every class with that name
+     */
+    public Multimap<String, ClassData> mirrors() {
+        return mirrors;
+    }
+
+    /**
+     * Returns the class mirror of the given class, known after {@link #parse()}.
+     *
+     * @param klassId class ID
+     * @return class data of the mirror, or null if class dump is not seen
+     */
+    public ClassData mirror(long klassId) {
+        return mirrorsById.get(klassId);
+    }
+
+    /**
+     * Reads the dump from the start.
+     *
+     * @return heap dump segments
+     */
+    private List<Segment> readDump() throws HeapDumpException {
         header = readNullTerminated();
 
         idSize = (int) read_U4(); // always fits
@@ -136,21 +555,15 @@ public class HeapDumpReader {
         read_U4(); // timestamp, lo
         read_U4(); // timestamp, hi
 
-        long lastPrint = 0L;
-        final long printEach = 1024L * 1024 * 1024;
-
-        long start = System.nanoTime();
-
-        if (verboseOut != null) {
-            verboseOut.print("Reading: ");
-            verboseOut.flush();
-        }
+        // Heap dump segments are independent once strings and classes are known.
+        // Without a visitor to feed in order, skip the segments on the first pass,
+        // and digest them in parallel after it.
+        boolean parallel = (visitor == null) && (threads > 1) && (in instanceof MappedDumpInput);
+        List<Segment> segments = new ArrayList<>();
 
         while (true) {
-            if ((verboseOut != null) && (readBytes - lastPrint > printEach)) {
-                verboseOut.print(".");
-                verboseOut.flush();
-                lastPrint = readBytes;
+            if (!parallel) {
+                printProgress(in.position());
             }
 
             int tag;
@@ -162,9 +575,9 @@ public class HeapDumpReader {
             }
 
             skipContents(4); // relative time
-            long len = read_U4();
+            long len = recordLength(tag, read_U4(), (in.size() >= 0) ? in.size() - in.position() : -1);
 
-            long lastCount = readBytes;
+            long lastCount = in.position();
 
             switch (tag) {
                 case 0x01: {
@@ -186,92 +599,313 @@ public class HeapDumpReader {
 
                 case 0x0C:
                 case 0x1C:
-                    while (readBytes - lastCount < len) {
-                        digestHeapDump();
-                    }
+                    readSegment(lastCount, len, segments, parallel);
                     break;
                 default:
                     skipContents(len);
             }
 
-            if (readBytes - lastCount != len) {
-                throw new HeapDumpException(errorMessage("Expected to read " + len + " bytes, but read " + (readBytes - lastCount) + " bytes"));
+            if (stopped) {
+                break;
+            }
+
+            if (in.position() - lastCount != len) {
+                throw new HeapDumpException(errorMessage("Expected to read " + len + " bytes, but read " + (in.position() - lastCount) + " bytes"));
             }
         }
 
-        // Post-process supers: merge all fields datas up the class hierarchy.
-        Map<Long, ClassData> classDatas = new HashMap<>();
+        if (parallel && !segments.isEmpty()) {
+            digestSegments(segments);
+        }
+        return segments;
+    }
 
-        for (Long klassId : classFields.keys()) {
-            String name = classNames.get(klassId);
-            ClassData cd = new ClassData(name);
+    /**
+     * Reads only the heap dump segments, skipping over the top-level records in between.
+     * The index provides the class names and the field name strings that class dumps refer to.
+     */
+    private void readSegments(HeapDumpIndex index) throws HeapDumpException {
+        header = index.header;
+        idSize = index.idSize;
+        for (long id : index.classNames.keys()) {
+            classNames.put(id, index.classNames.get(id));
+        }
+        for (long id : index.fieldNames.keys()) {
+            strings.put(id, index.fieldNames.get(id));
+        }
 
-            Long id = klassId;
-            while (id != null) {
-                cd.addSuperClass(classNames.get(id));
-                for (FieldData fd : classFields.get(id)) {
-                    cd.addField(fd);
+        List<Segment> segments = new ArrayList<>();
+        for (Segment s : index.segments) {
+            skipContents(s.offset - in.position());
+            printProgress(in.position());
+
+            readSegment(s.offset, s.length, segments, false);
+            if (stopped) {
+                break;
+            }
+
+            if (in.position() - s.offset != s.length) {
+                throw new HeapDumpException(errorMessage("Expected to read " + s.length + " bytes, but read " + (in.position() - s.offset) + " bytes"));
+            }
+        }
+    }
+
+    /**
+     * Reads the heap dump segment, the record header is already read.
+     *
+     * @param start segment start offset
+     * @param len segment length
+     * @param segments segments seen so far, the new one is added there
+     * @param parallel if true, skip the segment contents to digest them later
+     */
+    private void readSegment(long start, long len, List<Segment> segments, boolean parallel) throws HeapDumpException {
+        int kind = HeapDumpSample.EXACT;
+        int firstTag = -1;
+        if (sample != null && len > 0) {
+            // Peek at the first record to see if segment carries class dumps.
+            firstTag = read_U1();
+            kind = sample.select(segments.isEmpty(), firstTag);
+        }
+        segments.add(new Segment(start, len, kind));
+        if (parallel || kind == HeapDumpSample.SKIPPED) {
+            skipContents(len - (in.position() - start));
+        } else {
+            digestSegment(start, len, firstTag, kind == HeapDumpSample.SAMPLED);
+        }
+    }
+
+    /**
+     * Returns the actual length of the top-level record. Record lengths are 4-byte values, and
+     * the heap dump records over 4 GB have them wrapped around. Such record can only be the last one,
+     * optionally followed by the heap dump end record, so the dump size tells its length. Some writers
+     * also leave the length of the single heap dump record at zero.
+     *
+     * @param tag record tag
+     * @param len record length, as written
+     * @param rest bytes remaining in the dump after the record header, or -1 if not known
+     * @return record length
+     */
+    static long recordLength(int tag, long len, long rest) {
+        if ((tag != 0x0C && tag != 0x1C) || rest <= len) {
+            return len;
+        }
+        if (((rest - len) & 0xFFFFFFFFL) == 0) {
+            return rest;
+        }
+        long beforeEnd = rest - (1 + 4 + 4);
+        if (beforeEnd > len && ((beforeEnd - len) & 0xFFFFFFFFL) == 0) {
+            return beforeEnd;
+        }
+        if (tag == 0x0C && len == 0) {
+            return rest;
+        }
+        return len;
+    }
+
+    private void reportProgress(long bytes) throws HeapDumpException {
+        if (progressListener == null) {
+            nextProgress = Long.MAX_VALUE;
+            return;
+        }
+        nextProgress = bytes + progressInterval;
+        if (!progressListener.onProgress(new Progress(bytes))) {
+            stopped = true;
+            stoppedAt = bytes;
+        }
+    }
+
+    private void printProgress(long bytes) {
+        if ((verboseOut != null) && (bytes - lastPrint > PRINT_EACH)) {
+            verboseOut.print(".");
+            verboseOut.flush();
+            lastPrint = bytes;
+        }
+    }
+
+    private void digestSegments(List<Segment> segments) throws HeapDumpException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            CompletionService<HeapDumpReader> cs = new ExecutorCompletionService<>(pool);
+            Map<Future<HeapDumpReader>, Long> taskSizes = new HashMap<>();
+
+            List<Segment> batch = new ArrayList<>();
+            long batchSize = 0;
+            for (int c = 0; c < segments.size(); c++) {
+                Segment s = segments.get(c);
+                if (s.kind != HeapDumpSample.SKIPPED) {
+                    batch.add(s);
+                    batchSize += s.length;
+                }
+                if (batchSize >= taskSize || (c == segments.size() - 1 && !batch.isEmpty())) {
+                    final List<Segment> taskSegments = batch;
+                    Future<HeapDumpReader> f = cs.submit(() -> {
+                        HeapDumpReader worker = new HeapDumpReader(this, ((MappedDumpInput) in).duplicate());
+                        for (Segment ts : taskSegments) {
+                            worker.digestSegment(ts);
+                        }
+                        return worker;
+                    });
+                    taskSizes.put(f, batchSize);
+                    batch = new ArrayList<>();
+                    batchSize = 0;
                 }
-                id = classSupers.get(id);
             }
-            classDatas.put(klassId, cd);
-            if (visitor != null) {
-                visitor.visitClassData(name, cd);
+
+            // Merge the results as they come, so that only a few workers are live at once.
+            long digested = 0;
+            for (int t = 0; t < taskSizes.size() && !stopped; t++) {
+                Future<HeapDumpReader> f = cs.take();
+                merge(f.get());
+                digested += taskSizes.get(f);
+                printProgress(digested);
+                if (digested >= nextProgress) {
+                    reportProgress(digested);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HeapDumpException(errorMessage("Interrupted"));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof HeapDumpException) {
+                throw (HeapDumpException) cause;
             }
+            throw new IllegalStateException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void digestSegment(Segment s) throws HeapDumpException {
+        ((MappedDumpInput) in).seek(s.offset);
+        digestSegment(s.offset, s.length, -1, s.kind == HeapDumpSample.SAMPLED);
+        long end = s.offset + s.length;
+        if (in.position() != end) {
+            throw new HeapDumpException(errorMessage("Expected to read " + s.length + " bytes, but read " + (in.position() - s.offset) + " bytes"));
         }
+    }
 
-        // Fix up superclasses for HotspotLayouter to work well.
-        for (Long klassId : classDatas.keySet()) {
-            Long key = classSupers.get(klassId);
-            if (key != null) {
-                ClassData cd = classDatas.get(klassId);
-                ClassData superCd = classDatas.get(key);
-                if (superCd == null) {
-                    throw new IllegalStateException("Parser error: no super class data for " + cd.name() + " (" + key + ")");
+    /**
+     * Digests the records in the segment.
+     *
+     * @param start segment start offset
+     * @param len segment length
+     * @param firstTag the tag of the first record, if already read; -1 otherwise
+     * @param sampled if true, count the segment records towards the sample
+     */
+    private void digestSegment(long start, long len, int firstTag, boolean sampled) throws HeapDumpException {
+        if (!sampled) {
+            if (firstTag >= 0) {
+                digestHeapDump(firstTag);
+            }
+            while (in.position() - start < len && !stopped) {
+                digestHeapDump();
+                if (in.position() >= nextProgress) {
+                    reportProgress(in.position());
                 }
-                cd.addSuperClassData(superCd);
             }
+            return;
         }
 
-        // Compute final class counts.
-        Multiset<ClassData> finalClassCounts = new Multiset<>();
-        for (ClassData cd : arrayCounts.keys()) {
-            finalClassCounts.add(cd, arrayCounts.count(cd));
+        // Count sampled segment separately, and fold the counts into the sample at the end.
+        // Progress snapshots are only taken between the sampled segments.
+        LongLongHashMap exactClassCounts = classCounts;
+        LongLongHashMap[] exactPrimArrayCounts = primArrayCounts;
+        LongObjectHashMap<LongLongHashMap> exactObjArrayCounts = objArrayCounts;
+
+        classCounts = new LongLongHashMap();
+        primArrayCounts = new LongLongHashMap[PRIM_TYPES];
+        objArrayCounts = new LongObjectHashMap<>();
+
+        if (firstTag >= 0) {
+            digestHeapDump(firstTag);
         }
-        for (Long id : classDatas.keySet()) {
-            ClassData cd = classDatas.get(id);
-            finalClassCounts.add(cd, classCounts.count(id));
+        while (in.position() - start < len) {
+            digestHeapDump();
         }
+        sample.add(classCounts, primArrayCounts, objArrayCounts);
 
-        if (verboseOut != null) {
-            long end = System.nanoTime();
-            verboseOut.printf(" done %d MB in %.3f seconds at %.0f MB/sec%n",
-                    readBytes / 1024 / 1024,
-                    1D * (end - start) / 1000 / 1000 / 1000,
-                    1000D * readBytes / (end - start));
+        classCounts = exactClassCounts;
+        primArrayCounts = exactPrimArrayCounts;
+        objArrayCounts = exactObjArrayCounts;
+
+        if (in.position() >= nextProgress) {
+            reportProgress(in.position());
         }
+    }
 
-        return finalClassCounts;
+    private void merge(HeapDumpReader worker) throws HeapDumpException {
+        records += worker.records;
+        if (sample != null) {
+            sample.merge(worker.sample);
+        }
+        classCounts.addAll(worker.classCounts);
+        for (int type = 0; type < PRIM_TYPES; type++) {
+            if (worker.primArrayCounts[type] != null) {
+                primArrayCounts(type).addAll(worker.primArrayCounts[type]);
+            }
+        }
+        for (long klassId : worker.objArrayCounts.keys()) {
+            objArrayCounts(klassId).addAll(worker.objArrayCounts.get(klassId));
+        }
+        for (long klassId : worker.classFields.keys()) {
+            classFields.put(klassId, worker.classFields.get(klassId));
+        }
+        for (long klassId : worker.classStatics.keys()) {
+            classStatics.put(klassId, worker.classStatics.get(klassId));
+        }
+        for (long id : worker.fieldNames.keys()) {
+            fieldNames.put(id, worker.fieldNames.get(id));
+        }
+        for (long klassId : worker.classSupers.keys()) {
+            if (classSupers.put(klassId, worker.classSupers.get(klassId)) != 0) {
+                throw new HeapDumpException("Format error: duplicate class " + classNames.get(klassId));
+            }
+        }
+    }
+
+    private LongLongHashMap primArrayCounts(int type) {
+        LongLongHashMap counts = primArrayCounts[type];
+        if (counts == null) {
+            counts = new LongLongHashMap();
+            primArrayCounts[type] = counts;
+        }
+        return counts;
+    }
+
+    private LongLongHashMap objArrayCounts(long klassId) {
+        LongLongHashMap counts = objArrayCounts.get(klassId);
+        if (counts == null) {
+            counts = new LongLongHashMap();
+            objArrayCounts.put(klassId, counts);
+        }
+        return counts;
     }
 
     private void digestHeapDump() throws HeapDumpException {
-        int subTag = read_U1();
+        digestHeapDump(read_U1());
+    }
+
+    private void digestHeapDump(int subTag) throws HeapDumpException {
+        records++;
+        recordOffset = in.position() - 1;
         switch (subTag) {
             case 0x01:
-                skipContents(2 * idSize);
+                digestRoot(subTag, idSize);
                 return;
             case 0x02:
             case 0x03:
             case 0x08:
-                skipContents(idSize + 2*4);
+                digestRoot(subTag, 2*4);
                 return;
             case 0x04:
             case 0x06:
-                skipContents(idSize + 1*4);
+                digestRoot(subTag, 1*4);
                 return;
             case 0x05:
             case 0x07:
-                skipContents(idSize);
+            case 0xFF:
+                digestRoot(subTag, 0);
                 return;
             case 0x20:
                 digestClass();
@@ -290,20 +924,27 @@ public class HeapDumpReader {
         }
     }
 
+    private void digestRoot(int type, int extra) throws HeapDumpException {
+        if (visitor != null) {
+            visitor.visitRoot(type, read_ID());
+            skipContents(extra);
+        } else {
+            skipContents(idSize + extra);
+        }
+    }
+
     private void digestPrimArray() throws HeapDumpException {
         long id = read_ID(); // array id
         skipContents(4); // stack trace, ignore
-        int elements = (int) read_U4(); // always fits
+        int elements = readLength("array length");
         int typeClass = read_U1();
 
-        String typeString = getTypeString(typeClass);
-        String typeArrayString = getTypeArrayString(typeClass);
-        arrayCounts.add(new ClassData(typeArrayString, typeString, elements));
+        long len = Math.multiplyExact((long) elements, getSize(typeClass));
 
-        long len = (long) elements * getSize(typeClass);
-        if (visitor != null) {
-            byte[] bytes = readContents(len);
-            visitor.visitArray(id, typeString, elements, bytes);
+        primArrayCounts(typeClass).add(elements, 1);
+        if (visitor != null && acceptsPrimArrays(typeClass)) {
+            ByteBuffer contents = sliceContents(len);
+            visitor.visitArray(id, getTypeString(typeClass), elements, contents);
         } else {
             skipContents(len);
         }
@@ -312,19 +953,15 @@ public class HeapDumpReader {
     private void digestObjArray() throws HeapDumpException {
         long id = read_ID(); // array id
         skipContents(4); // stack trace, ignore
-        int elements = (int) read_U4(); // always fits
+        int elements = readLength("array length");
         long klassId = read_ID(); // array class
 
-        String name = classNames.get(klassId);
-
-        // Assume Object as component type, the name of the actual class
-        // is what we want for the printouts.
-        arrayCounts.add(new ClassData(name, "Object", elements));
+        objArrayCounts(klassId).add(elements, 1);
 
-        long len = (long) elements * idSize;
-        if (visitor != null) {
-            byte[] bytes = readContents(len);
-            visitor.visitArray(id, "Object", elements, bytes);
+        long len = Math.multiplyExact((long) elements, idSize);
+        if (visitor != null && acceptsObjArrays(klassId)) {
+            ByteBuffer contents = sliceContents(len);
+            visitor.visitArray(id, klassId, elements, contents);
         } else {
             skipContents(len);
         }
@@ -334,19 +971,46 @@ public class HeapDumpReader {
         long id = read_ID(); // object id
         skipContents(4); // stack trace, ignore
         long klassID = read_ID();
-        int instanceBytes = (int) read_U4(); // always fits
+        int instanceBytes = readLength("instance size");
 
-        classCounts.add(klassID);
+        classCounts.add(klassID, 1);
 
-        if (visitor != null) {
-            byte[] bytes = readContents(instanceBytes);
+        if (visitor != null && acceptsInstances(klassID)) {
+            ByteBuffer contents = sliceContents(instanceBytes);
             String name = classNames.get(klassID);
-            visitor.visitInstance(id, klassID, bytes, name);
+            visitor.visitInstance(id, klassID, contents, name);
         } else {
             skipContents(instanceBytes);
         }
     }
 
+    private boolean acceptsInstances(long klassID) {
+        int v = instanceInterest.get(klassID);
+        if (v == 0) {
+            v = visitor.acceptsInstances(klassID, classNames.get(klassID)) ? 1 : -1;
+            instanceInterest.put(klassID, v);
+        }
+        return v > 0;
+    }
+
+    private boolean acceptsObjArrays(long klassID) {
+        int v = objArrayInterest.get(klassID);
+        if (v == 0) {
+            v = visitor.acceptsObjArrays(klassID, classNames.get(klassID)) ? 1 : -1;
+            objArrayInterest.put(klassID, v);
+        }
+        return v > 0;
+    }
+
+    private boolean acceptsPrimArrays(int type) throws HeapDumpException {
+        int v = primArrayInterest[type];
+        if (v == 0) {
+            v = visitor.acceptsPrimArrays(getTypeString(type)) ? 1 : -1;
+            primArrayInterest[type] = (byte) v;
+        }
+        return v > 0;
+    }
+
     private void digestClass() throws HeapDumpException {
         long klassID = read_ID();
 
@@ -355,16 +1019,16 @@ public class HeapDumpReader {
         skipContents(4); // stack trace, ignore
 
         long superKlassID = read_ID();
-        if (superKlassID != 0 && classSupers.put(klassID, superKlassID) != null) {
+        if (superKlassID != 0 && classSupers.put(klassID, superKlassID) != 0) {
             throw new HeapDumpException("Format error: duplicate class " + name);
         }
 
-        read_ID(); // class loader
+        long loaderID = read_ID(); // class loader
         read_ID(); // signers
         read_ID(); // protection domain
         read_ID(); // reserved
         read_ID(); // reserved
-        read_U4(); // instance size
+        int instanceSize = (int) read_U4(); // instance size
 
         int cpCount = read_U2();
         for (int c = 0; c < cpCount; c++) {
@@ -373,36 +1037,71 @@ public class HeapDumpReader {
             readValue(type); // value
         }
 
+        List<Long> staticRefs = new ArrayList<>();
+        List<String> staticRefNames = new ArrayList<>();
+
         int cpStatics = read_U2();
+        String[] staticTypes = new String[cpStatics];
         for (int c = 0; c < cpStatics; c++) {
-            read_ID(); // index
+            long index = read_ID(); // index
             int type = read_U1(); // type
-            readValue(type); // value
+            staticTypes[c] = getTypeString(type);
+            long value = readValue(type); // value
+            // Keep the names for the index, even if this visitor does not need them.
+            String fieldName = fieldName(index);
+            if (type == 2 && value != 0 && visitor != null) {
+                staticRefs.add(value);
+                staticRefNames.add(fieldName);
+            }
         }
 
         int offset = 0;
         List<Integer> oopIdx = new ArrayList<>();
+        List<String> oopNames = new ArrayList<>();
 
         int cpInstance = read_U2();
+        List<FieldData> fields = new ArrayList<>(cpInstance);
         for (int c = 0; c < cpInstance; c++) {
             long index = read_ID();
             int type = read_U1();
 
-            classFields.put(klassID, FieldData.create(name, strings.get(index), getTypeString(type)));
+            String fieldName = fieldName(index);
+            fields.add(FieldData.create(name, fieldName, getTypeString(type)));
             if (type == 2) {
                 oopIdx.add(offset);
+                oopNames.add(fieldName);
             }
             offset += getSize(type);
         }
-        if (cpInstance == 0) {
-            classFields.putEmpty(klassID);
-        }
+        classFields.put(klassID, fields);
+
+        // Only the types matter for the mirror layout.
+        Arrays.sort(staticTypes);
+        classStatics.put(klassID, staticTypes);
 
         if (visitor != null) {
-            visitor.visitClass(klassID, name, oopIdx, idSize);
+            int[] refOffsets = new int[oopIdx.size()];
+            for (int c = 0; c < refOffsets.length; c++) {
+                refOffsets[c] = oopIdx.get(c);
+            }
+            long[] refs = new long[staticRefs.size()];
+            for (int c = 0; c < refs.length; c++) {
+                refs[c] = staticRefs.get(c);
+            }
+            visitor.visitClass(new HeapDumpClass(klassID, name, superKlassID, loaderID, instanceSize, idSize,
+                    fields, offset, refOffsets, oopNames.toArray(new String[0]),
+                    refs, staticRefNames.toArray(new String[0])));
         }
     }
 
+    private String fieldName(long id) {
+        String name = strings.get(id);
+        if (name != null) {
+            fieldNames.put(id, name);
+        }
+        return name;
+    }
+
     private long readValue(int type) throws HeapDumpException {
         switch (type) {
             case 2: // object
@@ -434,6 +1133,10 @@ public class HeapDumpReader {
     }
 
     private int getSize(int type) throws HeapDumpException {
+        return getSize(type, idSize);
+    }
+
+    static int getSize(int type, int idSize) throws HeapDumpException {
         switch (type) {
             case 2: // object
                 if (idSize == 4) {
@@ -467,7 +1170,9 @@ public class HeapDumpReader {
     private String getTypeString(int type) throws HeapDumpException {
         switch (type) {
             case 2:
-                return "Object"; // TODO: Read the exact type;
+                // Heap dumps do not record the declared types of reference fields.
+                // All references have the same size, so this does not affect the layout.
+                return "Object";
             case 4:
                 return "boolean";
             case 8:
@@ -492,7 +1197,8 @@ public class HeapDumpReader {
     private String getTypeArrayString(int type) throws HeapDumpException {
         switch (type) {
             case 2:
-                return "Object[]"; // TODO: Read the exact type;
+                // Object arrays take their exact type from the array class, see buildHistogram.
+                return "Object[]";
             case 4:
                 return "boolean[]";
             case 8:
@@ -515,50 +1221,43 @@ public class HeapDumpReader {
     }
 
     private long read_ID() throws HeapDumpException {
-        int read = read(buf, idSize);
-        if (read == 4) {
-            return ((long)wrapBuf.getInt(0) & 0xFFFFFFFFL);
-        }
-        if (read == 8) {
-            return wrapBuf.getLong(0);
+        try {
+            if (idSize == 4) {
+                return (long) in.u4() & 0xFFFFFFFFL;
+            }
+            if (idSize == 8) {
+                return in.u8();
+            }
+        } catch (IOException e) {
+            throw new HeapDumpException(errorMessage("Unable to read " + idSize + " bytes"));
         }
         throw new HeapDumpException("Unable to read " + idSize + " bytes");
     }
 
     void skipContents(long len) throws HeapDumpException {
-        long rem = len;
-        int read;
-        do {
-            int toRead = (int) Math.min(buf.length, rem); // always fits into buf.length
-            read = skip(toRead);
-            if (read == 0) {
-                read = read(buf, toRead);
-            }
-            rem -= read;
-        } while (rem > 0);
-    }
-
-    byte[] readContents(long len) throws HeapDumpException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        long rem = len;
-        int read;
-        do {
-            int toRead = (int) Math.min(buf.length, rem); // always fits into buf.length
-            read = read(buf, toRead);
-            bos.write(buf, 0, read);
-            rem -= read;
-        } while (rem > 0);
-        return bos.toByteArray();
+        try {
+            in.skip(len);
+        } catch (IOException e) {
+            throw new HeapDumpException(errorMessage("Unable to skip " + len + " bytes"));
+        }
+    }
+
+    ByteBuffer sliceContents(long len) throws HeapDumpException {
+        if (len > Integer.MAX_VALUE) {
+            throw new HeapDumpException(errorMessage("Record is too large to read: " + len + " bytes"));
+        }
+        try {
+            return in.slice((int) len);
+        } catch (IOException e) {
+            throw new HeapDumpException(errorMessage("Unable to read " + len + " bytes"));
+        }
     }
 
     String readNullTerminated() throws HeapDumpException {
         int r;
         StringBuilder sb = new StringBuilder();
-        while ((r = read()) != -1) {
-            if (r == 0) {
-                break;
-            }
-            sb.append((char) (r & 0xFF));
+        while ((r = read_U1()) != 0) {
+            sb.append((char) r);
         }
         return sb.toString();
     }
@@ -566,71 +1265,339 @@ public class HeapDumpReader {
     String readString(long len) throws HeapDumpException {
         StringBuilder sb = new StringBuilder();
         for (long l = 0; l < len; l++) {
-            int r = read();
-            if (r == -1) {
-                break;
-            }
-            sb.append((char) (r & 0xFF));
+            sb.append((char) read_U1());
         }
         return sb.toString();
     }
 
+    /**
+     * Reads the unsigned 4-byte array length or instance size. Java arrays and instances
+     * are never larger than {@link Integer#MAX_VALUE}, larger values mean the dump is broken.
+     */
+    private int readLength(String what) throws HeapDumpException {
+        long v = read_U4();
+        if (v > Integer.MAX_VALUE) {
+            throw new HeapDumpException(errorMessage("Format error: " + what + " is too large: " + v));
+        }
+        return (int) v;
+    }
+
     long read_U8() throws HeapDumpException {
-        int read = read(buf, 8);
-        if (read == 8) {
-            return wrapBuf.getLong(0);
+        try {
+            return in.u8();
+        } catch (IOException e) {
+            throw new HeapDumpException(errorMessage("Unable to read 8 bytes"));
         }
-        throw new HeapDumpException(errorMessage("Unable to read 8 bytes"));
     }
 
     long read_U4() throws HeapDumpException {
-        int read = read(buf, 4);
-        if (read == 4) {
-            return ((long)wrapBuf.getInt(0) & 0xFFFFFFFFL);
+        try {
+            return (long) in.u4() & 0xFFFFFFFFL;
+        } catch (IOException e) {
+            throw new HeapDumpException(errorMessage("Unable to read 4 bytes"));
         }
-        throw new HeapDumpException(errorMessage("Unable to read 4 bytes"));
     }
 
     int read_U2() throws HeapDumpException {
-        int read = read(buf, 2);
-        if (read == 2) {
-            return ((int)wrapBuf.getShort(0) & 0xFFFF);
+        try {
+            return in.u2();
+        } catch (IOException e) {
+            throw new HeapDumpException(errorMessage("Unable to read 2 bytes"));
         }
-        throw new HeapDumpException(errorMessage("Unable to read 2 bytes"));
     }
 
     int read_U1() throws HeapDumpException {
-        int read = read_byte();
-        if (read < 0) {
+        try {
+            return in.u1();
+        } catch (IOException e) {
             throw new HeapDumpException(errorMessage("Unable to read 1 bytes"));
         }
-        return (int)(read & 0xFF);
     }
 
     private String errorMessage(String message) throws HeapDumpException {
-        return String.format("%s at offset 0x%x in %s (%s)", message, readBytes, file, header);
+        return String.format("%s at offset 0x%x in %s (%s)", message, in.position(), file, header);
+    }
+
+    /**
+     * Receives progress snapshots while the dump is parsed.
+     */
+    public interface ProgressListener {
+        /**
+         * @param progress current progress
+         * @return false, if parsing should stop
+         */
+        boolean onProgress(Progress progress) throws HeapDumpException;
+    }
+
+    /**
+     * Snapshot of parsing progress. Only valid during {@link ProgressListener#onProgress(Progress)} call.
+     */
+    public class Progress {
+        private final long bytes;
+        private final long records;
+        private final long nanos;
+
+        private Progress(long bytes) {
+            this.bytes = bytes;
+            this.records = HeapDumpReader.this.records;
+            this.nanos = System.nanoTime() - startTime;
+        }
+
+        /**
+         * @return bytes digested so far; uncompressed bytes for compressed dumps
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * @return total bytes in the dump, or -1 if not known
+         */
+        public long totalBytes() {
+            return in.size();
+        }
+
+        public long records() {
+            return records;
+        }
+
+        public double seconds() {
+            return nanos / 1e9;
+        }
+
+        public double recordsPerSecond() {
+            return records / seconds();
+        }
+
+        public double bytesPerSecond() {
+            return bytes / seconds();
+        }
+
+        /**
+         * @return estimated seconds until the end of parsing, or NaN if not known
+         */
+        public double etaSeconds() {
+            long total = totalBytes();
+            if (total < 0 || bytes == 0) {
+                return Double.NaN;
+            }
+            return (total - bytes) / bytesPerSecond();
+        }
+
+        /**
+         * @return class histogram for the part of the dump digested so far
+         */
+        public Multiset<ClassData> histogram() throws HeapDumpException {
+            return buildHistogram(true, false);
+        }
     }
 
+    /**
+     * Reads the ID at given offset in the instance or array contents.
+     * The 4-byte IDs are unsigned, as the reader returns them elsewhere.
+     *
+     * @param contents instance or array contents
+     * @param offset absolute offset in the buffer
+     * @param idSize size of IDs in the dump
+     * @return object ID
+     */
+    public static long readId(ByteBuffer contents, int offset, int idSize) {
+        if (idSize == 4) {
+            return contents.getInt(offset) & 0xFFFFFFFFL;
+        } else {
+            return contents.getLong(offset);
+        }
+    }
+
+    static class Segment {
+        final long offset;
+        final long length;
+        final int kind;
+
+        Segment(long offset, long length, int kind) {
+            this.offset = offset;
+            this.length = length;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Receives the heap dump contents. Instance and array contents come in two flavors:
+     * <ul>
+     *     <li>{@code byte[]} callbacks get the copy of the contents, which they can keep;</li>
+     *     <li>{@link ByteBuffer} callbacks get the read-only view into the reader buffers, with contents
+     *     between position and limit. The view is only valid during the callback. This saves copying
+     *     the entire heap, and visitors should prefer it.</li>
+     * </ul>
+     * The reader calls {@link ByteBuffer} callbacks, which copy the contents for {@code byte[]}
+     * callbacks only if the subclass overrides them.
+     * <p>
+     * The reader skips the contents the visitor is not interested in, see {@code accepts*} methods.
+     * By default, visitors accept all instances or arrays, if they override the respective callbacks.
+     */
     public static class Visitor {
+        private final boolean copyInstances;
+        private final boolean copyArrays;
+        private final boolean visitsInstances;
+        private final boolean visitsArrays;
+
+        public Visitor() {
+            copyInstances = overrides("visitInstance", long.class, long.class, byte[].class, String.class);
+            copyArrays = overrides("visitArray", long.class, String.class, int.class, byte[].class);
+            visitsInstances = copyInstances || overrides("visitInstance", long.class, long.class, ByteBuffer.class, String.class);
+            visitsArrays = copyArrays || overrides("visitArray", long.class, String.class, int.class, ByteBuffer.class) ||
+                    overrides("visitArray", long.class, long.class, int.class, ByteBuffer.class);
+        }
+
+        /**
+         * Tells if visitor wants to see instances of a given class.
+         * Asked once per class, the answer is cached.
+         *
+         * @param klassID class ID
+         * @param name class name
+         * @return true, if instances should be visited
+         */
+        public boolean acceptsInstances(long klassID, String name) {
+            return visitsInstances;
+        }
+
+        /**
+         * Tells if visitor wants to see object arrays of a given array class.
+         * Asked once per array class, the answer is cached.
+         *
+         * @param klassID array class ID
+         * @param name array class name
+         * @return true, if arrays should be visited
+         */
+        public boolean acceptsObjArrays(long klassID, String name) {
+            return visitsArrays;
+        }
+
+        /**
+         * Tells if visitor wants to see primitive arrays of a given component type.
+         * Asked once per type, the answer is cached.
+         *
+         * @param componentType component type, e.g. "byte"
+         * @return true, if arrays should be visited
+         */
+        public boolean acceptsPrimArrays(String componentType) {
+            return visitsArrays;
+        }
+
+        private boolean overrides(String name, Class<?>... args) {
+            try {
+                return getClass().getMethod(name, args).getDeclaringClass() != Visitor.class;
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static byte[] toBytes(ByteBuffer contents) {
+            byte[] bytes = new byte[contents.remaining()];
+            contents.duplicate().get(bytes);
+            return bytes;
+        }
+
         public void visitInstance(long id, long klassID, byte[] bytes, String name) {
             // Do nothing.
         }
 
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            if (copyInstances) {
+                visitInstance(id, klassID, toBytes(contents), name);
+            }
+        }
+
         public void visitClass(long id, String name, List<Integer> oopIdx, int oopSize) {
             // Do nothing.
         }
 
+        /**
+         * Receives the class dump. By default, passes the declared reference field offsets
+         * to {@link #visitClass(long, String, List, int)}.
+         */
+        public void visitClass(HeapDumpClass klass) {
+            List<Integer> oopIdx = new ArrayList<>(klass.refOffsets().length);
+            for (int off : klass.refOffsets()) {
+                oopIdx.add(off);
+            }
+            visitClass(klass.id(), klass.name(), oopIdx, klass.idSize());
+        }
+
         public void visitArray(long id, String componentType, int count, byte[] bytes) {
             // Do nothing.
         }
 
+        public void visitArray(long id, String componentType, int count, ByteBuffer contents) {
+            if (copyArrays) {
+                visitArray(id, componentType, count, toBytes(contents));
+            }
+        }
+
+        /**
+         * Receives the object array along with its array class. By default, passes it to
+         * {@link #visitArray(long, String, int, ByteBuffer)} with "Object" component type.
+         */
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            visitArray(id, "Object", count, contents);
+        }
+
         public void visitClassData(String name, ClassData cd) {
             // Do nothing.
         }
+
+        /**
+         * Receives the GC root.
+         *
+         * @param type root sub-record tag, e.g. 0x01 for JNI global, see {@link #rootTypeName(int)}
+         * @param id object ID
+         */
+        public void visitRoot(int type, long id) {
+            // Do nothing.
+        }
     }
 
+    /**
+     * @param type GC root sub-record tag
+     * @return human-readable root type
+     */
+    public static String rootTypeName(int type) {
+        switch (type) {
+            case 0x01:
+                return "JNI global";
+            case 0x02:
+                return "JNI local";
+            case 0x03:
+                return "Java frame";
+            case 0x04:
+                return "native stack";
+            case 0x05:
+                return "sticky class";
+            case 0x06:
+                return "thread block";
+            case 0x07:
+                return "monitor used";
+            case 0x08:
+                return "thread object";
+            case 0xFF:
+                return "unknown";
+            default:
+                return "type " + type;
+        }
+    }
+
+    /**
+     * Feeds several visitors at once. Instances and arrays are passed only to the visitors
+     * that accept them.
+     */
     public static class MultiplexingVisitor extends Visitor {
         private final List<Visitor> visitors = new ArrayList<>();
+
+        // Accepting visitors, resolved when reader asks for interest.
+        private final LongObjectHashMap<Visitor[]> instanceVisitors = new LongObjectHashMap<>();
+        private final Map<String, Visitor[]> primArrayVisitors = new HashMap<>();
+        private final LongObjectHashMap<Visitor[]> objArrayVisitors = new LongObjectHashMap<>();
+
         public void add(Visitor v) {
             visitors.add(v);
         }
@@ -642,6 +1609,56 @@ public class HeapDumpReader {
             }
         }
 
+        @Override
+        public boolean acceptsInstances(long klassID, String name) {
+            List<Visitor> accepted = new ArrayList<>();
+            for (Visitor v : visitors) {
+                if (v.acceptsInstances(klassID, name)) {
+                    accepted.add(v);
+                }
+            }
+            instanceVisitors.put(klassID, accepted.toArray(new Visitor[0]));
+            return !accepted.isEmpty();
+        }
+
+        @Override
+        public boolean acceptsObjArrays(long klassID, String name) {
+            List<Visitor> accepted = new ArrayList<>();
+            for (Visitor v : visitors) {
+                if (v.acceptsObjArrays(klassID, name)) {
+                    accepted.add(v);
+                }
+            }
+            objArrayVisitors.put(klassID, accepted.toArray(new Visitor[0]));
+            return !accepted.isEmpty();
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            List<Visitor> accepted = new ArrayList<>();
+            for (Visitor v : visitors) {
+                if (v.acceptsPrimArrays(componentType)) {
+                    accepted.add(v);
+                }
+            }
+            primArrayVisitors.put(componentType, accepted.toArray(new Visitor[0]));
+            return !accepted.isEmpty();
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            Visitor[] vs = instanceVisitors.get(klassID);
+            if (vs == null) {
+                vs = visitors.toArray(new Visitor[0]);
+            }
+            int pos = contents.position();
+            int limit = contents.limit();
+            for (Visitor v : vs) {
+                v.visitInstance(id, klassID, contents, name);
+                ((Buffer) contents).limit(limit).position(pos);
+            }
+        }
+
         @Override
         public void visitClass(long id, String name, List<Integer> oopIdx, int oopSize) {
             for (Visitor v : visitors) {
@@ -650,54 +1667,58 @@ public class HeapDumpReader {
         }
 
         @Override
-        public void visitArray(long id, String componentType, int count, byte[] bytes) {
-            for (HeapDumpReader.Visitor v : visitors) {
-                v.visitArray(id, componentType, count, bytes);
+        public void visitClass(HeapDumpClass klass) {
+            for (Visitor v : visitors) {
+                v.visitClass(klass);
             }
         }
 
         @Override
-        public void visitClassData(String name, ClassData cd) {
+        public void visitArray(long id, String componentType, int count, byte[] bytes) {
             for (HeapDumpReader.Visitor v : visitors) {
-                v.visitClassData(name, cd);
+                v.visitArray(id, componentType, count, bytes);
             }
         }
-    }
 
-
-    static class UnsyncBufferedInputStream extends BufferedInputStream {
-        public UnsyncBufferedInputStream(InputStream in, int bufSize) {
-            super(in, bufSize);
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer contents) {
+            // Object arrays come here only from the callers that do not know the array class.
+            Visitor[] pvs = primArrayVisitors.get(componentType);
+            Collection<Visitor> vs = (pvs != null) ? Arrays.asList(pvs) : visitors;
+            int pos = contents.position();
+            int limit = contents.limit();
+            for (HeapDumpReader.Visitor v : vs) {
+                v.visitArray(id, componentType, count, contents);
+                ((Buffer) contents).limit(limit).position(pos);
+            }
         }
 
         @Override
-        public int read() throws IOException {
-            if (pos >= count) {
-                // Let superclass handle buffers
-                return super.read();
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            Visitor[] vs = objArrayVisitors.get(klassID);
+            if (vs == null) {
+                vs = visitors.toArray(new Visitor[0]);
+            }
+            int pos = contents.position();
+            int limit = contents.limit();
+            for (HeapDumpReader.Visitor v : vs) {
+                v.visitArray(id, klassID, count, contents);
+                ((Buffer) contents).limit(limit).position(pos);
             }
-            return buf[pos++] & 0xFF;
         }
 
         @Override
-        public int read(byte[] b, int off, int len) throws IOException {
-            if (pos + len >= count) {
-                // Let superclass handle buffers
-                return super.read(b, off, len);
+        public void visitClassData(String name, ClassData cd) {
+            for (HeapDumpReader.Visitor v : visitors) {
+                v.visitClassData(name, cd);
             }
-            System.arraycopy(buf, pos, b, off, len);
-            pos += len;
-            return len;
         }
 
         @Override
-        public long skip(long skip) throws IOException {
-            if (pos + skip >= count || skip > 1024*1024) {
-                // Let superclass handle buffers
-                return super.skip(skip);
+        public void visitRoot(int type, long id) {
+            for (HeapDumpReader.Visitor v : visitors) {
+                v.visitRoot(type, id);
             }
-            pos += (int)skip;
-            return skip;
         }
     }
 
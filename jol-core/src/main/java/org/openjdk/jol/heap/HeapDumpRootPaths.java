@@ -0,0 +1,409 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import org.openjdk.jol.util.BigIntArray;
+import org.openjdk.jol.util.LongIntHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Shortest paths from GC roots to every reachable node of the heap dump reference graph.
+ * <p>
+ * Computed with level-synchronous BFS from all roots at once. Each level is expanded in parallel:
+ * workers scan the edges of their part of the frontier, and only read the visited state. Newly
+ * discovered nodes are then claimed in frontier order, so the result is the same as with sequential
+ * BFS, regardless of the number of threads.
+ * <p>
+ * The graph does not know which field or array slot holds the reference. {@link #describe(File, List, PrintStream)}
+ * finds that with another pass over the dump, which only looks at the objects on the paths.
+ */
+public final class HeapDumpRootPaths implements Closeable {
+
+    // Frontiers smaller than this are not worth splitting between threads.
+    private static final int PARALLEL_FRONTIER = 4096;
+
+    // Paths longer than this are printed with the middle elided.
+    private static final int MAX_PRINTED_EDGES = 64;
+
+    private final HeapDumpGraph graph;
+    private final BigIntArray depths;
+    private final BigIntArray parents;
+    private final LongIntHashMap rootTypes;
+
+    private HeapDumpRootPaths(HeapDumpGraph graph, BigIntArray depths, BigIntArray parents, LongIntHashMap rootTypes) {
+        this.graph = graph;
+        this.depths = depths;
+        this.parents = parents;
+        this.rootTypes = rootTypes;
+    }
+
+    /**
+     * Computes the shortest paths, using as many threads as the heap dump reader does.
+     *
+     * @param graph reference graph
+     * @return paths
+     */
+    public static HeapDumpRootPaths compute(HeapDumpGraph graph) throws HeapDumpException {
+        return compute(graph, HeapDumpReader.THREADS);
+    }
+
+    /**
+     * Computes the shortest paths.
+     *
+     * @param graph reference graph
+     * @param threads number of threads to expand the BFS levels with
+     * @return paths
+     */
+    public static HeapDumpRootPaths compute(HeapDumpGraph graph, int threads) throws HeapDumpException {
+        int nodes = graph.nodes();
+
+        // Depth is stored plus one, so that zero means "not visited yet".
+        BigIntArray depths = new BigIntArray(nodes);
+        BigIntArray parents = new BigIntArray(nodes);
+        LongIntHashMap rootTypes = new LongIntHashMap();
+
+        BigIntArray frontier = new BigIntArray();
+        for (long r = 0; r < graph.roots(); r++) {
+            int n = graph.root(r);
+            if (depths.get(n) == 0) {
+                depths.set(n, 1);
+                parents.set(n, -1);
+                rootTypes.put(n, graph.rootType(r));
+                frontier.add(n);
+            }
+        }
+
+        ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        try {
+            int depth = 1;
+            while (frontier.size() > 0) {
+                depth++;
+                BigIntArray next = new BigIntArray();
+                if (pool == null || frontier.size() < PARALLEL_FRONTIER) {
+                    int[] found = discover(graph, depths, frontier, 0, frontier.size());
+                    claim(found, depths, parents, depth, next);
+                } else {
+                    // Enough tasks to balance the uneven out-degrees.
+                    long chunk = Math.max(1, frontier.size() / (threads * 4L));
+                    List<Callable<int[]>> tasks = new ArrayList<>();
+                    for (long from = 0; from < frontier.size(); from += chunk) {
+                        final long f = from;
+                        final long t = Math.min(frontier.size(), from + chunk);
+                        final BigIntArray fr = frontier;
+                        tasks.add(() -> discover(graph, depths, fr, f, t));
+                    }
+                    for (Future<int[]> f : pool.invokeAll(tasks)) {
+                        claim(f.get(), depths, parents, depth, next);
+                    }
+                }
+                frontier.close();
+                frontier = next;
+            }
+            frontier.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HeapDumpException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        return new HeapDumpRootPaths(graph, depths, parents, rootTypes);
+    }
+
+    /**
+     * Finds the unvisited successors of the frontier nodes. Only reads the shared state.
+     *
+     * @return pairs of (node, parent), with the trailing -1 if the array is not full
+     */
+    private static int[] discover(HeapDumpGraph graph, BigIntArray depths, BigIntArray frontier, long from, long to) {
+        int[] found = new int[64];
+        int size = 0;
+        for (long i = from; i < to; i++) {
+            int v = frontier.get(i);
+            for (long e = graph.edgeStart(v); e < graph.edgeStart(v + 1); e++) {
+                int w = graph.edge(e);
+                if (depths.get(w) == 0) {
+                    if (size + 2 > found.length) {
+                        found = Arrays.copyOf(found, found.length * 2);
+                    }
+                    found[size++] = w;
+                    found[size++] = v;
+                }
+            }
+        }
+        if (size < found.length) {
+            found[size] = -1;
+        }
+        return found;
+    }
+
+    private static void claim(int[] found, BigIntArray depths, BigIntArray parents, int depth, BigIntArray next) {
+        for (int c = 0; c + 1 < found.length && found[c] >= 0; c += 2) {
+            int w = found[c];
+            if (depths.get(w) == 0) {
+                depths.set(w, depth);
+                parents.set(w, found[c + 1]);
+                next.add(w);
+            }
+        }
+    }
+
+    public boolean isReachable(int node) {
+        return depths.get(node) != 0;
+    }
+
+    /**
+     * @return number of references from GC root to the node, or -1 if node is unreachable
+     */
+    public int depth(int node) {
+        return depths.get(node) - 1;
+    }
+
+    /**
+     * @return previous node on the shortest path, or -1 if node is a GC root, or unreachable
+     */
+    public int parent(int node) {
+        return isReachable(node) ? parents.get(node) : -1;
+    }
+
+    /**
+     * @return shortest path from GC root to the node, both inclusive; or null if node is unreachable
+     */
+    public int[] path(int node) {
+        if (!isReachable(node)) {
+            return null;
+        }
+        int[] path = new int[depth(node) + 1];
+        for (int c = path.length - 1, n = node; c >= 0; c--, n = parents.get(n)) {
+            path[c] = n;
+        }
+        return path;
+    }
+
+    /**
+     * @return GC root type of the node, see {@link HeapDumpReader#rootTypeName(int)}; or -1 if node is not a GC root
+     */
+    public int rootType(int node) {
+        return rootTypes.get(node, -1);
+    }
+
+    /**
+     * Prints the paths in the same style as {@link org.openjdk.jol.info.GraphPathRecord#path()}:
+     * starting from the GC root, then {@code .field} for fields, and {@code [index]} for array elements.
+     * Class objects are printed by the name of the class, so that static fields look like {@code Foo.field}.
+     * Superclass and class loader references are printed as {@code .<super>} and {@code .<loader>}.
+     *
+     * @param dump heap dump the graph was built from
+     * @param paths paths, as returned by {@link #path(int)}
+     * @param verboseOut stream for progress messages, or null
+     * @return printed paths
+     */
+    public List<String> describe(File dump, List<int[]> paths, PrintStream verboseOut) throws IOException, HeapDumpException {
+        // Collect the wanted edges per source object.
+        LongObjectHashMap<List<Edge>> wanted = new LongObjectHashMap<>();
+        List<Edge[]> pathEdges = new ArrayList<>();
+        for (int[] path : paths) {
+            int edges = path.length - 1;
+            Edge[] es = new Edge[edges];
+            for (int c = 0; c < edges; c++) {
+                if (edges > MAX_PRINTED_EDGES && c >= MAX_PRINTED_EDGES / 2 && c < edges - MAX_PRINTED_EDGES / 2) {
+                    continue;
+                }
+                Edge e = new Edge(graph.id(path[c + 1]));
+                long src = graph.id(path[c]);
+                List<Edge> list = wanted.get(src);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    wanted.put(src, list);
+                }
+                list.add(e);
+                es[c] = e;
+            }
+            pathEdges.add(es);
+        }
+
+        if (!wanted.isEmpty()) {
+            new HeapDumpReader(dump, verboseOut, new LabelVisitor(wanted)).parse();
+        }
+
+        List<String> result = new ArrayList<>();
+        for (int p = 0; p < paths.size(); p++) {
+            int[] path = paths.get(p);
+            Edge[] es = pathEdges.get(p);
+            StringBuilder sb = new StringBuilder();
+            sb.append(name(path[0]));
+            for (int c = 0; c < es.length; c++) {
+                if (es[c] != null) {
+                    sb.append(es[c].label != null ? es[c].label : ".<unknown>");
+                } else if (es[c - 1] != null) {
+                    sb.append(String.format("...(%d more)...", es.length - MAX_PRINTED_EDGES));
+                }
+            }
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    /**
+     * @return human-readable name for the node: class name for class objects, "class@id" for others
+     */
+    public String name(int node) {
+        int klass = graph.classOf(node);
+        if (graph.classKind(klass) == HeapDumpGraph.KIND_CLASS) {
+            HeapDumpClass k = graph.dumpClasses().get(graph.id(node));
+            if (k != null) {
+                return k.name();
+            }
+        }
+        return String.format("%s@0x%x", graph.className(klass), graph.id(node));
+    }
+
+    @Override
+    public void close() {
+        depths.close();
+        parents.close();
+    }
+
+    private static class Edge {
+        final long target;
+        String label;
+
+        Edge(long target) {
+            this.target = target;
+        }
+    }
+
+    /**
+     * Looks at the source objects of the wanted edges, and finds which slots hold the targets.
+     */
+    private class LabelVisitor extends HeapDumpReader.Visitor {
+        private final LongObjectHashMap<List<Edge>> wanted;
+        private final LongIntHashMap wantedClasses;
+
+        LabelVisitor(LongObjectHashMap<List<Edge>> wanted) {
+            this.wanted = wanted;
+            this.wantedClasses = new LongIntHashMap();
+            for (long id : wanted.keys()) {
+                int node = graph.node(id);
+                wantedClasses.put(graph.classId(graph.classOf(node)), 1);
+            }
+        }
+
+        @Override
+        public boolean acceptsInstances(long klassID, String name) {
+            return wantedClasses.containsKey(klassID);
+        }
+
+        @Override
+        public boolean acceptsObjArrays(long klassID, String name) {
+            return wantedClasses.containsKey(klassID);
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            return false;
+        }
+
+        @Override
+        public void visitClass(HeapDumpClass klass) {
+            List<Edge> edges = wanted.get(klass.id());
+            if (edges == null) {
+                return;
+            }
+            long[] refs = klass.staticRefs();
+            String[] names = klass.staticRefNames();
+            for (Edge e : edges) {
+                for (int c = 0; c < refs.length && e.label == null; c++) {
+                    if (refs[c] == e.target) {
+                        e.label = "." + names[c];
+                    }
+                }
+                if (e.label == null && klass.superId() == e.target) {
+                    e.label = ".<super>";
+                }
+                if (e.label == null && klass.loaderId() == e.target) {
+                    e.label = ".<loader>";
+                }
+            }
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            List<Edge> edges = wanted.get(id);
+            if (edges == null) {
+                return;
+            }
+            int[] offsets = graph.dumpClasses().refOffsets(klassID);
+            String[] names = graph.dumpClasses().refNames(klassID);
+            if (offsets == null) {
+                return;
+            }
+            int idSize = graph.dumpClasses().get(klassID).idSize();
+            int base = contents.position();
+            for (Edge e : edges) {
+                for (int c = 0; c < offsets.length && e.label == null; c++) {
+                    if (HeapDumpReader.readId(contents, base + offsets[c], idSize) == e.target) {
+                        e.label = "." + names[c];
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            List<Edge> edges = wanted.get(id);
+            if (edges == null || count == 0) {
+                return;
+            }
+            int idSize = contents.remaining() / count;
+            int base = contents.position();
+            for (Edge e : edges) {
+                for (int c = 0; c < count && e.label == null; c++) {
+                    if (HeapDumpReader.readId(contents, base + c * idSize, idSize) == e.target) {
+                        e.label = "[" + c + "]";
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import org.openjdk.jol.util.LongLongHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
+
+/**
+ * Sampling state for the heap dump reader: decides which heap dump segments to digest,
+ * and accumulates the per-segment counts of the sampled ones.
+ * <p>
+ * The first segment and the segments that start with class dumps are digested in full:
+ * they carry the class layouts everything else depends on. Other segments are picked by
+ * systematic sampling with the given fraction. The counts within a segment are correlated,
+ * so this is the cluster sample: the estimates scale the sampled counts by the number of
+ * segments, and the errors come from the variance of counts between the sampled segments.
+ */
+class HeapDumpSample {
+
+    static final int EXACT = 0;
+    static final int SAMPLED = 1;
+    static final int SKIPPED = 2;
+
+    // Two-sided 95% quantile of the normal distribution.
+    private static final double Z_95 = 1.96;
+
+    private final double fraction;
+    private final double phase;
+
+    // Segments subject to sampling, and the ones actually sampled. Only counted in the parent reader.
+    private int candidates;
+    private int sampled;
+
+    // Sums and sums of squares of per-segment counts, keyed the same way as reader counts.
+    final LongLongHashMap classSums;
+    final LongLongHashMap classSquares;
+    final LongLongHashMap[] primArraySums;
+    final LongLongHashMap[] primArraySquares;
+    final LongObjectHashMap<LongLongHashMap> objArraySums;
+    final LongObjectHashMap<LongLongHashMap> objArraySquares;
+
+    HeapDumpSample(double fraction, long seed, int primTypes) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Sampling fraction should be in (0; 1]: " + fraction);
+        }
+        this.fraction = fraction;
+        this.phase = (mix(seed) >>> 11) * 0x1.0p-53;
+        this.classSums = new LongLongHashMap();
+        this.classSquares = new LongLongHashMap();
+        this.primArraySums = new LongLongHashMap[primTypes];
+        this.primArraySquares = new LongLongHashMap[primTypes];
+        this.objArraySums = new LongObjectHashMap<>();
+        this.objArraySquares = new LongObjectHashMap<>();
+    }
+
+    private HeapDumpSample(HeapDumpSample parent) {
+        this.fraction = parent.fraction;
+        this.phase = parent.phase;
+        this.classSums = new LongLongHashMap();
+        this.classSquares = new LongLongHashMap();
+        this.primArraySums = new LongLongHashMap[parent.primArraySums.length];
+        this.primArraySquares = new LongLongHashMap[parent.primArraySquares.length];
+        this.objArraySums = new LongObjectHashMap<>();
+        this.objArraySquares = new LongObjectHashMap<>();
+    }
+
+    /**
+     * @return empty accumulator with the same sampling parameters, for the worker reader
+     */
+    HeapDumpSample fork() {
+        return new HeapDumpSample(this);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Decides what to do with the next segment.
+     *
+     * @param first true, if this is the first heap dump segment
+     * @param firstTag tag of the first record in the segment, or -1 if segment is empty
+     * @return {@link #EXACT}, {@link #SAMPLED}, or {@link #SKIPPED}
+     */
+    int select(boolean first, int firstTag) {
+        if (first || firstTag == 0x20) {
+            return EXACT;
+        }
+        // Systematic sampling: take the segment when the running sum of fractions crosses an integer.
+        int c = candidates++;
+        if (Math.floor((c + 1) * fraction + phase) > Math.floor(c * fraction + phase)) {
+            sampled++;
+            return SAMPLED;
+        }
+        return SKIPPED;
+    }
+
+    int candidates() {
+        return candidates;
+    }
+
+    int sampled() {
+        return sampled;
+    }
+
+    /**
+     * Folds the counts from a single sampled segment.
+     */
+    void add(LongLongHashMap classCounts, LongLongHashMap[] primArrayCounts, LongObjectHashMap<LongLongHashMap> objArrayCounts) {
+        add(classSums, classSquares, classCounts);
+        for (int type = 0; type < primArrayCounts.length; type++) {
+            if (primArrayCounts[type] != null) {
+                if (primArraySums[type] == null) {
+                    primArraySums[type] = new LongLongHashMap();
+                    primArraySquares[type] = new LongLongHashMap();
+                }
+                add(primArraySums[type], primArraySquares[type], primArrayCounts[type]);
+            }
+        }
+        for (long klassId : objArrayCounts.keys()) {
+            LongLongHashMap sums = objArraySums.get(klassId);
+            if (sums == null) {
+                sums = new LongLongHashMap();
+                objArraySums.put(klassId, sums);
+                objArraySquares.put(klassId, new LongLongHashMap());
+            }
+            add(sums, objArraySquares.get(klassId), objArrayCounts.get(klassId));
+        }
+    }
+
+    private static void add(LongLongHashMap sums, LongLongHashMap squares, LongLongHashMap counts) {
+        for (long key : counts.keys()) {
+            long v = counts.get(key);
+            sums.add(key, v);
+            // Saturate: the squares only feed the error estimate, and are unlikely to overflow.
+            long sq = (v > 3_037_000_499L) ? Long.MAX_VALUE : v * v;
+            long cur = squares.get(key);
+            squares.put(key, (cur > Long.MAX_VALUE - sq) ? Long.MAX_VALUE : cur + sq);
+        }
+    }
+
+    /**
+     * Merges the accumulated sums from the worker reader.
+     */
+    void merge(HeapDumpSample other) {
+        classSums.addAll(other.classSums);
+        classSquares.addAll(other.classSquares);
+        for (int type = 0; type < primArraySums.length; type++) {
+            if (other.primArraySums[type] != null) {
+                if (primArraySums[type] == null) {
+                    primArraySums[type] = new LongLongHashMap();
+                    primArraySquares[type] = new LongLongHashMap();
+                }
+                primArraySums[type].addAll(other.primArraySums[type]);
+                primArraySquares[type].addAll(other.primArraySquares[type]);
+            }
+        }
+        for (long klassId : other.objArraySums.keys()) {
+            LongLongHashMap sums = objArraySums.get(klassId);
+            if (sums == null) {
+                objArraySums.put(klassId, other.objArraySums.get(klassId));
+                objArraySquares.put(klassId, other.objArraySquares.get(klassId));
+            } else {
+                sums.addAll(other.objArraySums.get(klassId));
+                objArraySquares.get(klassId).addAll(other.objArraySquares.get(klassId));
+            }
+        }
+    }
+
+    /**
+     * Estimates the total counts: exact counts plus the scaled up sampled counts.
+     *
+     * @return estimated counts, or null if there are no counts at all
+     */
+    LongLongHashMap estimate(LongLongHashMap exact, LongLongHashMap sums) {
+        if (exact == null && sums == null) {
+            return null;
+        }
+        LongLongHashMap r = new LongLongHashMap();
+        if (exact != null) {
+            r.addAll(exact);
+        }
+        if (sums != null && sampled > 0) {
+            double scale = 1D * candidates / sampled;
+            for (long key : sums.keys()) {
+                r.add(key, Math.round(sums.get(key) * scale));
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Estimates the half-widths of 95% confidence intervals for the estimated counts.
+     * With less than two sampled segments, the variance is unknown, and the error
+     * is conservatively set to the entire sampled part.
+     *
+     * @return errors, or null if there are no sampled counts
+     */
+    LongLongHashMap errors(LongLongHashMap sums, LongLongHashMap squares) {
+        if (sums == null) {
+            return null;
+        }
+        LongLongHashMap r = new LongLongHashMap();
+        int n = sampled;
+        int total = candidates;
+        for (long key : sums.keys()) {
+            double sum = sums.get(key);
+            double err;
+            if (n < 2) {
+                err = (n == 0) ? 0 : sum * total;
+            } else {
+                double s2 = Math.max(0, (squares.get(key) - sum * sum / n) / (n - 1));
+                double var = 1D * total * total * (1 - 1D * n / total) * s2 / n;
+                err = Z_95 * Math.sqrt(var);
+            }
+            r.put(key, Math.round(err));
+        }
+        return r;
+    }
+
+}
@@ -0,0 +1,781 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import org.openjdk.jol.util.LongLongHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
+import org.openjdk.jol.util.Murmur3;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the transformed copy of the heap dump, to see what the fix would save before making it.
+ * The writer drops the instances and arrays of given classes, collapses the arrays with the same
+ * contents into one, and rewrites the references to the removed objects: to the object that
+ * replaces them, or to null. The copy is a plain HPROF file, which {@link HeapDumpReader} and
+ * other tools can read.
+ * <p>
+ * The references to the removed objects can come before the objects themselves, so the writer
+ * first reads the dump to plan the replacements, and then writes the copy in a single streaming
+ * pass. Memory is taken only for the replacements: about 16 bytes per removed object, and
+ * 32 bytes per distinct array when collapsing the arrays.
+ */
+public final class HeapDumpWriter {
+
+    /**
+     * Heap dump records are grouped into segments, which lengths are 4-byte values.
+     * Close the segments well before that limit.
+     */
+    static final long SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int BUF_SIZE = 4 * 1024 * 1024;
+
+    private final File file;
+    private final PrintStream verboseOut;
+    private final Set<String> droppedClasses = new HashSet<>();
+    private final LongLongHashMap replacements = new LongLongHashMap();
+    private boolean collapseArrays;
+    private long segmentSize = SEGMENT_SIZE;
+
+    private DumpInput in;
+    private Output out;
+    private int idSize;
+    private boolean rewrite;
+    private LongObjectHashMap<Klass> klasses;
+    private byte[] scratch;
+    private long segmentStart;
+
+    private long removedObjects;
+    private long removedBytes;
+    private long rewrittenRefs;
+
+    /**
+     * @param file heap dump to read
+     * @param verboseOut stream for progress messages, or null for silent writer
+     */
+    public HeapDumpWriter(File file, PrintStream verboseOut) {
+        this.file = file;
+        this.verboseOut = verboseOut;
+    }
+
+    /**
+     * Drops all instances of the class, or all arrays of the array class.
+     * The references to them become nulls.
+     *
+     * @param name class name, e.g. "java.lang.Integer", "byte[]", or "java.lang.Object[]"
+     */
+    public void dropClass(String name) {
+        droppedClasses.add(name);
+    }
+
+    /**
+     * Collapses the arrays with the same type, length and contents into the first of them.
+     * The references to others are rewritten to point to the first one. Arrays are matched by
+     * 128-bit content hashes, without verification.
+     *
+     * @param collapse true to collapse the duplicate arrays
+     */
+    public void setCollapseArrays(boolean collapse) {
+        this.collapseArrays = collapse;
+    }
+
+    /**
+     * Drops the object, and rewrites all references to it.
+     *
+     * @param id object ID
+     * @param replacement object ID to point the references to, or 0 to make them nulls
+     */
+    public void replace(long id, long replacement) {
+        replacements.put(id, replacement);
+    }
+
+    /**
+     * Sets the number of bytes after which the heap dump segments are closed,
+     * and the next records go into the new segment.
+     *
+     * @param bytes segment size
+     */
+    public void setSegmentSize(long bytes) {
+        if (bytes <= 0 || bytes > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size should be in (0; " + SEGMENT_SIZE + "]: " + bytes);
+        }
+        this.segmentSize = bytes;
+    }
+
+    /**
+     * @return number of instances and arrays not written to the copy
+     */
+    public long removedObjects() {
+        return removedObjects;
+    }
+
+    /**
+     * @return number of dump bytes the removed instances and arrays took
+     */
+    public long removedBytes() {
+        return removedBytes;
+    }
+
+    /**
+     * @return number of references rewritten in the copy
+     */
+    public long rewrittenReferences() {
+        return rewrittenRefs;
+    }
+
+    /**
+     * Writes the transformed copy of the dump.
+     *
+     * @param target file to write, uncompressed
+     */
+    public void write(File target) throws IOException, HeapDumpException {
+        if (target.getCanonicalFile().equals(file.getCanonicalFile())) {
+            throw new IllegalArgumentException("Cannot write the dump over itself: " + target);
+        }
+
+        if (collapseArrays || !droppedClasses.isEmpty()) {
+            new HeapDumpReader(file, verboseOut, new Planner()).parse();
+        }
+
+        removedObjects = 0;
+        removedBytes = 0;
+        rewrittenRefs = 0;
+        rewrite = !replacements.isEmpty();
+        klasses = new LongObjectHashMap<>();
+        scratch = new byte[CHUNK_SIZE];
+        segmentStart = -1;
+
+        if (verboseOut != null) {
+            verboseOut.print("Writing: " + target + ",");
+        }
+        long time = System.nanoTime();
+
+        try (DumpInput in = DumpInput.open(file);
+             Output out = new Output(target)) {
+            this.in = in;
+            this.out = out;
+            writeDump();
+        } catch (EOFException e) {
+            throw new HeapDumpException("Unexpected end of " + file);
+        } finally {
+            this.in = null;
+            this.out = null;
+            klasses = null;
+            scratch = null;
+        }
+
+        if (verboseOut != null) {
+            verboseOut.printf(" done in %.2f seconds%n", (System.nanoTime() - time) / 1e9);
+        }
+    }
+
+    private void writeDump() throws IOException, HeapDumpException {
+        StringBuilder sb = new StringBuilder();
+        int r;
+        while ((r = in.u1()) != 0) {
+            sb.append((char) r);
+        }
+        String header = sb.toString();
+        idSize = in.u4();
+        if (idSize != 4 && idSize != 8) {
+            throw new HeapDumpException("Unsupported ID size: " + idSize + " in " + file);
+        }
+
+        // The copy groups heap dump records into segments, which came in version 1.0.2.
+        if (header.equals("JAVA PROFILE 1.0.1")) {
+            header = "JAVA PROFILE 1.0.2";
+        }
+        out.bytes(header.getBytes(StandardCharsets.US_ASCII));
+        out.u1(0);
+        out.u4(idSize);
+        out.u8(in.u8()); // timestamp
+
+        while (true) {
+            int tag;
+            try {
+                tag = in.u1();
+            } catch (EOFException e) {
+                break;
+            }
+
+            int time = in.u4();
+            long len = HeapDumpReader.recordLength(tag, in.u4() & 0xFFFFFFFFL,
+                    (in.size() >= 0) ? in.size() - in.position() : -1);
+
+            switch (tag) {
+                case 0x0C:
+                case 0x1C: {
+                    long end = in.position() + len;
+                    while (in.position() < end) {
+                        writeHeapDump(in.u1());
+                    }
+                    if (in.position() != end) {
+                        throw new HeapDumpException(errorMessage("Heap dump record overruns its segment by " + (in.position() - end) + " bytes"));
+                    }
+                    closeSegment();
+                    if (tag == 0x0C) {
+                        // Single heap dump record becomes the segments, which need the end marker.
+                        out.u1(0x2C);
+                        out.u4(time);
+                        out.u4(0);
+                    }
+                    break;
+                }
+                default:
+                    out.u1(tag);
+                    out.u4(time);
+                    out.u4((int) len);
+                    copy(len);
+            }
+        }
+    }
+
+    private void writeHeapDump(int subTag) throws IOException, HeapDumpException {
+        long start = in.position() - 1;
+        switch (subTag) {
+            case 0x01:
+                writeRoot(subTag, idSize, start);
+                return;
+            case 0x02:
+            case 0x03:
+            case 0x08:
+                writeRoot(subTag, 2*4, start);
+                return;
+            case 0x04:
+            case 0x06:
+                writeRoot(subTag, 1*4, start);
+                return;
+            case 0x05:
+            case 0x07:
+            case 0xFF:
+                writeRoot(subTag, 0, start);
+                return;
+            case 0x20:
+                writeClass();
+                return;
+            case 0x21:
+                writeInstance(start);
+                return;
+            case 0x22:
+                writeObjArray(start);
+                return;
+            case 0x23:
+                writePrimArray(start);
+                return;
+            default:
+                throw new HeapDumpException(errorMessage(String.format("Unknown heap dump subtag 0x%x", subTag)));
+        }
+    }
+
+    private void writeRoot(int subTag, int extra, long start) throws IOException, HeapDumpException {
+        long id = readId();
+        long to = replacement(id);
+        if (to == 0 && id != 0) {
+            // Root of the dropped object.
+            in.skip(extra);
+            removedBytes += in.position() - start;
+            return;
+        }
+        if (to != id) {
+            rewrittenRefs++;
+        }
+        beginRecord();
+        out.u1(subTag);
+        out.id(to, idSize);
+        copy(extra);
+    }
+
+    private void writeClass() throws IOException, HeapDumpException {
+        beginRecord();
+        out.u1(0x20);
+
+        long klassID = readId();
+        out.id(klassID, idSize);
+        out.u4(in.u4()); // stack trace
+        long superID = readId();
+        out.id(superID, idSize);
+        out.id(rewriteRef(readId()), idSize); // class loader
+        out.id(rewriteRef(readId()), idSize); // signers
+        out.id(rewriteRef(readId()), idSize); // protection domain
+        out.id(readId(), idSize); // reserved
+        out.id(readId(), idSize); // reserved
+        out.u4(in.u4()); // instance size
+
+        int cpCount = in.u2();
+        out.u2(cpCount);
+        for (int c = 0; c < cpCount; c++) {
+            out.u2(in.u2()); // cp index
+            writeValue();
+        }
+
+        int cpStatics = in.u2();
+        out.u2(cpStatics);
+        for (int c = 0; c < cpStatics; c++) {
+            out.id(readId(), idSize); // name
+            writeValue();
+        }
+
+        int cpInstance = in.u2();
+        out.u2(cpInstance);
+        int offset = 0;
+        List<Integer> refs = new ArrayList<>();
+        for (int c = 0; c < cpInstance; c++) {
+            out.id(readId(), idSize); // name
+            int type = in.u1();
+            out.u1(type);
+            if (type == 2) {
+                refs.add(offset);
+            }
+            offset += HeapDumpReader.getSize(type, idSize);
+        }
+
+        int[] refOffsets = new int[refs.size()];
+        for (int c = 0; c < refOffsets.length; c++) {
+            refOffsets[c] = refs.get(c);
+        }
+        klasses.put(klassID, new Klass(superID, offset, refOffsets));
+    }
+
+    private void writeValue() throws IOException, HeapDumpException {
+        int type = in.u1();
+        out.u1(type);
+        if (type == 2) {
+            out.id(rewriteRef(readId()), idSize);
+        } else {
+            copy(HeapDumpReader.getSize(type, idSize));
+        }
+    }
+
+    private void writeInstance(long start) throws IOException, HeapDumpException {
+        long id = readId();
+        int stack = in.u4();
+        long klassID = readId();
+        int len = in.u4();
+        if (len < 0) {
+            throw new HeapDumpException(errorMessage("Format error: instance size is too large: " + (len & 0xFFFFFFFFL)));
+        }
+
+        if (replacement(id) != id) {
+            remove(len, start);
+            return;
+        }
+
+        beginRecord();
+        out.u1(0x21);
+        out.id(id, idSize);
+        out.u4(stack);
+        out.id(klassID, idSize);
+        out.u4(len);
+
+        if (!rewrite) {
+            copy(len);
+            return;
+        }
+
+        int[] refs = refOffsets(klassID);
+        if (refs == null) {
+            throw new HeapDumpException(errorMessage(String.format("Instance 0x%x comes before its class dump", id)));
+        }
+        byte[] b = scratch(len);
+        in.read(b, 0, len);
+        for (int off : refs) {
+            if (off + idSize <= len) {
+                rewriteRef(b, off);
+            }
+        }
+        out.bytes(b, 0, len);
+    }
+
+    private void writeObjArray(long start) throws IOException, HeapDumpException {
+        long id = readId();
+        int stack = in.u4();
+        int count = in.u4();
+        long klassID = readId();
+        long len = (count & 0xFFFFFFFFL) * idSize;
+
+        if (replacement(id) != id) {
+            remove(len, start);
+            return;
+        }
+
+        beginRecord();
+        out.u1(0x22);
+        out.id(id, idSize);
+        out.u4(stack);
+        out.u4(count);
+        out.id(klassID, idSize);
+
+        if (!rewrite) {
+            copy(len);
+            return;
+        }
+
+        byte[] b = scratch;
+        while (len > 0) {
+            int n = (int) Math.min(len, b.length);
+            in.read(b, 0, n);
+            for (int off = 0; off < n; off += idSize) {
+                rewriteRef(b, off);
+            }
+            out.bytes(b, 0, n);
+            len -= n;
+        }
+    }
+
+    private void writePrimArray(long start) throws IOException, HeapDumpException {
+        long id = readId();
+        int stack = in.u4();
+        int count = in.u4();
+        int type = in.u1();
+        long len = (count & 0xFFFFFFFFL) * HeapDumpReader.getSize(type, idSize);
+
+        if (replacement(id) != id) {
+            remove(len, start);
+            return;
+        }
+
+        beginRecord();
+        out.u1(0x23);
+        out.id(id, idSize);
+        out.u4(stack);
+        out.u4(count);
+        out.u1(type);
+        copy(len);
+    }
+
+    private void remove(long len, long start) throws IOException {
+        in.skip(len);
+        removedObjects++;
+        removedBytes += in.position() - start;
+    }
+
+    private long replacement(long id) {
+        if (id == 0 || !rewrite) {
+            return id;
+        }
+        return replacements.get(id, id);
+    }
+
+    private long rewriteRef(long id) {
+        long to = replacement(id);
+        if (to != id) {
+            rewrittenRefs++;
+        }
+        return to;
+    }
+
+    private void rewriteRef(byte[] b, int off) {
+        long id = 0;
+        for (int c = 0; c < idSize; c++) {
+            id = (id << 8) | (b[off + c] & 0xFF);
+        }
+        long to = replacement(id);
+        if (to != id) {
+            for (int c = idSize - 1; c >= 0; c--) {
+                b[off + c] = (byte) to;
+                to >>>= 8;
+            }
+            rewrittenRefs++;
+        }
+    }
+
+    private int[] refOffsets(long klassID) {
+        Klass k = klasses.get(klassID);
+        if (k == null) {
+            return null;
+        }
+        if (k.allRefs != null) {
+            return k.allRefs;
+        }
+
+        // Instance dumps have the own fields first, then the fields of super classes.
+        int[] r = k.refs;
+        if (k.superId != 0) {
+            int[] superRefs = refOffsets(k.superId);
+            if (superRefs == null) {
+                return null;
+            }
+            r = new int[k.refs.length + superRefs.length];
+            System.arraycopy(k.refs, 0, r, 0, k.refs.length);
+            for (int c = 0; c < superRefs.length; c++) {
+                r[k.refs.length + c] = k.fieldsSize + superRefs[c];
+            }
+        }
+        k.allRefs = r;
+        return r;
+    }
+
+    private byte[] scratch(int len) {
+        if (scratch.length < len) {
+            scratch = new byte[len];
+        }
+        return scratch;
+    }
+
+    /**
+     * Opens the segment for the next heap dump record, or starts the new one when the current is full.
+     */
+    private void beginRecord() throws IOException, HeapDumpException {
+        if (segmentStart >= 0 && out.position() - segmentStart >= segmentSize) {
+            closeSegment();
+        }
+        if (segmentStart < 0) {
+            out.u1(0x1C);
+            out.u4(0); // time
+            out.u4(0); // length, patched on close
+            segmentStart = out.position();
+        }
+    }
+
+    private void closeSegment() throws IOException, HeapDumpException {
+        if (segmentStart < 0) {
+            return;
+        }
+        long len = out.position() - segmentStart;
+        if (len > 0xFFFFFFFFL) {
+            throw new HeapDumpException("Heap dump segment is too large: " + len + " bytes");
+        }
+        out.patchU4(segmentStart - 4, (int) len);
+        segmentStart = -1;
+    }
+
+    private void copy(long len) throws IOException {
+        while (len > 0) {
+            int n = (int) Math.min(len, CHUNK_SIZE);
+            out.bytes(in.slice(n));
+            len -= n;
+        }
+    }
+
+    private long readId() throws IOException {
+        return (idSize == 4) ? (in.u4() & 0xFFFFFFFFL) : in.u8();
+    }
+
+    private String errorMessage(String message) {
+        return String.format("%s at offset 0x%x in %s", message, in.position(), file);
+    }
+
+    /**
+     * Plans the replacements: finds the objects of dropped classes, and the duplicate arrays.
+     */
+    private class Planner extends HeapDumpReader.Visitor {
+        private final Murmur3 murmur = new Murmur3();
+
+        // First 64 bits of content hash to the first array with it, separately for
+        // primitive and object arrays; the first array to the other 64 bits.
+        private final LongLongHashMap firstPrims = new LongLongHashMap();
+        private final LongLongHashMap firstObjs = new LongLongHashMap();
+        private final LongLongHashMap secondHalves = new LongLongHashMap();
+
+        private final LongLongHashMap droppedArrays = new LongLongHashMap();
+
+        @Override
+        public boolean acceptsInstances(long klassID, String name) {
+            return droppedClasses.contains(name);
+        }
+
+        @Override
+        public boolean acceptsObjArrays(long klassID, String name) {
+            if (droppedClasses.contains(name)) {
+                droppedArrays.put(klassID, 1);
+                return true;
+            }
+            return collapseArrays;
+        }
+
+        @Override
+        public boolean acceptsPrimArrays(String componentType) {
+            return collapseArrays || droppedClasses.contains(componentType + "[]");
+        }
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            replacements.put(id, 0);
+        }
+
+        @Override
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            if (droppedArrays.containsKey(klassID)) {
+                replacements.put(id, 0);
+            } else {
+                collapse(firstObjs, id, klassID, count, contents);
+            }
+        }
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer contents) {
+            if (droppedClasses.contains(componentType + "[]")) {
+                replacements.put(id, 0);
+            } else {
+                collapse(firstPrims, id, componentType.hashCode(), count, contents);
+            }
+        }
+
+        private void collapse(LongLongHashMap firsts, long id, long type, int count, ByteBuffer contents) {
+            murmur.hash(contents, type * 31 + count);
+            long first = firsts.get(murmur.h1());
+            if (first == 0) {
+                firsts.put(murmur.h1(), id);
+                secondHalves.put(id, murmur.h2());
+            } else if (secondHalves.get(first) == murmur.h2()) {
+                replacements.put(id, first);
+            }
+            // Otherwise, the first halves collide, but the contents differ: keep both arrays.
+        }
+    }
+
+    private static final class Klass {
+        final long superId;
+        final int fieldsSize;
+        final int[] refs;
+        int[] allRefs;
+
+        Klass(long superId, int fieldsSize, int[] refs) {
+            this.superId = superId;
+            this.fieldsSize = fieldsSize;
+            this.refs = refs;
+        }
+    }
+
+    /**
+     * Buffered file output that can patch the bytes it has already written.
+     */
+    private static final class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE);
+        private long flushed;
+
+        Output(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        long position() {
+            return flushed + buf.position();
+        }
+
+        private void ensure(int len) throws IOException {
+            if (buf.remaining() < len) {
+                flush();
+            }
+        }
+
+        void u1(int v) throws IOException {
+            ensure(1);
+            buf.put((byte) v);
+        }
+
+        void u2(int v) throws IOException {
+            ensure(2);
+            buf.putShort((short) v);
+        }
+
+        void u4(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void u8(long v) throws IOException {
+            ensure(8);
+            buf.putLong(v);
+        }
+
+        void id(long v, int idSize) throws IOException {
+            if (idSize == 4) {
+                u4((int) v);
+            } else {
+                u8(v);
+            }
+        }
+
+        void bytes(byte[] b) throws IOException {
+            bytes(b, 0, b.length);
+        }
+
+        void bytes(byte[] b, int off, int len) throws IOException {
+            bytes(ByteBuffer.wrap(b, off, len));
+        }
+
+        void bytes(ByteBuffer src) throws IOException {
+            int limit = src.limit();
+            while (src.hasRemaining()) {
+                if (!buf.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(src.remaining(), buf.remaining());
+                ((Buffer) src).limit(src.position() + n);
+                buf.put(src);
+                ((Buffer) src).limit(limit);
+            }
+        }
+
+        /**
+         * Overwrites the 4-byte value at the given position.
+         */
+        void patchU4(long position, int v) throws IOException {
+            if (position >= flushed) {
+                buf.putInt((int) (position - flushed), v);
+                return;
+            }
+            ByteBuffer b = ByteBuffer.allocate(4);
+            b.putInt(0, v);
+            while (b.hasRemaining()) {
+                position += channel.write(b, position);
+            }
+        }
+
+        private void flush() throws IOException {
+            ((Buffer) buf).flip();
+            while (buf.hasRemaining()) {
+                flushed += channel.write(buf);
+            }
+            ((Buffer) buf).clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+}
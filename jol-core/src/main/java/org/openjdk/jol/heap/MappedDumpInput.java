@@ -0,0 +1,221 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped input. Decodes the values right from the mapping, without copying.
+ * <p>
+ * Single mapping is limited to 2 GB, so the file is mapped in windows. Every window
+ * overlaps with the next one by {@link #WINDOW_OVERLAP} bytes, which means any read
+ * shorter than that is served from a single window, and never needs to stitch bytes
+ * from two mappings.
+ */
+class MappedDumpInput extends DumpInput {
+
+    static final int WINDOW_SHIFT = 30;
+    static final int WINDOW_OVERLAP = 1024 * 1024;
+
+    private final ByteBuffer[] windows;
+    private final ByteBuffer[] views;
+    private final long size;
+    private final int windowShift;
+
+    private long pos;
+
+    private ByteBuffer cur;
+    private long curStart;
+    private int curLimit;
+
+    private MappedDumpInput(ByteBuffer[] windows, long size, int windowShift) {
+        this.windows = windows;
+        this.views = new ByteBuffer[windows.length];
+        this.size = size;
+        this.windowShift = windowShift;
+        this.curStart = -1;
+    }
+
+    MappedDumpInput(File file) throws IOException {
+        this(file, WINDOW_SHIFT, WINDOW_OVERLAP);
+    }
+
+    /**
+     * Maps the file with the given window geometry. Tests use the small windows
+     * to cross the window boundaries without the gigabyte-sized files.
+     */
+    MappedDumpInput(File file, int windowShift, int windowOverlap) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            size = ch.size();
+            long windowSize = 1L << windowShift;
+            int count = (int) ((size + windowSize - 1) >>> windowShift);
+            windows = new ByteBuffer[count];
+            for (int w = 0; w < count; w++) {
+                long start = (long) w << windowShift;
+                long len = Math.min(size - start, windowSize + windowOverlap);
+                windows[w] = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+            }
+        }
+        views = new ByteBuffer[windows.length];
+        this.windowShift = windowShift;
+        curStart = -1;
+    }
+
+    @Override
+    long position() {
+        return pos;
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    void seek(long pos) {
+        this.pos = pos;
+    }
+
+    /**
+     * Creates the input over the same mappings, with independent position.
+     * This allows several threads to read the dump at once.
+     */
+    MappedDumpInput duplicate() {
+        return new MappedDumpInput(windows, size, windowShift);
+    }
+
+    /**
+     * Selects the window that serves the read at the current position.
+     * @return offset within the selected window
+     */
+    private int select(int len) throws IOException {
+        long off = pos - curStart;
+        if (curStart >= 0 && off >= 0 && off + len <= curLimit) {
+            return (int) off;
+        }
+        if (pos + len > size) {
+            throw new EOFException();
+        }
+        int w = (int) (pos >>> windowShift);
+        cur = windows[w];
+        curStart = (long) w << windowShift;
+        curLimit = cur.limit();
+        return (int) (pos - curStart);
+    }
+
+    @Override
+    int u1() throws IOException {
+        int off = select(1);
+        pos++;
+        return cur.get(off) & 0xFF;
+    }
+
+    @Override
+    int u2() throws IOException {
+        int off = select(2);
+        pos += 2;
+        return cur.getShort(off) & 0xFFFF;
+    }
+
+    @Override
+    int u4() throws IOException {
+        int off = select(4);
+        pos += 4;
+        return cur.getInt(off);
+    }
+
+    @Override
+    long u8() throws IOException {
+        int off = select(8);
+        pos += 8;
+        return cur.getLong(off);
+    }
+
+    @Override
+    void skip(long len) throws IOException {
+        if (pos + len > size) {
+            pos = size;
+            throw new EOFException();
+        }
+        pos += len;
+    }
+
+    @Override
+    void read(byte[] dst, int off, int len) throws IOException {
+        if (pos + len > size) {
+            throw new EOFException();
+        }
+        int rem = len;
+        while (rem > 0) {
+            int w = (int) (pos >>> windowShift);
+            ByteBuffer view = view(w);
+            int wOff = (int) (pos - ((long) w << windowShift));
+            int chunk = Math.min(rem, windows[w].limit() - wOff);
+            ((Buffer) view).limit(windows[w].limit()).position(wOff);
+            view.get(dst, off + len - rem, chunk);
+            pos += chunk;
+            rem -= chunk;
+        }
+    }
+
+    @Override
+    ByteBuffer slice(int len) throws IOException {
+        if (pos + len > size) {
+            throw new EOFException();
+        }
+        int w = (int) (pos >>> windowShift);
+        int wOff = (int) (pos - ((long) w << windowShift));
+        ByteBuffer window = windows[w];
+        if (wOff + len > window.limit()) {
+            // Large contents that straddle the windows.
+            return copy(len);
+        }
+        ByteBuffer view = view(w);
+        ((Buffer) view).limit(wOff + len).position(wOff);
+        pos += len;
+        return view;
+    }
+
+    private ByteBuffer view(int w) {
+        ByteBuffer view = views[w];
+        if (view == null) {
+            view = windows[w].duplicate();
+            views[w] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public void close() {
+        // Mappings are released when buffers are collected.
+    }
+
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates gzip file on background threads, and hands the inflated chunks to the reader
+ * through the bounded queue.
+ * <p>
+ * Multi-member gzip files, like the ones JDK writes with {@code -gz} heap dump option, are
+ * inflated in parallel. Member boundaries are not known without inflating the previous member,
+ * so members are inflated speculatively at every offset that looks like gzip member header.
+ * The stitcher then walks the members in order, takes the inflated contents from the speculation
+ * that starts where the previous member ended, and drops the rest. Large members stop speculating
+ * at {@link #SPECULATE_LIMIT}, and the stitcher continues to inflate them in streaming mode.
+ * Single-member files are thus inflated on the stitcher thread, in parallel with parsing.
+ * Speculations only start within {@link #scanAhead} bytes after the member being stitched,
+ * so that false headers deep in a large member do not inflate, and buffer, much ahead of time.
+ */
+class ParallelGZIPInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int INPUT_SIZE = 64 * 1024;
+    private static final int QUEUE_CHUNKS = 16;
+    private static final long SPECULATE_LIMIT = 4L * 1024 * 1024;
+    private static final long PUT_WAIT_MS = 100;
+
+    private static final byte[] END = new byte[0];
+
+    private final RandomAccessFile raf;
+    private final FileChannel ch;
+    private final long size;
+    private final int window;
+    private final long scanAhead;
+    private final ExecutorService pool;
+    private final BlockingQueue<byte[]> queue;
+    private final Thread stitcher;
+
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    // Stitcher statistics, published with END.
+    private long startTime;
+    private long endTime;
+    private long members;
+    private long inflated;
+    private long compressed;
+
+    private byte[] cur;
+    private int curPos;
+    private boolean eof;
+
+    ParallelGZIPInputStream(File file, int threads) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        ch = raf.getChannel();
+        size = ch.size();
+        window = Math.max(2, threads * 2);
+        scanAhead = window * SPECULATE_LIMIT;
+        pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "jol-gzip-inflater");
+            t.setDaemon(true);
+            return t;
+        });
+        queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        cur = END;
+        stitcher = new Thread(this::stitch, "jol-gzip-stitcher");
+        stitcher.setDaemon(true);
+        stitcher.start();
+    }
+
+    private void stitch() {
+        startTime = System.nanoTime();
+        ArrayDeque<Speculation> inflight = new ArrayDeque<>();
+        try {
+            Scanner scanner = new Scanner();
+            long expected = 0;
+            while (expected < size && !closed) {
+                // Headers within the members already stitched are false.
+                scanner.skipTo(expected);
+                while (inflight.size() < window) {
+                    long offset = scanner.next(expected + scanAhead);
+                    if (offset < 0) {
+                        break;
+                    }
+                    Member m = new Member(offset);
+                    inflight.add(new Speculation(m, pool.submit(() -> m.inflate(SPECULATE_LIMIT, m.chunks::add))));
+                }
+
+                Speculation s = inflight.pollFirst();
+                if (s == null || s.member.offset > expected) {
+                    if (expected == 0) {
+                        throw new ZipException("Not in GZIP format");
+                    }
+                    // Trailing garbage, ignore like GZIPInputStream does.
+                    break;
+                }
+                if (s.member.offset < expected) {
+                    // False header within the previous member.
+                    s.cancel();
+                    continue;
+                }
+
+                Member m = s.member;
+                boolean done;
+                try {
+                    done = s.future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+                for (byte[] chunk : m.chunks) {
+                    put(chunk);
+                }
+                m.chunks.clear();
+                if (!done) {
+                    m.inflate(Long.MAX_VALUE, this::put);
+                }
+                inflated += m.inflated;
+                members++;
+                expected = m.end;
+            }
+            compressed = expected;
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            for (Speculation s : inflight) {
+                s.cancel();
+            }
+            pool.shutdown();
+            endTime = System.nanoTime();
+            try {
+                put(END);
+            } catch (InterruptedException e) {
+                // Closed, nobody is reading anymore.
+            }
+        }
+    }
+
+    /**
+     * Hands the chunk to the reader. Does not rely on the interrupt alone to leave the full queue
+     * after close: the interrupt might have been consumed elsewhere, e.g. by a cancelled inflation.
+     */
+    private void put(byte[] chunk) throws InterruptedException {
+        while (!queue.offer(chunk, PUT_WAIT_MS, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                throw new InterruptedException("Stream is closed");
+            }
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (eof) {
+            return false;
+        }
+        byte[] chunk;
+        try {
+            chunk = queue.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        if (chunk == END) {
+            eof = true;
+            Throwable t = failure;
+            if (t instanceof IOException) {
+                throw new IOException(t.getMessage(), t);
+            } else if (t != null) {
+                throw new IOException(t);
+            }
+            return false;
+        }
+        cur = chunk;
+        curPos = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (curPos == cur.length && !nextChunk()) {
+            return -1;
+        }
+        return cur[curPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (curPos == cur.length && !nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, cur.length - curPos);
+        System.arraycopy(cur, curPos, b, off, n);
+        curPos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long rem = n;
+        while (rem > 0) {
+            if (curPos == cur.length && !nextChunk()) {
+                break;
+            }
+            int s = (int) Math.min(rem, cur.length - curPos);
+            curPos += s;
+            rem -= s;
+        }
+        return n - rem;
+    }
+
+    @Override
+    public int available() {
+        return cur.length - curPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        stitcher.interrupt();
+        queue.clear();
+        pool.shutdownNow();
+        try {
+            // Let the stitcher release the inflaters before the file goes away.
+            stitcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        raf.close();
+    }
+
+    /**
+     * Prints inflation statistics, once the stream is read to the end.
+     */
+    void printStats(PrintStream out) {
+        if (!eof || failure != null) {
+            return;
+        }
+        long time = endTime - startTime;
+        out.printf("Inflated: %d MB from %d MB in %d gzip members, in %.3f seconds at %.0f MB/sec%n",
+                inflated / 1024 / 1024,
+                compressed / 1024 / 1024,
+                members,
+                1D * time / 1000 / 1000 / 1000,
+                1000D * inflated / time);
+    }
+
+    private void readFully(ByteBuffer bb, long pos) throws IOException {
+        while (bb.hasRemaining()) {
+            int n = ch.read(bb, pos);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of GZIP input stream");
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Finds the offsets that look like the start of gzip member:
+     * magic, deflate method, and no reserved flags.
+     */
+    private class Scanner {
+        private final byte[] b = new byte[CHUNK_SIZE];
+        private long bufStart;
+        private int idx;
+        private int limit;
+
+        /**
+         * Moves the scan forward to the given offset, if it is behind.
+         */
+        void skipTo(long offset) {
+            if (offset <= bufStart + idx) {
+                return;
+            }
+            if (offset < bufStart + limit) {
+                idx = (int) (offset - bufStart);
+            } else {
+                bufStart = offset;
+                idx = 0;
+                limit = 0;
+            }
+        }
+
+        /**
+         * @param horizon offset to stop the scan at; the next calls continue from there
+         * @return offset of the next header before the horizon, or -1 if there is none
+         */
+        long next(long horizon) throws IOException {
+            while (true) {
+                while (idx + 4 <= limit) {
+                    if (bufStart + idx >= horizon) {
+                        return -1;
+                    }
+                    int i = idx++;
+                    if (b[i] == (byte) 0x1F && b[i + 1] == (byte) 0x8B && b[i + 2] == 8 && (b[i + 3] & 0xE0) == 0) {
+                        return bufStart + i;
+                    }
+                }
+                if (bufStart + idx >= horizon) {
+                    return -1;
+                }
+                bufStart += idx;
+                if (bufStart + 4 > size) {
+                    return -1;
+                }
+                int n = (int) Math.min(b.length, size - bufStart);
+                readFully(ByteBuffer.wrap(b, 0, n), bufStart);
+                idx = 0;
+                limit = n;
+            }
+        }
+    }
+
+    private interface ChunkSink {
+        void accept(byte[] chunk) throws InterruptedException;
+    }
+
+    private static class Speculation {
+        final Member member;
+        final Future<Boolean> future;
+
+        Speculation(Member member, Future<Boolean> future) {
+            this.member = member;
+            this.future = future;
+        }
+
+        /**
+         * Drops the speculation, and releases its inflater whether it ran, runs, or is suspended.
+         */
+        void cancel() {
+            future.cancel(false);
+            member.discard();
+        }
+    }
+
+    /**
+     * Gzip member that starts at given offset. Inflation can be suspended and resumed later,
+     * possibly on another thread.
+     */
+    private class Member {
+        final long offset;
+        final List<byte[]> chunks = new ArrayList<>();
+
+        private final Inflater inf = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] in = new byte[INPUT_SIZE];
+        private long inPos;
+        private int inIdx;
+        private int inLimit;
+
+        private long dataStart = -1;
+        private byte[] out;
+        private int outLen;
+
+        long inflated;
+        long end;
+
+        private volatile boolean discarded;
+
+        Member(long offset) {
+            this.offset = offset;
+            this.inPos = offset;
+        }
+
+        private int fill() throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(in, 0, (int) Math.min(in.length, size - inPos));
+            if (!bb.hasRemaining()) {
+                throw new EOFException("Unexpected end of GZIP input stream");
+            }
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, inPos + bb.position()) < 0) {
+                    break;
+                }
+            }
+            inIdx = 0;
+            inLimit = bb.position();
+            inPos += inLimit;
+            return inLimit;
+        }
+
+        private int u1() throws IOException {
+            if (inIdx == inLimit) {
+                fill();
+            }
+            return in[inIdx++] & 0xFF;
+        }
+
+        private int u2le() throws IOException {
+            return u1() | (u1() << 8);
+        }
+
+        private void readHeader() throws IOException {
+            if (u1() != 0x1F || u1() != 0x8B || u1() != 8) {
+                throw new ZipException("Not in GZIP format");
+            }
+            int flags = u1();
+            for (int c = 0; c < 6; c++) {
+                u1(); // mtime, extra flags, os
+            }
+            if ((flags & 4) != 0) { // FEXTRA
+                int len = u2le();
+                for (int c = 0; c < len; c++) {
+                    u1();
+                }
+            }
+            if ((flags & 8) != 0) { // FNAME
+                while (u1() != 0);
+            }
+            if ((flags & 16) != 0) { // FCOMMENT
+                while (u1() != 0);
+            }
+            if ((flags & 2) != 0) { // FHCRC
+                u2le();
+            }
+            dataStart = inPos - inLimit + inIdx;
+            inf.setInput(in, inIdx, inLimit - inIdx);
+        }
+
+        /**
+         * Inflates the member until the end, or until at least {@code limit} bytes are produced in total.
+         * @return true, if the member is inflated completely
+         */
+        synchronized boolean inflate(long limit, ChunkSink sink) throws IOException, InterruptedException {
+            if (discarded) {
+                return false;
+            }
+            boolean suspended = false;
+            try {
+                if (dataStart < 0) {
+                    readHeader();
+                }
+                while (!inf.finished()) {
+                    if (closed) {
+                        throw new InterruptedIOException();
+                    }
+                    if (discarded) {
+                        return false;
+                    }
+                    if (out == null) {
+                        out = new byte[CHUNK_SIZE];
+                        outLen = 0;
+                    }
+                    if (inf.needsInput()) {
+                        fill();
+                        inf.setInput(in, 0, inLimit);
+                    }
+                    if (inf.needsDictionary()) {
+                        throw new ZipException("Unexpected preset dictionary");
+                    }
+                    int n = inf.inflate(out, outLen, out.length - outLen);
+                    outLen += n;
+                    inflated += n;
+                    if (outLen == out.length) {
+                        emit(sink);
+                        if (inflated >= limit && !inf.finished()) {
+                            suspended = true;
+                            return false;
+                        }
+                    }
+                }
+                if (out != null && outLen > 0) {
+                    out = Arrays.copyOf(out, outLen);
+                    emit(sink);
+                }
+                readTrailer();
+                return true;
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            } finally {
+                if (!suspended) {
+                    inf.end();
+                }
+            }
+        }
+
+        /**
+         * Stops the speculative inflation, and releases the inflater and the inflated chunks.
+         * Waits for the running inflation to notice, which happens within one chunk.
+         */
+        void discard() {
+            discarded = true;
+            synchronized (this) {
+                inf.end();
+                chunks.clear();
+                out = null;
+            }
+        }
+
+        private void emit(ChunkSink sink) throws InterruptedException {
+            crc.update(out, 0, outLen);
+            sink.accept(out);
+            out = null;
+            outLen = 0;
+        }
+
+        private void readTrailer() throws IOException {
+            long trailer = dataStart + inf.getBytesRead();
+            ByteBuffer bb = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(bb, trailer);
+            if ((bb.getInt(0) & 0xFFFFFFFFL) != crc.getValue()) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+            if ((bb.getInt(4) & 0xFFFFFFFFL) != (inflated & 0xFFFFFFFFL)) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+            end = trailer + 8;
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.heap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming input. Used for compressed dumps, and when mapping is not available.
+ * Keeps its own buffer, so that primitive reads do not go through the stream.
+ * Over the file channel, skips are single seeks, regardless of their length.
+ */
+class StreamDumpInput extends DumpInput {
+
+    private final InputStream is;
+    private final FileChannel channel;
+    private final byte[] buf;
+    private final ByteBuffer view;
+    private final long size;
+
+    private long bufStart;
+    private int pos;
+    private int limit;
+
+    StreamDumpInput(InputStream is, int bufSize, long size) {
+        this(is, null, bufSize, size);
+    }
+
+    StreamDumpInput(FileChannel channel, int bufSize) throws IOException {
+        this(Channels.newInputStream(channel), channel, bufSize, channel.size());
+    }
+
+    private StreamDumpInput(InputStream is, FileChannel channel, int bufSize, long size) {
+        this.is = is;
+        this.channel = channel;
+        this.buf = new byte[bufSize];
+        this.view = ByteBuffer.wrap(buf).asReadOnlyBuffer();
+        this.size = size;
+    }
+
+    @Override
+    long position() {
+        return bufStart + pos;
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    private void ensure(int len) throws IOException {
+        if (limit - pos >= len) {
+            return;
+        }
+
+        // Compact the remaining bytes and refill.
+        int rem = limit - pos;
+        System.arraycopy(buf, pos, buf, 0, rem);
+        bufStart += pos;
+        pos = 0;
+        limit = rem;
+
+        while (limit < len) {
+            int read = is.read(buf, limit, buf.length - limit);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            limit += read;
+        }
+    }
+
+    @Override
+    int u1() throws IOException {
+        ensure(1);
+        return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    int u2() throws IOException {
+        ensure(2);
+        int p = pos;
+        pos = p + 2;
+        return ((buf[p] & 0xFF) << 8) | (buf[p + 1] & 0xFF);
+    }
+
+    @Override
+    int u4() throws IOException {
+        ensure(4);
+        int p = pos;
+        pos = p + 4;
+        return ((buf[p]     & 0xFF) << 24) |
+               ((buf[p + 1] & 0xFF) << 16) |
+               ((buf[p + 2] & 0xFF) << 8)  |
+                (buf[p + 3] & 0xFF);
+    }
+
+    @Override
+    long u8() throws IOException {
+        ensure(8);
+        long hi = u4() & 0xFFFFFFFFL;
+        long lo = u4() & 0xFFFFFFFFL;
+        return (hi << 32) | lo;
+    }
+
+    @Override
+    void skip(long len) throws IOException {
+        int avail = limit - pos;
+        if (len <= avail) {
+            pos += (int) len;
+            return;
+        }
+
+        if (channel != null) {
+            // The stream reads from the current channel position, move it past the skipped bytes.
+            long target = Math.addExact(position(), len);
+            if (target > size) {
+                throw new EOFException();
+            }
+            channel.position(target);
+            bufStart = target;
+            pos = 0;
+            limit = 0;
+            return;
+        }
+
+        long rem = len - avail;
+        bufStart += limit;
+        pos = 0;
+        limit = 0;
+
+        while (rem > 0) {
+            long skipped = is.skip(rem);
+            if (skipped <= 0) {
+                // Stream cannot skip, read through the buffer instead.
+                int read = is.read(buf, 0, (int) Math.min(buf.length, rem));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                skipped = read;
+            }
+            rem -= skipped;
+            bufStart += skipped;
+        }
+    }
+
+    @Override
+    void read(byte[] dst, int off, int len) throws IOException {
+        int avail = Math.min(limit - pos, len);
+        System.arraycopy(buf, pos, dst, off, avail);
+        pos += avail;
+
+        int rem = len - avail;
+        while (rem > 0) {
+            ensure(Math.min(rem, buf.length));
+            int chunk = Math.min(rem, limit - pos);
+            System.arraycopy(buf, pos, dst, off + len - rem, chunk);
+            pos += chunk;
+            rem -= chunk;
+        }
+    }
+
+    @Override
+    ByteBuffer slice(int len) throws IOException {
+        if (len > buf.length) {
+            return copy(len);
+        }
+        ensure(len);
+        ((Buffer) view).limit(pos + len).position(pos);
+        pos += len;
+        return view;
+    }
+
+    @Override
+    void printStats(PrintStream out) {
+        if (is instanceof ParallelGZIPInputStream) {
+            ((ParallelGZIPInputStream) is).printStats(out);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        is.close();
+    }
+
+}
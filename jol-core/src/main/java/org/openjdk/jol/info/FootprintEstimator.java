@@ -0,0 +1,301 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.info;
+
+import org.openjdk.jol.datamodel.DataModel;
+import org.openjdk.jol.datamodel.Model32;
+import org.openjdk.jol.datamodel.Model64;
+import org.openjdk.jol.datamodel.Model64_Lilliput;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.util.Multiset;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Estimates the footprint of the class histogram in different VM configurations.
+ * The histogram is copied on construction, and the estimator can then be used from many threads.
+ * All configurations are evaluated concurrently:
+ * <pre>
+ * FootprintEstimator est = new FootprintEstimator(histogram);
+ * Map&lt;FootprintEstimator.Config, Long&gt; sizes = est.estimate(FootprintEstimator.Config.parseAll("jdk17-coops,jdk25-coops-align16"));
+ * </pre>
+ */
+public final class FootprintEstimator {
+
+    private static final long G = 1024L * 1024 * 1024;
+
+    /**
+     * VM configuration to estimate with: data model and JDK version.
+     * Configurations have names, which {@link #parse(String)} accepts:
+     * <pre>
+     *   jdk&lt;N&gt;-32                    32-bit JDK N
+     *   jdk&lt;N&gt;-nocoops               64-bit JDK N without compressed references
+     *   jdk&lt;N&gt;-coops[-align&lt;A&gt;]      64-bit JDK N with compressed references, A-byte object alignment
+     *   lilliput&lt;V&gt;-nocoops          64-bit JDK with compact object headers, version V
+     *   lilliput&lt;V&gt;-coops[-align&lt;A&gt;]  same, with compressed references
+     * </pre>
+     */
+    public static final class Config {
+        private final String name;
+        private final DataModel model;
+        private final int jdkVersion;
+        private final long maxHeap;
+
+        private Config(String name, DataModel model, int jdkVersion, long maxHeap) {
+            this.name = name;
+            this.model = model;
+            this.jdkVersion = jdkVersion;
+            this.maxHeap = maxHeap;
+        }
+
+        /**
+         * Parses the configuration name.
+         *
+         * @param name configuration name, e.g. "jdk17-coops-align16"
+         * @return configuration
+         * @throws IllegalArgumentException if the name is malformed
+         */
+        public static Config parse(String name) {
+            name = name.trim();
+            String[] parts = name.split("-");
+            try {
+                int jdk;
+                int lilliput = 0;
+                if (parts[0].startsWith("jdk")) {
+                    jdk = Integer.parseInt(parts[0].substring(3));
+                } else if (parts[0].startsWith("lilliput")) {
+                    lilliput = Integer.parseInt(parts[0].substring(8));
+                    jdk = 99;
+                } else {
+                    throw new IllegalArgumentException("Unknown VM configuration: " + name);
+                }
+
+                int align = 8;
+                if (parts.length == 3 && parts[2].startsWith("align")) {
+                    align = Integer.parseInt(parts[2].substring(5));
+                } else if (parts.length != 2) {
+                    throw new IllegalArgumentException("Unknown VM configuration: " + name);
+                }
+                if (align < 8 || Integer.bitCount(align) != 1) {
+                    throw new IllegalArgumentException("Object alignment should be a power of two, at least 8: " + name);
+                }
+
+                switch (parts[1]) {
+                    case "32":
+                        if (lilliput == 0 && parts.length == 2) {
+                            return new Config(name, new Model32(), jdk, 4 * G);
+                        }
+                        break;
+                    case "nocoops":
+                        if (parts.length == 2) {
+                            // Compressed class pointers do not depend on compressed references since JDK 15.
+                            DataModel model = (lilliput > 0) ?
+                                    new Model64_Lilliput(false, 8, lilliput) :
+                                    new Model64(false, jdk >= 15, 8);
+                            return new Config(name, model, jdk, Long.MAX_VALUE);
+                        }
+                        break;
+                    case "coops":
+                        DataModel model = (lilliput > 0) ?
+                                new Model64_Lilliput(true, align, lilliput) :
+                                new Model64(true, true, align);
+                        return new Config(name, model, jdk, 32 * G / 8 * align);
+                    default:
+                        break;
+                }
+                throw new IllegalArgumentException("Unknown VM configuration: " + name);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown VM configuration: " + name, e);
+            }
+        }
+
+        /**
+         * Parses the comma-separated list of configuration names.
+         *
+         * @param names configuration names, e.g. "jdk17-coops,jdk25-coops"
+         * @return configurations
+         * @throws IllegalArgumentException if any name is malformed
+         */
+        public static List<Config> parseAll(String names) {
+            List<Config> r = new ArrayList<>();
+            for (String n : names.split(",")) {
+                if (!n.trim().isEmpty()) {
+                    r.add(parse(n));
+                }
+            }
+            return r;
+        }
+
+        /**
+         * @return configuration name
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return data model
+         */
+        public DataModel model() {
+            return model;
+        }
+
+        /**
+         * @return JDK version
+         */
+        public int jdkVersion() {
+            return jdkVersion;
+        }
+
+        /**
+         * @return largest heap size this configuration supports
+         */
+        public long maxHeap() {
+            return maxHeap;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return name.equals(((Config) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * @return configurations that heapdump-estimates reports on
+     */
+    public static List<Config> defaultConfigs() {
+        List<Config> r = new ArrayList<>();
+        for (int jdk : new int[]{8, 11, 17, 21, 25}) {
+            r.add(Config.parse("jdk" + jdk + "-32"));
+        }
+        for (String vm : new String[]{"jdk8", "jdk17", "jdk25", "lilliput1", "lilliput2"}) {
+            r.add(Config.parse(vm + "-nocoops"));
+            r.add(Config.parse(vm + "-coops"));
+            for (int align = 16; align <= 128; align *= 2) {
+                r.add(Config.parse(vm + "-coops-align" + align));
+            }
+        }
+        return r;
+    }
+
+    private final ClassData[] classes;
+    private final long[] counts;
+
+    // One layouter per data model and JDK version, reused by all estimates of this histogram,
+    // so that the layouter caches the instance sizes of the histogram classes once.
+    private final Map<List<Object>, HotSpotLayouter> layouters = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the estimator.
+     *
+     * @param histogram class histogram, copied
+     */
+    public FootprintEstimator(Multiset<ClassData> histogram) {
+        Collection<ClassData> keys = histogram.keys();
+        this.classes = keys.toArray(new ClassData[0]);
+        this.counts = new long[classes.length];
+        for (int c = 0; c < classes.length; c++) {
+            counts[c] = histogram.count(classes[c]);
+        }
+    }
+
+    /**
+     * Estimates the footprint in a single configuration.
+     *
+     * @param config configuration
+     * @return footprint, in bytes
+     */
+    public long estimate(Config config) {
+        HotSpotLayouter layouter = layouter(config);
+        long size = 0;
+        for (int c = 0; c < classes.length; c++) {
+            size += layouter.instanceSize(classes[c]) * counts[c];
+        }
+        return size;
+    }
+
+    HotSpotLayouter layouter(Config config) {
+        return layouters.computeIfAbsent(Arrays.asList(config.model(), config.jdkVersion()),
+                k -> new HotSpotLayouter(config.model(), config.jdkVersion()));
+    }
+
+    /**
+     * Estimates the footprint in all given configurations concurrently, in the common pool.
+     *
+     * @param configs configurations
+     * @return configuration to footprint, in bytes; iterates in the order of configurations
+     */
+    public Map<Config, Long> estimate(List<Config> configs) {
+        long[] sizes = IntStream.range(0, configs.size())
+                .parallel()
+                .mapToLong(i -> estimate(configs.get(i)))
+                .toArray();
+        Map<Config, Long> r = new LinkedHashMap<>();
+        for (int i = 0; i < sizes.length; i++) {
+            r.put(configs.get(i), sizes[i]);
+        }
+        return r;
+    }
+
+    /**
+     * Estimates the footprint in all given configurations concurrently, in the given pool.
+     *
+     * @param configs configurations
+     * @param pool pool to run in
+     * @return configuration to footprint, in bytes; iterates in the order of configurations
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<Config, Long> estimate(List<Config> configs, ForkJoinPool pool) throws InterruptedException {
+        try {
+            return pool.submit(() -> estimate(configs)).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+}
@@ -67,25 +67,56 @@ public class HotSpotLayouter implements Layouter {
     private final DataModel model;
     private final int jdkVersion;
 
+    // Instance sizes of non-array classes laid out by this layouter. Keyed by identity:
+    // class datas from different dumps can be equal, yet have different super classes.
+    // Sizes are reused only as long as the layouter is: keep one per configuration.
+    private final Map<ClassData, Long> sizes = Collections.synchronizedMap(new IdentityHashMap<>());
+
     public HotSpotLayouter(DataModel model, int jdkVersion) {
         this.model = model;
         this.jdkVersion = jdkVersion;
     }
 
+    @Override
+    public long instanceSize(ClassData cd) {
+        if (cd.isArray()) {
+            return arraySize(cd.arrayComponentType(), cd.arrayLength());
+        }
+        Long size = sizes.get(cd);
+        if (size == null) {
+            size = layout(cd).instanceSize();
+            sizes.put(cd, size);
+        }
+        return size;
+    }
+
+    /**
+     * Computes the array size without building its layout.
+     *
+     * @param componentType array component type, e.g. "int"
+     * @param length array length
+     * @return array instance size
+     */
+    public long arraySize(String componentType, long length) {
+        return MathUtil.align(arrayBase(componentType) + length * model.sizeOf(componentType), model.objectAlignment());
+    }
+
+    private int arrayBase(String componentType) {
+        int scale = model.sizeOf(componentType);
+
+        // Array bases are aligned by HeapWord size in older JDKs
+        //  https://bugs.openjdk.org/browse/JDK-8139457
+        int minArrayBaseAlignment = (jdkVersion >= 23) ? 4 : model.addressSize();
+        return MathUtil.align(model.arrayHeaderSize(), Math.max(minArrayBaseAlignment, scale));
+    }
+
     @Override
     public ClassLayout layout(ClassData cd) {
         if (cd.isArray()) {
             // special case for arrays
-            int base = model.arrayHeaderSize();
+            int base = arrayBase(cd.arrayComponentType());
             int scale = model.sizeOf(cd.arrayComponentType());
-
-            // Array bases are aligned by HeapWord size in older JDKs
-            //  https://bugs.openjdk.org/browse/JDK-8139457
-            int minArrayBaseAlignment = (jdkVersion >= 23) ? 4 : model.addressSize();
-            base = MathUtil.align(base, Math.max(minArrayBaseAlignment, scale));
-
-            long instanceSize = base + cd.arrayLength() * scale;
-            instanceSize = MathUtil.align(instanceSize, model.objectAlignment());
+            long instanceSize = arraySize(cd.arrayComponentType(), cd.arrayLength());
 
             SortedSet<FieldLayout> result = new TreeSet<>();
             result.add(new FieldLayout(FieldData.create(cd.arrayClass(), "<elements>", cd.arrayComponentType()), base, scale * cd.arrayLength()));
@@ -36,4 +36,14 @@ public interface Layouter {
 
     ClassLayout layout(ClassData data);
 
+    /**
+     * Answers the instance size only. Layouters can answer it without building the entire layout.
+     *
+     * @param data class data
+     * @return instance size
+     */
+    default long instanceSize(ClassData data) {
+        return layout(data).instanceSize();
+    }
+
 }
@@ -27,11 +27,16 @@ package org.openjdk.jol.util;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
 public class ASCIITable {
 
+    private final ReportSink sink;
+    private int sinkTable = -1;
+    private boolean printed;
+
     private final boolean summary;
     private final int printFirst;
     private final String header;
@@ -39,18 +44,56 @@ public class ASCIITable {
     private final String[] columns;
 
     private final List<Line> lines;
+    private final Long[] sums;
 
     public ASCIITable(boolean summary, String header, String... columns) {
         this(summary, Integer.getInteger("printFirst", 30), header, columns);
     }
 
     public ASCIITable(boolean summary, int printFirst, String header, String... columns) {
+        this(null, summary, printFirst, header, columns);
+    }
+
+    public ASCIITable(ReportSink sink, boolean summary, String header, String... columns) {
+        this(sink, summary, Integer.getInteger("printFirst", 30), header, columns);
+    }
+
+    /**
+     * Creates the table that writes its rows to the sink, instead of printing them.
+     * The rows go to the sink as they are added: all of them, in the order they were added,
+     * leaving sorting and truncation to the consumer. The first print adds the summary row.
+     *
+     * @param sink sink for the rows, or null to print the table as text
+     */
+    public ASCIITable(ReportSink sink, boolean summary, int printFirst, String header, String... columns) {
+        this.sink = sink;
         this.summary = summary;
         this.printFirst = printFirst;
         this.header = header;
         this.columns = columns;
         this.numberColumns = columns.length - 1;
         this.lines = new ArrayList<>();
+        this.sums = new Long[numberColumns];
+        Arrays.fill(sums, 0L);
+    }
+
+    /**
+     * @return the first line of the header, without decorations
+     */
+    static String tableName(String header) {
+        String name = header;
+        int nl = name.indexOf('\n');
+        if (nl >= 0) {
+            name = name.substring(0, nl);
+        }
+        name = name.trim();
+        if (name.startsWith("===")) {
+            name = name.substring(3).trim();
+        }
+        if (name.endsWith(":")) {
+            name = name.substring(0, name.length() - 1).trim();
+        }
+        return name;
     }
 
     private static class Line {
@@ -64,9 +107,23 @@ public class ASCIITable {
     }
 
     public void addLine(Comparable value, Long... numbers) {
+        if (sink != null) {
+            sink.row(sinkTable(), value, numbers);
+            for (int c = 0; c < numberColumns; c++) {
+                sums[c] += numbers[c];
+            }
+            return;
+        }
         lines.add(new Line(value, numbers));
     }
 
+    private int sinkTable() {
+        if (sinkTable < 0) {
+            sinkTable = sink.table(tableName(header), columns);
+        }
+        return sinkTable;
+    }
+
     public void print(PrintStream ps, int sortColumn) {
         PrintWriter pw = new PrintWriter(ps);
         print(pw, sortColumn);
@@ -74,14 +131,22 @@ public class ASCIITable {
     }
 
     public void print(PrintWriter pw, int sortColumn) {
+        if (sink != null) {
+            // The rows are in the sink already, printing again in another order adds nothing.
+            int table = sinkTable();
+            if (summary && !printed) {
+                sink.row(table, "<total>", sums);
+            }
+            printed = true;
+            return;
+        }
+
+        sort(sortColumn);
+
         pw.println(header);
         pw.println();
 
-        if (sortColumn == numberColumns) {
-            lines.sort(Comparator.comparing((Line l) -> l.value));
-            pw.println("Table is sorted by \"" + columns[numberColumns] + "\".");
-        } else if (sortColumn >= 0) {
-            lines.sort(Comparator.comparing((Line l) -> l.numbers[sortColumn]).reversed());
+        if (sortColumn >= 0) {
             pw.println("Table is sorted by \"" + columns[sortColumn] + "\".");
         }
         if (printFirst != Integer.MAX_VALUE) {
@@ -137,4 +202,12 @@ public class ASCIITable {
         pw.println();
     }
 
+    private void sort(int sortColumn) {
+        if (sortColumn == numberColumns) {
+            lines.sort(Comparator.comparing((Line l) -> l.value));
+        } else if (sortColumn >= 0) {
+            lines.sort(Comparator.comparing((Line l) -> l.numbers[sortColumn]).reversed());
+        }
+    }
+
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chunk storage for big primitive arrays. Chunks are allocated on heap while all big arrays
+ * fit within the heap budget, and are mapped from the temporary file after that. The budget
+ * is set with -Djol.bigArrayHeap=#MB, and defaults to a quarter of max heap.
+ */
+final class BigArrays {
+
+    static final int CHUNK_BYTES = 8 * 1024 * 1024;
+
+    private static final long HEAP_BUDGET = Long.getLong("jol.bigArrayHeap",
+            Runtime.getRuntime().maxMemory() / 4 / 1024 / 1024) * 1024 * 1024;
+
+    private static final AtomicLong HEAP_USED = new AtomicLong();
+
+    private BigArrays() {
+        // prevent instantiation
+    }
+
+    /**
+     * Storage for the chunks of a single big array.
+     */
+    static final class Storage implements Closeable {
+        private long heapBytes;
+        private File file;
+        private RandomAccessFile raf;
+        private long fileSize;
+
+        /**
+         * Reserves the heap budget for the next chunk.
+         *
+         * @return true, if chunk should go on heap; false, if it should be mapped
+         */
+        boolean reserveHeap() {
+            if (HEAP_USED.addAndGet(CHUNK_BYTES) <= HEAP_BUDGET) {
+                heapBytes += CHUNK_BYTES;
+                return true;
+            }
+            HEAP_USED.addAndGet(-CHUNK_BYTES);
+            return false;
+        }
+
+        /**
+         * Maps the next chunk from the temporary file. The contents are zeroed.
+         */
+        ByteBuffer map() {
+            try {
+                if (raf == null) {
+                    file = File.createTempFile("jol-", ".bin");
+                    file.deleteOnExit();
+                    raf = new RandomAccessFile(file, "rw");
+                }
+                ByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, fileSize, CHUNK_BYTES);
+                fileSize += CHUNK_BYTES;
+                return bb.order(ByteOrder.nativeOrder());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Releases the heap budget, and deletes the temporary file.
+         * Mapped chunks are unmapped when garbage collected.
+         */
+        @Override
+        public void close() {
+            HEAP_USED.addAndGet(-heapBytes);
+            heapBytes = 0;
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Nothing to do.
+                }
+                file.delete();
+                raf = null;
+            }
+        }
+    }
+
+}
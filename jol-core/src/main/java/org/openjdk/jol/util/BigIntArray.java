@@ -0,0 +1,115 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.io.Closeable;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Int array that is indexed by long, and can grow past the Java array limits.
+ * Stored in chunks, on heap or memory-mapped from the temporary file, see {@link BigArrays}.
+ * Should be closed to release the storage.
+ */
+public final class BigIntArray implements Closeable {
+
+    private static final int SHIFT = 21;
+    private static final int CHUNK = 1 << SHIFT;
+    private static final int MASK = CHUNK - 1;
+
+    private final BigArrays.Storage storage;
+    private IntBuffer[] chunks;
+    private int chunkCount;
+    private long size;
+
+    public BigIntArray() {
+        this.storage = new BigArrays.Storage();
+        this.chunks = new IntBuffer[16];
+    }
+
+    /**
+     * Creates the array of given size, filled with zeros.
+     */
+    public BigIntArray(long size) {
+        this();
+        resize(size);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int get(long index) {
+        return chunks[(int) (index >>> SHIFT)].get((int) (index & MASK));
+    }
+
+    public void set(long index, int value) {
+        chunks[(int) (index >>> SHIFT)].put((int) (index & MASK), value);
+    }
+
+    public void add(int value) {
+        if (size == (long) chunkCount << SHIFT) {
+            addChunk();
+        }
+        set(size++, value);
+    }
+
+    /**
+     * Changes the size of the array. Grown elements are zeros.
+     */
+    public void resize(long newSize) {
+        while (newSize > (long) chunkCount << SHIFT) {
+            addChunk();
+        }
+        if (newSize < size) {
+            // Zero out the tail, so that it reads as zeros when grown back.
+            for (long i = newSize; i < size; i++) {
+                set(i, 0);
+            }
+        }
+        size = newSize;
+    }
+
+    private void addChunk() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        chunks[chunkCount++] = storage.reserveHeap() ?
+                IntBuffer.wrap(new int[CHUNK]) :
+                storage.map().asIntBuffer();
+    }
+
+    /**
+     * Releases the storage. The array is empty after this.
+     */
+    @Override
+    public void close() {
+        storage.close();
+        chunks = new IntBuffer[16];
+        chunkCount = 0;
+        size = 0;
+    }
+
+}
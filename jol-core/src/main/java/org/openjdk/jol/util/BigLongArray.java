@@ -0,0 +1,231 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.io.Closeable;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Long array that is indexed by long, and can grow past the Java array limits.
+ * Stored in chunks, on heap or memory-mapped from the temporary file, see {@link BigArrays}.
+ * Should be closed to release the storage.
+ */
+public final class BigLongArray implements Closeable {
+
+    private static final int SHIFT = 20;
+    private static final int CHUNK = 1 << SHIFT;
+    private static final int MASK = CHUNK - 1;
+
+    private BigArrays.Storage storage;
+    private LongBuffer[] chunks;
+    private int chunkCount;
+    private long size;
+
+    public BigLongArray() {
+        this.storage = new BigArrays.Storage();
+        this.chunks = new LongBuffer[16];
+    }
+
+    /**
+     * Creates the array of given size, filled with zeros.
+     */
+    public BigLongArray(long size) {
+        this();
+        resize(size);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long get(long index) {
+        return chunks[(int) (index >>> SHIFT)].get((int) (index & MASK));
+    }
+
+    public void set(long index, long value) {
+        chunks[(int) (index >>> SHIFT)].put((int) (index & MASK), value);
+    }
+
+    public void add(long value) {
+        if (size == (long) chunkCount << SHIFT) {
+            addChunk();
+        }
+        set(size++, value);
+    }
+
+    /**
+     * Changes the size of the array. Grown elements are zeros.
+     */
+    public void resize(long newSize) {
+        while (newSize > (long) chunkCount << SHIFT) {
+            addChunk();
+        }
+        if (newSize < size) {
+            // Zero out the tail, so that it reads as zeros when grown back.
+            for (long i = newSize; i < size; i++) {
+                set(i, 0);
+            }
+        }
+        size = newSize;
+    }
+
+    private void addChunk() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        chunks[chunkCount++] = storage.reserveHeap() ?
+                LongBuffer.wrap(new long[CHUNK]) :
+                storage.map().asLongBuffer();
+    }
+
+    /**
+     * Sorts the array in ascending order.
+     */
+    public void sort() {
+        boolean sorted = true;
+        for (long i = 1; i < size && sorted; i++) {
+            sorted = get(i - 1) <= get(i);
+        }
+        if (sorted) {
+            return;
+        }
+
+        long[] buf = new long[(int) Math.min(CHUNK, size)];
+        for (int c = 0; c < chunkCount; c++) {
+            int len = chunkLength(c);
+            LongBuffer chunk = chunks[c];
+            for (int i = 0; i < len; i++) {
+                buf[i] = chunk.get(i);
+            }
+            Arrays.sort(buf, 0, len);
+            for (int i = 0; i < len; i++) {
+                chunk.put(i, buf[i]);
+            }
+        }
+
+        if (chunkCount > 1) {
+            merge();
+        }
+    }
+
+    private int chunkLength(int c) {
+        return (int) Math.min(CHUNK, size - ((long) c << SHIFT));
+    }
+
+    /**
+     * Merges the sorted chunks into the new storage, with the heap of chunk heads.
+     */
+    private void merge() {
+        int k = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            if (chunkLength(c) > 0) {
+                k++;
+            }
+        }
+
+        int[] heap = new int[k];
+        int[] pos = new int[chunkCount];
+        int n = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            if (chunkLength(c) > 0) {
+                heap[n++] = c;
+            }
+        }
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(heap, n, i, pos);
+        }
+
+        BigLongArray dst = new BigLongArray();
+        while (n > 0) {
+            int c = heap[0];
+            dst.add(chunks[c].get(pos[c]++));
+            if (pos[c] == chunkLength(c)) {
+                heap[0] = heap[--n];
+            }
+            siftDown(heap, n, 0, pos);
+        }
+
+        storage.close();
+        storage = dst.storage;
+        chunks = dst.chunks;
+        chunkCount = dst.chunkCount;
+    }
+
+    private long head(int c, int[] pos) {
+        return chunks[c].get(pos[c]);
+    }
+
+    private void siftDown(int[] heap, int n, int i, int[] pos) {
+        while (true) {
+            int l = 2 * i + 1;
+            if (l >= n) {
+                return;
+            }
+            int m = (l + 1 < n && head(heap[l + 1], pos) < head(heap[l], pos)) ? l + 1 : l;
+            if (head(heap[i], pos) <= head(heap[m], pos)) {
+                return;
+            }
+            int t = heap[i];
+            heap[i] = heap[m];
+            heap[m] = t;
+            i = m;
+        }
+    }
+
+    /**
+     * Searches the sorted array for the given value.
+     *
+     * @return index of the value, or {@code -(insertion point) - 1}, like {@link Arrays#binarySearch(long[], long)}
+     */
+    public long binarySearch(long key) {
+        long lo = 0;
+        long hi = size - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long v = get(mid);
+            if (v < key) {
+                lo = mid + 1;
+            } else if (v > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Releases the storage. The array is empty after this.
+     */
+    @Override
+    public void close() {
+        storage.close();
+        chunks = new LongBuffer[16];
+        chunkCount = 0;
+        size = 0;
+    }
+
+}
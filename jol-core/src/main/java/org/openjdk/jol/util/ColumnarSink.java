@@ -0,0 +1,261 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes rows in the compact binary columnar format. Rows are buffered per table, and written
+ * in row groups of up to {@value #GROUP_ROWS} rows, column after column. The file is:
+ * <pre>
+ *   "JOLC", u1 version
+ *   block*
+ *   u1 0 (end)
+ *
+ *   block: u1 1, varint table, string name, varint columns, string column*   -- table declaration
+ *        | u1 2, varint table, varint rows, (varlong row)* for every numeric column,
+ *                                           string* for the value column    -- row group
+ * </pre>
+ * Numeric columns are zigzag-encoded deltas from the previous row in the group.
+ * Strings are varint length, then UTF-8 bytes. Use {@link #read(InputStream, ReportSink)}
+ * to read the file back.
+ */
+public final class ColumnarSink implements ReportSink {
+
+    static final int GROUP_ROWS = 4096;
+
+    private static final byte[] MAGIC = {'J', 'O', 'L', 'C'};
+    private static final int VERSION = 1;
+
+    private static final int END = 0;
+    private static final int TABLE = 1;
+    private static final int ROWS = 2;
+
+    private final DataOutputStream out;
+    private final List<Group> groups = new ArrayList<>();
+
+    private static class Group {
+        final int columns;
+        final long[][] numbers;
+        final String[] values;
+        int rows;
+
+        Group(int columns) {
+            this.columns = columns;
+            this.numbers = new long[columns][GROUP_ROWS];
+            this.values = new String[GROUP_ROWS];
+        }
+    }
+
+    public ColumnarSink(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        try {
+            this.out.write(MAGIC);
+            this.out.write(VERSION);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int table(String name, String... columns) {
+        int table = groups.size();
+        groups.add(new Group(columns.length - 1));
+        try {
+            out.write(TABLE);
+            writeVarLong(out, table);
+            writeString(out, name);
+            writeVarLong(out, columns.length);
+            for (String c : columns) {
+                writeString(out, c);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return table;
+    }
+
+    @Override
+    public void row(int table, Comparable value, Long... numbers) {
+        Group g = groups.get(table);
+        for (int c = 0; c < g.columns; c++) {
+            g.numbers[c][g.rows] = numbers[c];
+        }
+        g.values[g.rows] = String.valueOf(value);
+        g.rows++;
+        if (g.rows == GROUP_ROWS) {
+            flush(table);
+        }
+    }
+
+    private void flush(int table) {
+        Group g = groups.get(table);
+        if (g.rows == 0) {
+            return;
+        }
+        try {
+            out.write(ROWS);
+            writeVarLong(out, table);
+            writeVarLong(out, g.rows);
+            for (int c = 0; c < g.columns; c++) {
+                long prev = 0;
+                for (int r = 0; r < g.rows; r++) {
+                    long v = g.numbers[c][r];
+                    long d = v - prev;
+                    writeVarLong(out, (d << 1) ^ (d >> 63));
+                    prev = v;
+                }
+            }
+            for (int r = 0; r < g.rows; r++) {
+                writeString(out, g.values[r]);
+                g.values[r] = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        g.rows = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (int t = 0; t < groups.size(); t++) {
+            flush(t);
+        }
+        out.write(END);
+        out.close();
+    }
+
+    /**
+     * Reads the columnar file, and passes the tables and rows to another sink.
+     * Rows of a table come in order, but row groups of different tables can interleave.
+     *
+     * @param in stream to read
+     * @param sink sink to pass the rows to, not closed
+     * @throws IOException if stream is not in columnar format, or cannot be read
+     */
+    public static void read(InputStream in, ReportSink sink) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[MAGIC.length];
+        dis.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a columnar report");
+        }
+        int version = dis.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported columnar report version: " + version);
+        }
+
+        List<Integer> handles = new ArrayList<>();
+        List<Integer> widths = new ArrayList<>();
+        while (true) {
+            int kind = dis.read();
+            if (kind < 0) {
+                throw new EOFException("Truncated columnar report");
+            }
+            switch (kind) {
+                case END:
+                    return;
+                case TABLE: {
+                    int table = (int) readVarLong(dis);
+                    String name = readString(dis);
+                    String[] columns = new String[(int) readVarLong(dis)];
+                    for (int c = 0; c < columns.length; c++) {
+                        columns[c] = readString(dis);
+                    }
+                    if (table != handles.size()) {
+                        throw new IOException("Unexpected table: " + table);
+                    }
+                    handles.add(sink.table(name, columns));
+                    widths.add(columns.length - 1);
+                    break;
+                }
+                case ROWS: {
+                    int table = (int) readVarLong(dis);
+                    int rows = (int) readVarLong(dis);
+                    if (table < 0 || table >= handles.size() || rows < 0 || rows > GROUP_ROWS) {
+                        throw new IOException("Corrupted row group: table " + table + ", rows " + rows);
+                    }
+                    int width = widths.get(table);
+                    Long[][] numbers = new Long[rows][width];
+                    for (int c = 0; c < width; c++) {
+                        long prev = 0;
+                        for (int r = 0; r < rows; r++) {
+                            long z = readVarLong(dis);
+                            prev += (z >>> 1) ^ -(z & 1);
+                            numbers[r][c] = prev;
+                        }
+                    }
+                    for (int r = 0; r < rows; r++) {
+                        sink.row(handles.get(table), readString(dis), numbers[r]);
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown block: " + kind);
+            }
+        }
+    }
+
+    static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        long len = readVarLong(in);
+        if (len < 0 || len > Integer.MAX_VALUE) {
+            throw new IOException("Malformed string length: " + len);
+        }
+        byte[] b = new byte[(int) len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes rows as comma-separated values, one file per table. The file is named after
+ * the table, and starts with the header line:
+ * <pre>
+ * INSTANCES,SIZE,SUM SIZE,CLASS
+ * 1204,24,28896,java.lang.String
+ * </pre>
+ * Fields with commas, quotes, or line breaks are quoted, as in RFC 4180.
+ */
+public final class CsvSink implements ReportSink {
+
+    /**
+     * Opens the output for the table.
+     */
+    interface Files {
+        OutputStream open(String fileName) throws IOException;
+    }
+
+    private final Files files;
+    private final List<Writer> outs = new ArrayList<>();
+    private final Set<String> fileNames = new HashSet<>();
+
+    /**
+     * @param dir directory for the table files, created if missing
+     */
+    public CsvSink(File dir) {
+        this(name -> {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create directory: " + dir);
+            }
+            return new FileOutputStream(new File(dir, name));
+        });
+    }
+
+    CsvSink(Files files) {
+        this.files = files;
+    }
+
+    @Override
+    public int table(String name, String... columns) {
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(files.open(fileName(name)), StandardCharsets.UTF_8));
+            outs.add(out);
+            for (int c = 0; c < columns.length; c++) {
+                if (c > 0) {
+                    out.write(',');
+                }
+                out.write(quote(columns[c]));
+            }
+            out.write("\r\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return outs.size() - 1;
+    }
+
+    /**
+     * @return distinct file name for the table, with the characters unsafe for file names replaced
+     */
+    String fileName(String table) {
+        String base = table.replaceAll("[^A-Za-z0-9._-]+", "_");
+        String name = base + ".csv";
+        for (int i = 2; !fileNames.add(name); i++) {
+            name = base + "-" + i + ".csv";
+        }
+        return name;
+    }
+
+    @Override
+    public void row(int table, Comparable value, Long... numbers) {
+        try {
+            Writer out = outs.get(table);
+            for (Long n : numbers) {
+                out.write(String.valueOf(n));
+                out.write(',');
+            }
+            out.write(quote(String.valueOf(value)));
+            out.write("\r\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String quote(String s) {
+        boolean needs = false;
+        for (int i = 0; i < s.length() && !needs; i++) {
+            char ch = s.charAt(i);
+            needs = (ch == ',' || ch == '"' || ch == '\n' || ch == '\r');
+        }
+        return needs ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException ex = null;
+        for (Writer out : outs) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (ex == null) {
+                    ex = e;
+                } else {
+                    ex.addSuppressed(e);
+                }
+            }
+        }
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+}
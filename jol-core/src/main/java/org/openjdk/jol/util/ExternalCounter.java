@@ -0,0 +1,456 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts the fixed-width records by key, within the given memory budget.
+ * <p>
+ * Records are collected in memory, and combined by key when the buffer fills up. When combining
+ * does not free enough space, the buffer is written out as the sorted run file. Each run is split
+ * into partitions by key hash, so that the partitions are merged independently, each over only its
+ * part of every run. Without spills, everything stays in memory. Merge reads at most
+ * {@link #MERGE_FAN_IN} runs at once; more runs are first merged into the larger ones, in several passes.
+ * <p>
+ * Each record is {@code keyWidth} longs of the key, then {@code valueWidth} longs of values.
+ * The values of the record with the smallest first value are kept for every key, e.g. the lowest
+ * offset or ID for the sample of the group. Should be closed to delete the run files.
+ */
+public final class ExternalCounter implements Closeable {
+
+    private static final int PARTITIONS = 16;
+    private static final int IO_BUFFER = 64 * 1024;
+
+    // Every merged run takes an open file and the read buffer.
+    static final int MERGE_FAN_IN = 64;
+
+    private final int keyWidth;
+    private final int valueWidth;
+    private final int stride;
+
+    private final int capacity;
+    private long[] buf;
+    private int size;
+
+    private File dir;
+    private final List<Run> runs = new ArrayList<>();
+    private int spills;
+    private int runFiles;
+
+    /**
+     * @param keyWidth number of longs in the key
+     * @param valueWidth number of longs in the values, can be zero
+     * @param memoryBudget bytes to keep in memory
+     */
+    public ExternalCounter(int keyWidth, int valueWidth, long memoryBudget) {
+        if (keyWidth < 1 || valueWidth < 0) {
+            throw new IllegalArgumentException("Illegal record width: " + keyWidth + " + " + valueWidth);
+        }
+        this.keyWidth = keyWidth;
+        this.valueWidth = valueWidth;
+        this.stride = keyWidth + 1 + valueWidth;
+
+        long records = Math.max(1024, memoryBudget / 8 / stride);
+        this.capacity = (int) Math.min(records * stride, Integer.MAX_VALUE - 8);
+
+        // Grow the buffer on demand, so that the generous budgets do not take memory upfront.
+        this.buf = new long[Math.min(capacity, 65536 * stride)];
+    }
+
+    /**
+     * Adds the record.
+     *
+     * @param record key, then values
+     */
+    public void add(long[] record) throws IOException {
+        // Large budgets hold over 2^30 values: compute the sizes in longs.
+        if ((size + 1L) * stride > buf.length) {
+            combine();
+            if ((size * 2L + 2) * stride > buf.length) {
+                if (buf.length < capacity) {
+                    int newLength = (int) Math.min((long) buf.length * 2, capacity);
+                    buf = Arrays.copyOf(buf, newLength - newLength % stride);
+                } else {
+                    spill();
+                }
+            }
+        }
+        int base = size * stride;
+        System.arraycopy(record, 0, buf, base, keyWidth);
+        buf[base + keyWidth] = 1;
+        System.arraycopy(record, keyWidth, buf, base + keyWidth + 1, valueWidth);
+        size++;
+    }
+
+    /**
+     * @return number of run files written so far
+     */
+    public int spills() {
+        return spills;
+    }
+
+    /**
+     * Receives the counted keys.
+     */
+    public interface Sink {
+        /**
+         * @param key key; the array is reused for the next call
+         * @param count number of records with this key
+         * @param values values of the record with the smallest first value; reused for the next call
+         */
+        void accept(long[] key, long count, long[] values) throws IOException;
+    }
+
+    /**
+     * Counts the records by key, and passes the results to the sink. Keys come sorted within
+     * each partition, partitions come one after another.
+     */
+    public void aggregate(Sink sink) throws IOException {
+        combine();
+        if (runs.isEmpty()) {
+            long[] key = new long[keyWidth];
+            long[] values = new long[valueWidth];
+            for (int r = 0; r < size; r++) {
+                int base = r * stride;
+                System.arraycopy(buf, base, key, 0, keyWidth);
+                System.arraycopy(buf, base + keyWidth + 1, values, 0, valueWidth);
+                sink.accept(key, buf[base + keyWidth], values);
+            }
+            return;
+        }
+
+        if (size > 0) {
+            spill();
+        }
+        while (runs.size() > MERGE_FAN_IN) {
+            List<Run> merged = new ArrayList<>();
+            for (int r = 0; r < runs.size(); r += MERGE_FAN_IN) {
+                List<Run> group = runs.subList(r, Math.min(r + MERGE_FAN_IN, runs.size()));
+                merged.add((group.size() == 1) ? group.get(0) : mergeRuns(group));
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+        for (int p = 0; p < PARTITIONS; p++) {
+            mergePartition(runs, p, sink);
+        }
+    }
+
+    /**
+     * Sorts the buffer by partition and key, and folds the records with equal keys.
+     */
+    private void combine() {
+        sort(0, size - 1);
+        int out = -1;
+        for (int r = 0; r < size; r++) {
+            int base = r * stride;
+            if (out >= 0 && compare(out * stride, base) == 0) {
+                fold(buf, out * stride, buf, base);
+            } else {
+                out++;
+                if (out != r) {
+                    System.arraycopy(buf, base, buf, out * stride, stride);
+                }
+            }
+        }
+        size = out + 1;
+    }
+
+    /**
+     * Folds the record at {@code src} into the record at {@code dst}: sums the counts, keeps the smaller values.
+     */
+    private void fold(long[] dstArr, int dst, long[] srcArr, int src) {
+        dstArr[dst + keyWidth] += srcArr[src + keyWidth];
+        if (valueWidth > 0 && srcArr[src + keyWidth + 1] < dstArr[dst + keyWidth + 1]) {
+            System.arraycopy(srcArr, src + keyWidth + 1, dstArr, dst + keyWidth + 1, valueWidth);
+        }
+    }
+
+    private File newRunFile() throws IOException {
+        if (dir == null) {
+            dir = Files.createTempDirectory("jol-counter").toFile();
+            dir.deleteOnExit();
+        }
+        File file = new File(dir, "run" + runFiles++);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private void spill() throws IOException {
+        File file = newRunFile();
+        long[] partitionStarts = new long[PARTITIONS + 1];
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER))) {
+            int p = 0;
+            for (int r = 0; r < size; r++) {
+                int base = r * stride;
+                int rp = partition(buf, base);
+                while (p < rp) {
+                    partitionStarts[++p] = r;
+                }
+                for (int c = 0; c < stride; c++) {
+                    dos.writeLong(buf[base + c]);
+                }
+            }
+            while (p < PARTITIONS) {
+                partitionStarts[++p] = size;
+            }
+        }
+        runs.add(new Run(file, partitionStarts));
+        spills++;
+        size = 0;
+    }
+
+    /**
+     * Merges the runs into the single run, partition by partition, and deletes them.
+     */
+    private Run mergeRuns(List<Run> group) throws IOException {
+        File file = newRunFile();
+        long[] partitionStarts = new long[PARTITIONS + 1];
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER))) {
+            long[] written = new long[1];
+            for (int p = 0; p < PARTITIONS; p++) {
+                partitionStarts[p] = written[0];
+                mergePartition(group, p, (key, count, values) -> {
+                    for (long k : key) {
+                        dos.writeLong(k);
+                    }
+                    dos.writeLong(count);
+                    for (long v : values) {
+                        dos.writeLong(v);
+                    }
+                    written[0]++;
+                });
+            }
+            partitionStarts[PARTITIONS] = written[0];
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+        for (Run run : group) {
+            run.file.delete();
+        }
+        return new Run(file, partitionStarts);
+    }
+
+    private void mergePartition(List<Run> runs, int p, Sink sink) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>((c1, c2) -> compareKeys(c1.record, 0, c2.record, 0));
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (Run run : runs) {
+                long records = run.partitionStarts[p + 1] - run.partitionStarts[p];
+                if (records > 0) {
+                    Cursor c = new Cursor(run, run.partitionStarts[p], records);
+                    cursors.add(c);
+                    if (c.next()) {
+                        queue.add(c);
+                    }
+                }
+            }
+
+            long[] current = new long[stride];
+            long[] key = new long[keyWidth];
+            long[] values = new long[valueWidth];
+            boolean has = false;
+            while (!queue.isEmpty()) {
+                Cursor c = queue.poll();
+                if (has && compareKeys(current, 0, c.record, 0) == 0) {
+                    fold(current, 0, c.record, 0);
+                } else {
+                    if (has) {
+                        emit(current, key, values, sink);
+                    }
+                    System.arraycopy(c.record, 0, current, 0, stride);
+                    has = true;
+                }
+                if (c.next()) {
+                    queue.add(c);
+                }
+            }
+            if (has) {
+                emit(current, key, values, sink);
+            }
+        } finally {
+            for (Cursor c : cursors) {
+                c.close();
+            }
+        }
+    }
+
+    private void emit(long[] record, long[] key, long[] values, Sink sink) throws IOException {
+        System.arraycopy(record, 0, key, 0, keyWidth);
+        System.arraycopy(record, keyWidth + 1, values, 0, valueWidth);
+        sink.accept(key, record[keyWidth], values);
+    }
+
+    private int partition(long[] arr, int base) {
+        long h = 0;
+        for (int c = 0; c < keyWidth; c++) {
+            h = (h ^ arr[base + c]) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (h >>> 60) & (PARTITIONS - 1);
+    }
+
+    private int compareKeys(long[] a1, int b1, long[] a2, int b2) {
+        for (int c = 0; c < keyWidth; c++) {
+            int r = Long.compare(a1[b1 + c], a2[b2 + c]);
+            if (r != 0) {
+                return r;
+            }
+        }
+        return 0;
+    }
+
+    private int compare(int b1, int b2) {
+        int r = Integer.compare(partition(buf, b1), partition(buf, b2));
+        return (r != 0) ? r : compareKeys(buf, b1, buf, b2);
+    }
+
+    /**
+     * Quicksort over the strided records, in place. Partitions three-way,
+     * since there are many equal keys: that is the point of counting them.
+     */
+    private void sort(int lo, int hi) {
+        long[] pivot = new long[stride];
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            int p = median(lo, mid, hi);
+            System.arraycopy(buf, p * stride, pivot, 0, stride);
+            int pivotPartition = partition(pivot, 0);
+
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                int c = Integer.compare(partition(buf, i * stride), pivotPartition);
+                if (c == 0) {
+                    c = compareKeys(buf, i * stride, pivot, 0);
+                }
+                if (c < 0) {
+                    swap(lt++, i++);
+                } else if (c > 0) {
+                    swap(i, gt--);
+                } else {
+                    i++;
+                }
+            }
+
+            // Recurse into the smaller part, loop over the larger one.
+            if (lt - lo < hi - gt) {
+                sort(lo, lt - 1);
+                lo = gt + 1;
+            } else {
+                sort(gt + 1, hi);
+                hi = lt - 1;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && compare((j - 1) * stride, j * stride) > 0; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private int median(int a, int b, int c) {
+        if (compare(a * stride, b * stride) < 0) {
+            if (compare(b * stride, c * stride) < 0) return b;
+            return (compare(a * stride, c * stride) < 0) ? c : a;
+        } else {
+            if (compare(a * stride, c * stride) < 0) return a;
+            return (compare(b * stride, c * stride) < 0) ? c : b;
+        }
+    }
+
+    private void swap(int r1, int r2) {
+        int b1 = r1 * stride;
+        int b2 = r2 * stride;
+        for (int c = 0; c < stride; c++) {
+            long t = buf[b1 + c];
+            buf[b1 + c] = buf[b2 + c];
+            buf[b2 + c] = t;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Run run : runs) {
+            run.file.delete();
+        }
+        runs.clear();
+        if (dir != null) {
+            dir.delete();
+            dir = null;
+        }
+        size = 0;
+    }
+
+    private static class Run {
+        final File file;
+        final long[] partitionStarts;
+
+        Run(File file, long[] partitionStarts) {
+            this.file = file;
+            this.partitionStarts = partitionStarts;
+        }
+    }
+
+    private class Cursor implements Closeable {
+        final long[] record = new long[stride];
+        final DataInputStream dis;
+        long remaining;
+
+        Cursor(Run run, long start, long records) throws IOException {
+            FileChannel ch = FileChannel.open(run.file.toPath(), StandardOpenOption.READ);
+            ch.position(start * stride * 8);
+            this.dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), IO_BUFFER));
+            this.remaining = records;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            for (int c = 0; c < stride; c++) {
+                record[c] = dis.readLong();
+            }
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            dis.close();
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes every row as a JSON object on its own line. The object has the "table" name,
+ * and the column names as keys. Numbers are JSON numbers, values are strings:
+ * <pre>
+ * {"table":"Class Histogram","INSTANCES":1204,"SIZE":24,"SUM SIZE":28896,"CLASS":"java.lang.String"}
+ * </pre>
+ */
+public final class JsonLinesSink implements ReportSink {
+
+    private final Writer out;
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<String[]> keys = new ArrayList<>();
+
+    public JsonLinesSink(OutputStream out) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int table(String name, String... columns) {
+        String[] k = new String[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            k[c] = "," + quote(columns[c]) + ":";
+        }
+        prefixes.add("{\"table\":" + quote(name));
+        keys.add(k);
+        return keys.size() - 1;
+    }
+
+    @Override
+    public void row(int table, Comparable value, Long... numbers) {
+        String[] k = keys.get(table);
+        try {
+            out.write(prefixes.get(table));
+            for (int c = 0; c < numbers.length; c++) {
+                out.write(k[c]);
+                out.write(String.valueOf(numbers[c]));
+            }
+            out.write(k[numbers.length]);
+            out.write(quote(String.valueOf(value)));
+            out.write("}\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        sb.append(ch);
+                    }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to object values.
+ * Open addressing with linear probing: does not box the keys, and does not allocate per entry.
+ * Null values are not supported: absent keys read as null.
+ */
+public final class LongObjectHashMap<V> {
+    private static final int MINIMUM_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    // Zero key marks the free slot in the table, the mapping for it is kept aside.
+    private boolean hasZeroKey;
+    private V zeroValue;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int shift;
+    private int resizeAt;
+
+    public LongObjectHashMap() {
+        this(MINIMUM_CAPACITY);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        allocate(LongLongHashMap.capacity(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+        resizeAt = capacity / 4 * 3;
+    }
+
+    private int slot(long key) {
+        final long[] ks = keys;
+        final int mask = ks.length - 1;
+        int i = LongLongHashMap.hash(key, shift);
+        long k;
+        while ((k = ks[i]) != key && k != 0) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int i = slot(key);
+        return (keys[i] == key) ? (V) values[i] : null;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        return keys[slot(key)] == key;
+    }
+
+    /**
+     * @return previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        if (key == 0) {
+            V prev = zeroValue;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return prev;
+        }
+        int i = slot(key);
+        if (keys[i] == key) {
+            V prev = (V) values[i];
+            values[i] = value;
+            return prev;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) {
+            resize();
+        }
+        return null;
+    }
+
+    /**
+     * @return removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == 0) {
+            V prev = zeroValue;
+            if (hasZeroKey) {
+                hasZeroKey = false;
+                zeroValue = null;
+                size--;
+            }
+            return prev;
+        }
+
+        int gap = slot(key);
+        if (keys[gap] != key) {
+            return null;
+        }
+        V prev = (V) values[gap];
+        size--;
+
+        // Shift back the entries that would not be found past the gap otherwise.
+        final long[] ks = keys;
+        final int mask = ks.length - 1;
+        int i = gap;
+        long k;
+        while ((k = ks[i = (i + 1) & mask]) != 0) {
+            int home = LongLongHashMap.hash(k, shift);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                ks[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        ks[gap] = 0L;
+        values[gap] = null;
+        return prev;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return snapshot of all keys, in no particular order
+     */
+    public long[] keys() {
+        long[] res = new long[size];
+        int n = 0;
+        if (hasZeroKey) {
+            res[n++] = 0L;
+        }
+        for (long k : keys) {
+            if (k != 0) {
+                res[n++] = k;
+            }
+        }
+        return res;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(values, null);
+        hasZeroKey = false;
+        zeroValue = null;
+        size = 0;
+    }
+
+    private void resize() {
+        if (keys.length == MAXIMUM_CAPACITY) {
+            // Probing the full table would never end, fail instead.
+            throw new IllegalStateException("Hash map cannot grow past " + size + " entries");
+        }
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(oldKeys.length * 2);
+
+        final long[] ks = keys;
+        final int mask = ks.length - 1;
+        for (int c = 0; c < oldKeys.length; c++) {
+            long k = oldKeys[c];
+            if (k != 0) {
+                int i = LongLongHashMap.hash(k, shift);
+                while (ks[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                ks[i] = k;
+                values[i] = oldValues[c];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * MurmurHash3, x64 128-bit variant. Strong enough to tell apart the contents of
+ * billions of objects, and fast, since it takes 16 bytes per step.
+ * <p>
+ * The instance keeps the last computed hash, so that hashing does not allocate.
+ */
+public final class Murmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+
+    /**
+     * Hashes the bytes between position and limit of the buffer.
+     * Buffer position is not changed.
+     *
+     * @param buf bytes
+     * @param seed seed
+     */
+    public void hash(ByteBuffer buf, long seed) {
+        final boolean swap = buf.order() == ByteOrder.BIG_ENDIAN;
+        final int start = buf.position();
+        final int len = buf.remaining();
+        final int end = start + (len & ~15);
+
+        long h1 = seed;
+        long h2 = seed;
+
+        for (int i = start; i < end; i += 16) {
+            long k1 = buf.getLong(i);
+            long k2 = buf.getLong(i + 8);
+            if (swap) {
+                k1 = Long.reverseBytes(k1);
+                k2 = Long.reverseBytes(k2);
+            }
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        switch (len & 15) {
+            case 15: k2 ^= (long) (buf.get(end + 14) & 0xFF) << 48;
+            case 14: k2 ^= (long) (buf.get(end + 13) & 0xFF) << 40;
+            case 13: k2 ^= (long) (buf.get(end + 12) & 0xFF) << 32;
+            case 12: k2 ^= (long) (buf.get(end + 11) & 0xFF) << 24;
+            case 11: k2 ^= (long) (buf.get(end + 10) & 0xFF) << 16;
+            case 10: k2 ^= (long) (buf.get(end + 9) & 0xFF) << 8;
+            case 9:  k2 ^= (long) (buf.get(end + 8) & 0xFF);
+                     h2 ^= mixK2(k2);
+            case 8:  k1 ^= (long) (buf.get(end + 7) & 0xFF) << 56;
+            case 7:  k1 ^= (long) (buf.get(end + 6) & 0xFF) << 48;
+            case 6:  k1 ^= (long) (buf.get(end + 5) & 0xFF) << 40;
+            case 5:  k1 ^= (long) (buf.get(end + 4) & 0xFF) << 32;
+            case 4:  k1 ^= (long) (buf.get(end + 3) & 0xFF) << 24;
+            case 3:  k1 ^= (long) (buf.get(end + 2) & 0xFF) << 16;
+            case 2:  k1 ^= (long) (buf.get(end + 1) & 0xFF) << 8;
+            case 1:  k1 ^= (long) (buf.get(end) & 0xFF);
+                     h1 ^= mixK1(k1);
+        }
+
+        h1 ^= len;
+        h2 ^= len;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+
+        h1 += h2;
+        h2 += h1;
+
+        this.h1 = h1;
+        this.h2 = h2;
+    }
+
+    /**
+     * @return lower half of the last hash
+     */
+    public long h1() {
+        return h1;
+    }
+
+    /**
+     * @return upper half of the last hash
+     */
+    public long h2() {
+        return h2;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.openjdk.jol.util;
+
+import java.io.*;
+
+/**
+ * Receives the table rows as they are produced, for machine-readable reports.
+ * Rows of different tables can interleave, every row tells its table.
+ *
+ * @see ASCIITable#ASCIITable(ReportSink, boolean, int, String, String...)
+ */
+public interface ReportSink extends Closeable {
+
+    /**
+     * Declares the table.
+     *
+     * @param name table name
+     * @param columns column names: numeric columns first, then the value column
+     * @return table handle for {@link #row(int, Comparable, Long...)}
+     */
+    int table(String name, String... columns);
+
+    /**
+     * Writes the row.
+     *
+     * @param table table handle
+     * @param value value column
+     * @param numbers numeric columns
+     */
+    void row(int table, Comparable value, Long... numbers);
+
+    /**
+     * Creates the sink that prefixes the table names, e.g. with the heap dump the rows come from.
+     * Closing the returned sink does not close this one.
+     *
+     * @param prefix prefix for the table names
+     * @return sink that writes into this sink
+     */
+    default ReportSink withPrefix(String prefix) {
+        ReportSink parent = this;
+        return new ReportSink() {
+            @Override
+            public int table(String name, String... columns) {
+                return parent.table(prefix + name, columns);
+            }
+
+            @Override
+            public void row(int table, Comparable value, Long... numbers) {
+                parent.row(table, value, numbers);
+            }
+
+            @Override
+            public void close() {
+                // The parent sink is closed by its owner.
+            }
+        };
+    }
+
+    /**
+     * @return names of the supported formats, for {@link #forFormat(String, File)}
+     */
+    static String[] formats() {
+        return new String[] {"jsonl", "csv", "columnar"};
+    }
+
+    /**
+     * Creates the sink for the given format, that writes into the single stream.
+     *
+     * @param format one of {@link #formats()}, except "csv"
+     * @param out stream to write to, closed when the sink is closed
+     * @return sink
+     * @throws IllegalArgumentException for unknown formats, and for the formats that write a file per table
+     */
+    static ReportSink forFormat(String format, OutputStream out) {
+        switch (format) {
+            case "jsonl":
+                return new JsonLinesSink(out);
+            case "columnar":
+                return new ColumnarSink(out);
+            case "csv":
+                throw new IllegalArgumentException("Report format writes a file per table, and needs the output directory: " + format);
+            default:
+                throw new IllegalArgumentException("Unknown report format: " + format);
+        }
+    }
+
+    /**
+     * @param format one of {@link #formats()}
+     * @return true if the format writes a file per table, into the output directory
+     */
+    static boolean isPerTable(String format) {
+        return format.equals("csv");
+    }
+
+    /**
+     * Creates the sink for the given format, that writes into the output file,
+     * or into the output directory, for the formats that write a file per table.
+     *
+     * @param format one of {@link #formats()}
+     * @param output output file or directory
+     * @return sink
+     * @throws IOException if the output file cannot be opened
+     * @throws IllegalArgumentException for unknown formats
+     */
+    static ReportSink forFormat(String format, File output) throws IOException {
+        if (isPerTable(format)) {
+            return new CsvSink(output);
+        }
+        return forFormat(format, new BufferedOutputStream(new FileOutputStream(output)));
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class HeapDumpBuffersTest {
+
+    // Larger than the stream input buffer: served by the copy.
+    private static final int LARGE = 5 * 1024 * 1024;
+
+    private static byte[] randomBytes(int len, int seed) {
+        byte[] bytes = new byte[len];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static final Map<Long, byte[]> EXPECTED = new HashMap<>();
+
+    static {
+        EXPECTED.put(0x1000L, randomBytes(12, 1));
+        EXPECTED.put(0x1010L, randomBytes(12, 2));
+        EXPECTED.put(0x2000L, new byte[0]);
+        EXPECTED.put(0x2010L, randomBytes(100, 3));
+        EXPECTED.put(0x2020L, randomBytes(LARGE, 4));
+    }
+
+    private static File dump(boolean gzip) throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(0x100, "test/A");
+        b.classDump(0x100, 0, 12, new Object[]{"x", HprofBuilder.INT, "y", HprofBuilder.LONG});
+        b.instance(0x1000, 0x100, EXPECTED.get(0x1000L));
+        b.instance(0x1010, 0x100, EXPECTED.get(0x1010L));
+        for (long id = 0x2000; id <= 0x2020; id += 0x10) {
+            byte[] bytes = EXPECTED.get(id);
+            b.primArray(id, HprofBuilder.BYTE, bytes.length, bytes);
+        }
+
+        File file = HprofBuilder.tempFile("jol-buffers", ".hprof");
+        b.write(file);
+        if (!gzip) {
+            return file;
+        }
+        File gz = HprofBuilder.tempFile("jol-buffers", ".hprof.gz");
+        try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(gz.toPath()))) {
+            Files.copy(file.toPath(), os);
+        }
+        return gz;
+    }
+
+    private static byte[] checkView(ByteBuffer bb, int len) {
+        Assert.assertTrue(bb.isReadOnly());
+        Assert.assertEquals(len, bb.limit() - bb.position());
+        if (len > 0) {
+            try {
+                bb.put(bb.position(), (byte) 0);
+                Assert.fail("View should be read-only");
+            } catch (ReadOnlyBufferException e) {
+                // Expected.
+            }
+        }
+        byte[] r = new byte[bb.remaining()];
+        int pos = bb.position();
+        bb.get(r);
+        bb.position(pos);
+        return r;
+    }
+
+    private static class CheckingVisitor extends HeapDumpReader.Visitor {
+        final Map<Long, byte[]> seen = new HashMap<>();
+
+        @Override
+        public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+            seen.put(id, checkView(contents, EXPECTED.get(id).length));
+        }
+
+        @Override
+        public void visitArray(long id, String componentType, int count, ByteBuffer contents) {
+            seen.put(id, checkView(contents, EXPECTED.get(id).length));
+        }
+    }
+
+    private static void checkReader(File file) throws Exception {
+        CheckingVisitor v = new CheckingVisitor();
+        new HeapDumpReader(file, null, v).parse();
+        Assert.assertEquals(EXPECTED.keySet(), v.seen.keySet());
+        for (long id : EXPECTED.keySet()) {
+            Assert.assertArrayEquals(EXPECTED.get(id), v.seen.get(id));
+        }
+    }
+
+    @Test
+    public void mappedViews() throws Exception {
+        checkReader(dump(false));
+    }
+
+    @Test
+    public void streamViews() throws Exception {
+        checkReader(dump(true));
+    }
+
+    private static File file(byte[] bytes) throws IOException {
+        File file = File.createTempFile("jol-buffers", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    @Test
+    public void mappedCopyIsReadOnly() throws Exception {
+        byte[] bytes = randomBytes(3 * 4096, 5);
+        try (MappedDumpInput in = new MappedDumpInput(file(bytes), 12, 64)) {
+            // Within the window, then straddling the windows.
+            in.seek(100);
+            byte[] view = checkView(in.slice(200), 200);
+            Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 100, 300), view);
+            in.seek(4000);
+            byte[] copy = checkView(in.slice(1000), 1000);
+            Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 4000, 5000), copy);
+            Assert.assertEquals(5000, in.position());
+        }
+    }
+
+    @Test
+    public void streamCopyIsReadOnly() throws Exception {
+        byte[] bytes = randomBytes(4096, 6);
+        try (StreamDumpInput in = new StreamDumpInput(FileChannel.open(file(bytes).toPath(), StandardOpenOption.READ), 64)) {
+            // Within the buffer, then larger than the buffer.
+            byte[] view = checkView(in.slice(50), 50);
+            Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 0, 50), view);
+            byte[] copy = checkView(in.slice(1000), 1000);
+            Assert.assertArrayEquals(Arrays.copyOfRange(bytes, 50, 1050), copy);
+            Assert.assertEquals(1050, in.position());
+        }
+    }
+
+}
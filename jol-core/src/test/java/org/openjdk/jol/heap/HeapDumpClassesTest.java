@@ -0,0 +1,143 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.datamodel.Model64;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.util.Multiset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HeapDumpClassesTest {
+
+    static final long A = 0x100;
+    static final long B = 0x200;
+
+    /**
+     * A { int x; Object next; long y; }
+     * B extends A { byte b; int x; }
+     */
+    static File dump() throws IOException {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(A, "test/A");
+        b.loadClass(B, "test/B");
+        b.classDump(A, 0, 20, new Object[]{"x", HprofBuilder.INT, "next", HprofBuilder.OBJECT, "y", HprofBuilder.LONG});
+        b.classDump(B, A, 25, new Object[]{"b", HprofBuilder.BYTE, "x", HprofBuilder.INT});
+
+        File file = HprofBuilder.tempFile("jol-classes", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    @Test
+    public void fieldOffsets() throws Exception {
+        HeapDumpClasses classes = new HeapDumpClasses();
+        new HeapDumpReader(dump(), null, classes).parse();
+
+        Assert.assertEquals(0, classes.fieldOffset(A, "x"));
+        Assert.assertEquals(4, classes.fieldOffset(A, "next"));
+        Assert.assertEquals(12, classes.fieldOffset(A, "y"));
+        Assert.assertEquals(-1, classes.fieldOffset(A, "b"));
+
+        // Own fields first, then super fields; own field hides the super one.
+        Assert.assertEquals(0, classes.fieldOffset(B, "b"));
+        Assert.assertEquals(1, classes.fieldOffset(B, "x"));
+        Assert.assertEquals(9, classes.fieldOffset(B, "next"));
+        Assert.assertEquals(17, classes.fieldOffset(B, "y"));
+
+        Assert.assertEquals(-1, classes.fieldOffset(0x999, "x"));
+    }
+
+    @Test
+    public void mirrorsAndArrayTypes() throws Exception {
+        final long arr = 0x300;
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(A, "test/A");
+        b.loadClass(B, "test/B");
+        b.loadClass(arr, "[Ltest/A;");
+        b.classDump(A, 0, 4, new Object[]{"x", HprofBuilder.INT}, "INSTANCE", 0x1000L, "OTHER", 0L);
+        b.classDump(B, A, 0, new Object[0]);
+        b.objArray(0x2000, arr, 0, 0, 0);
+
+        File file = HprofBuilder.tempFile("jol-classes", ".hprof");
+        b.write(file);
+
+        // Second pass reads the histogram from the index.
+        for (int pass = 0; pass < 2; pass++) {
+            HeapDumpReader reader = new HeapDumpReader(file, null, null);
+            Multiset<ClassData> data = reader.parse();
+
+            ClassData array = null;
+            for (ClassData cd : data.keys()) {
+                if (cd.name().equals("test.A[]")) {
+                    array = cd;
+                }
+            }
+            Assert.assertNotNull(array);
+            Assert.assertEquals("test.A", array.arrayComponentType());
+            Assert.assertEquals(3, array.arrayLength());
+
+            ClassData mirrorA = reader.mirrors().get("test.A").get(0);
+            ClassData mirrorB = reader.mirrors().get("test.B").get(0);
+            Assert.assertEquals("java.lang.Class", mirrorA.name());
+            Assert.assertEquals(1, data.count(mirrorA));
+            Assert.assertEquals(1, data.count(mirrorB));
+            Assert.assertEquals(mirrorB.fields().size() + 2, mirrorA.fields().size());
+
+            HotSpotLayouter layouter = new HotSpotLayouter(new Model64(false, false, 8), 17);
+            Assert.assertEquals(layouter.layout(mirrorB).instanceSize() + 16, layouter.layout(mirrorA).instanceSize());
+        }
+        HeapDumpIndex.indexFile(file).delete();
+    }
+
+    static class ArrayCollector extends HeapDumpReader.Visitor {
+        final String accepted;
+        final List<Long> ids = new ArrayList<>();
+
+        ArrayCollector(String accepted) {
+            this.accepted = accepted;
+        }
+
+        @Override
+        public boolean acceptsObjArrays(long klassID, String name) {
+            return name.equals(accepted);
+        }
+
+        @Override
+        public void visitArray(long id, long klassID, int count, ByteBuffer contents) {
+            ids.add(id);
+        }
+    }
+
+    @Test
+    public void multiplexedObjArrays() throws Exception {
+        final long arrA = 0x300;
+        final long arrB = 0x400;
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(arrA, "[Ltest/A;");
+        b.loadClass(arrB, "[Ltest/B;");
+        b.objArray(0x1000, arrA, 0);
+        b.objArray(0x2000, arrB, 0);
+        b.objArray(0x3000, arrA);
+
+        File file = HprofBuilder.tempFile("jol-classes", ".hprof");
+        b.write(file);
+
+        ArrayCollector as = new ArrayCollector("test.A[]");
+        ArrayCollector bs = new ArrayCollector("test.B[]");
+        HeapDumpReader.MultiplexingVisitor mv = new HeapDumpReader.MultiplexingVisitor();
+        mv.add(as);
+        mv.add(bs);
+        new HeapDumpReader(file, null, mv).parse();
+
+        Assert.assertEquals(Arrays.asList(0x1000L, 0x3000L), as.ids);
+        Assert.assertEquals(Arrays.asList(0x2000L), bs.ids);
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HeapDumpContentsTest {
+
+    @Test
+    public void readsVisitedRecords() throws Exception {
+        File file = HeapDumpGraphTest.dump();
+
+        List<Long> offsets = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+
+        HeapDumpReader[] reader = new HeapDumpReader[1];
+        HeapDumpReader.Visitor v = new HeapDumpReader.Visitor() {
+            private void record(ByteBuffer bb) {
+                byte[] bytes = new byte[bb.remaining()];
+                bb.duplicate().get(bytes);
+                offsets.add(reader[0].recordOffset());
+                contents.add(bytes);
+            }
+
+            @Override
+            public void visitInstance(long id, long klassID, ByteBuffer bb, String name) {
+                record(bb);
+            }
+
+            @Override
+            public void visitArray(long id, long klassID, int count, ByteBuffer bb) {
+                record(bb);
+            }
+
+            @Override
+            public void visitArray(long id, String componentType, int count, ByteBuffer bb) {
+                record(bb);
+            }
+        };
+        reader[0] = new HeapDumpReader(file, null, v);
+        reader[0].parse();
+
+        // Three instances, object array, primitive array.
+        Assert.assertEquals(5, offsets.size());
+
+        try (HeapDumpContents hdc = new HeapDumpContents(file, reader[0].idSize())) {
+            for (int c = 0; c < offsets.size(); c++) {
+                Assert.assertArrayEquals(contents.get(c), hdc.read(offsets.get(c)));
+            }
+        }
+    }
+
+    @Test(expected = HeapDumpException.class)
+    public void rejectsOtherRecords() throws Exception {
+        File file = HeapDumpGraphTest.dump();
+        try (HeapDumpContents hdc = new HeapDumpContents(file, 8)) {
+            hdc.read(0);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class HeapDumpDominatorsTest {
+
+    static final long ARRAY_1 = 0x100;
+    static final long ARRAY_2 = 0x200;
+
+    /**
+     * Random graph of object arrays, with some GC roots.
+     */
+    static File randomDump(Random r, int objects, int roots) throws IOException {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(ARRAY_1, "[Ljava/lang/Object;");
+        b.loadClass(ARRAY_2, "[Ljava/lang/String;");
+        b.classDump(ARRAY_1, 0, 0, new Object[0]);
+        b.classDump(ARRAY_2, 0, 0, new Object[0]);
+        b.endSegment();
+        for (int c = 0; c < objects; c++) {
+            long[] elements = new long[r.nextInt(4)];
+            for (int e = 0; e < elements.length; e++) {
+                elements[e] = r.nextInt(10) == 0 ? 0 : id(r.nextInt(objects));
+            }
+            b.objArray(id(c), r.nextBoolean() ? ARRAY_1 : ARRAY_2, elements);
+        }
+        for (int c = 0; c < roots; c++) {
+            b.root(0x05, id(r.nextInt(objects)));
+        }
+        File file = HprofBuilder.tempFile("jol-dominators", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    static long id(int c) {
+        return 0x10000 + c * 16L;
+    }
+
+    static long size(HeapDumpGraph g, int node) {
+        return 1 + node % 7;
+    }
+
+    /**
+     * Reachable nodes from the roots, pretending the excluded nodes are not there.
+     */
+    static BitSet reachable(HeapDumpGraph g, BitSet excluded) {
+        BitSet seen = new BitSet();
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (long r = 0; r < g.roots(); r++) {
+            int n = g.root(r);
+            if (!excluded.get(n) && !seen.get(n)) {
+                seen.set(n);
+                queue.add(n);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int n = queue.poll();
+            for (long e = g.edgeStart(n); e < g.edgeStart(n + 1); e++) {
+                int w = g.edge(e);
+                if (!excluded.get(w) && !seen.get(w)) {
+                    seen.set(w);
+                    queue.add(w);
+                }
+            }
+        }
+        return seen;
+    }
+
+    @Test
+    public void randomGraphs() throws Exception {
+        Random r = new Random(42);
+        for (int t = 0; t < 30; t++) {
+            int objects = 1 + r.nextInt(200);
+            try (HeapDumpGraph g = HeapDumpGraph.build(randomDump(r, objects, 1 + r.nextInt(5)), null);
+                 HeapDumpDominators doms = HeapDumpDominators.compute(g, n -> size(g, n))) {
+                BitSet all = reachable(g, new BitSet());
+                Assert.assertEquals(all.cardinality(), doms.reachable());
+
+                // Brute force: node dominates everything that is lost when it is removed.
+                List<BitSet> dominated = new ArrayList<>();
+                long total = 0;
+                for (int n = 0; n < g.nodes(); n++) {
+                    BitSet lost = new BitSet();
+                    if (all.get(n)) {
+                        total += size(g, n);
+                        BitSet excluded = new BitSet();
+                        excluded.set(n);
+                        lost = (BitSet) all.clone();
+                        lost.andNot(reachable(g, excluded));
+                    }
+                    dominated.add(lost);
+
+                    long expected = 0;
+                    for (int d = lost.nextSetBit(0); d >= 0; d = lost.nextSetBit(d + 1)) {
+                        expected += size(g, d);
+                    }
+                    Assert.assertEquals(all.get(n), doms.isReachable(n));
+                    Assert.assertEquals("Retained size for node " + n, expected, doms.retainedSize(n));
+                }
+                Assert.assertEquals(total, doms.totalSize());
+
+                // Immediate dominator is the closest strict dominator.
+                for (int n = 0; n < g.nodes(); n++) {
+                    if (!all.get(n)) {
+                        continue;
+                    }
+                    int idom = -1;
+                    for (int d = 0; d < g.nodes(); d++) {
+                        if (d != n && dominated.get(d).get(n)) {
+                            if (idom == -1 || dominated.get(idom).get(d)) {
+                                idom = d;
+                            }
+                        }
+                    }
+                    Assert.assertEquals("Dominator for node " + n, idom, doms.dominator(n));
+                }
+
+                // Per class: nodes dominated by any instance of the class.
+                long[] byClass = doms.retainedByClass();
+                for (int k = 0; k < g.classCount(); k++) {
+                    BitSet lost = new BitSet();
+                    for (int n = 0; n < g.nodes(); n++) {
+                        if (g.classOf(n) == k && all.get(n)) {
+                            lost.or(dominated.get(n));
+                        }
+                    }
+                    long expected = 0;
+                    for (int d = lost.nextSetBit(0); d >= 0; d = lost.nextSetBit(d + 1)) {
+                        expected += size(g, d);
+                    }
+                    Assert.assertEquals("Retained size for class " + g.className(k), expected, byClass[k]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void longChain() throws Exception {
+        // Deep chains should not overflow the stack.
+        int objects = 200_000;
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(ARRAY_1, "[Ljava/lang/Object;");
+        b.classDump(ARRAY_1, 0, 0, new Object[0]);
+        b.endSegment();
+        for (int c = 0; c < objects; c++) {
+            b.objArray(id(c), ARRAY_1, (c + 1 < objects) ? id(c + 1) : 0);
+        }
+        b.root(0x05, id(0));
+        File file = HprofBuilder.tempFile("jol-dominators", ".hprof");
+        b.write(file);
+
+        try (HeapDumpGraph g = HeapDumpGraph.build(file, null);
+             HeapDumpDominators doms = HeapDumpDominators.compute(g, n -> 1)) {
+            Assert.assertEquals(objects, doms.reachable());
+            Assert.assertEquals(objects, doms.retainedSize(g.node(id(0))));
+            Assert.assertEquals(1, doms.retainedSize(g.node(id(objects - 1))));
+            Assert.assertEquals(g.node(id(41)), doms.dominator(g.node(id(42))));
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class HeapDumpGraphTest {
+
+    static final long A = 0x100;
+    static final long B = 0x200;
+    static final long A_ARRAY = 0x300;
+
+    static final long A1 = 0x1000;
+    static final long A2 = 0x2000;
+    static final long B1 = 0x3000;
+    static final long ARR = 0x4000;
+    static final long BYTES = 0x5000;
+
+    /**
+     * A { Object next; int x; static A INSTANCE = a1; }
+     * B extends A { Object other; }
+     *
+     * a1.next = a2, b1.next = a1, b1.other = arr = A[] { a1, a2, null, <dangling> }
+     */
+    static File dump() throws IOException {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(A, "test/A");
+        b.loadClass(B, "test/B");
+        b.loadClass(A_ARRAY, "[Ltest/A;");
+        b.classDump(A, 0, 12, new Object[]{"next", HprofBuilder.OBJECT, "x", HprofBuilder.INT}, "INSTANCE", A1);
+        b.classDump(B, A, 20, new Object[]{"other", HprofBuilder.OBJECT});
+        b.classDump(A_ARRAY, 0, 0, new Object[0]);
+        b.endSegment();
+        b.instance(A2, A, HprofBuilder.fields(0L, 2));
+        b.instance(A1, A, HprofBuilder.fields(A2, 1));
+        b.instance(B1, B, HprofBuilder.fields(ARR, A1, 3));
+        b.endSegment();
+        b.objArray(ARR, A_ARRAY, A1, A2, 0L, 0x9999L);
+        b.primArray(BYTES, HprofBuilder.BYTE, 4, new byte[]{1, 2, 3, 4});
+
+        File file = HprofBuilder.tempFile("jol-graph", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    private static long[] targets(HeapDumpGraph g, long id) {
+        int n = g.node(id);
+        long[] r = new long[g.outDegree(n)];
+        for (int c = 0; c < r.length; c++) {
+            r[c] = g.id(g.edge(g.edgeStart(n) + c));
+        }
+        return r;
+    }
+
+    @Test
+    public void graph() throws Exception {
+        try (HeapDumpGraph g = HeapDumpGraph.build(dump(), null)) {
+            Assert.assertEquals(8, g.nodes());
+            Assert.assertEquals(-1, g.node(0x9999L));
+
+            // Nodes are in ID order.
+            for (int n = 1; n < g.nodes(); n++) {
+                Assert.assertTrue(g.id(n - 1) < g.id(n));
+            }
+
+            Assert.assertArrayEquals(new long[]{A2}, targets(g, A1));
+            Assert.assertArrayEquals(new long[0], targets(g, A2));
+            Assert.assertArrayEquals(new long[]{ARR, A1}, targets(g, B1));
+            Assert.assertArrayEquals(new long[]{A1, A2}, targets(g, ARR));
+            Assert.assertArrayEquals(new long[0], targets(g, BYTES));
+            Assert.assertArrayEquals(new long[]{A1}, targets(g, A));
+            Assert.assertArrayEquals(new long[]{A}, targets(g, B));
+
+            Assert.assertEquals(7, g.edges());
+        }
+    }
+
+    @Test
+    public void classes() throws Exception {
+        try (HeapDumpGraph g = HeapDumpGraph.build(dump(), null)) {
+            Assert.assertEquals("test.A", g.className(g.classOf(g.node(A1))));
+            Assert.assertEquals("test.B", g.className(g.classOf(g.node(B1))));
+            Assert.assertEquals("test.A[]", g.className(g.classOf(g.node(ARR))));
+            Assert.assertEquals("byte[]", g.className(g.classOf(g.node(BYTES))));
+            Assert.assertEquals("java.lang.Class", g.className(g.classOf(g.node(A))));
+
+            Assert.assertEquals(HeapDumpGraph.KIND_INSTANCE, g.classKind(g.classOf(g.node(A1))));
+            Assert.assertEquals(HeapDumpGraph.KIND_OBJ_ARRAY, g.classKind(g.classOf(g.node(ARR))));
+            Assert.assertEquals(HeapDumpGraph.KIND_PRIM_ARRAY, g.classKind(g.classOf(g.node(BYTES))));
+            Assert.assertEquals(HeapDumpGraph.KIND_CLASS, g.classKind(g.classOf(g.node(B))));
+            Assert.assertEquals(B, g.classId(g.classOf(g.node(B1))));
+
+            Assert.assertEquals(4, g.arrayLength(g.node(ARR)));
+            Assert.assertEquals(4, g.arrayLength(g.node(BYTES)));
+            Assert.assertEquals(0, g.arrayLength(g.node(A1)));
+        }
+    }
+
+    @Test
+    public void hierarchyRefs() throws Exception {
+        try (HeapDumpGraph g = HeapDumpGraph.build(dump(), null)) {
+            HeapDumpClasses classes = g.dumpClasses();
+            Assert.assertArrayEquals(new int[]{0, 8}, classes.refOffsets(B));
+            Assert.assertArrayEquals(new String[]{"other", "next"}, classes.refNames(B));
+            Assert.assertArrayEquals(new int[]{0}, classes.refOffsets(A));
+        }
+    }
+
+    @Test
+    public void duplicateIds() throws Exception {
+        // Merged dump lists a1 twice, the second time with different references.
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(A, "test/A");
+        b.classDump(A, 0, 12, new Object[]{"next", HprofBuilder.OBJECT, "x", HprofBuilder.INT});
+        b.endSegment();
+        b.instance(A1, A, HprofBuilder.fields(A2, 1));
+        b.instance(A2, A, HprofBuilder.fields(A1, 2));
+        b.instance(A1, A, HprofBuilder.fields(A1, 1));
+        File file = HprofBuilder.tempFile("jol-graph", ".hprof");
+        b.write(file);
+
+        try (HeapDumpGraph g = HeapDumpGraph.build(file, null)) {
+            Assert.assertEquals(3, g.nodes());
+            Assert.assertArrayEquals(new long[]{A2}, targets(g, A1));
+            Assert.assertArrayEquals(new long[]{A1}, targets(g, A2));
+            Assert.assertEquals(2, g.edges());
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.info.FieldData;
+import org.openjdk.jol.util.LongLongHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
+import org.openjdk.jol.util.Multiset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HeapDumpIndexTest {
+
+    private static void write(File file, int instances) throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(0x100, "test/A");
+        b.classDump(0x100, 0, 4, new Object[]{"x", HprofBuilder.INT});
+        for (int c = 0; c < instances; c++) {
+            b.instance(0x1000 + c * 0x10, 0x100, HprofBuilder.fields(c));
+        }
+        b.primArray(0x100000, HprofBuilder.LONG, 2, new byte[16]);
+        b.write(file);
+    }
+
+    private static Map<String, Long> histogram(File file, boolean fromIndex) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Multiset<ClassData> data;
+        try (PrintStream ps = new PrintStream(bos, true)) {
+            data = new HeapDumpReader(file, ps, null).parse();
+        }
+        Assert.assertEquals(fromIndex, bos.toString().contains(HeapDumpIndex.indexFile(file).getName()));
+
+        Map<String, Long> r = new HashMap<>();
+        for (ClassData cd : data.keys()) {
+            String key = cd.isArray() ? cd.name() + "/" + cd.arrayLength() : cd.name();
+            r.merge(key, data.count(cd), Long::sum);
+        }
+        return r;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        File file = File.createTempFile("jol-index", ".hprof");
+        file.deleteOnExit();
+        HeapDumpIndex.indexFile(file).deleteOnExit();
+        write(file, 3);
+
+        Map<String, Long> first = histogram(file, false);
+        Assert.assertTrue(HeapDumpIndex.indexFile(file).isFile());
+        Assert.assertEquals(3L, (long) first.get("test.A"));
+
+        Map<String, Long> second = histogram(file, true);
+        Assert.assertEquals(first, second);
+
+        HeapDumpIndex.indexFile(file).delete();
+    }
+
+    @Test
+    public void currentIndexIsKept() throws Exception {
+        File file = File.createTempFile("jol-index", ".hprof");
+        file.deleteOnExit();
+        File idx = HeapDumpIndex.indexFile(file);
+        idx.deleteOnExit();
+        write(file, 3);
+
+        // Parse with a visitor writes the missing index.
+        new HeapDumpReader(file, null, new HeapDumpReader.Visitor() {}).parse();
+        Assert.assertTrue(HeapDumpIndex.isCurrent(file));
+
+        // ...but does not rewrite the current one.
+        long time = idx.lastModified() - 10_000;
+        Assert.assertTrue(idx.setLastModified(time));
+        new HeapDumpReader(file, null, new HeapDumpReader.Visitor() {}).parse();
+        Assert.assertEquals(time, idx.lastModified());
+        Assert.assertEquals(3L, (long) histogram(file, true).get("test.A"));
+
+        idx.delete();
+    }
+
+    @Test
+    public void staleIndex() throws Exception {
+        File file = File.createTempFile("jol-index", ".hprof");
+        file.deleteOnExit();
+        HeapDumpIndex.indexFile(file).deleteOnExit();
+        write(file, 3);
+
+        Map<String, Long> first = histogram(file, false);
+
+        // Touched dump: read again, and the index is written anew.
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10_000));
+        Assert.assertNull(HeapDumpIndex.read(file));
+        Assert.assertEquals(first, histogram(file, false));
+        Assert.assertEquals(first, histogram(file, true));
+
+        // Dump of a different size, with the same modification time.
+        long time = file.lastModified();
+        write(file, 5);
+        Assert.assertTrue(file.setLastModified(time));
+        Map<String, Long> changed = histogram(file, false);
+        Assert.assertEquals(5L, (long) changed.get("test.A"));
+
+        HeapDumpIndex.indexFile(file).delete();
+    }
+
+    private static List<String> visit(File file, boolean fromIndex) throws Exception {
+        List<String> visits = new ArrayList<>();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (PrintStream ps = new PrintStream(bos, true)) {
+            new HeapDumpReader(file, ps, new HeapDumpReader.Visitor() {
+                @Override
+                public void visitClass(HeapDumpClass klass) {
+                    visits.add(klass.name() + " " + klass.fields().get(0).name());
+                }
+
+                @Override
+                public void visitInstance(long id, long klassID, ByteBuffer contents, String name) {
+                    visits.add(name + " " + Long.toHexString(id) + " " + contents.getInt(contents.position()));
+                }
+            }).parse();
+        }
+        Assert.assertEquals(fromIndex, bos.toString().contains(HeapDumpIndex.indexFile(file).getName()));
+        return visits;
+    }
+
+    @Test
+    public void visitorReadsSegments() throws Exception {
+        File file = File.createTempFile("jol-index", ".hprof");
+        file.deleteOnExit();
+        HeapDumpIndex.indexFile(file).deleteOnExit();
+        write(file, 3);
+
+        List<String> first = visit(file, false);
+        Assert.assertEquals(4, first.size());
+        Assert.assertEquals("test.A x", first.get(0));
+        Assert.assertEquals("test.A 1010 1", first.get(2));
+
+        // The index knows the segments and the field names, and the visitor sees the same records.
+        HeapDumpIndex index = HeapDumpIndex.read(file);
+        Assert.assertNotNull(index);
+        Assert.assertEquals(1, index.segments.size());
+        Assert.assertEquals(first, visit(file, true));
+
+        HeapDumpIndex.indexFile(file).delete();
+    }
+
+    @Test
+    public void unwritableIndex() throws Exception {
+        File file = File.createTempFile("jol-index", ".hprof");
+        file.deleteOnExit();
+        File idx = HeapDumpIndex.indexFile(file);
+        idx.deleteOnExit();
+        write(file, 1);
+
+        // Field name string is missing from the dump: the write fails, and leaves nothing behind.
+        LongObjectHashMap<String> names = new LongObjectHashMap<>();
+        names.put(0x100, "test.A");
+        LongObjectHashMap<List<FieldData>> fields = new LongObjectHashMap<>();
+        fields.put(0x100, Collections.singletonList(FieldData.create("test.A", null, "int")));
+        new HeapDumpIndex("JAVA PROFILE 1.0.2", 8, names, new LongLongHashMap(), fields,
+                new LongObjectHashMap<>(), new LongLongHashMap(), new LongLongHashMap[0], new LongObjectHashMap<>(),
+                new LongObjectHashMap<>(), Collections.emptyList()).write(file);
+
+        Assert.assertFalse(idx.exists());
+        File[] leftovers = idx.getAbsoluteFile().getParentFile().listFiles((dir, name) -> name.startsWith(idx.getName()));
+        Assert.assertEquals(0, leftovers.length);
+    }
+
+}
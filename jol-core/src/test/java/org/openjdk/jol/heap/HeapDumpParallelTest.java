@@ -0,0 +1,85 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.util.Multiset;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HeapDumpParallelTest {
+
+    private static final int SEGMENTS = 8;
+
+    private static File dump() throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(0x100, "test/A");
+        b.loadClass(0x200, "test/B");
+        b.loadClass(0x300, "[Ltest/A;");
+        b.classDump(0x100, 0, 4, new Object[]{"x", HprofBuilder.INT}, "INSTANCE", 0x10000L);
+        b.classDump(0x300, 0, 0, new Object[0]);
+        b.endSegment();
+
+        long id = 0x10000;
+        for (int s = 0; s < SEGMENTS; s++) {
+            if (s == SEGMENTS / 2) {
+                // Class dumps do not have to come first.
+                b.classDump(0x200, 0x100, 12, new Object[]{"y", HprofBuilder.LONG});
+            }
+            for (int c = 0; c <= s; c++) {
+                b.instance(id, 0x100, HprofBuilder.fields(c));
+                b.root(0xFF, id);
+                id += 0x10;
+            }
+            for (int c = 0; c < s % 3; c++) {
+                b.instance(id, 0x200, HprofBuilder.fields(c, (long) c));
+                id += 0x10;
+            }
+            b.primArray(id, HprofBuilder.BYTE, s, new byte[s]);
+            id += 0x10;
+            b.primArray(id, HprofBuilder.LONG, 2, new byte[16]);
+            id += 0x10;
+            b.objArray(id, 0x300, 0x10000, 0x10010);
+            id += 0x10;
+            b.endSegment();
+        }
+
+        File file = HprofBuilder.tempFile("jol-parallel", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    private static Map<String, Long> histogram(File file, int threads) throws Exception {
+        HeapDumpIndex.indexFile(file).delete();
+        HeapDumpReader reader = new HeapDumpReader(file, null, null);
+        reader.setThreads(threads);
+        reader.setTaskSize(1);
+        Multiset<ClassData> data = reader.parse();
+        HeapDumpIndex.indexFile(file).delete();
+
+        Map<String, Long> r = new HashMap<>();
+        for (ClassData cd : data.keys()) {
+            String key = cd.isArray() ? cd.name() + "/" + cd.arrayLength() : cd.name();
+            r.merge(key, data.count(cd), Long::sum);
+        }
+        return r;
+    }
+
+    @Test
+    public void sameAsSequential() throws Exception {
+        File file = dump();
+
+        Map<String, Long> sequential = histogram(file, 1);
+        Map<String, Long> parallel = histogram(file, 4);
+
+        Assert.assertEquals((long) SEGMENTS * (SEGMENTS + 1) / 2, (long) sequential.get("test.A"));
+        Assert.assertEquals(7L, (long) sequential.get("test.B"));
+        Assert.assertEquals((long) SEGMENTS, (long) sequential.get("long[]/2"));
+        Assert.assertEquals(1L, (long) sequential.get("byte[]/3"));
+        Assert.assertEquals((long) SEGMENTS, (long) sequential.get("test.A[]/2"));
+        Assert.assertEquals(sequential, parallel);
+    }
+
+}
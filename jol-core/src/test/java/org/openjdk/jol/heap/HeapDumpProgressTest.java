@@ -0,0 +1,136 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.util.Multiset;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HeapDumpProgressTest {
+
+    private static final int SEGMENTS = 40;
+    private static final int INSTANCES = 10;
+
+    static File dump() throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(0x100, "test/A");
+        b.classDump(0x100, 0, 4, new Object[]{"x", HprofBuilder.INT});
+        b.endSegment();
+
+        long id = 0x10000;
+        for (int s = 0; s < SEGMENTS; s++) {
+            for (int c = 0; c < INSTANCES; c++) {
+                b.instance(id, 0x100, HprofBuilder.fields(c));
+                id += 0x10;
+            }
+            b.endSegment();
+        }
+
+        File file = HprofBuilder.tempFile("jol-progress", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    private static long count(Multiset<ClassData> data) {
+        long count = 0;
+        for (ClassData cd : data.keys()) {
+            if (cd.name().equals("test.A")) {
+                count += data.count(cd);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Records the progress snapshots, and stops after the given number of them.
+     */
+    private static class Recorder implements HeapDumpReader.ProgressListener {
+        final int stopAfter;
+        final List<Long> bytes = new ArrayList<>();
+        final List<Long> records = new ArrayList<>();
+        final List<Long> counts = new ArrayList<>();
+
+        Recorder(int stopAfter) {
+            this.stopAfter = stopAfter;
+        }
+
+        @Override
+        public boolean onProgress(HeapDumpReader.Progress p) throws HeapDumpException {
+            bytes.add(p.bytes());
+            records.add(p.records());
+            counts.add(count(p.histogram()));
+            return bytes.size() < stopAfter;
+        }
+    }
+
+    private static void checkMonotonic(List<Long> values, long step) {
+        for (int c = 1; c < values.size(); c++) {
+            Assert.assertTrue(values + " should grow by at least " + step, values.get(c) - values.get(c - 1) >= step);
+        }
+    }
+
+    @Test
+    public void reportsProgress() throws Exception {
+        File file = dump();
+        HeapDumpReader reader = new HeapDumpReader(file, null, null);
+        reader.setThreads(1);
+        Recorder recorder = new Recorder(Integer.MAX_VALUE);
+        reader.setProgressListener(500, recorder);
+
+        long count = count(reader.parse());
+
+        Assert.assertFalse(reader.isStopped());
+        Assert.assertEquals(SEGMENTS * INSTANCES, count);
+        Assert.assertTrue(recorder.bytes.size() >= file.length() / 500 - 2);
+        checkMonotonic(recorder.bytes, 500);
+        checkMonotonic(recorder.records, 1);
+        checkMonotonic(recorder.counts, 0);
+        Assert.assertTrue(recorder.counts.get(recorder.counts.size() - 1) <= count);
+    }
+
+    @Test
+    public void stopsEarly() throws Exception {
+        File file = dump();
+        HeapDumpReader reader = new HeapDumpReader(file, null, null);
+        reader.setThreads(1);
+        Recorder recorder = new Recorder(3);
+        reader.setProgressListener(500, recorder);
+
+        long count = count(reader.parse());
+
+        // Partial histogram is what the last snapshot has seen.
+        Assert.assertTrue(reader.isStopped());
+        Assert.assertEquals(3, recorder.bytes.size());
+        Assert.assertEquals((long) recorder.counts.get(2), count);
+        Assert.assertTrue(count > 0);
+        Assert.assertTrue(count < SEGMENTS * INSTANCES);
+
+        // Partial results do not go to the index.
+        Assert.assertFalse(HeapDumpIndex.indexFile(file).exists());
+    }
+
+    @Test
+    public void stopsEarlyParallel() throws Exception {
+        File file = dump();
+        HeapDumpReader reader = new HeapDumpReader(file, null, null);
+        reader.setThreads(4);
+        reader.setTaskSize(1);
+        Recorder recorder = new Recorder(2);
+        reader.setProgressListener(500, recorder);
+
+        long count = count(reader.parse());
+
+        // Segments are merged whole: the partial counts cover the digested segments.
+        Assert.assertTrue(reader.isStopped());
+        Assert.assertEquals(2, recorder.bytes.size());
+        Assert.assertEquals((long) recorder.counts.get(1), count);
+        Assert.assertEquals(0, count % INSTANCES);
+        Assert.assertTrue(count > 0);
+        Assert.assertTrue(count < SEGMENTS * INSTANCES);
+        Assert.assertFalse(HeapDumpIndex.indexFile(file).exists());
+    }
+
+}
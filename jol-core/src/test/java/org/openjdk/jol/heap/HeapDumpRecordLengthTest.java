@@ -0,0 +1,151 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.util.Multiset;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class HeapDumpRecordLengthTest {
+
+    private static final long G4 = 1L << 32;
+
+    @Test
+    public void recordLength() {
+        // Regular records are taken as written.
+        Assert.assertEquals(100, HeapDumpReader.recordLength(0x1C, 100, 1000));
+        Assert.assertEquals(100, HeapDumpReader.recordLength(0x0C, 100, 100));
+        Assert.assertEquals(0, HeapDumpReader.recordLength(0x1C, 0, 1000));
+        Assert.assertEquals(100, HeapDumpReader.recordLength(0x01, 100, G4 + 100));
+        Assert.assertEquals(100, HeapDumpReader.recordLength(0x0C, 100, -1));
+
+        // Wrapped around, the last record in the dump.
+        Assert.assertEquals(2 * G4 + 100, HeapDumpReader.recordLength(0x0C, 100, 2 * G4 + 100));
+        Assert.assertEquals(G4 + 100, HeapDumpReader.recordLength(0x1C, 100, G4 + 100));
+
+        // Wrapped around, followed by the heap dump end record.
+        Assert.assertEquals(G4 + 100, HeapDumpReader.recordLength(0x1C, 100, G4 + 100 + 9));
+
+        // Unknown length of the single heap dump record.
+        Assert.assertEquals(1000, HeapDumpReader.recordLength(0x0C, 0, 1000));
+    }
+
+    private static HprofBuilder builder() throws IOException {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(0x100, "test/A");
+        b.classDump(0x100, 0, 4, new Object[]{"x", HprofBuilder.INT});
+        b.instance(0x1000, 0x100, HprofBuilder.fields(1));
+        b.instance(0x2000, 0x100, HprofBuilder.fields(2));
+        b.primArray(0x3000, HprofBuilder.LONG, 2, new byte[16]);
+        return b;
+    }
+
+    private static Map<String, Long> histogram(File file) throws Exception {
+        Multiset<ClassData> data = new HeapDumpReader(file, null, null).parse();
+        Map<String, Long> r = new HashMap<>();
+        for (ClassData cd : data.keys()) {
+            r.merge(cd.name(), data.count(cd), Long::sum);
+        }
+        return r;
+    }
+
+    @Test
+    public void singleHeapDumpWithoutLength() throws Exception {
+        File expected = HprofBuilder.tempFile("jol-records", ".hprof");
+        builder().writeSingle(expected, -1);
+
+        File actual = HprofBuilder.tempFile("jol-records", ".hprof");
+        builder().writeSingle(actual, 0);
+
+        Assert.assertEquals(2L, (long) histogram(expected).get("test.A"));
+        Assert.assertEquals(histogram(expected), histogram(actual));
+    }
+
+    @Test(expected = HeapDumpException.class)
+    public void hugeArrayLength() throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.primArray(0x3000, HprofBuilder.LONG, -1, new byte[0]);
+        File file = HprofBuilder.tempFile("jol-records", ".hprof");
+        b.write(file);
+        new HeapDumpReader(file, null, null).parse();
+    }
+
+    private static boolean stitcherAlive() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("jol-gzip-stitcher") && t.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void malformedDumpClosesInput() throws Exception {
+        // Broken record first, then more contents than the inflated chunks queue holds.
+        HprofBuilder b = new HprofBuilder();
+        b.primArray(0x3000, HprofBuilder.LONG, -1, new byte[0]);
+        for (int c = 0; c < 5; c++) {
+            b.primArray(0x4000 + c, HprofBuilder.LONG, 1024 * 1024, new byte[8 * 1024 * 1024]);
+        }
+        File raw = HprofBuilder.tempFile("jol-records", ".hprof");
+        b.write(raw);
+
+        File file = HprofBuilder.tempFile("jol-records", ".hprof.gz");
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(file))) {
+            Files.copy(raw.toPath(), os);
+        }
+
+        try {
+            new HeapDumpReader(file, null, null).parse();
+            Assert.fail("Expected HeapDumpException");
+        } catch (HeapDumpException e) {
+            // Expected.
+        }
+
+        // The stitcher of the failed parse must not wait for the reader forever.
+        for (int c = 0; c < 100 && stitcherAlive(); c++) {
+            Thread.sleep(100);
+        }
+        Assert.assertFalse(stitcherAlive());
+    }
+
+    @Test
+    public void channelSkip() throws Exception {
+        File file = File.createTempFile("jol-records", ".bin");
+        file.deleteOnExit();
+        byte[] bytes = new byte[1024 * 1024];
+        for (int c = 0; c < bytes.length; c++) {
+            bytes[c] = (byte) c;
+        }
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(bytes);
+        }
+
+        try (StreamDumpInput in = new StreamDumpInput(FileChannel.open(file.toPath(), StandardOpenOption.READ), 16)) {
+            Assert.assertEquals(0, in.u1());
+            in.skip(500_000);
+            Assert.assertEquals(500_001, in.position());
+            Assert.assertEquals(bytes[500_001] & 0xFF, in.u1());
+            Assert.assertEquals(((bytes[500_002] & 0xFF) << 8) | (bytes[500_003] & 0xFF), in.u2());
+            in.skip(bytes.length - in.position());
+            try {
+                in.skip(1);
+                Assert.fail("Should have failed");
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+
+}
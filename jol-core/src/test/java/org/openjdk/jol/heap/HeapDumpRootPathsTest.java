@@ -0,0 +1,168 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class HeapDumpRootPathsTest {
+
+    static final long A = 0x100;
+    static final long B = 0x200;
+    static final long A_ARRAY = 0x300;
+
+    static final long A1 = 0x1000;
+    static final long A2 = 0x2000;
+    static final long B1 = 0x3000;
+    static final long ARR = 0x4000;
+    static final long LOST = 0x5000;
+
+    /**
+     * A { Object next; int x; static A INSTANCE = a1; }
+     * B extends A { Object other; }
+     *
+     * Roots: class A, b1.
+     * a1.next = a2, b1.next = a1, b1.other = arr = A[] { a1, a2 }, lost is not reachable.
+     */
+    static File dump() throws IOException {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(A, "test/A");
+        b.loadClass(B, "test/B");
+        b.loadClass(A_ARRAY, "[Ltest/A;");
+        b.classDump(A, 0, 12, new Object[]{"next", HprofBuilder.OBJECT, "x", HprofBuilder.INT}, "INSTANCE", A1);
+        b.classDump(B, A, 20, new Object[]{"other", HprofBuilder.OBJECT});
+        b.classDump(A_ARRAY, 0, 0, new Object[0]);
+        b.root(0x05, A);
+        b.root(0x07, B1);
+        b.endSegment();
+        b.instance(A2, A, HprofBuilder.fields(0L, 2));
+        b.instance(A1, A, HprofBuilder.fields(A2, 1));
+        b.instance(B1, B, HprofBuilder.fields(ARR, A1, 3));
+        b.instance(LOST, A, HprofBuilder.fields(A1, 4));
+        b.endSegment();
+        b.objArray(ARR, A_ARRAY, A1, A2);
+
+        File file = HprofBuilder.tempFile("jol-paths", ".hprof");
+        b.write(file);
+        return file;
+    }
+
+    @Test
+    public void paths() throws Exception {
+        File file = dump();
+        try (HeapDumpGraph g = HeapDumpGraph.build(file, null);
+             HeapDumpRootPaths paths = HeapDumpRootPaths.compute(g, 1)) {
+            Assert.assertEquals(0, paths.depth(g.node(A)));
+            Assert.assertEquals(0, paths.depth(g.node(B1)));
+            Assert.assertEquals(1, paths.depth(g.node(A1)));
+            Assert.assertEquals(1, paths.depth(g.node(ARR)));
+            Assert.assertEquals(2, paths.depth(g.node(A2)));
+
+            Assert.assertFalse(paths.isReachable(g.node(LOST)));
+            Assert.assertEquals(-1, paths.depth(g.node(LOST)));
+            Assert.assertNull(paths.path(g.node(LOST)));
+
+            Assert.assertEquals(0x05, paths.rootType(g.node(A)));
+            Assert.assertEquals(0x07, paths.rootType(g.node(B1)));
+            Assert.assertEquals(-1, paths.rootType(g.node(A1)));
+
+            // Discovered first through the static field, since class A is the first root.
+            Assert.assertEquals(g.node(A), paths.parent(g.node(A1)));
+            Assert.assertEquals(g.node(A1), paths.parent(g.node(A2)));
+            Assert.assertEquals(-1, paths.parent(g.node(B1)));
+
+            List<int[]> ps = new ArrayList<>();
+            ps.add(paths.path(g.node(A2)));
+            ps.add(paths.path(g.node(ARR)));
+            ps.add(paths.path(g.node(B1)));
+            Assert.assertArrayEquals(new int[]{g.node(A), g.node(A1), g.node(A2)}, ps.get(0));
+
+            List<String> described = paths.describe(file, ps, null);
+            Assert.assertEquals("test.A.INSTANCE.next", described.get(0));
+            Assert.assertEquals("test.B@0x3000.other", described.get(1));
+            Assert.assertEquals("test.B@0x3000", described.get(2));
+        }
+    }
+
+    @Test
+    public void arrayIndexes() throws Exception {
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(A_ARRAY, "[Ljava/lang/Object;");
+        b.classDump(A_ARRAY, 0, 0, new Object[0]);
+        b.endSegment();
+        b.objArray(ARR, A_ARRAY, 0L, A1, 0L, A2);
+        b.objArray(A1, A_ARRAY);
+        b.objArray(A2, A_ARRAY, A1);
+        b.root(0xFF, ARR);
+        File file = HprofBuilder.tempFile("jol-paths", ".hprof");
+        b.write(file);
+
+        try (HeapDumpGraph g = HeapDumpGraph.build(file, null);
+             HeapDumpRootPaths paths = HeapDumpRootPaths.compute(g, 1)) {
+            List<String> described = paths.describe(file, Arrays.asList(paths.path(g.node(A1)), paths.path(g.node(A2))), null);
+            Assert.assertEquals("java.lang.Object[]@0x4000[1]", described.get(0));
+            Assert.assertEquals("java.lang.Object[]@0x4000[3]", described.get(1));
+        }
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        // Wide enough for the frontiers to be expanded in parallel.
+        Random r = new Random(12345);
+        int objects = 50_000;
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(A_ARRAY, "[Ljava/lang/Object;");
+        b.classDump(A_ARRAY, 0, 0, new Object[0]);
+        b.endSegment();
+        for (int c = 0; c < objects; c++) {
+            long[] elements = new long[r.nextInt(4)];
+            for (int e = 0; e < elements.length; e++) {
+                elements[e] = 0x10000 + r.nextInt(objects) * 16L;
+            }
+            b.objArray(0x10000 + c * 16L, A_ARRAY, elements);
+        }
+        for (int c = 0; c < 5000; c++) {
+            b.root(0x05, 0x10000 + r.nextInt(objects) * 16L);
+        }
+        File file = HprofBuilder.tempFile("jol-paths", ".hprof");
+        b.write(file);
+
+        try (HeapDumpGraph g = HeapDumpGraph.build(file, null);
+             HeapDumpRootPaths seq = HeapDumpRootPaths.compute(g, 1);
+             HeapDumpRootPaths par = HeapDumpRootPaths.compute(g, 4)) {
+            // Plain BFS for reference.
+            int[] depths = new int[g.nodes()];
+            Arrays.fill(depths, -1);
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (long c = 0; c < g.roots(); c++) {
+                int n = g.root(c);
+                if (depths[n] < 0) {
+                    depths[n] = 0;
+                    queue.add(n);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int n = queue.poll();
+                for (long e = g.edgeStart(n); e < g.edgeStart(n + 1); e++) {
+                    int w = g.edge(e);
+                    if (depths[w] < 0) {
+                        depths[w] = depths[n] + 1;
+                        queue.add(w);
+                    }
+                }
+            }
+
+            for (int n = 0; n < g.nodes(); n++) {
+                Assert.assertEquals(depths[n], seq.depth(n));
+                Assert.assertEquals(depths[n], par.depth(n));
+                Assert.assertEquals(seq.parent(n), par.parent(n));
+                if (seq.parent(n) >= 0) {
+                    Assert.assertEquals(depths[n] - 1, depths[seq.parent(n)]);
+                }
+            }
+        }
+    }
+
+}
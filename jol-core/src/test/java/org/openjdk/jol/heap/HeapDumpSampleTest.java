@@ -0,0 +1,88 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.util.LongLongHashMap;
+import org.openjdk.jol.util.LongObjectHashMap;
+
+public class HeapDumpSampleTest {
+
+    private static final int PRIM_TYPES = 12;
+
+    @Test
+    public void selectsFraction() {
+        for (long seed = 0; seed < 10; seed++) {
+            HeapDumpSample sample = new HeapDumpSample(0.05, seed, PRIM_TYPES);
+            Assert.assertEquals(HeapDumpSample.EXACT, sample.select(true, 0x21));
+            int sampled = 0;
+            for (int c = 0; c < 1000; c++) {
+                if (sample.select(false, 0x21) == HeapDumpSample.SAMPLED) {
+                    sampled++;
+                }
+            }
+            Assert.assertEquals(50, sampled);
+            Assert.assertEquals(50, sample.sampled());
+            Assert.assertEquals(1000, sample.candidates());
+        }
+    }
+
+    @Test
+    public void classSegmentsAreExact() {
+        HeapDumpSample sample = new HeapDumpSample(0.01, 42, PRIM_TYPES);
+        for (int c = 0; c < 100; c++) {
+            Assert.assertEquals(HeapDumpSample.EXACT, sample.select(false, 0x20));
+        }
+        Assert.assertEquals(0, sample.candidates());
+    }
+
+    @Test
+    public void sameSeedSameSegments() {
+        HeapDumpSample s1 = new HeapDumpSample(0.3, 1, PRIM_TYPES);
+        HeapDumpSample s2 = new HeapDumpSample(0.3, 1, PRIM_TYPES);
+        for (int c = 0; c < 1000; c++) {
+            Assert.assertEquals(s1.select(false, 0x21), s2.select(false, 0x21));
+        }
+    }
+
+    @Test
+    public void uniformSegments() {
+        HeapDumpSample sample = new HeapDumpSample(0.1, 0, PRIM_TYPES);
+        for (int c = 0; c < 100; c++) {
+            if (sample.select(false, 0x21) == HeapDumpSample.SAMPLED) {
+                sample.add(counts(1, 10), new LongLongHashMap[PRIM_TYPES], new LongObjectHashMap<>());
+            }
+        }
+
+        LongLongHashMap exact = counts(1, 5);
+        LongLongHashMap est = sample.estimate(exact, sample.classSums);
+        Assert.assertEquals(1005, est.get(1));
+
+        // All segments are the same, no variance.
+        LongLongHashMap errors = sample.errors(sample.classSums, sample.classSquares);
+        Assert.assertEquals(0, errors.get(1));
+    }
+
+    @Test
+    public void varyingSegments() {
+        HeapDumpSample sample = new HeapDumpSample(0.5, 0, PRIM_TYPES);
+        HeapDumpSample worker = sample.fork();
+        for (int c = 0; c < 100; c++) {
+            if (sample.select(false, 0x21) == HeapDumpSample.SAMPLED) {
+                worker.add(counts(1, c % 3), new LongLongHashMap[PRIM_TYPES], new LongObjectHashMap<>());
+            }
+        }
+        sample.merge(worker);
+
+        LongLongHashMap est = sample.estimate(null, sample.classSums);
+        LongLongHashMap errors = sample.errors(sample.classSums, sample.classSquares);
+        Assert.assertTrue(errors.get(1) > 0);
+        Assert.assertTrue(Math.abs(est.get(1) - 99) <= errors.get(1));
+    }
+
+    private static LongLongHashMap counts(long key, long count) {
+        LongLongHashMap m = new LongLongHashMap();
+        m.put(key, count);
+        return m;
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.info.ClassData;
+import org.openjdk.jol.util.Multiset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.openjdk.jol.heap.HeapDumpGraphTest.*;
+
+public class HeapDumpWriterTest {
+
+    private static File target() throws IOException {
+        File file = HprofBuilder.tempFile("jol-writer", ".hprof");
+        return file;
+    }
+
+    private static long[] targets(HeapDumpGraph g, long id) {
+        int n = g.node(id);
+        long[] r = new long[g.outDegree(n)];
+        for (int c = 0; c < r.length; c++) {
+            r[c] = g.id(g.edge(g.edgeStart(n) + c));
+        }
+        return r;
+    }
+
+    private static Map<String, Long> histogram(File file) throws Exception {
+        Multiset<ClassData> data = new HeapDumpReader(file, null, null).parse();
+        Map<String, Long> r = new HashMap<>();
+        for (ClassData cd : data.keys()) {
+            r.merge(cd.name(), data.count(cd), Long::sum);
+        }
+        return r;
+    }
+
+    @Test
+    public void identity() throws Exception {
+        File source = dump();
+        File target = target();
+        new HeapDumpWriter(source, null).write(target);
+        Assert.assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void dropClass() throws Exception {
+        File target = target();
+        HeapDumpWriter w = new HeapDumpWriter(dump(), null);
+        w.dropClass("test.A");
+        w.write(target);
+
+        Assert.assertEquals(2, w.removedObjects());
+        // b1.next, arr[0], arr[1], A.INSTANCE
+        Assert.assertEquals(4, w.rewrittenReferences());
+
+        try (HeapDumpGraph g = HeapDumpGraph.build(target, null)) {
+            Assert.assertEquals(6, g.nodes());
+            Assert.assertEquals(-1, g.node(A1));
+            Assert.assertEquals(-1, g.node(A2));
+            Assert.assertArrayEquals(new long[]{ARR}, targets(g, B1));
+            Assert.assertArrayEquals(new long[0], targets(g, ARR));
+            Assert.assertArrayEquals(new long[0], targets(g, A));
+        }
+    }
+
+    @Test
+    public void replace() throws Exception {
+        File target = target();
+        HeapDumpWriter w = new HeapDumpWriter(dump(), null);
+        w.replace(A2, A1);
+        w.write(target);
+
+        Assert.assertEquals(1, w.removedObjects());
+        try (HeapDumpGraph g = HeapDumpGraph.build(target, null)) {
+            Assert.assertEquals(-1, g.node(A2));
+            Assert.assertArrayEquals(new long[]{A1}, targets(g, A1));
+            Assert.assertArrayEquals(new long[]{A1, A1}, targets(g, ARR));
+        }
+    }
+
+    @Test
+    public void collapseArrays() throws Exception {
+        final long objs = 0x600;
+        HprofBuilder b = new HprofBuilder();
+        b.loadClass(objs, "[Ljava/lang/Object;");
+        b.classDump(objs, 0, 0, new Object[0]);
+        b.endSegment();
+        b.primArray(0x1000, HprofBuilder.BYTE, 4, new byte[]{1, 2, 3, 4});
+        b.primArray(0x2000, HprofBuilder.BYTE, 4, new byte[]{1, 2, 3, 4});
+        b.primArray(0x3000, HprofBuilder.BYTE, 4, new byte[]{1, 2, 3, 5});
+        b.primArray(0x4000, HprofBuilder.INT, 1, new byte[]{1, 2, 3, 4});
+        b.objArray(0x5000, objs, 0x2000, 0x3000, 0x4000);
+        b.objArray(0x6000, objs, 0x1000, 0x3000, 0x4000);
+        b.root(0xFF, 0x2000);
+        File source = HprofBuilder.tempFile("jol-writer", ".hprof");
+        b.write(source);
+
+        File target = target();
+        HeapDumpWriter w = new HeapDumpWriter(source, null);
+        w.setCollapseArrays(true);
+        w.write(target);
+
+        // 0x2000 is the duplicate of 0x1000, after that 0x6000 is the duplicate of 0x5000.
+        // Arrays are matched by their original contents, so only the first one collapses.
+        Assert.assertEquals(1, w.removedObjects());
+        Assert.assertEquals(2, w.rewrittenReferences());
+
+        try (HeapDumpGraph g = HeapDumpGraph.build(target, null)) {
+            Assert.assertEquals(-1, g.node(0x2000));
+            Assert.assertArrayEquals(new long[]{0x1000, 0x3000, 0x4000}, targets(g, 0x5000));
+        }
+
+        Map<String, Long> h = histogram(target);
+        Assert.assertEquals(2L, (long) h.get("byte[]"));
+        Assert.assertEquals(1L, (long) h.get("int[]"));
+    }
+
+    @Test
+    public void splitSegments() throws Exception {
+        File source = dump();
+        File target = target();
+        HeapDumpWriter w = new HeapDumpWriter(source, null);
+        w.setSegmentSize(1);
+        w.write(target);
+
+        Assert.assertEquals(histogram(source), histogram(target));
+        try (HeapDumpGraph g = HeapDumpGraph.build(target, null)) {
+            Assert.assertEquals(8, g.nodes());
+            Assert.assertArrayEquals(new long[]{ARR, A1}, targets(g, B1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overItself() throws Exception {
+        File source = dump();
+        new HeapDumpWriter(source, null).write(source);
+    }
+
+}
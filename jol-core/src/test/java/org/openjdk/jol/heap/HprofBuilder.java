@@ -0,0 +1,204 @@
+package org.openjdk.jol.heap;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes small synthetic HPROF dumps for tests, with 8-byte IDs.
+ */
+public class HprofBuilder {
+
+    public static final int OBJECT = 2;
+    public static final int BOOLEAN = 4;
+    public static final int CHAR = 5;
+    public static final int FLOAT = 6;
+    public static final int DOUBLE = 7;
+    public static final int BYTE = 8;
+    public static final int SHORT = 9;
+    public static final int INT = 10;
+    public static final int LONG = 11;
+
+    private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(records);
+
+    private ByteArrayOutputStream segmentBytes = new ByteArrayOutputStream();
+    private DataOutputStream segment = new DataOutputStream(segmentBytes);
+
+    private long nextStringId = 0x1000;
+    private int serial = 1;
+
+    /**
+     * Creates the temporary file for the dump. The file is deleted on exit, together with
+     * the index that the reader writes next to it.
+     */
+    public static File tempFile(String prefix, String suffix) throws IOException {
+        File file = File.createTempFile(prefix, suffix);
+        file.deleteOnExit();
+        HeapDumpIndex.indexFile(file).deleteOnExit();
+        return file;
+    }
+
+    public HprofBuilder() throws IOException {
+        out.write("JAVA PROFILE 1.0.2".getBytes(StandardCharsets.US_ASCII));
+        out.write(0);
+        out.writeInt(8);
+        out.writeLong(0);
+    }
+
+    private void record(int tag, byte[] body) throws IOException {
+        out.write(tag);
+        out.writeInt(0);
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    public long string(String s) throws IOException {
+        long id = nextStringId++;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeLong(id);
+        dos.write(s.getBytes(StandardCharsets.UTF_8));
+        record(0x01, bos.toByteArray());
+        return id;
+    }
+
+    /**
+     * Declares the class name. Binary names, e.g. "java/lang/String", or "[Ljava/lang/String;".
+     */
+    public void loadClass(long klassId, String name) throws IOException {
+        long nameId = string(name);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(serial++);
+        dos.writeLong(klassId);
+        dos.writeInt(0);
+        dos.writeLong(nameId);
+        record(0x02, bos.toByteArray());
+    }
+
+    /**
+     * Dumps the class.
+     *
+     * @param fields field name and type pairs, e.g. "next", OBJECT
+     * @param statics static reference field name and value pairs, e.g. "INSTANCE", 0x100L
+     */
+    public void classDump(long klassId, long superId, int instanceSize, Object[] fields, Object... statics) throws IOException {
+        segment.write(0x20);
+        segment.writeLong(klassId);
+        segment.writeInt(0);
+        segment.writeLong(superId);
+        for (int c = 0; c < 5; c++) {
+            segment.writeLong(0); // loader, signers, protection domain, reserved
+        }
+        segment.writeInt(instanceSize);
+        segment.writeShort(0); // constant pool
+        segment.writeShort(statics.length / 2);
+        for (int c = 0; c < statics.length; c += 2) {
+            segment.writeLong(string((String) statics[c]));
+            segment.write(OBJECT);
+            segment.writeLong((Long) statics[c + 1]);
+        }
+        segment.writeShort(fields.length / 2);
+        for (int c = 0; c < fields.length; c += 2) {
+            segment.writeLong(string((String) fields[c]));
+            segment.write((Integer) fields[c + 1]);
+        }
+    }
+
+    public void instance(long id, long klassId, byte[] fields) throws IOException {
+        segment.write(0x21);
+        segment.writeLong(id);
+        segment.writeInt(0);
+        segment.writeLong(klassId);
+        segment.writeInt(fields.length);
+        segment.write(fields);
+    }
+
+    public void objArray(long id, long klassId, long... elements) throws IOException {
+        segment.write(0x22);
+        segment.writeLong(id);
+        segment.writeInt(0);
+        segment.writeInt(elements.length);
+        segment.writeLong(klassId);
+        for (long e : elements) {
+            segment.writeLong(e);
+        }
+    }
+
+    public void primArray(long id, int type, int count, byte[] contents) throws IOException {
+        segment.write(0x23);
+        segment.writeLong(id);
+        segment.writeInt(0);
+        segment.writeInt(count);
+        segment.write(type);
+        segment.write(contents);
+    }
+
+    /**
+     * Writes the GC root of the simple kind: unknown (0xFF), sticky class (0x05), monitor used (0x07).
+     */
+    public void root(int subTag, long id) throws IOException {
+        segment.write(subTag);
+        segment.writeLong(id);
+    }
+
+    /**
+     * Closes the current heap dump segment, next records go into the new one.
+     */
+    public void endSegment() throws IOException {
+        segment.flush();
+        if (segmentBytes.size() > 0) {
+            record(0x1C, segmentBytes.toByteArray());
+        }
+        segmentBytes = new ByteArrayOutputStream();
+        segment = new DataOutputStream(segmentBytes);
+    }
+
+    public void write(File file) throws IOException {
+        endSegment();
+        record(0x2C, new byte[0]);
+        out.flush();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            records.writeTo(fos);
+        }
+    }
+
+    /**
+     * Writes all heap dump records as the single heap dump record (0x0C), as older VMs do.
+     *
+     * @param declaredLength length to write in the record header, or -1 for the actual length
+     */
+    public void writeSingle(File file, long declaredLength) throws IOException {
+        segment.flush();
+        byte[] body = segmentBytes.toByteArray();
+        out.write(0x0C);
+        out.writeInt(0);
+        out.writeInt((int) ((declaredLength >= 0) ? declaredLength : body.length));
+        out.write(body);
+        out.flush();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            records.writeTo(fos);
+        }
+    }
+
+    /**
+     * Encodes the instance field values, in dump order.
+     */
+    public static byte[] fields(Object... values) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        for (Object v : values) {
+            if (v instanceof Long) {
+                dos.writeLong((Long) v);
+            } else if (v instanceof Integer) {
+                dos.writeInt((Integer) v);
+            } else if (v instanceof Byte) {
+                dos.writeByte((Byte) v);
+            } else {
+                throw new IllegalArgumentException("Unsupported value: " + v);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class MappedDumpInputTest {
+
+    // Small windows exercise the same boundaries as 1 GB windows with 1 MB overlaps.
+    private static final int SHIFT = 12;
+    private static final int WINDOW = 1 << SHIFT;
+    private static final int OVERLAP = 64;
+
+    private static File file(byte[] bytes) throws IOException {
+        File file = File.createTempFile("jol-mapped", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] contents(ByteBuffer bb) {
+        byte[] r = new byte[bb.remaining()];
+        bb.duplicate().get(r);
+        return r;
+    }
+
+    private static byte[] range(byte[] bytes, int from, int len) {
+        byte[] r = new byte[len];
+        System.arraycopy(bytes, from, r, 0, len);
+        return r;
+    }
+
+    @Test
+    public void valuesAtWindowEdges() throws Exception {
+        byte[] bytes = randomBytes(4 * WINDOW + 100);
+        ByteBuffer expected = ByteBuffer.wrap(bytes);
+        MappedDumpInput in = new MappedDumpInput(file(bytes), SHIFT, OVERLAP);
+
+        for (int b = WINDOW; b < bytes.length; b += WINDOW) {
+            for (int p = b - 9; p <= b + 1; p++) {
+                in.seek(p);
+                Assert.assertEquals("u8 at " + p, expected.getLong(p), in.u8());
+                Assert.assertEquals(p + 8, in.position());
+                in.seek(p);
+                Assert.assertEquals("u4 at " + p, expected.getInt(p), in.u4());
+                in.seek(p);
+                Assert.assertEquals("u2 at " + p, expected.getShort(p) & 0xFFFF, in.u2());
+                in.seek(p);
+                Assert.assertEquals("u1 at " + p, bytes[p] & 0xFF, in.u1());
+            }
+        }
+    }
+
+    @Test
+    public void slicesAcrossWindows() throws Exception {
+        byte[] bytes = randomBytes(3 * WINDOW);
+        MappedDumpInput in = new MappedDumpInput(file(bytes), SHIFT, OVERLAP);
+
+        // Fits into the overlap: served from the mapping.
+        int p = WINDOW - 10;
+        in.seek(p);
+        ByteBuffer bb = in.slice(OVERLAP);
+        Assert.assertTrue(bb.isDirect());
+        Assert.assertArrayEquals(range(bytes, p, OVERLAP), contents(bb));
+        Assert.assertEquals(p + OVERLAP, in.position());
+
+        // Ends past the overlap: copied.
+        in.seek(p);
+        bb = in.slice(OVERLAP + 20);
+        Assert.assertFalse(bb.isDirect());
+        Assert.assertArrayEquals(range(bytes, p, OVERLAP + 20), contents(bb));
+        Assert.assertEquals(p + OVERLAP + 20, in.position());
+
+        // Spans the whole window and then some.
+        in.seek(p);
+        bb = in.slice(2 * WINDOW);
+        Assert.assertArrayEquals(range(bytes, p, 2 * WINDOW), contents(bb));
+
+        // Bulk reads stitch the windows together.
+        byte[] dst = new byte[2 * WINDOW + 10];
+        in.seek(p);
+        in.read(dst, 5, 2 * WINDOW);
+        Assert.assertArrayEquals(range(bytes, p, 2 * WINDOW), range(dst, 5, 2 * WINDOW));
+
+        // Reads past the end fail.
+        in.seek(bytes.length - 4);
+        try {
+            in.slice(8);
+            Assert.fail("Expected EOF");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void duplicatesHaveOwnPositions() throws Exception {
+        byte[] bytes = randomBytes(2 * WINDOW);
+        ByteBuffer expected = ByteBuffer.wrap(bytes);
+        MappedDumpInput in = new MappedDumpInput(file(bytes), SHIFT, OVERLAP);
+        MappedDumpInput dup = in.duplicate();
+
+        in.seek(WINDOW - 4);
+        dup.seek(16);
+        Assert.assertEquals(expected.getLong(WINDOW - 4), in.u8());
+        Assert.assertEquals(expected.getLong(16), dup.u8());
+        Assert.assertEquals(WINDOW + 4, in.position());
+        Assert.assertEquals(24, dup.position());
+    }
+
+    @Test
+    public void sameAsStream() throws Exception {
+        byte[] bytes = randomBytes(8 * WINDOW + 77);
+        File file = file(bytes);
+
+        Random r = new Random(1);
+        try (DumpInput mapped = new MappedDumpInput(file, SHIFT, OVERLAP);
+             DumpInput stream = new StreamDumpInput(FileChannel.open(file.toPath(), StandardOpenOption.READ), 1000)) {
+            Assert.assertEquals(stream.size(), mapped.size());
+            while (mapped.position() < bytes.length - 2 * OVERLAP) {
+                switch (r.nextInt(7)) {
+                    case 0:
+                        Assert.assertEquals(stream.u1(), mapped.u1());
+                        break;
+                    case 1:
+                        Assert.assertEquals(stream.u2(), mapped.u2());
+                        break;
+                    case 2:
+                        Assert.assertEquals(stream.u4(), mapped.u4());
+                        break;
+                    case 3:
+                        Assert.assertEquals(stream.u8(), mapped.u8());
+                        break;
+                    case 4: {
+                        int len = r.nextInt(2 * OVERLAP);
+                        Assert.assertArrayEquals(contents(stream.slice(len)), contents(mapped.slice(len)));
+                        break;
+                    }
+                    case 5: {
+                        int len = r.nextInt(2 * OVERLAP);
+                        byte[] s = new byte[len];
+                        byte[] m = new byte[len];
+                        stream.read(s, 0, len);
+                        mapped.read(m, 0, len);
+                        Assert.assertArrayEquals(s, m);
+                        break;
+                    }
+                    case 6: {
+                        int len = r.nextInt(OVERLAP);
+                        stream.skip(len);
+                        mapped.skip(len);
+                        break;
+                    }
+                }
+                Assert.assertEquals(stream.position(), mapped.position());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package org.openjdk.jol.heap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class ParallelGZIPInputStreamTest {
+
+    private static byte[] data(int size) {
+        // Compressible, but not trivially.
+        Random r = new Random(42);
+        byte[] data = new byte[size];
+        for (int c = 0; c < size; c++) {
+            data[c] = (byte) (r.nextInt(16) + (c / 4096));
+        }
+        return data;
+    }
+
+    private static File gzip(byte[] data, int memberSize) throws IOException {
+        return gzip(data, memberSize, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private static File gzip(byte[] data, int memberSize, int level) throws IOException {
+        File f = File.createTempFile("jol-test", ".gz");
+        f.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(f)) {
+            int off = 0;
+            do {
+                int len = Math.min(memberSize, data.length - off);
+                GZIPOutputStream gos = new GZIPOutputStream(os) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+                gos.write(data, off, len);
+                gos.finish();
+                off += len;
+            } while (off < data.length);
+        }
+        return f;
+    }
+
+    private static byte[] inflate(File f, int threads) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream is = new ParallelGZIPInputStream(f, threads)) {
+            byte[] buf = new byte[12345];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                bos.write(buf, 0, read);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testSingleMember() throws IOException {
+        byte[] data = data(10_000_000);
+        File f = gzip(data, Integer.MAX_VALUE);
+        Assert.assertArrayEquals(data, inflate(f, 1));
+        Assert.assertArrayEquals(data, inflate(f, 4));
+    }
+
+    @Test
+    public void testMultiMember() throws IOException {
+        byte[] data = data(10_000_000);
+        File f = gzip(data, 1024 * 1024);
+        Assert.assertArrayEquals(data, inflate(f, 1));
+        Assert.assertArrayEquals(data, inflate(f, 4));
+    }
+
+    @Test
+    public void testLargeMembers() throws IOException {
+        byte[] data = data(20_000_000);
+        File f = gzip(data, 7_000_000);
+        Assert.assertArrayEquals(data, inflate(f, 4));
+    }
+
+    @Test
+    public void testFalseHeaders() throws IOException {
+        // Stored members keep the gzip headers in the data as is: speculations on them are dropped.
+        byte[] data = data(20_000_000);
+        for (int c = 0; c + 4 <= data.length; c += 10_000) {
+            data[c] = (byte) 0x1F;
+            data[c + 1] = (byte) 0x8B;
+            data[c + 2] = 8;
+            data[c + 3] = 0;
+        }
+        File f = gzip(data, 3_000_000, Deflater.NO_COMPRESSION);
+        Assert.assertArrayEquals(data, inflate(f, 1));
+        Assert.assertArrayEquals(data, inflate(f, 4));
+    }
+
+    @Test(timeout = 60_000)
+    public void testCloseUnread() throws IOException, InterruptedException {
+        // Reader stops early: the stitcher blocks on the full queue, and close has to release it.
+        byte[] data = data(40_000_000);
+        File f = gzip(data, 1024 * 1024);
+        for (int c = 0; c < 10; c++) {
+            InputStream is = new ParallelGZIPInputStream(f, 4);
+            Assert.assertEquals(data[0] & 0xFF, is.read());
+            Thread.sleep(c * 10);
+            is.close();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File f = gzip(new byte[0], 1);
+        Assert.assertEquals(0, inflate(f, 2).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] data = data(1_000_000);
+        File f = gzip(data, 100_000);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 100);
+        }
+        inflate(f, 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotGzip() throws IOException {
+        File f = File.createTempFile("jol-test", ".gz");
+        f.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(f)) {
+            os.write(data(1000));
+        }
+        inflate(f, 2);
+    }
+
+}
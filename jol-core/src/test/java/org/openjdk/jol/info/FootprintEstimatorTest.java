@@ -0,0 +1,128 @@
+package org.openjdk.jol.info;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.datamodel.Model32;
+import org.openjdk.jol.datamodel.Model64;
+import org.openjdk.jol.datamodel.Model64_Lilliput;
+import org.openjdk.jol.layouters.HotSpotLayouter;
+import org.openjdk.jol.util.Multiset;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+public class FootprintEstimatorTest {
+
+    static class A {
+        int i;
+        Object o;
+    }
+
+    static class B extends A {
+        long l;
+        byte b;
+    }
+
+    private static Multiset<ClassData> histogram() {
+        Multiset<ClassData> data = new Multiset<>();
+        data.add(ClassData.parseClass(A.class), 1000);
+        data.add(ClassData.parseClass(B.class), 333);
+        for (int len = 0; len < 50; len++) {
+            data.add(new ClassData("int[]", "int", len), len + 1);
+            data.add(new ClassData("java.lang.Object[]", "java.lang.Object", len), 2 * len + 1);
+        }
+        return data;
+    }
+
+    @Test
+    public void parse() {
+        FootprintEstimator.Config c = FootprintEstimator.Config.parse("jdk8-32");
+        Assert.assertEquals(new Model32().toString(), c.model().toString());
+        Assert.assertEquals(8, c.jdkVersion());
+
+        c = FootprintEstimator.Config.parse("jdk8-nocoops");
+        Assert.assertEquals(new Model64(false, false, 8).toString(), c.model().toString());
+        Assert.assertEquals(Long.MAX_VALUE, c.maxHeap());
+
+        c = FootprintEstimator.Config.parse("jdk17-nocoops");
+        Assert.assertEquals(new Model64(false, true, 8).toString(), c.model().toString());
+
+        c = FootprintEstimator.Config.parse("jdk25-coops-align32");
+        Assert.assertEquals(new Model64(true, true, 32).toString(), c.model().toString());
+        Assert.assertEquals(25, c.jdkVersion());
+        Assert.assertEquals(128L * 1024 * 1024 * 1024, c.maxHeap());
+
+        c = FootprintEstimator.Config.parse("lilliput2-coops");
+        Assert.assertEquals(new Model64_Lilliput(true, 8, 2).toString(), c.model().toString());
+
+        List<FootprintEstimator.Config> cs = FootprintEstimator.Config.parseAll("jdk17-coops, lilliput1-nocoops,");
+        Assert.assertEquals(2, cs.size());
+        Assert.assertEquals("lilliput1-nocoops", cs.get(1).name());
+    }
+
+    @Test
+    public void parseErrors() {
+        for (String name : new String[]{"jdk17", "jdk17-foo", "jdkX-coops", "jdk17-coops-align12",
+                "jdk17-coops-align4", "jdk17-nocoops-align16", "lilliput1-32", "hotspot-coops"}) {
+            try {
+                FootprintEstimator.Config.parse(name);
+                Assert.fail("Should have failed: " + name);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() throws InterruptedException {
+        Multiset<ClassData> data = histogram();
+        FootprintEstimator est = new FootprintEstimator(data);
+        List<FootprintEstimator.Config> configs = FootprintEstimator.defaultConfigs();
+
+        Map<FootprintEstimator.Config, Long> common = est.estimate(configs);
+        Map<FootprintEstimator.Config, Long> custom;
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            custom = est.estimate(configs, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        Assert.assertEquals(configs.size(), common.size());
+        int idx = 0;
+        for (Map.Entry<FootprintEstimator.Config, Long> e : common.entrySet()) {
+            FootprintEstimator.Config c = e.getKey();
+            Assert.assertEquals(configs.get(idx++), c);
+
+            HotSpotLayouter layouter = new HotSpotLayouter(c.model(), c.jdkVersion());
+            long expected = 0;
+            for (ClassData cd : data.keys()) {
+                expected += layouter.layout(cd).instanceSize() * data.count(cd);
+            }
+            Assert.assertEquals(c.name(), expected, (long) e.getValue());
+            Assert.assertEquals(c.name(), expected, est.estimate(c));
+            Assert.assertEquals(c.name(), e.getValue(), custom.get(c));
+        }
+    }
+
+    @Test
+    public void reusesLayouters() {
+        FootprintEstimator est = new FootprintEstimator(histogram());
+        FootprintEstimator.Config coops = FootprintEstimator.Config.parse("jdk17-coops");
+        FootprintEstimator.Config align8 = FootprintEstimator.Config.parse("jdk17-coops-align8");
+        FootprintEstimator.Config align16 = FootprintEstimator.Config.parse("jdk17-coops-align16");
+
+        // Same model and JDK share the layouter, and with it the cached sizes.
+        long size = est.estimate(coops);
+        Assert.assertSame(est.layouter(coops), est.layouter(coops));
+        Assert.assertSame(est.layouter(coops), est.layouter(align8));
+        Assert.assertNotSame(est.layouter(coops), est.layouter(align16));
+        Assert.assertEquals(size, est.estimate(coops));
+        Assert.assertEquals(size, est.estimate(align8));
+
+        // Other estimators have their own.
+        Assert.assertNotSame(est.layouter(coops), new FootprintEstimator(histogram()).layouter(coops));
+    }
+
+}
@@ -7,6 +7,7 @@ import org.openjdk.jol.datamodel.ModelVM;
 import org.openjdk.jol.datamodel.*;
 import org.openjdk.jol.info.ClassData;
 import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.FieldData;
 import org.openjdk.jol.util.ClassGenerator;
 
 import java.util.ArrayList;
@@ -84,4 +85,78 @@ public class LayouterInvariantsTest {
         }
     }
 
+    @Test
+    public void testHotspotInstanceSize() {
+        List<HotSpotLayouter> layouters = new ArrayList<>();
+        for (DataModel model : MODELS) {
+            layouters.add(new HotSpotLayouter(model, 8));
+            layouters.add(new HotSpotLayouter(model, 15));
+            layouters.add(new HotSpotLayouter(model, 23));
+            layouters.add(new HotSpotLayouter(model, 25));
+        }
+        for (int c = 0; c < ITERATIONS / 10; c++) {
+            ClassData cd = ClassData.parseClass(CLS[c]);
+            for (HotSpotLayouter layouter : layouters) {
+                long size = layouter.layout(cd).instanceSize();
+                // Second call hits the cache.
+                Assert.assertEquals("Seed = " + SEEDS[c], size, layouter.instanceSize(cd));
+                Assert.assertEquals("Seed = " + SEEDS[c], size, layouter.instanceSize(cd));
+            }
+        }
+
+        String[] types = {"boolean", "byte", "short", "char", "int", "float", "long", "double", "java.lang.Object"};
+        for (HotSpotLayouter layouter : layouters) {
+            for (String type : types) {
+                for (int len : new int[] {0, 1, 2, 3, 7, 8, 9, 100, 1 << 20, Integer.MAX_VALUE}) {
+                    ClassData cd = new ClassData(type + "[]", type, len);
+                    long size = layouter.layout(cd).instanceSize();
+                    Assert.assertEquals(type + "[" + len + "]", size, layouter.arraySize(type, len));
+                    Assert.assertEquals(type + "[" + len + "]", size, layouter.instanceSize(cd));
+                }
+            }
+        }
+    }
+
+    private static ClassData subclass(FieldData[] fields, boolean linked) {
+        ClassData a = new ClassData("test.A");
+        a.addSuperClass("test.A");
+        a.addField(fields[0]);
+
+        ClassData b = new ClassData("test.B");
+        b.addSuperClass("test.A");
+        b.addField(fields[0]);
+        b.addSuperClass("test.B");
+        for (int c = 1; c < fields.length; c++) {
+            b.addField(fields[c]);
+        }
+        if (linked) {
+            b.addSuperClassData(a);
+        }
+        return b;
+    }
+
+    @Test
+    public void testHotspotInstanceSizeEqualClasses() {
+        FieldData[] fields = {
+                FieldData.create("test.A", "a", "byte"),
+                FieldData.create("test.B", "b0", "int"),
+                FieldData.create("test.B", "b1", "int"),
+                FieldData.create("test.B", "b2", "int"),
+        };
+
+        // Equal class datas, but only one knows its super class data, and JDK 8 lays them out differently.
+        ClassData linked = subclass(fields, true);
+        ClassData unlinked = subclass(fields, false);
+        Assert.assertEquals(linked, unlinked);
+
+        DataModel model = new Model64(true, true, 8);
+        long linkedSize = new HotSpotLayouter(model, 8).layout(linked).instanceSize();
+        long unlinkedSize = new HotSpotLayouter(model, 8).layout(unlinked).instanceSize();
+        Assert.assertNotEquals(linkedSize, unlinkedSize);
+
+        HotSpotLayouter layouter = new HotSpotLayouter(model, 8);
+        Assert.assertEquals(linkedSize, layouter.instanceSize(linked));
+        Assert.assertEquals(unlinkedSize, layouter.instanceSize(unlinked));
+    }
+
 }
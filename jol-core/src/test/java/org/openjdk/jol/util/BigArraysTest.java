@@ -0,0 +1,59 @@
+package org.openjdk.jol.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class BigArraysTest {
+
+    @Test
+    public void longs() {
+        Random r = new Random(1);
+        int size = 3_000_000;
+        long[] expected = new long[size];
+        try (BigLongArray a = new BigLongArray()) {
+            for (int c = 0; c < size; c++) {
+                long v = r.nextLong();
+                expected[c] = v;
+                a.add(v);
+            }
+            Assert.assertEquals(size, a.size());
+            for (int c = 0; c < size; c++) {
+                Assert.assertEquals(expected[c], a.get(c));
+            }
+
+            a.sort();
+            Arrays.sort(expected);
+            for (int c = 0; c < size; c++) {
+                Assert.assertEquals(expected[c], a.get(c));
+            }
+
+            for (int c = 0; c < 1000; c++) {
+                int idx = r.nextInt(size);
+                Assert.assertEquals(idx, a.binarySearch(expected[idx]));
+            }
+            Assert.assertEquals(-1, a.binarySearch(Long.MIN_VALUE));
+        }
+    }
+
+    @Test
+    public void ints() {
+        int size = 5_000_000;
+        try (BigIntArray a = new BigIntArray(size)) {
+            for (int c = 0; c < size; c++) {
+                Assert.assertEquals(0, a.get(c));
+                a.set(c, c * 31);
+            }
+            for (int c = 0; c < size; c++) {
+                Assert.assertEquals(c * 31, a.get(c));
+            }
+            a.resize(10);
+            a.resize(20);
+            Assert.assertEquals(0, a.get(15));
+            Assert.assertEquals(9 * 31, a.get(9));
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.openjdk.jol.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class ExternalCounterTest {
+
+    private static void check(long budget, int records, int distinct) throws Exception {
+        Random r = new Random(records * 31L + distinct);
+        Map<List<Long>, long[]> expected = new HashMap<>();
+        try (ExternalCounter counter = new ExternalCounter(2, 2, budget)) {
+            for (int c = 0; c < records; c++) {
+                long k1 = r.nextInt(distinct);
+                long k2 = k1 % 3;
+                long v1 = r.nextInt(1000);
+                long v2 = v1 * 7;
+                counter.add(new long[]{k1, k2, v1, v2});
+
+                long[] e = expected.computeIfAbsent(Arrays.asList(k1, k2), k -> new long[]{0, Long.MAX_VALUE, 0});
+                e[0]++;
+                if (v1 < e[1]) {
+                    e[1] = v1;
+                    e[2] = v2;
+                }
+            }
+
+            Map<List<Long>, long[]> actual = new HashMap<>();
+            counter.aggregate((key, count, values) -> {
+                long[] prev = actual.put(Arrays.asList(key[0], key[1]), new long[]{count, values[0], values[1]});
+                Assert.assertNull("Keys are reported once", prev);
+            });
+
+            Assert.assertEquals(expected.size(), actual.size());
+            for (List<Long> k : expected.keySet()) {
+                Assert.assertArrayEquals(expected.get(k), actual.get(k));
+            }
+        }
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        check(1024 * 1024, 10_000, 100);
+    }
+
+    @Test
+    public void testSpills() throws Exception {
+        // Budget is enough for only about a thousand records.
+        check(40_000, 100_000, 50_000);
+    }
+
+    @Test
+    public void testSpillsWithDuplicates() throws Exception {
+        check(40_000, 100_000, 10);
+    }
+
+    @Test
+    public void testMultiPassMerge() throws Exception {
+        try (ExternalCounter counter = new ExternalCounter(1, 1, 8 * 1024)) {
+            for (long c = 0; c < 300_000; c++) {
+                counter.add(new long[]{c % 100_003, c});
+            }
+            Assert.assertTrue(counter.spills() > ExternalCounter.MERGE_FAN_IN * 2);
+
+            long[] total = new long[2];
+            counter.aggregate((key, count, values) -> {
+                Assert.assertEquals(key[0], values[0]);
+                total[0]++;
+                total[1] += count;
+            });
+            Assert.assertEquals(100_003, total[0]);
+            Assert.assertEquals(300_000, total[1]);
+        }
+    }
+
+    @Test
+    public void testSpillCount() throws Exception {
+        try (ExternalCounter counter = new ExternalCounter(1, 0, 8 * 1024)) {
+            for (long c = 0; c < 100_000; c++) {
+                counter.add(new long[]{c});
+            }
+            Assert.assertTrue(counter.spills() > 10);
+
+            long[] total = new long[2];
+            counter.aggregate((key, count, values) -> {
+                total[0]++;
+                total[1] += count;
+            });
+            Assert.assertEquals(100_000, total[0]);
+            Assert.assertEquals(100_000, total[1]);
+        }
+    }
+
+}
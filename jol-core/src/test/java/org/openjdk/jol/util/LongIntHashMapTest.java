@@ -0,0 +1,52 @@
+package org.openjdk.jol.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongIntHashMapTest {
+
+    @Test
+    public void testBasic() {
+        LongIntHashMap m = new LongIntHashMap();
+        Assert.assertTrue(m.isEmpty());
+        Assert.assertEquals(0, m.put(0L, 1));
+        Assert.assertEquals(1, m.put(0L, 2));
+        Assert.assertEquals(3, m.add(1L, 3));
+        Assert.assertEquals(4, m.add(1L, 1));
+        Assert.assertEquals(2, m.size());
+        Assert.assertEquals(2, m.get(0L));
+        Assert.assertEquals(4, m.get(1L));
+        Assert.assertEquals(0, m.get(2L));
+        Assert.assertEquals(4, m.remove(1L));
+        Assert.assertEquals(2, m.remove(0L));
+        Assert.assertTrue(m.isEmpty());
+    }
+
+    @Test
+    public void testRandom() {
+        Random r = new Random(42);
+        LongIntHashMap m = new LongIntHashMap();
+        Map<Long, Integer> ref = new HashMap<>();
+
+        for (int c = 0; c < 100_000; c++) {
+            long key = r.nextLong() % 5_000;
+            if (r.nextBoolean()) {
+                Integer prev = ref.put(key, c);
+                Assert.assertEquals(prev == null ? 0 : prev, m.put(key, c));
+            } else {
+                Integer removed = ref.remove(key);
+                Assert.assertEquals(removed == null ? 0 : removed, m.remove(key));
+            }
+            Assert.assertEquals(ref.size(), m.size());
+        }
+
+        for (long key : m.keys()) {
+            Assert.assertEquals((int) ref.get(key), m.get(key));
+        }
+    }
+
+}
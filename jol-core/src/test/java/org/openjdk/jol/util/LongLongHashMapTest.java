@@ -0,0 +1,97 @@
+package org.openjdk.jol.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongLongHashMapTest {
+
+    @Test
+    public void testBasic() {
+        LongLongHashMap m = new LongLongHashMap();
+        Assert.assertTrue(m.isEmpty());
+        Assert.assertEquals(0L, m.put(1L, 10L));
+        Assert.assertEquals(10L, m.put(1L, 11L));
+        Assert.assertEquals(11L, m.get(1L));
+        Assert.assertEquals(0L, m.get(2L));
+        Assert.assertEquals(42L, m.get(2L, 42L));
+        Assert.assertTrue(m.containsKey(1L));
+        Assert.assertFalse(m.containsKey(2L));
+        Assert.assertEquals(1, m.size());
+        Assert.assertEquals(11L, m.remove(1L));
+        Assert.assertTrue(m.isEmpty());
+    }
+
+    @Test
+    public void testZeroKey() {
+        LongLongHashMap m = new LongLongHashMap();
+        Assert.assertFalse(m.containsKey(0L));
+        Assert.assertEquals(5L, m.add(0L, 5L));
+        Assert.assertTrue(m.containsKey(0L));
+        Assert.assertEquals(1, m.size());
+        Assert.assertArrayEquals(new long[] {0L}, m.keys());
+        Assert.assertEquals(5L, m.remove(0L));
+        Assert.assertFalse(m.containsKey(0L));
+        Assert.assertEquals(0, m.size());
+    }
+
+    @Test
+    public void testAddAll() {
+        LongLongHashMap m1 = new LongLongHashMap();
+        LongLongHashMap m2 = new LongLongHashMap();
+        m1.add(0L, 1L);
+        m1.add(1L, 1L);
+        m2.add(1L, 2L);
+        m2.add(2L, 3L);
+        m1.addAll(m2);
+        Assert.assertEquals(3, m1.size());
+        Assert.assertEquals(1L, m1.get(0L));
+        Assert.assertEquals(3L, m1.get(1L));
+        Assert.assertEquals(3L, m1.get(2L));
+    }
+
+    @Test
+    public void testRandom() {
+        Random r = new Random(42);
+        LongLongHashMap m = new LongLongHashMap();
+        Map<Long, Long> ref = new HashMap<>();
+
+        for (int c = 0; c < 100_000; c++) {
+            // Narrow key range to get plenty of collisions and removals.
+            long key = r.nextInt(10_000) - 100;
+            switch (r.nextInt(4)) {
+                case 0:
+                    Long prev = ref.put(key, (long) c);
+                    Assert.assertEquals(prev == null ? 0L : prev, m.put(key, c));
+                    break;
+                case 1:
+                    Long old = ref.get(key);
+                    long sum = (old == null ? 0L : old) + c;
+                    ref.put(key, sum);
+                    Assert.assertEquals(sum, m.add(key, c));
+                    break;
+                case 2:
+                    Long removed = ref.remove(key);
+                    Assert.assertEquals(removed == null ? 0L : removed, m.remove(key));
+                    break;
+                case 3:
+                    Assert.assertEquals(ref.containsKey(key), m.containsKey(key));
+                    break;
+            }
+            Assert.assertEquals(ref.size(), m.size());
+        }
+
+        Assert.assertEquals(ref.size(), m.keys().length);
+        for (long key : m.keys()) {
+            Assert.assertEquals((long) ref.get(key), m.get(key));
+        }
+
+        m.clear();
+        Assert.assertTrue(m.isEmpty());
+        Assert.assertEquals(0, m.keys().length);
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.openjdk.jol.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectHashMapTest {
+
+    @Test
+    public void testBasic() {
+        LongObjectHashMap<String> m = new LongObjectHashMap<>();
+        Assert.assertTrue(m.isEmpty());
+        Assert.assertNull(m.put(0L, "zero"));
+        Assert.assertNull(m.put(1L, "one"));
+        Assert.assertEquals("one", m.put(1L, "uno"));
+        Assert.assertEquals("zero", m.get(0L));
+        Assert.assertEquals("uno", m.get(1L));
+        Assert.assertNull(m.get(2L));
+        Assert.assertEquals(2, m.size());
+        Assert.assertEquals("zero", m.remove(0L));
+        Assert.assertNull(m.remove(0L));
+        Assert.assertEquals(1, m.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        new LongObjectHashMap<String>().put(1L, null);
+    }
+
+    @Test
+    public void testRandom() {
+        Random r = new Random(42);
+        LongObjectHashMap<Integer> m = new LongObjectHashMap<>();
+        Map<Long, Integer> ref = new HashMap<>();
+
+        for (int c = 0; c < 100_000; c++) {
+            long key = r.nextInt(5_000) * 0x100000000L;
+            if (r.nextBoolean()) {
+                Assert.assertEquals(ref.put(key, c), m.put(key, c));
+            } else {
+                Assert.assertEquals(ref.remove(key), m.remove(key));
+            }
+            Assert.assertEquals(ref.size(), m.size());
+        }
+
+        for (long key : m.keys()) {
+            Assert.assertEquals(ref.get(key), m.get(key));
+        }
+    }
+
+}
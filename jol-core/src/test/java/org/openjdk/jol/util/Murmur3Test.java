@@ -0,0 +1,47 @@
+package org.openjdk.jol.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class Murmur3Test {
+
+    @Test
+    public void testKnownValues() {
+        Murmur3 m = new Murmur3();
+
+        m.hash(ByteBuffer.allocate(0), 0);
+        Assert.assertEquals(0L, m.h1());
+        Assert.assertEquals(0L, m.h2());
+
+        m.hash(ByteBuffer.wrap("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII)), 0);
+        Assert.assertEquals(0xe34bbc7bbc071b6cL, m.h1());
+        Assert.assertEquals(0x7a433ca9c49a9347L, m.h2());
+    }
+
+    @Test
+    public void testOrderAndPosition() {
+        Random r = new Random(1);
+        Murmur3 m = new Murmur3();
+        for (int len = 0; len < 100; len++) {
+            byte[] bytes = new byte[len + 3];
+            r.nextBytes(bytes);
+
+            ByteBuffer big = ByteBuffer.wrap(bytes, 3, len).order(ByteOrder.BIG_ENDIAN);
+            m.hash(big, 42);
+            long h1 = m.h1();
+            long h2 = m.h2();
+            Assert.assertEquals(3, big.position());
+
+            ByteBuffer little = ByteBuffer.wrap(bytes, 3, len).slice().order(ByteOrder.LITTLE_ENDIAN);
+            m.hash(little, 42);
+            Assert.assertEquals(h1, m.h1());
+            Assert.assertEquals(h2, m.h2());
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package org.openjdk.jol.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ReportSinkTest {
+
+    static class CollectingSink implements ReportSink {
+        final List<String> tables = new ArrayList<>();
+        final List<String> rows = new ArrayList<>();
+
+        @Override
+        public int table(String name, String... columns) {
+            tables.add(name + Arrays.toString(columns));
+            return tables.size() - 1;
+        }
+
+        @Override
+        public void row(int table, Comparable value, Long... numbers) {
+            rows.add(table + ":" + Arrays.toString(numbers) + ":" + value);
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do.
+        }
+    }
+
+    private static String write(String format, String value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ReportSink sink = ReportSink.forFormat(format, bos)) {
+            int t = sink.table("Test", "COUNT", "VALUE");
+            sink.row(t, value, 42L);
+        }
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void jsonLines() throws IOException {
+        Assert.assertEquals("{\"table\":\"Test\",\"COUNT\":42,\"VALUE\":\"plain\"}\n",
+                write("jsonl", "plain"));
+        Assert.assertEquals("{\"table\":\"Test\",\"COUNT\":42,\"VALUE\":\"a\\\"b\\\\c\\nd\\u0001\"}\n",
+                write("jsonl", "a\"b\\c\nd\u0001"));
+    }
+
+    private static Map<String, String> writeCsv(String value) throws IOException {
+        Map<String, ByteArrayOutputStream> files = new LinkedHashMap<>();
+        try (ReportSink sink = new CsvSink(name -> {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            files.put(name, bos);
+            return bos;
+        })) {
+            int t1 = sink.table("a.hprof: Test", "COUNT", "VALUE");
+            int t2 = sink.table("a.hprof: Test", "NAME");
+            int t3 = sink.table("Other/Test", "COUNT", "SIZE", "VALUE");
+            sink.row(t1, value, 42L);
+            sink.row(t2, "name");
+            sink.row(t3, "other", 1L, 2L);
+        }
+        Map<String, String> r = new LinkedHashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> e : files.entrySet()) {
+            r.put(e.getKey(), new String(e.getValue().toByteArray(), StandardCharsets.UTF_8));
+        }
+        return r;
+    }
+
+    @Test
+    public void csv() throws IOException {
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("a.hprof_Test.csv", "COUNT,VALUE\r\n42,plain\r\n");
+        expected.put("a.hprof_Test-2.csv", "NAME\r\nname\r\n");
+        expected.put("Other_Test.csv", "COUNT,SIZE,VALUE\r\n1,2,other\r\n");
+        Assert.assertEquals(expected, writeCsv("plain"));
+
+        Assert.assertEquals("COUNT,VALUE\r\n42,\"a,\"\"b\"\"\nc\"\r\n",
+                writeCsv("a,\"b\"\nc").get("a.hprof_Test.csv"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void csvNeedsDirectory() {
+        ReportSink.forFormat("csv", new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void columnarRoundTrip() throws IOException {
+        int rows = ColumnarSink.GROUP_ROWS * 2 + 17;
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CollectingSink expected = new CollectingSink();
+        try (ReportSink sink = new ColumnarSink(bos)) {
+            int t1 = sink.table("First", "A", "B", "NAME");
+            int t2 = sink.table("Second", "VALUE");
+            expected.table("First", "A", "B", "NAME");
+            expected.table("Second", "VALUE");
+            for (int r = 0; r < rows; r++) {
+                long a = (r % 3 == 0) ? -r : r * 1000L;
+                long b = (r % 5 == 0) ? Long.MIN_VALUE : Long.MAX_VALUE - r;
+                sink.row(t1, "rowé" + r, a, b);
+                expected.row(t1, "rowé" + r, a, b);
+                if (r % 1000 == 0) {
+                    sink.row(t2, r);
+                    expected.row(t2, String.valueOf(r));
+                }
+            }
+        }
+
+        CollectingSink actual = new CollectingSink();
+        ColumnarSink.read(new ByteArrayInputStream(bos.toByteArray()), actual);
+
+        Assert.assertEquals(expected.tables, actual.tables);
+
+        // Row groups of different tables interleave, compare the per-table order.
+        for (int t = 0; t < 2; t++) {
+            Assert.assertEquals(filter(expected.rows, t), filter(actual.rows, t));
+        }
+    }
+
+    private static List<String> filter(List<String> rows, int table) {
+        List<String> r = new ArrayList<>();
+        for (String s : rows) {
+            if (s.startsWith(table + ":")) {
+                r.add(s);
+            }
+        }
+        return r;
+    }
+
+    @Test(expected = IOException.class)
+    public void columnarTruncated() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ReportSink sink = new ColumnarSink(bos)) {
+            sink.row(sink.table("Test", "COUNT", "VALUE"), "v", 1L);
+        }
+        byte[] b = bos.toByteArray();
+        ColumnarSink.read(new ByteArrayInputStream(Arrays.copyOf(b, b.length - 3)), new CollectingSink());
+    }
+
+    @Test
+    public void tableStreamsToSink() {
+        CollectingSink sink = new CollectingSink();
+        ASCIITable table = new ASCIITable(sink, true, 2, "=== Test Table:\n  Some description", "COUNT", "VALUE");
+        table.addLine("b", 2L);
+        Assert.assertEquals(Arrays.asList("Test Table[COUNT, VALUE]"), sink.tables);
+        Assert.assertEquals(Arrays.asList("0:[2]:b"), sink.rows);
+
+        table.addLine("a", 1L);
+        table.addLine("c", 3L);
+
+        // Sink gets all rows in their order, and the summary once.
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        table.print(new PrintStream(bos), 0);
+        table.print(new PrintStream(bos), 1);
+        Assert.assertEquals(0, bos.size());
+
+        Assert.assertEquals(Arrays.asList("Test Table[COUNT, VALUE]"), sink.tables);
+        Assert.assertEquals(Arrays.asList("0:[2]:b", "0:[1]:a", "0:[3]:c", "0:[6]:<total>"), sink.rows);
+    }
+
+    @Test
+    public void prefixedTables() throws IOException {
+        CollectingSink sink = new CollectingSink();
+        ReportSink prefixed = sink.withPrefix("a.hprof: ");
+        prefixed.row(prefixed.table("Test", "COUNT", "VALUE"), "v", 1L);
+        prefixed.close();
+        sink.row(sink.table("Test", "COUNT", "VALUE"), "w", 2L);
+
+        Assert.assertEquals(Arrays.asList("a.hprof: Test[COUNT, VALUE]", "Test[COUNT, VALUE]"), sink.tables);
+        Assert.assertEquals(Arrays.asList("0:[1]:v", "1:[2]:w"), sink.rows);
+    }
+
+}